@@ -0,0 +1,207 @@
+package org.homelinux.rjlee.news;
+
+import org.homelinux.rjlee.news.elements.ArticleFragment;
+import org.homelinux.rjlee.news.latex.LengthCalculator;
+import org.homelinux.rjlee.news.logging.Logger;
+import org.homelinux.rjlee.news.rendered.Col;
+import org.homelinux.rjlee.news.rendered.ColumnarPage;
+import org.homelinux.rjlee.news.rendered.Page;
+import org.homelinux.rjlee.news.settings.Settings;
+
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Lay out the newspaper several ways at once, for {@code bestOfLayout}, and keep the best layout.
+ * <p>
+ * The candidates plan their pages by each column strategy, with the number of columns per page that strategy plans,
+ * one fewer and one more; candidates that plan the same pages are only laid out once. Each candidate reads the inputs
+ * afresh, so it splits articles of its own, but they share the length calculator: the first candidate measures the
+ * inputs, and the rest find their lengths in the cache. The candidates are then laid out in parallel.
+ * <p>
+ * The best layout has the fewest pages; then the fewest splits of articles, across columns or pages; then the least
+ * empty space in its columns. A tie goes to the earlier candidate, the first being the one the settings describe, so
+ * the choice never depends on which candidate finishes first.
+ *
+ * @author Robert
+ */
+public class BestOfLayout implements NewspaperLayout {
+    /**
+     * Columns to add to the number planned for each page, for each column strategy, in order of preference.
+     */
+    private static final int[] COLS_PER_PAGE_DELTAS = {0, -1, 1};
+
+    private final Settings settings;
+    private final Logger logger;
+    private final LengthCalculator lengthCalculator;
+    /**
+     * Set if the length calculator is kept for later layouts, so it's only reset, not closed, once this is laid out.
+     */
+    private final boolean sharedLengthCalculator;
+    private final List<NewspaperLayoutImpl> candidates = new ArrayList<>();
+    private final List<String> descriptions = new ArrayList<>();
+    private NewspaperLayoutImpl best;
+
+    /**
+     * Read in what to lay out, once for each candidate.
+     *
+     * @param lengthCalculator from {@link NewspaperLayoutImpl#createLengthCalculator(Settings)}; or null to create one
+     *                         just for this layout.
+     */
+    public BestOfLayout(Settings settings, Logger logger, Path[] dirs, LengthCalculator lengthCalculator) {
+        this.settings = settings;
+        this.logger = logger;
+        this.sharedLengthCalculator = lengthCalculator != null;
+        this.lengthCalculator = sharedLengthCalculator ? lengthCalculator : NewspaperLayoutImpl.createLengthCalculator(settings);
+        List<Settings.ColumnStrategy> strategies = new ArrayList<>(Arrays.asList(Settings.ColumnStrategy.values()));
+        strategies.remove(settings.getColumnStrategy());
+        strategies.add(0, settings.getColumnStrategy());
+        Set<List<Long>> plans = new HashSet<>();
+        for (Settings.ColumnStrategy strategy : strategies) {
+            for (int delta : COLS_PER_PAGE_DELTAS) {
+                NewspaperLayoutImpl candidate = new NewspaperLayoutImpl(settings, logger, dirs, this.lengthCalculator, strategy, delta);
+                String description = String.format("%s with %d columns per page", strategy, candidate.getColsPerPage());
+                if (plans.add(plan(candidate))) {
+                    candidates.add(candidate);
+                    descriptions.add(description);
+                } else {
+                    logger.algorithm().println("Not laying out " + description + "; its pages are planned as another's");
+                }
+            }
+        }
+        best = candidates.get(0);
+    }
+
+    /**
+     * @return the number of columns on a typical page, and on each page, which determine the layout
+     */
+    private static List<Long> plan(NewspaperLayoutImpl candidate) {
+        List<Long> plan = new ArrayList<>();
+        plan.add((long) candidate.getColsPerPage());
+        candidate.getPages().stream()
+                .filter(ColumnarPage.class::isInstance)
+                .map(p -> ((ColumnarPage) p).numCols())
+                .forEach(plan::add);
+        return plan;
+    }
+
+    @Override
+    public void layOutNewspaper() {
+        logger.algorithm().printf("Laying out %d candidates%n", candidates.size());
+        List<Callable<Score>> tasks = candidates.stream()
+                .<Callable<Score>>map(candidate -> () -> {
+                    candidate.layOutNewspaper();
+                    return Score.of(candidate);
+                })
+                .collect(Collectors.toList());
+        ForkJoinPool pool = new ForkJoinPool(Math.min(tasks.size(), Runtime.getRuntime().availableProcessors()));
+        try {
+            List<Future<Score>> scores = pool.invokeAll(tasks);
+            Score bestScore = null;
+            RuntimeException failure = null;
+            for (int i = 0; i < scores.size(); i++) {
+                Score score;
+                try {
+                    score = scores.get(i).get();
+                } catch (ExecutionException e) {
+                    logger.algorithm().println("Failed to lay out " + descriptions.get(i) + ": " + e.getCause());
+                    if (failure == null)
+                        failure = e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : new RuntimeException(e.getCause());
+                    continue;
+                }
+                logger.algorithm().printf("Laid out %s: %s%n", descriptions.get(i), score);
+                if (bestScore == null || score.compareTo(bestScore) < 0) {
+                    bestScore = score;
+                    best = candidates.get(i);
+                }
+            }
+            if (bestScore == null) throw Objects.requireNonNull(failure);
+            logger.elements().println("Keeping the layout of " + descriptions.get(candidates.indexOf(best)) + ": " + bestScore);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while laying out the candidates", e);
+        } finally {
+            pool.shutdown();
+            if (sharedLengthCalculator) lengthCalculator.reset();
+            else lengthCalculator.close();
+        }
+    }
+
+    @Override
+    public void validate() {
+        best.validate();
+    }
+
+    @Override
+    public Stream<String> preambleLines() {
+        return best.preambleLines();
+    }
+
+    @Override
+    public Settings getSettings() {
+        return settings;
+    }
+
+    @Override
+    public List<Page> getPages() {
+        return best.getPages();
+    }
+
+    @Override
+    public String toString() {
+        return best.toString();
+    }
+
+    /**
+     * How good a layout is; the lower the better.
+     */
+    static final class Score implements Comparable<Score> {
+        private final int pages;
+        private final int splits;
+        private final double emptyColumnInches;
+
+        Score(int pages, int splits, double emptyColumnInches) {
+            this.pages = pages;
+            this.splits = splits;
+            this.emptyColumnInches = emptyColumnInches;
+        }
+
+        static Score of(LaidOut layout) {
+            List<Col> columns = layout.getPages().stream()
+                    .filter(ColumnarPage.class::isInstance)
+                    .flatMap(p -> ((ColumnarPage) p).getColumns().stream())
+                    .collect(Collectors.toList());
+            List<ArticleFragment> fragments = columns.stream()
+                    .flatMap(c -> c.getFrags().stream())
+                    .map(Col.ColFragment::getPart)
+                    .filter(ArticleFragment.class::isInstance)
+                    .map(ArticleFragment.class::cast)
+                    .collect(Collectors.toList());
+            Set<Object> articles = Collections.newSetFromMap(new IdentityHashMap<>());
+            fragments.forEach(f -> articles.add(f.getArticle()));
+            double empty = columns.stream()
+                    .flatMap(Col::empty)
+                    .mapToDouble(Col.ColFragment::height)
+                    .sum();
+            return new Score(layout.getPages().size(), fragments.size() - articles.size(), empty);
+        }
+
+        @Override
+        public int compareTo(Score o) {
+            if (pages != o.pages) return Integer.compare(pages, o.pages);
+            if (splits != o.splits) return Integer.compare(splits, o.splits);
+            return Double.compare(emptyColumnInches, o.emptyColumnInches);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d pages, %d splits, %f empty column inches", pages, splits, emptyColumnInches);
+        }
+    }
+}
@@ -6,17 +6,21 @@ import java.nio.file.Path;
 import java.util.Arrays;
 
 /**
- * Parse command-line options. Currently, we expect only directories, as everything else is in a settings file.
+ * Parse command-line options. Currently, we expect only directories, as everything else is in a settings file, and
+ * {@code --watch} to keep laying out the newspaper again as the inputs change.
  *
  * @author Robert
  */
 public class CmdLineOptions {
 
+    static final String WATCH = "--watch";
+
     private Path[] inputDirectories;
+    private boolean watch;
 
     public CmdLineOptions(PrintStream stdOut, String... args) {
-        this(stdOut, Arrays.stream(args).map(FileSystems.getDefault()::getPath).toArray(Path[]::new));
-
+        this(stdOut, Arrays.stream(args).filter(a -> !WATCH.equals(a)).map(FileSystems.getDefault()::getPath).toArray(Path[]::new));
+        this.watch = Arrays.asList(args).contains(WATCH);
     }
 
     public CmdLineOptions(PrintStream stdOut, Path... inputDirectories) {
@@ -24,11 +28,18 @@ public class CmdLineOptions {
         // NB: This goes to stdout directly, as we haven't set up the logger yet (the settings files are needed
         // for that)
         if (inputDirectories.length == 0)
-            stdOut.println("Usage: java -jar layout.jar <srcdir1> [ <srdir2> ... ]");
+            stdOut.println("Usage: java -jar layout.jar [ " + WATCH + " ] <srcdir1> [ <srdir2> ... ]");
 
     }
 
     public Path[] getInputDirectories() {
         return inputDirectories;
     }
+
+    /**
+     * @return true to keep running, and lay out the newspaper again whenever an input changes.
+     */
+    public boolean isWatch() {
+        return watch;
+    }
 }
@@ -26,9 +26,16 @@ class ColumnCalculator {
      * @return calculation results
      */
     static ColumnCalculator calculateColumnsPerPage(Settings settings, double columnInches, double columnHeight, long maxColsPerPage) {
+        return calculateColumnsPerPage(settings.getColumnStrategy(), columnInches, columnHeight, maxColsPerPage);
+    }
+
+    /**
+     * @param columnStrategy how to spread the columns over the pages, in place of the one in the settings
+     */
+    static ColumnCalculator calculateColumnsPerPage(Settings.ColumnStrategy columnStrategy, double columnInches, double columnHeight, long maxColsPerPage) {
 
         long totalColumns = Math.round((columnInches / columnHeight) + 0.5); // round up // C
-        switch (settings.getColumnStrategy()) {
+        switch (columnStrategy) {
             default:
             case BALANCE: {
                 long numPages = Math.round(((double) totalColumns / maxColsPerPage) + 0.5); // round up // P
@@ -44,6 +51,15 @@ class ColumnCalculator {
     }
 
 
+    /**
+     * @param colsPerPage columns on each page but the last
+     * @return the same columns, spread over as many pages as that takes
+     */
+    ColumnCalculator withColsPerPage(int colsPerPage) {
+        long numPages = (totalColumns + colsPerPage - 1) / colsPerPage;
+        return new ColumnCalculator(totalColumns, numPages, colsPerPage);
+    }
+
     /**
      * @return total number of columns across all pages
      */
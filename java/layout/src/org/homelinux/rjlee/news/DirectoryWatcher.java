@@ -0,0 +1,70 @@
+package org.homelinux.rjlee.news;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+/**
+ * Watch the input directories for changes, for {@code --watch}.
+ * <p>
+ * Changes come in bursts (saving a file may write, rename and delete several), so once a file has changed, this waits
+ * until nothing more has changed for a while before reporting the changes together.
+ *
+ * @author Robert
+ */
+class DirectoryWatcher implements AutoCloseable {
+    private final WatchService watchService;
+    private final Map<WatchKey, Path> directories = new HashMap<>();
+    private final long quietMillis;
+
+    /**
+     * @param quietMillis how long to wait for further changes, in milliseconds
+     */
+    DirectoryWatcher(Path[] directories, long quietMillis) throws IOException {
+        this.watchService = FileSystems.getDefault().newWatchService();
+        this.quietMillis = quietMillis;
+        for (Path dir : directories)
+            this.directories.put(dir.register(watchService, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE), dir);
+    }
+
+    /**
+     * Wait for a relevant file to change, and then for the changes to stop.
+     *
+     * @param relevant which files to report
+     * @return the files that changed; a directory itself if some of its changes were lost.
+     */
+    Set<Path> awaitChanges(Predicate<Path> relevant) throws InterruptedException {
+        Set<Path> changed = new LinkedHashSet<>();
+        WatchKey key = watchService.take();
+        while (true) {
+            collect(key, relevant, changed);
+            key = changed.isEmpty() ? watchService.take() : watchService.poll(quietMillis, TimeUnit.MILLISECONDS);
+            if (key == null) return changed;
+        }
+    }
+
+    private void collect(WatchKey key, Predicate<Path> relevant, Set<Path> changed) {
+        Path dir = directories.get(key);
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == OVERFLOW) {
+                changed.add(dir);
+                continue;
+            }
+            Path path = dir.resolve((Path) event.context());
+            if (relevant.test(path)) changed.add(path);
+        }
+        key.reset();
+    }
+
+    @Override
+    public void close() throws IOException {
+        watchService.close();
+    }
+}
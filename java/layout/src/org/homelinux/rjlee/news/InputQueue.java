@@ -0,0 +1,189 @@
+package org.homelinux.rjlee.news;
+
+import org.homelinux.rjlee.news.input.Headers;
+import org.homelinux.rjlee.news.input.Input;
+import org.homelinux.rjlee.news.input.Truck;
+
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * The inputs still to be laid out, in the order they're to be laid out in.
+ * <p>
+ * Each input is numbered by its place in the queue: numbers go up from the back and down from the front, so adding to
+ * either end doesn't move anything else. Besides the whole queue, the inputs are kept in lanes, so that a page only
+ * looks at the inputs it may take: those with no {@code Page} header; those whose {@code Page} header is positive,
+ * in buckets by the first page they may go on; those whose header is negative, in buckets by how many pages from the
+ * end they may go on; and trucks, which are only ever taken from the front of the queue.
+ *
+ * @author Robert
+ */
+class InputQueue {
+    /**
+     * Every input, by its place in the queue.
+     */
+    private final NavigableMap<Long, Input> all = new TreeMap<>();
+    private final Map<Input, Long> places = new IdentityHashMap<>();
+    /**
+     * The {@code Page} header of each input that has one.
+     */
+    private final Map<Input, Long> minPages = new IdentityHashMap<>();
+    private final NavigableMap<Long, Input> unconstrained = new TreeMap<>();
+    /**
+     * Inputs with a positive {@code Page} header, by that page, then by place.
+     */
+    private final NavigableMap<Long, NavigableMap<Long, Input>> fromStart = new TreeMap<>();
+    /**
+     * Inputs with a negative {@code Page} header, by that page (counting back from the end), then by place.
+     */
+    private final NavigableMap<Long, NavigableMap<Long, Input>> fromEnd = new TreeMap<>();
+    private final NavigableMap<Long, Input> trucks = new TreeMap<>();
+    private long front = 0;
+    private long back = 0;
+    /**
+     * Place of the input last taken by {@link #pollEligible}.
+     */
+    private long lastTaken;
+
+    void add(Input input) {
+        put(back++, input);
+    }
+
+    void addAll(Collection<? extends Input> inputs) {
+        inputs.forEach(this::add);
+    }
+
+    void addFirst(Input input) {
+        put(--front, input);
+    }
+
+    /**
+     * Put the inputs at the front of the queue, in the order given.
+     */
+    void addAllFirst(List<? extends Input> inputs) {
+        for (int i = inputs.size() - 1; i >= 0; i--) addFirst(inputs.get(i));
+    }
+
+    private void put(long place, Input input) {
+        all.put(place, input);
+        places.put(input, place);
+        if (input instanceof Truck) {
+            trucks.put(place, input);
+            return;
+        }
+        Headers headers = input.getHeaders();
+        long minPage = headers == null ? 0 : headers.getIntegerHeader("Page", Integer.MIN_VALUE, Integer.MAX_VALUE, 0);
+        if (minPage == 0) {
+            unconstrained.put(place, input);
+        } else {
+            minPages.put(input, minPage);
+            (minPage > 0 ? fromStart : fromEnd).computeIfAbsent(minPage, p -> new TreeMap<>()).put(place, input);
+        }
+    }
+
+    private void remove(Input input) {
+        long place = places.remove(input);
+        all.remove(place);
+        Long minPage = minPages.remove(input);
+        if (minPage == null) {
+            (input instanceof Truck ? trucks : unconstrained).remove(place);
+            return;
+        }
+        NavigableMap<Long, NavigableMap<Long, Input>> buckets = minPage > 0 ? fromStart : fromEnd;
+        NavigableMap<Long, Input> bucket = buckets.get(minPage);
+        bucket.remove(place);
+        if (bucket.isEmpty()) buckets.remove(minPage);
+    }
+
+    /**
+     * @return true if any input's {@code Page} header counts back from the last page
+     */
+    boolean anyFromEnd() {
+        return !fromEnd.isEmpty();
+    }
+
+    boolean isEmpty() {
+        return all.isEmpty();
+    }
+
+    int size() {
+        return all.size();
+    }
+
+    void clear() {
+        all.clear();
+        places.clear();
+        minPages.clear();
+        unconstrained.clear();
+        fromStart.clear();
+        fromEnd.clear();
+        trucks.clear();
+    }
+
+    /**
+     * @return the input at the front of the queue; or null if it's empty
+     */
+    Input peek() {
+        return all.isEmpty() ? null : all.firstEntry().getValue();
+    }
+
+    /**
+     * @return the input at the front of the queue, which is taken out of it; or null if it's empty
+     */
+    Input poll() {
+        Input first = peek();
+        if (first != null) remove(first);
+        return first;
+    }
+
+    /**
+     * Take the first input that may go on the page: not a truck, and with any {@code Page} header allowing it.
+     *
+     * @param pageNo     number of the page, from 1
+     * @param pagesToEnd number of the page counting back from the last, from -1 for the last
+     * @return the input; or null if there's none
+     */
+    Input pollEligible(long pageNo, long pagesToEnd) {
+        Map.Entry<Long, Input> first = unconstrained.firstEntry();
+        for (NavigableMap<Long, Input> bucket : fromStart.headMap(pageNo, true).values())
+            first = earlier(first, bucket.firstEntry());
+        for (NavigableMap<Long, Input> bucket : fromEnd.headMap(pagesToEnd, true).values())
+            first = earlier(first, bucket.firstEntry());
+        if (first == null) return null;
+        lastTaken = first.getKey();
+        remove(first.getValue());
+        return first.getValue();
+    }
+
+    private static Map.Entry<Long, Input> earlier(Map.Entry<Long, Input> a, Map.Entry<Long, Input> b) {
+        return a == null || b.getKey() < a.getKey() ? b : a;
+    }
+
+    /**
+     * @return the number of inputs still in the queue ahead of the one last taken by {@link #pollEligible}, which were
+     * passed over for it
+     */
+    int passedOver() {
+        return all.headMap(lastTaken, false).size();
+    }
+
+    /**
+     * @return the inputs, in order
+     */
+    Stream<Input> stream() {
+        return all.values().stream();
+    }
+
+    /**
+     * @return a copy of the inputs, in order
+     */
+    List<Input> toList() {
+        return stream().collect(Collectors.toList());
+    }
+
+    @Override
+    public String toString() {
+        return all.values().toString();
+    }
+}
@@ -2,10 +2,18 @@ package org.homelinux.rjlee.news;
 
 import org.homelinux.rjlee.news.latex.FileCache;
 import org.homelinux.rjlee.news.latex.LatexProcessFactory;
+import org.homelinux.rjlee.news.latex.LengthCalculator;
+import org.homelinux.rjlee.news.latex.LengthModel;
 import org.homelinux.rjlee.news.latex.NewspaperToLatexImpl;
 import org.homelinux.rjlee.news.logging.Logger;
 import org.homelinux.rjlee.news.settings.Settings;
 
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Set;
+
 /**
  * Main method to invoke the newspaper layout algorithm.
  * <p>
@@ -15,6 +23,11 @@ import org.homelinux.rjlee.news.settings.Settings;
  * @author Robert Lee
  */
 public class Layout implements Runnable{
+    /**
+     * How long to wait for the inputs to stop changing before laying out the newspaper again, in watch mode.
+     */
+    private static final long WATCH_QUIET_MILLIS = 500;
+    private static final String SETTINGS_FILE = "settings.properties";
 
     private String[] cmdLine;
     private Logger logger;
@@ -44,8 +57,21 @@ public class Layout implements Runnable{
         logger.configure(settings, System.out, System.err);
 
         FileCache.getInstance().init(settings);
-        NewspaperLayout layout = createEmptyLayout(settings, cmdLineOptions);
+        LengthModel.getInstance().init(settings);
+        if (cmdLineOptions.isWatch()) {
+            watch(settings, cmdLineOptions);
+        } else {
+            build(settings, createEmptyLayout(settings, cmdLineOptions));
+        }
+
+        // Flush any remaining logs
+        logger.close();
+    }
 
+    /**
+     * Lay out the newspaper, and output it.
+     */
+    private void build(Settings settings, NewspaperLayout layout) {
         layout.layOutNewspaper();
 
         layout.validate();
@@ -55,15 +81,103 @@ public class Layout implements Runnable{
         newspaperToLatex.handleFinalOutput(layout);
 
         FileCache.getInstance().save();
+        LengthModel.getInstance().save();
+    }
 
-        // Flush any remaining logs
-        logger.close();
+    /**
+     * Build the newspaper, then again whenever an input changes, until interrupted.
+     * <p>
+     * The length calculator is kept between builds, along with the caches and any resident LaTeX processes, so only
+     * the articles that have changed are measured again. So is the layout, so the pages before the first one that
+     * changes are kept. If the settings change, everything is started afresh.
+     */
+    private void watch(Settings settings, CmdLineOptions cmdLineOptions) {
+        Path[] dirs = cmdLineOptions.getInputDirectories();
+        LengthCalculator lengthCalculator = NewspaperLayoutImpl.createLengthCalculator(settings);
+        try (DirectoryWatcher watcher = new DirectoryWatcher(dirs, WATCH_QUIET_MILLIS)) {
+            LayoutSnapshot previous = null;
+            while (true) {
+                try {
+                    NewspaperLayout layout = createEmptyLayout(settings, cmdLineOptions, lengthCalculator);
+                    if (layout instanceof NewspaperLayoutImpl) ((NewspaperLayoutImpl) layout).layOutIncrementally(previous);
+                    previous = null;
+                    build(settings, layout);
+                    if (layout instanceof NewspaperLayoutImpl) previous = ((NewspaperLayoutImpl) layout).getSnapshot();
+                } catch (RuntimeException e) {
+                    PrintWriter quiet = logger.quiet();
+                    quiet.println("Layout failed: " + e.getMessage());
+                    e.printStackTrace(quiet);
+                }
+                logger.quiet().println("Waiting for changes to " + Arrays.toString(dirs));
+                logger.quiet().flush();
+                Settings current = settings;
+                Set<Path> changed = watcher.awaitChanges(path -> isWatched(current, path));
+                logger.elements().println("Changed: " + changed);
+                if (changed.stream().anyMatch(path -> path.endsWith(SETTINGS_FILE))) {
+                    Settings reloaded = reloadSettings(cmdLineOptions);
+                    if (reloaded != null) {
+                        lengthCalculator.close();
+                        settings = reloaded;
+                        logger.configure(settings, System.out, System.err);
+                        FileCache.getInstance().init(settings);
+                        LengthModel.getInstance().init(settings);
+                        lengthCalculator = NewspaperLayoutImpl.createLengthCalculator(settings);
+                        previous = null;
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            PrintWriter quiet = logger.quiet();
+            quiet.println("Failed to watch for changes: " + e.getMessage());
+            e.printStackTrace(quiet);
+        } finally {
+            lengthCalculator.close();
+        }
+    }
+
+    /**
+     * @return the settings read again, or null (having logged why) if they can't be read, to carry on with the
+     * settings as they were.
+     */
+    private Settings reloadSettings(CmdLineOptions cmdLineOptions) {
+        try {
+            return Settings.build(cmdLineOptions, status -> {
+            }); // a file that can't be read is reported, and gives null
+        } catch (RuntimeException e) {
+            PrintWriter quiet = logger.quiet();
+            quiet.println("Failed to reload settings; keeping the old ones: " + e.getMessage());
+            e.printStackTrace(quiet);
+            return null;
+        }
+    }
+
+    /**
+     * @return false for changes that can't affect the newspaper: those to its own output, and editors' backup and
+     * swap files.
+     */
+    static boolean isWatched(Settings settings, Path path) {
+        String name = path.getFileName().toString();
+        if (name.startsWith(".") || name.endsWith("~") || name.endsWith(".swp") || name.startsWith("#")) return false;
+        return !path.toAbsolutePath().normalize().startsWith(settings.getOut().toAbsolutePath().normalize());
     }
 
     protected NewspaperLayout createEmptyLayout(Settings settings, CmdLineOptions cmdLineOptions) {
+        if (settings.isBestOfLayout())
+            return new BestOfLayout(settings, Logger.getInstance(), cmdLineOptions.getInputDirectories(), null);
         return new NewspaperLayoutImpl(settings, Logger.getInstance(), cmdLineOptions.getInputDirectories());
     }
 
+    /**
+     * @param lengthCalculator kept between layouts
+     */
+    protected NewspaperLayout createEmptyLayout(Settings settings, CmdLineOptions cmdLineOptions, LengthCalculator lengthCalculator) {
+        if (settings.isBestOfLayout())
+            return new BestOfLayout(settings, Logger.getInstance(), cmdLineOptions.getInputDirectories(), lengthCalculator);
+        return new NewspaperLayoutImpl(settings, Logger.getInstance(), cmdLineOptions.getInputDirectories(), lengthCalculator);
+    }
+
     public String[] getCmdLine() {
         return cmdLine;
     }
@@ -0,0 +1,222 @@
+package org.homelinux.rjlee.news;
+
+import org.homelinux.rjlee.news.elements.Overflow;
+import org.homelinux.rjlee.news.elements.Part;
+import org.homelinux.rjlee.news.input.Input;
+import org.homelinux.rjlee.news.rendered.Page;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * The state of a layout at the start of each page it laid out, so that the next layout of the same newspaper (in
+ * {@code --watch} mode) can keep the pages that haven't changed.
+ * <p>
+ * The state is the queue of inputs still to be laid out, each identified by a fingerprint of its file, type and size,
+ * and any article overflowing onto the page. Laying out a page only looks at the front of the queue, so each page
+ * records how many inputs it looked at: while those are the same, the page would be laid out just the same again.
+ *
+ * @author Robert
+ */
+class LayoutSnapshot {
+    private final String settingsKey;
+    /**
+     * Columns of each page, as planned before the layout started.
+     */
+    private final List<Long> plan;
+    private final List<Boundary> boundaries = new ArrayList<>();
+    private List<Page> pages;
+
+    LayoutSnapshot(String settingsKey, List<Long> plan) {
+        this.settingsKey = settingsKey;
+        this.plan = plan;
+    }
+
+    /**
+     * @return a fingerprint of the input, which changes if it would be laid out differently
+     */
+    static String fingerprint(Input input) {
+        String content;
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            content = input.path() == null ? "" : Base64.getEncoder().encodeToString(md.digest(Files.readAllBytes(input.path())));
+        } catch (IOException e) {
+            content = UUID.randomUUID().toString(); // never the same as before
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e); // every JVM supports SHA-256
+        }
+        String size = input instanceof Part
+                ? String.format("%s;%sx%s", input.area(), ((Part) input).width(), ((Part) input).height())
+                : Double.toString(input.area());
+        return String.join(";", input.getClass().getName(), String.valueOf(input.path()), content, size);
+    }
+
+    /**
+     * Record the state at the start of a page.
+     *
+     * @param pageIndex index of the page in the layout, counting trucks
+     * @param queue     fingerprints of the inputs still to be laid out
+     * @param overflow  from the page before, if any
+     * @return to record how much of the queue the page looks at
+     */
+    Boundary record(int pageIndex, List<String> queue, Overflow overflow) {
+        Boundary boundary = new Boundary(pageIndex, queue, overflow);
+        boundaries.add(boundary);
+        return boundary;
+    }
+
+    /**
+     * @return the number of pages with columns recorded
+     */
+    int size() {
+        return boundaries.size();
+    }
+
+    /**
+     * Record the pages, once the layout is complete.
+     */
+    void complete(List<Page> pages) {
+        this.pages = new ArrayList<>(pages);
+    }
+
+    boolean isComplete() {
+        return pages != null;
+    }
+
+    List<Page> getPages() {
+        return pages;
+    }
+
+    /**
+     * Work out how many pages of this layout would be laid out the same from the next layout's inputs: those before
+     * the first page to look at an input that's changed, or moved in the queue. Those up to the last page boundary
+     * among them are carried over to the next layout, along with their state, and any overflowing article is
+     * returned to the state it was in at that boundary.
+     *
+     * @param next        snapshot of the next layout, which is given the boundaries carried over
+     * @param inputs      of the next layout; replaced by those still to be laid out after the pages carried over
+     * @param fingerprint of each of the next layout's inputs
+     * @return the boundary to carry on from, if any pages can be carried over
+     */
+    Optional<Boundary> carryOver(LayoutSnapshot next, List<Input> inputs, Function<Input, String> fingerprint) {
+        if (!isComplete() || !settingsKey.equals(next.settingsKey) || plan.size() != next.plan.size())
+            return Optional.empty();
+        List<Input> queue = new ArrayList<>(inputs);
+        int kept = 0;
+        List<Input> keptQueue = queue;
+        for (int j = 0; j < boundaries.size(); j++) {
+            Boundary b = boundaries.get(j);
+            kept = j;
+            keptQueue = queue;
+            if (!plan.get(j).equals(next.plan.get(j))) break;
+            List<String> fingerprints = queue.stream().map(fingerprint).collect(Collectors.toList());
+            int examined = Math.min(b.examined, b.queue.size());
+            if (fingerprints.size() < examined || !fingerprints.subList(0, examined).equals(b.queue.subList(0, examined)))
+                break;
+            if (examined == b.queue.size() && fingerprints.size() != examined) break; // the page looked at the whole queue
+            if (j + 1 == boundaries.size()) break;
+            // the page leaves what it didn't look at as it was, and puts back some of what it did:
+            Boundary after = boundaries.get(j + 1);
+            Map<String, Input> looked = new HashMap<>();
+            for (int i = 0; i < examined; i++) looked.put(fingerprints.get(i), queue.get(i));
+            List<Input> nextQueue = new ArrayList<>();
+            for (String f : after.queue.subList(0, after.queue.size() - (b.queue.size() - examined)))
+                nextQueue.add(Objects.requireNonNull(looked.get(f), f));
+            nextQueue.addAll(queue.subList(examined, queue.size()));
+            queue = nextQueue;
+        }
+        if (kept == 0) return Optional.empty();
+        Boundary boundary = boundaries.get(kept);
+        next.boundaries.addAll(boundaries.subList(0, kept));
+        inputs.clear();
+        inputs.addAll(keptQueue);
+        if (boundary.overflow != null)
+            boundary.overflow.getArticle().rewindTo(boundary.overflow, boundary.fragments);
+        return Optional.of(boundary);
+    }
+
+    /**
+     * Go back to the state at the start of a page, to lay it out again along with those after it. Any overflowing
+     * article is returned to the state it was in then, and the boundaries from there on are forgotten.
+     *
+     * @param pageIndex index of the page to lay out again, counting trucks
+     * @return the boundary to carry on from: the last one at or before the page; or empty if there's none.
+     */
+    Optional<Boundary> rewind(int pageIndex) {
+        int j = boundaries.size();
+        while (j > 0 && boundaries.get(j - 1).pageIndex > pageIndex) j--;
+        if (j == 0) return Optional.empty();
+        Boundary boundary = boundaries.get(j - 1);
+        boundaries.subList(j - 1, boundaries.size()).clear();
+        pages = null;
+        if (boundary.overflow != null)
+            boundary.overflow.getArticle().rewindTo(boundary.overflow, boundary.fragments);
+        return Optional.of(boundary);
+    }
+
+    /**
+     * Check whether the next layout is back in the same state as this one, at the start of a page with nothing
+     * overflowing onto it; from there on, its pages would be the same as this one's.
+     *
+     * @param next  snapshot of the next layout, which is given the rest of the boundaries if so
+     * @param queue fingerprints of the next layout's inputs still to be laid out
+     * @return the rest of this layout's pages, from there; or empty if the states differ.
+     */
+    Optional<List<Page>> converge(LayoutSnapshot next, int pageIndex, List<String> queue, Overflow overflow) {
+        int j = next.boundaries.size();
+        if (!isComplete() || overflow != null || j >= boundaries.size() || !settingsKey.equals(next.settingsKey))
+            return Optional.empty();
+        Boundary b = boundaries.get(j);
+        if (b.pageIndex != pageIndex || b.overflow != null || !b.queue.equals(queue)
+                || !plan.subList(j, plan.size()).equals(next.plan.subList(j, next.plan.size())))
+            return Optional.empty();
+        next.boundaries.addAll(boundaries.subList(j, boundaries.size()));
+        return Optional.of(pages.subList(pageIndex, pages.size()));
+    }
+
+    /**
+     * The state at the start of a page.
+     */
+    static final class Boundary {
+        private final int pageIndex;
+        private final List<String> queue;
+        private final Overflow overflow;
+        private final int fragments;
+        private int examined;
+
+        private Boundary(int pageIndex, List<String> queue, Overflow overflow) {
+            this.pageIndex = pageIndex;
+            this.queue = queue;
+            this.overflow = overflow;
+            this.fragments = overflow == null ? 0 : overflow.getArticle().getFragments().size();
+        }
+
+        int getPageIndex() {
+            return pageIndex;
+        }
+
+        Overflow getOverflow() {
+            return overflow;
+        }
+
+        /**
+         * @param input for each fingerprint
+         * @return the inputs still to be laid out at the start of the page
+         */
+        List<Input> queue(Function<String, Input> input) {
+            return queue.stream().map(input).collect(Collectors.toList());
+        }
+
+        /**
+         * @param examined how many inputs at the front of the queue the page looked at
+         */
+        void setExamined(int examined) {
+            this.examined = examined;
+        }
+    }
+}
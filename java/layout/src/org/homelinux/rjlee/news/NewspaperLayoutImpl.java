@@ -2,9 +2,17 @@ package org.homelinux.rjlee.news;
 
 import org.homelinux.rjlee.news.elements.*;
 import org.homelinux.rjlee.news.input.*;
+import org.homelinux.rjlee.news.latex.BatchLengthCalculator;
+import org.homelinux.rjlee.news.latex.BreakProfileLengthCalculator;
+import org.homelinux.rjlee.news.latex.ChunkedLengthCalculator;
+import org.homelinux.rjlee.news.latex.DraftLengthCalculator;
+import org.homelinux.rjlee.news.latex.EstimatingLengthCalculator;
 import org.homelinux.rjlee.news.latex.FileCachingLengthCalculator;
 import org.homelinux.rjlee.news.latex.LaTeXLengthCalculator;
 import org.homelinux.rjlee.news.latex.LengthCalculator;
+import org.homelinux.rjlee.news.latex.LengthModel;
+import org.homelinux.rjlee.news.latex.MeasurementExecutor;
+import org.homelinux.rjlee.news.latex.ResidentLaTeXLengthCalculator;
 import org.homelinux.rjlee.news.layout.Magnet;
 import org.homelinux.rjlee.news.logging.Logger;
 import org.homelinux.rjlee.news.partial.FixedElementsRelativeLayout;
@@ -18,6 +26,9 @@ import java.io.PrintWriter;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -32,7 +43,7 @@ public class NewspaperLayoutImpl implements NewspaperLayout {
     /**
      * The number of columns on a typical page
      */
-    private final int colsPerPage;
+    private int colsPerPage;
     private final Logger logger;
     /**
      * The settings as determined by settings.properties files.
@@ -49,7 +60,7 @@ public class NewspaperLayoutImpl implements NewspaperLayout {
     /**
      * Input documents still to be processed
      */
-    private final List<Input> inputs = new ArrayList<>();
+    private final InputQueue inputs = new InputQueue();
     /**
      * Combined preamble
      */
@@ -59,6 +70,61 @@ public class NewspaperLayoutImpl implements NewspaperLayout {
      */
     private final List<Page> pages = new ArrayList<>();
 
+    /**
+     * Measures the inputs; held until layout is complete, as articles are re-measured when split.
+     */
+    private LengthCalculator lengthCalculator;
+    /**
+     * Set if the length calculator is kept for later layouts, so it's only reset, not closed, once this is laid out.
+     */
+    private boolean sharedLengthCalculator;
+    /**
+     * Set if this is one of the layouts compared by {@link BestOfLayout}, which share the length calculator while
+     * they're laid out, so it's left for that to reset or close.
+     */
+    private final boolean candidate;
+    /**
+     * How to spread the columns over the pages.
+     */
+    private final Settings.ColumnStrategy columnStrategy;
+    /**
+     * Columns to add to the number planned for each page; or, if negative, to take away.
+     */
+    private final int colsPerPageDelta;
+    /**
+     * Set if lengths are estimated while the articles are measured in the background.
+     */
+    private EstimatingLengthCalculator estimator;
+    /**
+     * Set if pages are laid out while the inputs are measured; see {@link #isPipelined()}.
+     */
+    private MeasurementExecutor pipeline;
+    /**
+     * Set if any input's {@code Page} header counts back from the last page, which isn't known in the pipeline.
+     */
+    private boolean countsFromEnd;
+    /**
+     * Measurements still running in the pipeline, by input.
+     */
+    private final Map<Input, CompletableFuture<Void>> measurements = new HashMap<>();
+    /**
+     * Set to record a snapshot of the layout for the next one, in watch mode.
+     */
+    private boolean incremental;
+    /**
+     * The last layout of the same newspaper, to keep the pages that haven't changed; null if there's none.
+     */
+    private LayoutSnapshot previous;
+    /**
+     * The state at the start of each page, for the next layout; null if it can't be reused.
+     */
+    private LayoutSnapshot snapshot;
+    private final Map<Input, String> fingerprints = new HashMap<>();
+    /**
+     * How many inputs at the front of the queue have been looked at, while laying out the current page.
+     */
+    private int examined;
+
 
     public String toString() {
         return pages.toString();
@@ -69,12 +135,83 @@ public class NewspaperLayoutImpl implements NewspaperLayout {
      * Read in what to lay out, from the filesystem.
      */
     public NewspaperLayoutImpl(final Settings settings, Logger logger, Path[] dirs) {
+        this(settings, logger, dirs, null);
+    }
+
+    /**
+     * Read in what to lay out, measuring it with a length calculator that's kept warm between layouts.
+     *
+     * @param lengthCalculator from {@link #createLengthCalculator(Settings)}; or null to create one just for this
+     *                         layout.
+     */
+    public NewspaperLayoutImpl(final Settings settings, Logger logger, Path[] dirs, LengthCalculator lengthCalculator) {
+        this(settings, logger, dirs, lengthCalculator, settings.getColumnStrategy(), 0, false);
+    }
+
+    /**
+     * Read in what to lay out, as one of the layouts compared by {@link BestOfLayout}.
+     *
+     * @param lengthCalculator shared with the other candidates
+     * @param columnStrategy   how to spread the columns over the pages, in place of the one in the settings
+     * @param colsPerPageDelta columns to add to the number planned for each page; or, if negative, to take away
+     */
+    NewspaperLayoutImpl(final Settings settings, Logger logger, Path[] dirs, LengthCalculator lengthCalculator,
+                        Settings.ColumnStrategy columnStrategy, int colsPerPageDelta) {
+        this(settings, logger, dirs, Objects.requireNonNull(lengthCalculator), columnStrategy, colsPerPageDelta, true);
+    }
+
+    private NewspaperLayoutImpl(final Settings settings, Logger logger, Path[] dirs, LengthCalculator lengthCalculator,
+                                Settings.ColumnStrategy columnStrategy, int colsPerPageDelta, boolean candidate) {
         this.logger = logger;
         this.settings = settings;
+        this.columnStrategy = columnStrategy;
+        this.colsPerPageDelta = colsPerPageDelta;
+        this.candidate = candidate;
+        if (lengthCalculator != null) {
+            this.lengthCalculator = lengthCalculator;
+            this.sharedLengthCalculator = !candidate;
+        } else {
+            this.lengthCalculator = createLengthCalculator(settings);
+        }
+        if (this.lengthCalculator instanceof EstimatingLengthCalculator)
+            estimator = (EstimatingLengthCalculator) this.lengthCalculator;
         readInputs(dirs);
+        if (isPipelined()) {
+            // the rest of the pages are added as they're needed:
+            pages.add(new ColumnarPage(1, colsPerPage, settings));
+        } else {
+            planPages();
+            // the candidates are compared as planned, so they're only laid out once everything's measured:
+            if (estimator != null && candidate && !settleEstimates().isEmpty()) planPages();
+        }
+    }
+
+    /**
+     * @return true to lay out pages while the inputs are still being measured. Only filling each page first allows
+     * that; balancing the columns needs the total length before the first page is laid out. Nor may any input be
+     * placed counting back from the last page, as the pages are only counted once they're laid out.
+     */
+    private boolean isPipelined() {
+        return isPipelined(settings) && !countsFromEnd;
+    }
+
+    private static boolean isPipelined(Settings settings) {
+        return settings.isPipelinedLayout() && settings.getColumnStrategy() == Settings.ColumnStrategy.FILLFIRST
+                && !settings.isBestOfLayout(); // the layouts are compared as planned, once everything's measured
+    }
+
+    /**
+     * Work out the number of columns per page, and create the empty pages.
+     */
+    private void planPages() {
+        pages.clear();
         // calculate the number of columns per page
         double columnInches = inputs.stream().mapToDouble(Input::columnInches).sum();
-        ColumnCalculator columnPageResult = ColumnCalculator.calculateColumnsPerPage(settings, columnInches, settings.getColumnHeight(), settings.getMaxColsPerPage());
+        ColumnCalculator columnPageResult = ColumnCalculator.calculateColumnsPerPage(columnStrategy, columnInches, settings.getColumnHeight(), settings.getMaxColsPerPage());
+        if (colsPerPageDelta != 0) {
+            int cols = (int) Math.max(1, Math.min(settings.getMaxColsPerPage(), columnPageResult.getColsPerPage() + colsPerPageDelta));
+            columnPageResult = columnPageResult.withColsPerPage(cols);
+        }
         colsPerPage = columnPageResult.getColsPerPage(); // c
 
         PrintWriter algorithm = logger.algorithm();
@@ -86,19 +223,103 @@ public class NewspaperLayoutImpl implements NewspaperLayout {
         algorithm.printf("Estimate %f column-inches before current pages are full%n",
                 (columnPageResult.getNumPages() * settings.getMaxColsPerPage() * settings.getColumnHeight()) - columnInches);
 
-        inputs.forEach(i -> i.setNumColumnsOnPage(colsPerPage));
+        inputs.stream().forEach(i -> i.setNumColumnsOnPage(colsPerPage));
+
+        addPages(columnPageResult);
+    }
+
+    /**
+     * Add the pages planned to the end of the layout.
+     */
+    private void addPages(ColumnCalculator plan) {
+        for (int pageNo = 1; pageNo < plan.getNumPages(); pageNo++)
+            pages.add(new ColumnarPage(pages.size() + 1, plan.getColsPerPage(), settings));
+        long lastCols = plan.getTotalColumns() - (long) plan.getColsPerPage() * (plan.getNumPages() - 1);
+        pages.add(new ColumnarPage(pages.size() + 1, lastCols, settings));
+    }
+
+    /**
+     * Wait for the estimated lengths to be measured, and replace the estimates with the measured lengths.
+     *
+     * @return the articles whose estimates were further out than {@link Settings#getReplanTolerance()}
+     */
+    private Set<ArticleText> settleEstimates() {
+        Map<ArticleText, Double> errors = estimator.settle();
+        errors.keySet().forEach(ArticleText::recalculateLength);
+        Set<ArticleText> wrong = errors.entrySet().stream()
+                .filter(e -> e.getValue() > settings.getReplanTolerance())
+                .map(Map.Entry::getKey)
+                .collect(Collectors.toSet());
+        logger.algorithm().printf("%d of %d estimated lengths were out by more than %f in%n", wrong.size(), errors.size(), settings.getReplanTolerance());
+        return wrong;
+    }
 
-        int pageNo;
-        for (pageNo = 1; pageNo < columnPageResult.getNumPages(); pageNo++) {
-            Page p = new ColumnarPage(pageNo, colsPerPage, settings);
-            pages.add(p);
+    /**
+     * Once the estimated lengths have been measured, lay out the pages again from the first to hold an article whose
+     * estimate was too far out, planning the rest of the pages afresh. The pages before it stand.
+     *
+     * @return the number of pages visited laying them out again
+     */
+    private long replan() {
+        Set<ArticleText> wrong = settleEstimates();
+        if (wrong.isEmpty()) return 0;
+        int pageIndex = firstPageHolding(wrong);
+        Optional<LayoutSnapshot.Boundary> boundary = snapshot == null ? Optional.empty() : snapshot.rewind(pageIndex);
+        List<Input> queue;
+        if (boundary.isPresent()) {
+            pageIndex = boundary.get().getPageIndex();
+            queue = boundary.get().queue(byFingerprint());
+            overflow = boundary.get().getOverflow();
+        } else { // the pages were laid out more than once, so there's no telling where they started
+            pageIndex = 0;
+            queue = allInputs;
+            overflow = null;
+            snapshot = null;
         }
-        Page lastPage = new ColumnarPage(pageNo, columnPageResult.getTotalColumns() - ((long) colsPerPage * pages.size()), settings);
-        pages.add(lastPage);
+        for (Input input : queue) {
+            if (input instanceof Article) { // it may have been split on the pages laid out again
+                Article article = (Article) input;
+                article.rewindTo(new Overflow(article, 0.0, 0), 0);
+                article.recalculateLength();
+            }
+        }
+        inputs.clear();
+        inputs.addAll(queue);
+        pages.subList(pageIndex, pages.size()).clear();
+        double columnInches = inputs.stream().mapToDouble(Input::columnInches).sum()
+                + (overflow == null ? 0.0 : overflow.getLength());
+        addPages(ColumnCalculator.calculateColumnsPerPage(columnStrategy, columnInches, settings.getColumnHeight(), settings.getMaxColsPerPage())
+                .withColsPerPage(colsPerPage));
+        logger.algorithm().printf("Planning the pages again from page %d%n", pageIndex + 1);
+        return layOutPages(pageIndex);
+    }
+
+    /**
+     * @return the index of the first page holding any of the articles; or 0 if none does.
+     */
+    private int firstPageHolding(Set<ArticleText> articles) {
+        for (int i = 0; i < pages.size(); i++) {
+            if (!(pages.get(i) instanceof ColumnarPage)) continue;
+            boolean holds = ((ColumnarPage) pages.get(i)).getColumns().stream()
+                    .flatMap(c -> c.getFrags().stream())
+                    .map(Col.ColFragment::getPart)
+                    .map(part -> part instanceof ArticleFragment ? ((ArticleFragment) part).getArticle() : part)
+                    .anyMatch(articles::contains);
+            if (holds) return i;
+        }
+        return 0;
+    }
+
+    /**
+     * @return the inputs, by the fingerprints recorded at the start of each page
+     */
+    private Function<String, Input> byFingerprint() {
+        Map<String, Input> inputs = new HashMap<>();
+        fingerprints.forEach((input, fingerprint) -> inputs.put(fingerprint, input));
+        return inputs::get;
     }
 
     private void readInputs(final Path[] dirs) {
-        LengthCalculator lengthCalculator = new FileCachingLengthCalculator(new LaTeXLengthCalculator());
         Logger logger = Logger.getInstance();
         InputFactory inf = new InputFactory(settings, lengthCalculator, logger);
         List<Input> inputs = Arrays.stream(dirs)
@@ -120,6 +341,27 @@ public class NewspaperLayoutImpl implements NewspaperLayout {
         processInputs(inputs, logger, inf.isMarkdownUsed());
     }
 
+    /**
+     * @return the chain of calculators used to measure the inputs, with the cache outermost (but for any chunking of
+     * long articles, and any estimates from the length model); or, for a draft, the draft estimator alone.
+     */
+    public static LengthCalculator createLengthCalculator(Settings settings) {
+        if (settings.isDraft()) return new DraftLengthCalculator(); // estimates aren't worth caching
+        LaTeXLengthCalculator measurer = new LaTeXLengthCalculator();
+        LengthCalculator latex = measurer;
+        if (settings.getMeasurementServers() > 0) latex = new ResidentLaTeXLengthCalculator(latex);
+        if (settings.isBatchMeasurement()) latex = new BatchLengthCalculator(latex);
+        if (settings.isBreakProfiles()) latex = new BreakProfileLengthCalculator(latex, measurer);
+        boolean estimated = settings.getEstimateTolerance() > 0 && !isPipelined(settings);
+        LengthCalculator cached = new FileCachingLengthCalculator(latex, estimated ? LengthModel.getInstance() : null);
+        if (settings.getChunkParagraphs() > 0) cached = new ChunkedLengthCalculator(cached); // chunks are cached apiece
+        if (settings.isPipelinedLayout() && !isPipelined(settings))
+            Logger.getInstance().elements().println("Pipelined layout needs columnStrategy=fillFirst; measuring everything first");
+        if (estimated)
+            return new EstimatingLengthCalculator(cached, LengthModel.getInstance(), settings.getEstimateTolerance(), settings.getMeasurementThreads());
+        return cached;
+    }
+
     /**
      * Does the given filename match the configured input filters?
      *
@@ -135,16 +377,81 @@ public class NewspaperLayoutImpl implements NewspaperLayout {
         this.inputs.addAll(inputs);
         this.allInputs.addAll(inputs);
         if (isMarkdownUsed) allPreambleLines.add(settings.getMarkdown());
+        if (isPipelined() && pipeline == null && this.inputs.anyFromEnd()) {
+            this.logger.elements().println("Pipelined layout can't count pages back from the last; measuring everything first");
+            countsFromEnd = true;
+        }
 
-        // RL: possibly inefficient, but it tidies the debugging if we precalculate the lengths
-        this.inputs.parallelStream().forEach(Input::columnInches);
-        this.inputs.forEach(input -> input.logInput(logger));
+        if (isPipelined()) {
+            // every page but the last is full width, so the inputs can be sized before they're measured:
+            colsPerPage = (int) settings.getMaxColsPerPage();
+            inputs.forEach(i -> i.setNumColumnsOnPage(colsPerPage));
+            List<Input> otherSizes = otherSizes(inputs);
+            inputs.forEach(Input::prefetchLength);
+            otherSizes.forEach(Input::prefetchLength);
+            lengthCalculator.flush();
+            if (pipeline == null) pipeline = new MeasurementExecutor(settings.getMeasurementThreads(), logger);
+            List<CompletableFuture<Void>> futures = pipeline.startAll("inputs", Stream.concat(inputs.stream(), otherSizes.stream())
+                    .<Runnable>map(input -> input::columnInches)
+                    .collect(Collectors.toList()));
+            for (int i = 0; i < inputs.size(); i++) measurements.put(inputs.get(i), futures.get(i));
+        } else {
+            // RL: possibly inefficient, but it tidies the debugging if we precalculate the lengths
+            List<Input> otherSizes = otherSizes(inputs);
+            this.inputs.stream().forEach(Input::prefetchLength);
+            otherSizes.forEach(Input::prefetchLength);
+            lengthCalculator.flush();
+            try (MeasurementExecutor executor = new MeasurementExecutor(settings.getMeasurementThreads(), logger)) {
+                executor.runAll("inputs", Stream.concat(this.inputs.stream(), otherSizes.stream())
+                        .<Runnable>map(input -> input::columnInches)
+                        .collect(Collectors.toList()));
+            }
+            this.inputs.stream().forEach(input -> input.logInput(logger));
+        }
 
         this.inputs.stream()
                 .flatMap(Input::preambleLines)
                 .forEach(allPreambleLines::add);
     }
 
+    /**
+     * @return copies of the inputs at the other sizes they may take, to be measured (and so cached) up front, rather
+     * than as pages are enlarged.
+     */
+    private List<Input> otherSizes(List<Input> inputs) {
+        List<Input> otherSizes = inputs.stream().flatMap(Input::otherSizes).collect(Collectors.toList());
+        if (!otherSizes.isEmpty())
+            logger.algorithm().printf("Measuring %d other sizes of inputs%n", otherSizes.size());
+        return otherSizes;
+    }
+
+    /**
+     * Wait for the input to be measured, if it's still in the pipeline.
+     */
+    private void awaitMeasurement(Input input) {
+        CompletableFuture<Void> measurement = measurements.remove(input);
+        if (measurement == null) return;
+        try {
+            measurement.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+            throw e;
+        }
+        input.logInput(logger);
+    }
+
+    /**
+     * @return the number of columns for a new page in the pipeline: as many as are left to fill once every input has
+     * been measured, or else a full page.
+     */
+    private long nextPageCols() {
+        if (!measurements.values().stream().allMatch(CompletableFuture::isDone)) return colsPerPage;
+        double columnInches = inputs.stream().mapToDouble(Input::columnInches).sum()
+                + (overflow == null ? 0.0 : overflow.getLength());
+        ColumnCalculator remaining = ColumnCalculator.calculateColumnsPerPage(settings, columnInches, settings.getColumnHeight(), colsPerPage);
+        return Math.max(1, Math.min(colsPerPage, remaining.getTotalColumns()));
+    }
+
     boolean hasData() {
         return !inputs.isEmpty() || overflow != null;
     }
@@ -165,32 +472,31 @@ public class NewspaperLayoutImpl implements NewspaperLayout {
         double pageArea = settings.getPageWidth() * settings.getColumnHeight();
         // move inputs from this.inputs to ip until page area is exceeded
         double overflowLength = overflow == null ? 0.0 : overflow.getLength();
-        int pos = 0;
-        for (double areaMoved = overflowLength; areaMoved < pageArea && inputs.size() > pos; ) {
-            Input next = inputs.remove(pos);
-            Headers headers = next.getHeaders();
-            boolean[] skipInput = {false};
-            if (next instanceof Truck) skipInput[0] = true;
-            else headers.ifHeader("Page", str -> {
-                long minPage = headers.getIntegerHeader("Page", Integer.MIN_VALUE, Integer.MAX_VALUE);
-                if (minPage > 0 && minPage > p.getSimplePageNo()) skipInput[0] = true;
-                if (minPage < 0 && minPage > (p.getSimplePageNo() - pages.size() - 1)) skipInput[0] = true;
-            });
-            if (skipInput[0]) {
-                inputs.add(pos++, next);
-                continue;
+        // trucks, and inputs whose "Page" header puts them on a later page, are left where they are in the queue
+        long pagesToEnd = p.getSimplePageNo() - pages.size() - 1;
+        int taken = 0;
+        boolean lookedAtAll = false;
+        for (double areaMoved = overflowLength; areaMoved < pageArea; ) {
+            Input next = inputs.pollEligible(p.getSimplePageNo(), pagesToEnd);
+            if (next == null) {
+                lookedAtAll = true;
+                break;
             }
+            taken++;
+            awaitMeasurement(next);
             double size = next.area();
             areaMoved += size;
             logger.algorithm().println(" - Expecting on this page: " + next + " of type " + next.getClass().getSimpleName());
             if (next instanceof ArticleImpl) ip.add((Article) next);
             else is.add((FixedSize) next);
         }
+        if (snapshot != null) // the page looked at the inputs it passed over, as well as those it took
+            examined = lookedAtAll ? taken + inputs.size() : taken == 0 ? 0 : taken + inputs.passedOver();
 
         if (!p.isEmpty()) {
             // issue 19: only do FixedElementsRelativeLayout if the page is empty. FERL doesn't support partial pages.
             Collections.reverse(is);
-            is.forEach(unprocessed -> inputs.add(0, (Input) unprocessed));
+            is.forEach(unprocessed -> inputs.addFirst((Input) unprocessed));
         } else {
             // now lay out the fixed inserts
             FixedElementsRelativeLayout v = new FixedElementsRelativeLayout(p.numCols(), 0, p, settings);
@@ -207,7 +513,7 @@ public class NewspaperLayoutImpl implements NewspaperLayout {
                     }
                     logger.algorithm().printf("Failed to fit insert %s; deferring %d fixed articles to next page\n", fs, is.size());
                     Collections.reverse(is);
-                    is.forEach(unprocessed -> inputs.add(0, (Input) unprocessed));
+                    is.forEach(unprocessed -> inputs.addFirst((Input) unprocessed));
                     break;
                 }
             }
@@ -231,21 +537,13 @@ public class NewspaperLayoutImpl implements NewspaperLayout {
             }
         }
         while (!ip.isEmpty()) {
-            Col.ColFragment longestEmpty = null;
-            Col longestEmptyCol = null;
-            for (Col c : p.getColumns()) {
-                Col.ColFragment f = c.longestEmpty();
-                if (f == null) continue;
-                if (longestEmpty == null || longestEmpty.height() > f.height()) {
-                    longestEmpty = f;
-                    longestEmptyCol = c;
-                }
-            }
+            Col longestEmptyCol = p.tightestColumn();
+            Col.ColFragment longestEmpty = longestEmptyCol == null ? null : longestEmptyCol.longestEmpty();
             if (longestEmpty == null) {
                 logger.algorithm().println("Exactly filled page!");
                 while (!ip.isEmpty()) {
                     logger.algorithm().println(" - Deferring to next page: " + ip);
-                    inputs.add(0, ip.remove(ip.size() - 1));
+                    inputs.addFirst(ip.remove(ip.size() - 1));
                 }
                 break;
             }
@@ -277,7 +575,7 @@ public class NewspaperLayoutImpl implements NewspaperLayout {
             }
             if (overflow != null) {
                 // the page is filled. There may be more spaces, but we can't fit an article in them.
-                ip.forEach(unprocessed -> inputs.add(0, unprocessed));
+                ip.forEach(inputs::addFirst);
                 ip.clear();
             }
         }
@@ -410,44 +708,185 @@ public class NewspaperLayoutImpl implements NewspaperLayout {
         return pages;
     }
 
+    /**
+     * @return the number of columns on a typical page
+     */
+    int getColsPerPage() {
+        return colsPerPage;
+    }
+
     /**
      * Entry point to lay out the newspaper.
      */
     @Override
     public void layOutNewspaper() {
+        boolean replanning = estimator != null && !candidate;
+        if ((incremental || replanning) && pipeline == null) // the snapshot is also where to lay out again from
+            snapshot = new LayoutSnapshot(settings.toString(), pages.stream()
+                    .filter(ColumnarPage.class::isInstance)
+                    .map(page -> ((ColumnarPage) page).numCols())
+                    .collect(Collectors.toList()));
+        long visits = layOutPages(carryOver());
+        // the pages were laid out on any estimated lengths while they were measured:
+        if (replanning) visits += replan();
+        logger.algorithm().printf("Laid out %d pages in %d page visits%n", pages.size(), visits);
+        if (snapshot != null) snapshot.complete(pages);
+        trimEmptyPages();
+        if (pipeline != null) pipeline.close();
+        if (sharedLengthCalculator) lengthCalculator.reset();
+        else if (!candidate) lengthCalculator.close();
+
+        Logger logger = Logger.getInstance();
+        logger.algorithm().println("Layout done");
+        logger.dumpAll().println("Layout is:");
+        logger.dumpAll().println(this);
+
+    }
+
+    /**
+     * Lay out the pages from the one given, adding more as they're needed, until every input has been laid out.
+     *
+     * @return the number of pages visited
+     */
+    private long layOutPages(int firstPage) {
+        // pages with no room left, which are passed over when the pages are laid out again
+        Set<Page> closed = Collections.newSetFromMap(new IdentityHashMap<>());
+        int firstOpen = firstPage; // the pages before this are all closed
+        long visits = 0;
         while (hasData()) {
             Page p = null;
-            for (int simplePageNo = 0; simplePageNo < getPages().size();) {
+            for (int simplePageNo = firstPage; simplePageNo < getPages().size();) {
+                p = getPages().get(simplePageNo);
+                if (closed.contains(p)) {
+                    p.setSimplePageNo(++simplePageNo);
+                    continue;
+                }
+                List<String> queue = snapshot == null ? null : fingerprints(inputs.toList());
+                if (queue != null && converge(simplePageNo, queue)) break;
                 // NB: the last page may well only contain overflow,
                 // but we still need to set it out.
-                p = getPages().get(simplePageNo);
                 p.setSimplePageNo(++simplePageNo); // track the page numbers with extra page inserts
+                LayoutSnapshot.Boundary boundary = null;
+                examined = 0;
                 if (p instanceof ColumnarPage) {
                     ColumnarPage cp = ((ColumnarPage) p);
                     long numExtraColsAllowed = settings.getMaxColsPerPage() - cp.getColumns().size();
+                    if (queue != null) boundary = snapshot.record(simplePageNo - 1, queue, overflow);
                     layoutPage(cp, numExtraColsAllowed);
+                    visits++;
+                    if (!cp.hasRoom(numExtraColsAllowed)) closed.add(cp);
+                } else {
+                    closed.add(p);
                 }
                 // have we accumulated any full-trucks to output?
-                while (!inputs.isEmpty() && inputs.get(0) instanceof Truck) {
-                    Truck truck = (Truck) inputs.remove(0);
+                while (inputs.peek() instanceof Truck) {
+                    Truck truck = (Truck) inputs.poll();
+                    examined++;
+                    awaitMeasurement(truck);
                     getPages().add(simplePageNo++, truck);
                     truck.setSimplePageNo(simplePageNo);
+                    closed.add(truck);
+                }
+                if (boundary != null) boundary.setExamined(examined + 1); // and whatever was next, which wasn't a truck
+                // in the pipeline, add pages as they're needed:
+                if (pipeline != null && simplePageNo == getPages().size() && hasData()) {
+                    long cols = nextPageCols();
+                    logger.algorithm().printf("Adding page %d with %d columns%n", simplePageNo + 1, cols);
+                    getPages().add(new ColumnarPage(simplePageNo + 1, cols, settings));
                 }
             }
             // if we still have data, e.g. by using "Page" to create blank space, then we need to add extra pages:
             if (hasData()) {
                 Objects.requireNonNull(p);
                 getPages().add(new ColumnarPage(p.getSimplePageNo() + 1, colsPerPage, settings));
+                // laying out the pages again isn't recorded:
+                snapshot = null;
+                // and only those that may still take something are laid out again:
+                while (firstOpen < getPages().size() && closed.contains(getPages().get(firstOpen))) firstOpen++;
+                firstPage = firstOpen;
             }
         }
-        trimEmptyPages();
+        return visits;
+    }
 
+    /**
+     * Keep the pages of the last layout that would be laid out the same, from the first page.
+     *
+     * @return the index of the first page to lay out
+     */
+    private int carryOver() {
+        if (previous == null || snapshot == null) return 0;
+        List<Input> queue = inputs.toList();
+        Optional<LayoutSnapshot.Boundary> boundary = previous.carryOver(snapshot, queue, this::fingerprint);
+        if (!boundary.isPresent()) {
+            logger.algorithm().println("Laying out every page again");
+            return 0;
+        }
+        inputs.clear();
+        inputs.addAll(queue);
+        int pageIndex = boundary.get().getPageIndex();
+        pages.subList(0, snapshot.size()).clear();
+        pages.addAll(0, reuse(previous.getPages().subList(0, pageIndex)));
+        overflow = boundary.get().getOverflow();
+        logger.algorithm().printf("Keeping pages 1-%d from the last layout; overflow=%s%n", pageIndex, overflow);
+        return pageIndex;
+    }
 
-        Logger logger = Logger.getInstance();
-        logger.algorithm().println("Layout done");
-        logger.dumpAll().println("Layout is:");
-        logger.dumpAll().println(this);
+    /**
+     * If the layout's got back to where the last one was at the start of this page, keep the rest of its pages.
+     *
+     * @return true if so, leaving nothing more to lay out.
+     */
+    private boolean converge(int pageIndex, List<String> queue) {
+        if (previous == null) return false;
+        Optional<List<Page>> rest = previous.converge(snapshot, pageIndex, queue, overflow);
+        if (!rest.isPresent()) return false;
+        pages.subList(pageIndex, pages.size()).clear();
+        pages.addAll(reuse(rest.get()));
+        inputs.clear();
+        logger.algorithm().printf("Page %d onwards is as in the last layout%n", pageIndex + 1);
+        return true;
+    }
+
+    /**
+     * @return pages from the last layout, with their articles ready to be output again
+     */
+    private List<Page> reuse(List<Page> pages) {
+        pages.stream()
+                .filter(ColumnarPage.class::isInstance)
+                .flatMap(p -> ((ColumnarPage) p).getColumns().stream())
+                .flatMap(c -> c.getFrags().stream())
+                .map(Col.ColFragment::getPart)
+                .filter(ArticleFragment.class::isInstance)
+                .forEach(part -> ((ArticleFragment) part).getArticle().resetOutput());
+        return new ArrayList<>(pages);
+    }
+
+    private List<String> fingerprints(List<Input> inputs) {
+        return inputs.stream().map(this::fingerprint).collect(Collectors.toList());
+    }
 
+    private String fingerprint(Input input) {
+        return fingerprints.computeIfAbsent(input, LayoutSnapshot::fingerprint);
+    }
+
+    /**
+     * Record the state at the start of each page, for the next layout to keep the pages that would be laid out the
+     * same; and do so from the last layout, if there was one.
+     *
+     * @param previous snapshot of the last layout of the same newspaper; or null
+     */
+    void layOutIncrementally(LayoutSnapshot previous) {
+        this.incremental = true;
+        this.previous = previous;
+    }
+
+    /**
+     * @return the state at the start of each page, for the next layout; or null if it can't be reused, as when the
+     * pages were added as the layout went.
+     */
+    LayoutSnapshot getSnapshot() {
+        return snapshot != null && snapshot.isComplete() ? snapshot : null;
     }
 
     void setOverflow(Overflow overflow) {
@@ -0,0 +1,127 @@
+package org.homelinux.rjlee.news.file;
+
+import org.homelinux.rjlee.news.logging.Logger;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Reusable scratch directories in which to run LaTeX.
+ * <p>
+ * A directory is emptied as soon as it is {@link #release released}, and handed out again by the next
+ * {@link #acquire()}, so a long run needs only as many directories as it runs LaTeX processes at once. All the
+ * directories are deleted when the JVM exits.
+ * <p>
+ * There is one pool for each parent directory, which may be on a RAM-backed filesystem such as {@code /dev/shm}.
+ *
+ * @author Robert
+ */
+public class ScratchDirectoryPool {
+    private static final Map<Path, ScratchDirectoryPool> pools = new ConcurrentHashMap<>();
+
+    private final Path root;
+    private final Deque<Path> idle = new ArrayDeque<>();
+    private final Set<Path> all = ConcurrentHashMap.newKeySet();
+
+    ScratchDirectoryPool(Path root) {
+        this.root = root;
+    }
+
+    /**
+     * @param root directory in which to create the scratch directories
+     * @return the pool for that directory
+     */
+    public static ScratchDirectoryPool forDirectory(Path root) {
+        return pools.computeIfAbsent(root.toAbsolutePath(), r -> {
+            ScratchDirectoryPool pool = new ScratchDirectoryPool(r);
+            Runtime.getRuntime().addShutdownHook(new Thread(pool::deleteAll, "scratch-cleanup"));
+            return pool;
+        });
+    }
+
+    /**
+     * @return an empty directory, for the caller's sole use until it's released.
+     */
+    public Path acquire() {
+        synchronized (idle) {
+            Path dir = idle.poll();
+            if (dir != null) return dir;
+        }
+        Path dir = createDirectory(root, Logger.getInstance());
+        all.add(dir);
+        return dir;
+    }
+
+    /**
+     * Empty the directory, and return it to the pool. If it can't be emptied, it's left for deletion on exit instead.
+     *
+     * @param dir directory returned by {@link #acquire()}
+     */
+    public void release(Path dir) {
+        if (!all.contains(dir)) throw new IllegalArgumentException(dir + " is not from this pool");
+        try {
+            empty(dir);
+        } catch (IOException e) {
+            Logger.getInstance().elements().println("Failed to empty scratch directory " + dir + "; not reusing it: " + e.getMessage());
+            all.remove(dir);
+            TmpFileUtils.recursiveDeleteOnExit(dir);
+            return;
+        }
+        synchronized (idle) {
+            if (!idle.contains(dir)) idle.push(dir); // the most recently used is the most likely to be in cache
+        }
+    }
+
+    /**
+     * @return number of directories created by this pool
+     */
+    public int size() {
+        return all.size();
+    }
+
+    static Path createDirectory(Path root, Logger logger) {
+        try {
+            return Files.createTempDirectory(root, "art");
+        } catch (IOException e) {
+            e.printStackTrace(logger.quiet());
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Delete everything in the directory, without following links out of it.
+     */
+    private static void empty(Path dir) throws IOException {
+        Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path d, IOException exc) throws IOException {
+                if (exc != null) throw exc;
+                if (!d.equals(dir)) Files.delete(d);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private void deleteAll() {
+        for (Path dir : all) {
+            try {
+                empty(dir);
+                Files.deleteIfExists(dir);
+            } catch (IOException e) {
+                Logger.getInstance().quiet().println("Error tidying up temp directory " + dir);
+            }
+        }
+    }
+}
@@ -26,6 +26,11 @@ public interface Article extends Input {
 
     long countOutput();
 
+    /**
+     * Start counting the output parts again, to output an article laid out before.
+     */
+    void resetOutput();
+
     void copyTo(PrintWriter w, Path outPath) throws IOException;
 
     /**
@@ -58,4 +63,12 @@ public interface Article extends Input {
     Overflow createOverflow(double alen, long simplePageNo);
 
     Long getContinuedOn(long splitCounter);
+
+    /**
+     * Undo any splits made after an overflow was created, to lay out the rest of the article again.
+     *
+     * @param overflow  as created by {@link #createOverflow}
+     * @param fragments the number of fragments registered when it was created
+     */
+    void rewindTo(Overflow overflow, int fragments);
 }
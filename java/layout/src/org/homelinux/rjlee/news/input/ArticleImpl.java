@@ -66,4 +66,11 @@ public class ArticleImpl extends ArticleText implements Article {
     public Long getContinuedOn(long splitCounter) {
         return continuedOn.get(splitCounter);
     }
+
+    @Override
+    public void rewindTo(Overflow overflow, int fragments) {
+        splitCounter = overflow.getSplitCounter();
+        continuedOn.keySet().removeIf(split -> split >= splitCounter);
+        getFragments().subList(fragments, getFragments().size()).clear();
+    }
 }
@@ -48,15 +48,24 @@ public abstract class ArticleText implements Input {
      * @return remaining length in article not yet typeset.
      */
     public double recalculateLength() {
-        Stream<String> preambleLines = preambleLines();
-//        if (headers.getInputMode() == Headers.InputMode.MARKDOWN) // RL: Always load markdown headers regardless. A LaTeX article may \markdownInput a .md.
-        preambleLines = Stream.concat(preambleLines, Stream.of(settings.getMarkdown()));
-        length = lengthCalculator.calculateLength(widthForSizing(), fragments, preambleLines, settings, this);
+        length = lengthCalculator.calculateLength(widthForSizing(), fragments, measurementPreambleLines(), settings, this);
         if (length == 0)
             throw new IllegalArgumentException(path() + " has 0 column inches!");
         return length - fragments.stream().mapToDouble(d -> d).sum();
     }
 
+    @Override
+    public void prefetchLength() {
+        if (length < 0)
+            lengthCalculator.prefetch(widthForSizing(), fragments, measurementPreambleLines(), settings, this);
+    }
+
+    private Stream<String> measurementPreambleLines() {
+        Stream<String> preambleLines = preambleLines();
+//        if (headers.getInputMode() == Headers.InputMode.MARKDOWN) // RL: Always load markdown headers regardless. A LaTeX article may \markdownInput a .md.
+        return Stream.concat(preambleLines, Stream.of(settings.getMarkdown()));
+    }
+
     protected abstract double widthForSizing();
 
     public void copyTo(PrintWriter out, Path outPath) throws IOException {
@@ -104,6 +113,10 @@ public abstract class ArticleText implements Input {
                 .replace("%", "");
     }
 
+    LengthCalculator getLengthCalculator() {
+        return lengthCalculator;
+    }
+
     public Headers getHeaders() {
         return headers;
     }
@@ -124,6 +137,10 @@ public abstract class ArticleText implements Input {
         return ++outCtr;
     }
 
+    public void resetOutput() {
+        outCtr = 0;
+    }
+
     /**
      * Incrementing counter for the output parts
      */
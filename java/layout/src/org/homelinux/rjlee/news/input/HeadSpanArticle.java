@@ -8,6 +8,7 @@ import org.homelinux.rjlee.news.settings.Settings;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.nio.file.Path;
+import java.util.stream.LongStream;
 import java.util.stream.Stream;
 
 public class HeadSpanArticle extends ArticleText implements FixedSize {
@@ -31,6 +32,16 @@ public class HeadSpanArticle extends ArticleText implements FixedSize {
         Logger.getInstance().elements().println(cols + "-column article " + headers.getInputFilePath() + " using rule width " + ruleWidth + "in");
     }
 
+    /**
+     * Copy the article, to be set across fewer columns.
+     */
+    private HeadSpanArticle(HeadSpanArticle article, long numColumnsOnPage) {
+        super(article.getHeaders(), article.getSettings(), article.getLengthCalculator());
+        this.cols = article.cols;
+        this.ruleWidth = article.ruleWidth;
+        this.numColumnsOnPage = numColumnsOnPage;
+    }
+
     @Override
     public boolean skipHalley() {
         return true;
@@ -112,6 +123,19 @@ public class HeadSpanArticle extends ArticleText implements FixedSize {
         return cols;
     }
 
+    /**
+     * The page may be narrower than the article, so it may be set across any number of columns up to its own; and
+     * as the page is enlarged, the article is widened. Measuring every width at the start means that's just a look
+     * up in the lengths cache.
+     */
+    @Override
+    public Stream<Input> otherSizes() {
+        long current = cols();
+        return LongStream.rangeClosed(1, Math.min(cols, getSettings().getMaxColsPerPage()))
+                .filter(n -> n != current)
+                .mapToObj(n -> new HeadSpanArticle(this, n));
+    }
+
     @Override
     public void setNumColumnsOnPage(long numColumnsOnPage) {
         boolean changed = numColumnsOnPage != this.numColumnsOnPage && numColumnsOnPage != cols;
@@ -11,6 +11,7 @@ import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.StringReader;
 import java.nio.file.Path;
+import java.util.Arrays;
 import java.util.Optional;
 import java.util.Properties;
 import java.util.function.Consumer;
@@ -175,6 +176,20 @@ public class Headers implements PreambleLinesSupplier {
         return inputFilePath;
     }
 
+    /**
+     * @param inputFilePath another file, to hold part of this input
+     * @param omit          names of headers that don't apply to it
+     * @return these headers, for the other file; assets are still found beside this input.
+     */
+    public Headers copyFor(Path inputFilePath, String... omit) {
+        Properties copy = new Properties();
+        headers.stringPropertyNames().forEach(n -> copy.setProperty(n, n.startsWith("Asset")
+                ? this.inputFilePath.resolveSibling(headers.getProperty(n)).toAbsolutePath().toString()
+                : headers.getProperty(n)));
+        Arrays.asList(omit).forEach(copy::remove);
+        return new Headers(inputFilePath, copy, settings);
+    }
+
     public Stream<Path> assets() {
         Path dir = inputFilePath.getParent();
         return headers.stringPropertyNames().stream()
@@ -24,6 +24,20 @@ public interface Input extends PreambleLinesSupplier {
 
     double columnInches();
 
+    /**
+     * Called before {@link #columnInches()}, to let the length calculator measure many inputs at once.
+     */
+    default void prefetchLength() {
+    }
+
+    /**
+     * @return copies of this input at the other sizes it may be set to on a page, so they can be measured in
+     * advance, along with the input itself; none by default.
+     */
+    default Stream<Input> otherSizes() {
+        return Stream.empty();
+    }
+
     Headers getHeaders();
 
     /**
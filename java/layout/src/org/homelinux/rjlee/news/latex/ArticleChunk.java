@@ -0,0 +1,46 @@
+package org.homelinux.rjlee.news.latex;
+
+import org.homelinux.rjlee.news.input.ArticleImpl;
+import org.homelinux.rjlee.news.input.ArticleText;
+import org.homelinux.rjlee.news.input.Headers;
+import org.homelinux.rjlee.news.settings.Settings;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * A run of paragraphs from an article, measured on its own by {@link ChunkedLengthCalculator}.
+ * <p>
+ * Only the first chunk carries the headline. The text is always copied into the measurement, as LaTeX wouldn't find
+ * the chunk's file to input it.
+ *
+ * @author Robert
+ */
+class ArticleChunk extends ArticleImpl {
+    private final ArticleText article;
+    private final int index;
+
+    /**
+     * @param article whole article
+     * @param index   of this chunk in the article, from 0
+     * @param path    file holding the text of the chunk
+     */
+    ArticleChunk(ArticleText article, int index, Path path, LengthCalculator lengthCalculator) {
+        super(article.getHeaders().copyFor(path, index == 0 ? new String[0] : new String[]{"Head"}), article.getSettings(), lengthCalculator);
+        this.article = article;
+        this.index = index;
+    }
+
+    @Override
+    public void copyToTex(Headers.InputMode inputMode, Settings settings, PrintWriter out, Path outPath) throws IOException {
+        out.println("\\setemergencystretch\\numnewscols\\hsize");
+        Files.readAllLines(path()).forEach(out::println);
+    }
+
+    @Override
+    public String toString() {
+        return article + " chunk " + (index + 1);
+    }
+}
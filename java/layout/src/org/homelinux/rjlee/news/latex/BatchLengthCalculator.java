@@ -0,0 +1,157 @@
+package org.homelinux.rjlee.news.latex;
+
+import org.homelinux.rjlee.news.input.ArticleText;
+import org.homelinux.rjlee.news.logging.Logger;
+import org.homelinux.rjlee.news.settings.Settings;
+
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Calculate the lengths of many articles in one LaTeX run.
+ * <p>
+ * Articles passed to {@link #prefetch} are held until {@link #flush()}, then typeset together in one document for
+ * each distinct preamble and settings; articles that declare different assets of the same name are measured in
+ * separate documents, as each document's assets share one directory. The results are returned by the next matching
+ * call to {@link #calculateLength}; anything else (including any article that the batch failed to measure) is passed
+ * to the delegate.
+ *
+ * @author Robert
+ */
+public class BatchLengthCalculator implements LengthCalculator {
+    private final LengthCalculator delegate;
+    private final ShellProcessFactory latexProcessFactory;
+    private final List<Request> pending = new ArrayList<>();
+    private final Map<Request, Double> results = new ConcurrentHashMap<>();
+
+    public BatchLengthCalculator(LengthCalculator delegate) {
+        this(delegate, new LatexProcessFactory());
+    }
+
+    BatchLengthCalculator(LengthCalculator delegate, ShellProcessFactory latexProcessFactory) {
+        this.delegate = delegate;
+        this.latexProcessFactory = latexProcessFactory;
+    }
+
+    @Override
+    public double calculateLength(double widthForSizing, List<Double> fragments, Stream<String> preambleLines, Settings settings, ArticleText articleText) {
+        Double length = results.remove(new Request(widthForSizing, fragments, null, settings, articleText));
+        if (length != null) return length;
+        return delegate.calculateLength(widthForSizing, fragments, preambleLines, settings, articleText);
+    }
+
+    @Override
+    public synchronized void prefetch(double widthForSizing, List<Double> fragments, Stream<String> preambleLines, Settings settings, ArticleText articleText) {
+        pending.add(new Request(widthForSizing, fragments, preambleLines.collect(Collectors.toList()), settings, articleText));
+    }
+
+    @Override
+    public void flush() {
+        List<Request> toMeasure;
+        synchronized (this) {
+            toMeasure = new ArrayList<>(pending);
+            pending.clear();
+        }
+        if (toMeasure.isEmpty()) return;
+
+        Logger logger = Logger.getInstance();
+        // keep the batches in input order, for easier debugging:
+        Map<List<Object>, List<Request>> byPreamble = toMeasure.stream()
+                .distinct()
+                .collect(Collectors.groupingBy(r -> Arrays.asList(r.settings, r.preambleLines), LinkedHashMap::new, Collectors.toList()));
+        List<List<Request>> batches = byPreamble.values().stream()
+                .flatMap(requests -> withoutClashingAssets(requests).stream())
+                .collect(Collectors.toList());
+        for (List<Request> batch : batches) {
+            LatexBatchLength lbl = new LatexBatchLength(batch.get(0).preambleLines, batch.get(0).settings, latexProcessFactory, logger);
+            for (int i = 0; i < batch.size(); i++) {
+                Request request = batch.get(i);
+                lbl.add(Integer.toString(i), request.width, request.fragments, request.articleText);
+            }
+            logger.algorithm().println("Shelling to LaTeX to calculate length of " + lbl.size() + " articles");
+            Map<String, Double> lengths = lbl.calculate();
+            for (int i = 0; i < batch.size(); i++) {
+                Double length = lengths.get(Integer.toString(i));
+                if (length != null) results.put(batch.get(i), length);
+            }
+        }
+    }
+
+    /**
+     * @return the requests, split into as few batches as keep any two assets of the same file name, but from different
+     * files, apart; in one batch, only one of them could be found.
+     */
+    private static List<List<Request>> withoutClashingAssets(List<Request> requests) {
+        List<List<Request>> batches = new ArrayList<>();
+        List<Map<Path, Path>> batchAssets = new ArrayList<>(); // by file name
+        for (Request request : requests) {
+            Map<Path, Path> assets = request.articleText.getHeaders().assets()
+                    .collect(Collectors.toMap(Path::getFileName, asset -> asset.toAbsolutePath().normalize(), (a, b) -> a));
+            int i = 0;
+            while (i < batches.size() && clash(batchAssets.get(i), assets)) i++;
+            if (i == batches.size()) {
+                batches.add(new ArrayList<>());
+                batchAssets.add(new HashMap<>());
+            }
+            batches.get(i).add(request);
+            batchAssets.get(i).putAll(assets);
+        }
+        return batches;
+    }
+
+    private static boolean clash(Map<Path, Path> assets, Map<Path, Path> others) {
+        return others.entrySet().stream()
+                .anyMatch(e -> assets.containsKey(e.getKey()) && !assets.get(e.getKey()).equals(e.getValue()));
+    }
+
+    @Override
+    public void reset() {
+        synchronized (this) {
+            pending.clear();
+        }
+        results.clear();
+        delegate.reset();
+    }
+
+    @Override
+    public void close() {
+        results.clear();
+        delegate.close();
+    }
+
+    /**
+     * One request to measure an article. Equal if it's the same article, to be measured the same way.
+     */
+    private static class Request {
+        private final double width;
+        private final List<Double> fragments;
+        private final List<String> preambleLines;
+        private final Settings settings;
+        private final ArticleText articleText;
+
+        Request(double width, List<Double> fragments, List<String> preambleLines, Settings settings, ArticleText articleText) {
+            this.width = width;
+            this.fragments = new ArrayList<>(fragments);
+            this.preambleLines = preambleLines;
+            this.settings = settings;
+            this.articleText = articleText;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Request request = (Request) o;
+            return Double.compare(request.width, width) == 0 && Objects.equals(fragments, request.fragments)
+                    && settings == request.settings && articleText == request.articleText;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(width, fragments, System.identityHashCode(settings), System.identityHashCode(articleText));
+        }
+    }
+}
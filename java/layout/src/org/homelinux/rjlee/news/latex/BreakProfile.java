@@ -0,0 +1,326 @@
+package org.homelinux.rjlee.news.latex;
+
+import org.homelinux.rjlee.news.parsing.LengthParser;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The vertical list of a typeset article, reduced to what {@code \vsplit} looks at when choosing where to break it:
+ * boxes (height and depth), glue (natural size, stretch and shrink), kerns and penalties.
+ * <p>
+ * With this, the length left after splitting off any number of fragments can be worked out without running LaTeX
+ * again. The splits follow TeX's own algorithm (tex.web §§967-977): the same legal breakpoints, badness and costs, and
+ * the same pruning of discardable items and insertion of {@code \splittopskip} at the top of what remains.
+ * <p>
+ * The profile is read from lines written by {@link LatexInteraction#printBreakProfile}. Those list the items from the
+ * bottom of the box up, as that's the only order in which TeX can take a list apart.
+ *
+ * @author Robert
+ */
+public class BreakProfile {
+    static final String PREFIX = "ART PROFILE ";
+    private static final int INF_BAD = 10000;
+    private static final int INF_PENALTY = 10000;
+    private static final int EJECT_PENALTY = -10000;
+    private static final int DEPLORABLE = 100000;
+    private static final int AWFUL_BAD = 0x3FFFFFFF;
+    private static final double SP_PER_PT = 65536;
+    private static final double PT_PER_INCH = 72.27;
+
+    private enum Kind {BOX, GLUE, KERN, PENALTY}
+
+    /**
+     * One item in the list. Sizes are in TeX's scaled points; a kern's size is in {@code height}.
+     */
+    private static final class Item {
+        private final Kind kind;
+        private final long height;
+        private final long depth;
+        private final long stretch;
+        private final int stretchOrder;
+        private final long shrink;
+        private final int penalty;
+
+        private Item(Kind kind, long height, long depth, long stretch, int stretchOrder, long shrink, int penalty) {
+            this.kind = kind;
+            this.height = height;
+            this.depth = depth;
+            this.stretch = stretch;
+            this.stretchOrder = stretchOrder;
+            this.shrink = shrink;
+            this.penalty = penalty;
+        }
+    }
+
+    private final List<Item> items;
+    private final Item splitTopSkip;
+    private final long splitMaxDepth;
+
+    private BreakProfile(List<Item> items, Item splitTopSkip, long splitMaxDepth) {
+        this.items = items;
+        this.splitTopSkip = splitTopSkip;
+        this.splitMaxDepth = splitMaxDepth;
+    }
+
+    /**
+     * Read a profile from LaTeX's output.
+     *
+     * @param lines lines written by LaTeX; any not part of the profile are ignored.
+     * @return the profile
+     * @throws IllegalArgumentException if the lines don't hold a complete profile; for example, because the list held
+     *                                  a rule, mark or whatsit, which TeX can't remove to see what's above it.
+     */
+    public static BreakProfile parse(List<String> lines) {
+        List<Item> items = new ArrayList<>();
+        Item splitTopSkip = null;
+        Long splitMaxDepth = null;
+        boolean complete = false;
+        for (String line : lines) {
+            if (!line.startsWith(PREFIX)) continue;
+            String item = line.substring(PREFIX.length());
+            int colon = item.indexOf(':');
+            String name = colon < 0 ? item : item.substring(0, colon);
+            String value = colon < 0 ? "" : item.substring(colon + 1).trim();
+            switch (name) {
+                case "BOX":
+                    int comma = value.indexOf(',');
+                    if (comma < 0) throw new IllegalArgumentException("Malformed box in break profile: " + line);
+                    items.add(new Item(Kind.BOX, sp(value.substring(0, comma)), sp(value.substring(comma + 1)), 0, 0, 0, 0));
+                    break;
+                case "GLUE":
+                    items.add(glue(value));
+                    break;
+                case "KERN":
+                    items.add(new Item(Kind.KERN, sp(value), 0, 0, 0, 0, 0));
+                    break;
+                case "PENALTY":
+                    items.add(new Item(Kind.PENALTY, 0, 0, 0, 0, 0, Integer.parseInt(value)));
+                    break;
+                case "SPLITTOPSKIP":
+                    splitTopSkip = glue(value);
+                    break;
+                case "SPLITMAXDEPTH":
+                    splitMaxDepth = sp(value);
+                    break;
+                case "END":
+                    complete = true;
+                    break;
+                case "STOP":
+                    throw new IllegalArgumentException("Break profile stopped at an item of type " + value + " (\\lastnodetype)");
+                default:
+                    throw new IllegalArgumentException("Unexpected line in break profile: " + line);
+            }
+        }
+        if (!complete || splitTopSkip == null || splitMaxDepth == null)
+            throw new IllegalArgumentException("Incomplete break profile");
+        Collections.reverse(items); // LaTeX lists them from the bottom up
+        return new BreakProfile(items, splitTopSkip, splitMaxDepth);
+    }
+
+    /**
+     * @param spec glue, as shown by {@code \the}, e.g. {@code 12.0pt plus 2.0pt minus 1.0fil}
+     */
+    private static Item glue(String spec) {
+        String[] parts = spec.trim().split("\\s+");
+        long width = sp(parts[0]);
+        long stretch = 0;
+        int stretchOrder = 0;
+        long shrink = 0;
+        for (int i = 1; i + 1 < parts.length; i += 2) {
+            String size = parts[i + 1];
+            int order = 0;
+            while (size.endsWith("l")) {
+                size = size.substring(0, size.length() - 1);
+                order++;
+            }
+            if (order > 0) {
+                if (!size.endsWith("fi"))
+                    throw new IllegalArgumentException("Malformed glue in break profile: " + spec);
+                size = size.substring(0, size.length() - 2) + "pt"; // infinite units scale as points
+            }
+            if ("plus".equals(parts[i])) {
+                stretch = sp(size);
+                stretchOrder = order;
+            } else if ("minus".equals(parts[i])) {
+                // TeX refuses to break at infinitely shrinkable glue, and treats it as finite; so do we.
+                shrink = sp(size);
+            } else {
+                throw new IllegalArgumentException("Malformed glue in break profile: " + spec);
+            }
+        }
+        return new Item(Kind.GLUE, width, 0, stretch, stretchOrder, shrink, 0);
+    }
+
+    private static long sp(String pt) {
+        String s = pt.trim();
+        if (!s.endsWith("pt")) throw new IllegalArgumentException("Expected a length in points: " + pt);
+        return Math.round(Double.parseDouble(s.substring(0, s.length() - 2)) * SP_PER_PT);
+    }
+
+    private static long sp(double inches) {
+        return Math.round(inches * PT_PER_INCH * SP_PER_PT);
+    }
+
+    private static double inches(long sp) {
+        return sp / SP_PER_PT * LengthParser.PT_PER_IN;
+    }
+
+    /**
+     * @return the natural height plus depth of the whole article, in inches.
+     */
+    public double length() {
+        return naturalLength(items);
+    }
+
+    /**
+     * Split off each of the fragments in turn, as {@code \vsplit} would, and measure what remains.
+     *
+     * @param fragments lengths to split off the start of the article, in inches
+     * @return height plus depth of the remainder, in inches; 0 if nothing remains.
+     */
+    public double remainingLength(List<Double> fragments) {
+        List<Item> list = items;
+        for (Double fragment : fragments) {
+            int split = verticalBreak(list, sp(fragment), splitMaxDepth);
+            list = pruneTop(list.subList(split, list.size()));
+        }
+        return naturalLength(list);
+    }
+
+    /**
+     * @return the number of items in the profile
+     */
+    public int size() {
+        return items.size();
+    }
+
+    /**
+     * TeX's {@code vert_break}: find the best place to break the list to fit the given height.
+     *
+     * @return index of the item at which to break; everything before this is split off.
+     */
+    private static int verticalBreak(List<Item> list, long h, long d) {
+        long curHeight = 0;
+        long prevDp = 0;
+        long[] stretch = new long[4]; // by order: finite, fil, fill, filll
+        long shrink = 0;
+        int leastCost = AWFUL_BAD;
+        int bestPlace = list.size();
+        for (int i = 0; ; i++) {
+            Item p = i < list.size() ? list.get(i) : null;
+            boolean legal;
+            int pi = 0;
+            if (p == null) {
+                legal = true;
+                pi = EJECT_PENALTY;
+            } else {
+                switch (p.kind) {
+                    case BOX:
+                        curHeight += prevDp + p.height;
+                        prevDp = p.depth;
+                        legal = false;
+                        break;
+                    case GLUE:
+                        legal = i > 0 && list.get(i - 1).kind == Kind.BOX;
+                        break;
+                    case KERN:
+                        legal = i + 1 < list.size() && list.get(i + 1).kind == Kind.GLUE;
+                        break;
+                    default:
+                        legal = true;
+                        pi = p.penalty;
+                }
+            }
+            if (legal && pi < INF_PENALTY) {
+                int b;
+                if (curHeight < h) {
+                    b = stretch[1] != 0 || stretch[2] != 0 || stretch[3] != 0 ? 0 : badness(h - curHeight, stretch[0]);
+                } else if (curHeight - h > shrink) {
+                    b = AWFUL_BAD;
+                } else {
+                    b = badness(curHeight - h, shrink);
+                }
+                if (b < AWFUL_BAD) {
+                    if (pi <= EJECT_PENALTY) b = pi;
+                    else if (b < INF_BAD) b = b + pi;
+                    else b = DEPLORABLE;
+                }
+                if (b <= leastCost) {
+                    bestPlace = i;
+                    leastCost = b;
+                }
+                if (b == AWFUL_BAD || pi <= EJECT_PENALTY) return bestPlace;
+            }
+            if (p != null && (p.kind == Kind.GLUE || p.kind == Kind.KERN)) {
+                if (p.kind == Kind.GLUE) {
+                    stretch[p.stretchOrder] += p.stretch;
+                    shrink += p.shrink;
+                }
+                curHeight += prevDp + p.height;
+                prevDp = 0;
+            }
+            if (prevDp > d) {
+                curHeight += prevDp - d;
+                prevDp = d;
+            }
+        }
+    }
+
+    /**
+     * TeX's {@code badness}: approximately 100(t/s)^3.
+     */
+    private static int badness(long t, long s) {
+        if (t == 0) return 0;
+        if (s <= 0) return INF_BAD;
+        long r;
+        if (t <= 7230584) r = (t * 297) / s;
+        else if (s >= 1663497) r = t / (s / 297);
+        else r = t;
+        if (r > 1290) return INF_BAD;
+        return (int) ((r * r * r + 0x20000) / 0x40000);
+    }
+
+    /**
+     * TeX's {@code prune_page_top}: drop glue, kerns and penalties from the top of the remainder, and put
+     * {@code \splittopskip} above its first box.
+     */
+    private List<Item> pruneTop(List<Item> list) {
+        for (int i = 0; i < list.size(); i++) {
+            Item p = list.get(i);
+            if (p.kind == Kind.BOX) {
+                long width = Math.max(0, splitTopSkip.height - p.height);
+                List<Item> pruned = new ArrayList<>(list.size() - i + 1);
+                pruned.add(new Item(Kind.GLUE, width, 0, splitTopSkip.stretch, splitTopSkip.stretchOrder, splitTopSkip.shrink, 0));
+                pruned.addAll(list.subList(i, list.size()));
+                return pruned;
+            }
+        }
+        return Collections.emptyList(); // nothing left but discardable items
+    }
+
+    /**
+     * @return height plus depth of the list packed into a box at its natural size, in inches.
+     */
+    private static double naturalLength(List<Item> list) {
+        long height = 0;
+        long depth = 0;
+        for (Item p : list) {
+            switch (p.kind) {
+                case BOX:
+                    height += depth + p.height;
+                    depth = p.depth;
+                    break;
+                case GLUE:
+                case KERN:
+                    height += depth + p.height;
+                    depth = 0;
+                    break;
+                default:
+                    break;
+            }
+        }
+        return inches(height + depth);
+    }
+}
@@ -0,0 +1,137 @@
+package org.homelinux.rjlee.news.latex;
+
+import org.homelinux.rjlee.news.input.ArticleText;
+import org.homelinux.rjlee.news.logging.Logger;
+import org.homelinux.rjlee.news.settings.Settings;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Work out the length remaining after an article is split from its {@link BreakProfile}, rather than shelling to
+ * LaTeX after every split.
+ * <p>
+ * The profile is taken the first time a split article is measured, at each width, so an article costs one extra
+ * LaTeX run however many times it is split. Lengths before any split are left to the delegate, so they can still come
+ * from a batch or a resident server. If no profile can be taken (for instance, because the article contains a rule or
+ * a mark, which TeX can't take apart) the delegate measures every split, as before.
+ *
+ * @author Robert
+ */
+public class BreakProfileLengthCalculator implements LengthCalculator {
+    private final LengthCalculator delegate;
+    private final LaTeXLengthCalculator profiler;
+    /**
+     * Profiles taken, or being taken, so that other threads wait for the same one rather than taking it again.
+     */
+    private final Map<ProfileKey, CompletableFuture<Optional<BreakProfile>>> profiles = new ConcurrentHashMap<>();
+
+    /**
+     * @param delegate measures articles that have not been split, or have no profile
+     * @param profiler takes the profiles
+     */
+    public BreakProfileLengthCalculator(LengthCalculator delegate, LaTeXLengthCalculator profiler) {
+        this.delegate = delegate;
+        this.profiler = profiler;
+    }
+
+    @Override
+    public double calculateLength(double widthForSizing, List<Double> fragments, Stream<String> preambleLines, Settings settings, ArticleText articleText) {
+        if (fragments.isEmpty())
+            return delegate.calculateLength(widthForSizing, fragments, preambleLines, settings, articleText);
+        List<String> preamble = preambleLines.collect(Collectors.toList());
+        Optional<BreakProfile> profile = profile(widthForSizing, preamble, settings, articleText);
+        if (!profile.isPresent())
+            return delegate.calculateLength(widthForSizing, fragments, preamble.stream(), settings, articleText);
+        double length = profile.get().remainingLength(fragments) + fragments.stream().mapToDouble(d -> d).sum();
+        Logger.getInstance().dumpAll().println("  Calculated length from break profile: " + length + "in");
+        return length;
+    }
+
+    /**
+     * @return the profile at the given width, taking it (outside the map) if no other thread has
+     */
+    private Optional<BreakProfile> profile(double widthForSizing, List<String> preamble, Settings settings, ArticleText articleText) {
+        ProfileKey key = new ProfileKey(widthForSizing, articleText);
+        CompletableFuture<Optional<BreakProfile>> future = new CompletableFuture<>();
+        CompletableFuture<Optional<BreakProfile>> existing = profiles.putIfAbsent(key, future);
+        if (existing != null) {
+            try {
+                return existing.join();
+            } catch (CompletionException e) {
+                throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+            }
+        }
+        try {
+            Optional<BreakProfile> profile = takeProfile(widthForSizing, preamble, settings, articleText);
+            future.complete(profile);
+            return profile;
+        } catch (Error e) {
+            profiles.remove(key, future);
+            future.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    private Optional<BreakProfile> takeProfile(double widthForSizing, List<String> preamble, Settings settings, ArticleText articleText) {
+        Logger.getInstance().algorithm().println("Taking break profile of " + articleText.name());
+        try {
+            return profiler.measureBreakProfile(widthForSizing, preamble.stream(), settings, articleText);
+        } catch (RuntimeException e) {
+            Logger.getInstance().algorithm().println("No break profile for " + articleText.name() + ": " + e.getMessage());
+            return Optional.empty();
+        }
+    }
+
+    @Override
+    public void prefetch(double widthForSizing, List<Double> fragments, Stream<String> preambleLines, Settings settings, ArticleText articleText) {
+        delegate.prefetch(widthForSizing, fragments, preambleLines, settings, articleText);
+    }
+
+    @Override
+    public void flush() {
+        delegate.flush();
+    }
+
+    @Override
+    public void reset() {
+        profiles.clear();
+        delegate.reset();
+    }
+
+    @Override
+    public void close() {
+        profiles.clear();
+        delegate.close();
+    }
+
+    /**
+     * Profiles depend only on the article and the width it's set to.
+     */
+    private static class ProfileKey {
+        private final double width;
+        private final ArticleText articleText;
+
+        ProfileKey(double width, ArticleText articleText) {
+            this.width = width;
+            this.articleText = articleText;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            ProfileKey that = (ProfileKey) o;
+            return Double.compare(that.width, width) == 0 && articleText == that.articleText;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(width, System.identityHashCode(articleText));
+        }
+    }
+}
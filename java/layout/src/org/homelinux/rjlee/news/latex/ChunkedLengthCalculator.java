@@ -0,0 +1,280 @@
+package org.homelinux.rjlee.news.latex;
+
+import org.homelinux.rjlee.news.input.ArticleImpl;
+import org.homelinux.rjlee.news.input.ArticleText;
+import org.homelinux.rjlee.news.input.Headers;
+import org.homelinux.rjlee.news.logging.Logger;
+import org.homelinux.rjlee.news.settings.Settings;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Measure long articles in chunks of whole paragraphs, and add up the lengths of the chunks.
+ * <p>
+ * Each chunk is written to a file of its own, named after its content, so that the delegate caches its length
+ * separately: an edit to one paragraph only means measuring its chunk again. Chunks are measured on the caller's
+ * thread, which is already one of the measurement threads, so they're only measured at once as far as the delegate
+ * batches them up when they're prefetched; and none is long enough to overflow TeX's largest dimension. Once a layout
+ * is done (when the calculator is reset or closed), the chunk files that weren't used in it are deleted.
+ * <p>
+ * For the lengths to add up exactly, each chunk but the first starts with an empty box, which stands in for the last
+ * line of the chunk before, so that the chunk includes the paragraph skip and the interline glue above its first
+ * line; and each chunk but the last ends with an empty box pulled back up by {@code \baselineskip}, which leaves out
+ * the depth of its last line (as that's accounted for by the glue in the next chunk).
+ * <p>
+ * Chunk boundaries are chosen from the content of the paragraphs (see {@link #chunks}), so inserting or removing a
+ * paragraph doesn't move the boundaries elsewhere in the article. Only LaTeX articles are chunked, and only where
+ * it's safe to measure the paragraphs apart: see {@link #paragraphs}. Splits are always measured whole.
+ *
+ * @author Robert
+ */
+public class ChunkedLengthCalculator implements LengthCalculator {
+    static final String LEADER = "\\hbox{}%";
+    static final String TRAILER = "\\par\\hbox{}\\vskip-\\baselineskip";
+    /**
+     * Commands whose effect may carry on beyond the paragraph they're in.
+     */
+    private static final Pattern STATEFUL = Pattern.compile("\\\\(?:[egx]?def|let|global|(?:re)?newcommand|providecommand|DeclareRobustCommand"
+            + "|(?:re)?newenvironment|newlength|setlength|addtolength|newcounter|setcounter|addtocounter|stepcounter|refstepcounter"
+            + "|makeatletter|input|include|verb|baselineskip|parskip|parindent|linespread|baselinestretch|fontsize|selectfont"
+            + "|begin\\s*\\{(?:verbatim|comment|lstlisting|minted|filecontents)\\*?})(?![A-Za-z])");
+    /**
+     * Declarations that last until the end of the group or environment they're in.
+     */
+    private static final Set<String> DECLARATIONS = new HashSet<>(Arrays.asList(
+            "tiny", "scriptsize", "footnotesize", "small", "normalsize", "large", "Large", "LARGE", "huge", "Huge",
+            "rmfamily", "sffamily", "ttfamily", "bfseries", "mdseries", "itshape", "slshape", "scshape", "upshape",
+            "em", "bf", "it", "sl", "sc", "tt", "sf", "rm", "raggedright", "raggedleft", "centering"));
+
+    private final LengthCalculator delegate;
+    private final Map<ArticleText, Optional<List<ArticleChunk>>> chunked = new ConcurrentHashMap<>();
+    /**
+     * Directories the chunks were written to.
+     */
+    private final Set<Path> dirs = ConcurrentHashMap.newKeySet();
+
+    public ChunkedLengthCalculator(LengthCalculator delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public double calculateLength(double widthForSizing, List<Double> fragments, Stream<String> preambleLines, Settings settings, ArticleText articleText) {
+        Optional<List<ArticleChunk>> chunks = fragments.isEmpty() ? chunks(settings, articleText) : Optional.empty();
+        if (!chunks.isPresent())
+            return delegate.calculateLength(widthForSizing, fragments, preambleLines, settings, articleText);
+        List<String> preamble = preambleLines.collect(Collectors.toList());
+        List<ArticleChunk> parts = chunks.get();
+        double length = parts.stream()
+                .mapToDouble(chunk -> delegate.calculateLength(widthForSizing, fragments, preamble.stream(), settings, chunk))
+                .sum();
+        Logger.getInstance().dumpAll().printf("  Calculated length of %s from %d chunks: %fin%n", articleText, parts.size(), length);
+        return length;
+    }
+
+    @Override
+    public void prefetch(double widthForSizing, List<Double> fragments, Stream<String> preambleLines, Settings settings, ArticleText articleText) {
+        Optional<List<ArticleChunk>> chunks = fragments.isEmpty() ? chunks(settings, articleText) : Optional.empty();
+        if (!chunks.isPresent()) {
+            delegate.prefetch(widthForSizing, fragments, preambleLines, settings, articleText);
+            return;
+        }
+        List<String> preamble = preambleLines.collect(Collectors.toList());
+        chunks.get().forEach(chunk -> delegate.prefetch(widthForSizing, fragments, preamble.stream(), settings, chunk));
+    }
+
+    @Override
+    public void flush() {
+        delegate.flush();
+    }
+
+    @Override
+    public void reset() {
+        delegate.reset();
+        prune();
+    }
+
+    @Override
+    public void close() {
+        delegate.close();
+        prune();
+    }
+
+    /**
+     * Delete the chunk files that weren't used in this layout, and forget the chunks.
+     */
+    private void prune() {
+        Set<Path> current = chunked.values().stream()
+                .flatMap(chunks -> chunks.map(List::stream).orElseGet(Stream::empty))
+                .map(ArticleChunk::path)
+                .collect(Collectors.toSet());
+        chunked.clear();
+        for (Path dir : dirs) {
+            try (Stream<Path> files = Files.list(dir)) {
+                files.filter(f -> f.getFileName().toString().endsWith(".tex"))
+                        .filter(f -> !current.contains(f))
+                        .forEach(f -> {
+                            try {
+                                Files.deleteIfExists(f);
+                            } catch (IOException e) {
+                                Logger.getInstance().elements().println("Failed to delete " + f + ": " + e.getMessage());
+                            }
+                        });
+            } catch (IOException e) {
+                Logger.getInstance().elements().println("Failed to delete old chunks from " + dir + ": " + e.getMessage());
+            }
+        }
+        dirs.clear();
+    }
+
+    /**
+     * @return the chunks to measure instead of the article, or empty to measure it whole.
+     */
+    private Optional<List<ArticleChunk>> chunks(Settings settings, ArticleText articleText) {
+        return chunked.computeIfAbsent(articleText, a -> split(settings, a));
+    }
+
+    private Optional<List<ArticleChunk>> split(Settings settings, ArticleText articleText) {
+        Headers headers = articleText.getHeaders();
+        if (articleText.getClass() != ArticleImpl.class || headers.getInputMode() != Headers.InputMode.LATEX)
+            return Optional.empty(); // e.g. spanning columns, which are balanced as a whole
+        if (settings.isEnableLateXHooks() && headers.isAnyHeaderSet("BeforeContent", "AfterContent"))
+            return Optional.empty();
+        Logger logger = Logger.getInstance();
+        List<List<String>> chunks;
+        try {
+            chunks = paragraphs(Files.readAllLines(articleText.path()))
+                    .map(paragraphs -> chunks(paragraphs, settings.getChunkParagraphs()))
+                    .orElse(Collections.emptyList());
+        } catch (IOException e) {
+            logger.dumpAll().println("Not chunking " + articleText + ": " + e.getMessage());
+            return Optional.empty();
+        }
+        if (chunks.size() < 2) return Optional.empty();
+        if (chunks.stream().filter(c -> c.stream().anyMatch(l -> l.contains("\\footnote"))).count() > 1) {
+            // each chunk would have a footnote rule of its own
+            logger.dumpAll().println("Not chunking " + articleText + ": footnotes in several chunks");
+            return Optional.empty();
+        }
+        Path dir = settings.getOut().resolve("chunks");
+        List<ArticleChunk> parts = new ArrayList<>();
+        try {
+            Files.createDirectories(dir);
+            dirs.add(dir);
+            for (int i = 0; i < chunks.size(); i++) {
+                List<String> lines = new ArrayList<>();
+                if (i > 0) lines.add(LEADER);
+                lines.addAll(chunks.get(i));
+                if (i < chunks.size() - 1) lines.add(TRAILER);
+                parts.add(new ArticleChunk(articleText, i, write(dir, lines), this));
+            }
+        } catch (IOException e) {
+            logger.elements().println("Failed to write chunks of " + articleText + "; measuring it whole: " + e.getMessage());
+            return Optional.empty();
+        }
+        logger.algorithm().println("Measuring " + articleText + " in " + parts.size() + " chunks");
+        return Optional.of(parts);
+    }
+
+    /**
+     * Write the lines to a file named after them, unless it's already there.
+     */
+    private static Path write(Path dir, List<String> lines) throws IOException {
+        Path file = dir.resolve(MeasurementFormats.hash(String.join("\n", lines)) + ".tex");
+        if (!Files.exists(file)) {
+            Path tmp = Files.createTempFile(dir, "chunk", ".tmp");
+            Files.write(tmp, lines);
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        return file;
+    }
+
+    /**
+     * Divide LaTeX source into paragraphs, at blank lines outside any group or environment. Each paragraph keeps the
+     * blank lines after it, so the paragraphs join up to the original source; comments are kept with the text after
+     * them.
+     *
+     * @return the paragraphs; or empty if the source does anything that may affect the paragraphs after the one it's
+     * in, such as defining a command or changing the font size outside a group, or if its groups don't balance.
+     */
+    static Optional<List<List<String>>> paragraphs(List<String> lines) {
+        List<List<String>> paragraphs = new ArrayList<>();
+        List<String> paragraph = new ArrayList<>();
+        int braces = 0, environments = 0;
+        boolean content = false, ended = false;
+        for (String line : lines) {
+            if (line.trim().isEmpty()) {
+                if (content && braces == 0 && environments == 0) ended = true;
+                paragraph.add(line);
+                continue;
+            }
+            if (ended) {
+                paragraphs.add(paragraph);
+                paragraph = new ArrayList<>();
+                ended = false;
+            }
+            paragraph.add(line);
+            String source = stripComment(line);
+            if (!source.trim().isEmpty()) content = true; // a paragraph of comments alone would measure nothing
+            if (STATEFUL.matcher(source).find()) return Optional.empty();
+            for (int i = 0; i < source.length(); i++) {
+                char c = source.charAt(i);
+                if (c == '{') braces++;
+                else if (c == '}') braces--;
+                else if (c == '\\' && i + 1 < source.length()) {
+                    int end = i + 1;
+                    while (end < source.length() && Character.isLetter(source.charAt(end))) end++;
+                    String command = end == i + 1 ? source.substring(i + 1, i + 2) : source.substring(i + 1, end);
+                    if (command.equals("begin")) environments++;
+                    else if (command.equals("end")) environments--;
+                    else if (braces == 0 && environments == 0 && DECLARATIONS.contains(command)) return Optional.empty();
+                    i += command.length();
+                }
+            }
+        }
+        if (braces != 0 || environments != 0) return Optional.empty();
+        if (!paragraph.isEmpty()) paragraphs.add(paragraph);
+        return Optional.of(paragraphs);
+    }
+
+    private static String stripComment(String line) {
+        for (int i = 0; i < line.length(); i++) {
+            if (line.charAt(i) == '\\') i++;
+            else if (line.charAt(i) == '%') return line.substring(0, i);
+        }
+        return line;
+    }
+
+    /**
+     * Group paragraphs into chunks. A chunk ends after a paragraph whose text hashes to a multiple of the typical
+     * chunk size, so the boundaries depend only on the paragraphs either side of them; no chunk is more than twice
+     * the typical size.
+     *
+     * @param size typical number of paragraphs in a chunk
+     * @return the source of each chunk
+     */
+    static List<List<String>> chunks(List<List<String>> paragraphs, int size) {
+        List<List<String>> chunks = new ArrayList<>();
+        List<String> chunk = new ArrayList<>();
+        int count = 0;
+        for (List<String> paragraph : paragraphs) {
+            chunk.addAll(paragraph);
+            count++;
+            int hash = String.join("\n", paragraph).trim().hashCode();
+            if (Math.floorMod(hash, size) == 0 || count >= 2 * size) {
+                chunks.add(chunk);
+                chunk = new ArrayList<>();
+                count = 0;
+            }
+        }
+        if (!chunk.isEmpty()) chunks.add(chunk);
+        return chunks;
+    }
+}
@@ -0,0 +1,190 @@
+package org.homelinux.rjlee.news.latex;
+
+import org.homelinux.rjlee.news.input.ArticleText;
+import org.homelinux.rjlee.news.input.Headers;
+import org.homelinux.rjlee.news.logging.Logger;
+import org.homelinux.rjlee.news.parsing.LengthParser;
+import org.homelinux.rjlee.news.settings.Settings;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.BiFunction;
+import java.util.stream.Stream;
+
+/**
+ * Estimate the length of articles without running LaTeX, for quick draft layouts.
+ * <p>
+ * The text of the article (see {@link DraftText}) is broken into lines the way TeX does it: choosing the breaks
+ * that give the fewest total demerits over the whole paragraph, rather than filling each line in turn, and using the
+ * character widths and interword glue of the default font (see {@link FontMetrics}). The length is then the sum of
+ * the baselines, with the headline, headings and footnotes each set in their own size, as
+ * {@link LatexInteraction} defines them.
+ * <p>
+ * Nothing is hyphenated, and maths, pictures and other boxes are ignored, so this is only an estimate; the final
+ * newspaper must be laid out again without the draft setting to be sure that everything fits.
+ *
+ * @author Robert
+ */
+public class DraftLengthCalculator implements LengthCalculator {
+    private static final double LINE_PENALTY = 10; // TeX's \linepenalty
+    private static final double INF_BAD = 10000;
+    private static final double AWFUL_DEMERITS = 1e10; // a line worse than \tolerance; only if there's no other way
+    private static final double PARINDENT = 1.5; // ems
+    private static final double BASELINE = 1.2; // baselineskip per point of font size, as the fontsize package sets
+    private static final double FOOTNOTE_SIZE = 0.8; // \footnotesize, relative to \normalsize
+    private static final double FOOTINS_SKIP = 0.9; // \skip\footins, in ems of \normalsize
+    private static final double HEADING_SKIP = 2; // pt; see \@startsection
+    private static final double HEADLINE_SKIP = 2; // pt; \headlineskip
+
+    private final BiFunction<Settings, String, FontMetrics> fonts;
+
+    public DraftLengthCalculator() {
+        this((settings, series) -> FontMetrics.forFont(settings.getDefaultFontFamily(), series, settings.getDefaultFontEncoding()));
+    }
+
+    /**
+     * @param fonts metrics of the default font family for the given settings, in the given series
+     */
+    DraftLengthCalculator(BiFunction<Settings, String, FontMetrics> fonts) {
+        this.fonts = fonts;
+    }
+
+    @Override
+    public double calculateLength(double widthForSizing, List<Double> fragments, Stream<String> preambleLines, Settings settings, ArticleText articleText) {
+        Logger logger = Logger.getInstance();
+        DraftText text;
+        try {
+            text = DraftText.read(articleText.path(), articleText.getHeaders().getInputMode());
+        } catch (IOException e) {
+            PrintWriter quiet = logger.quiet();
+            quiet.println("I/O Error estimating length of article:");
+            e.printStackTrace(quiet);
+            throw new RuntimeException("Failed to estimate article length", e);
+        }
+        List<Double> lines = lines(widthForSizing / LengthParser.PT_PER_IN, settings, articleText.getHeaders(), text);
+
+        // each split takes as many whole lines as fit, as \vsplit would:
+        int line = 0;
+        for (double fragment : fragments) {
+            double remaining = fragment / LengthParser.PT_PER_IN;
+            while (line < lines.size() && lines.get(line) <= remaining)
+                remaining -= lines.get(line++);
+        }
+        double rest = lines.subList(line, lines.size()).stream().mapToDouble(d -> d).sum() * LengthParser.PT_PER_IN;
+        double length = fragments.stream().mapToDouble(d -> d).sum() + rest;
+        logger.algorithm().printf("Estimated length of article %s as %f in%n", articleText.name(), length);
+        return length;
+    }
+
+    /**
+     * @param width width of the column, in points
+     * @return the height of each line of the article in turn, in points, including any space above it.
+     */
+    List<Double> lines(double width, Settings settings, Headers headers, DraftText text) {
+        FontMetrics roman = fonts.apply(settings, settings.getDefaultFontSeries());
+        FontMetrics bold = fonts.apply(settings, "bx");
+        double size = settings.getDefaultFontSize();
+        int tolerance = settings.getTolerance();
+        List<Double> lines = new ArrayList<>();
+
+        headers.ifHeader("Head", headline -> {
+            long headSize = headers.getIntegerHeader("HeadSize", 1, Integer.MAX_VALUE, 18);
+            long headSpacing = headers.getIntegerHeader("HeadSpacing", 1, Integer.MAX_VALUE, headSize + 2);
+            List<String> words = Arrays.asList(headline.trim().split("\\s+"));
+            // centred, so no stretch is needed to fill the line:
+            int count = lineCount(widths(bold, headSize, words), 0, width, bold.getSpace() * headSize, width, bold.getSpaceShrink() * headSize, tolerance);
+            for (int i = 0; i < count; i++)
+                lines.add((double) headSpacing);
+            lines.add(HEADLINE_SKIP);
+        });
+
+        for (DraftText.Paragraph paragraph : text.getParagraphs()) {
+            boolean heading = paragraph.kind == DraftText.Kind.HEADING;
+            FontMetrics font = heading ? bold : roman;
+            if (heading && !lines.isEmpty()) lines.add(HEADING_SKIP);
+            addParagraph(lines, paragraph.words, font, size, heading ? 0 : PARINDENT * size, width, tolerance);
+            if (heading) lines.add(HEADING_SKIP);
+        }
+
+        if (!text.getFootnotes().isEmpty()) {
+            lines.add(FOOTINS_SKIP * size);
+            for (DraftText.Paragraph footnote : text.getFootnotes())
+                addParagraph(lines, footnote.words, roman, size * FOOTNOTE_SIZE, PARINDENT * size * FOOTNOTE_SIZE, width, tolerance);
+        }
+
+        // the first line only takes its height, not a whole baseline, and the last its depth:
+        if (!lines.isEmpty())
+            lines.set(0, Math.max(0, lines.get(0) - size * (BASELINE - roman.getHeight() - roman.getDepth())));
+        return lines;
+    }
+
+    private static void addParagraph(List<Double> lines, List<String> words, FontMetrics font, double size, double indent, double width, int tolerance) {
+        int count = lineCount(widths(font, size, words), indent, width,
+                font.getSpace() * size, font.getSpaceStretch() * size, font.getSpaceShrink() * size, tolerance);
+        for (int i = 0; i < count; i++)
+            lines.add(size * BASELINE);
+    }
+
+    private static double[] widths(FontMetrics font, double size, List<String> words) {
+        return words.stream().mapToDouble(w -> font.width(w) * size).toArray();
+    }
+
+    /**
+     * Break a paragraph into lines, choosing the breaks with the fewest total demerits, as TeX does (though only
+     * between words, and without hyphenation). A line may stretch or shrink its interword spaces; any line that
+     * would have to stretch beyond the tolerance is only used if there is no other way to set the paragraph, and
+     * a word too wide for the column gets a line to itself.
+     *
+     * @param words     natural width of each word
+     * @param indent    width of the indentation at the start of the first line
+     * @param lineWidth width of each line
+     * @param space     natural width of the space between words
+     * @param stretch   how much each space may stretch
+     * @param shrink    how much each space may shrink
+     * @param tolerance maximum badness of a line, as TeX's {@code \tolerance}
+     * @return the number of lines
+     */
+    static int lineCount(double[] words, double indent, double lineWidth, double space, double stretch, double shrink, int tolerance) {
+        int n = words.length;
+        if (n == 0) return 0;
+        double[] demerits = new double[n + 1]; // fewest demerits of a break after each word
+        int[] lines = new int[n + 1];
+        Arrays.fill(demerits, Double.POSITIVE_INFINITY);
+        demerits[0] = 0;
+        for (int j = 1; j <= n; j++) {
+            double natural = -space;
+            for (int i = j - 1; i >= 0; i--) { // a line of words i to j-1
+                natural += words[i] + space;
+                int gaps = j - i - 1;
+                double width = lineWidth - (i == 0 ? indent : 0);
+                if (natural - gaps * shrink > width && i < j - 1)
+                    break; // overfull, and adding more words only makes it worse
+                double badness = badness(width - natural, gaps * stretch, gaps * shrink, j == n);
+                double d = Math.pow(LINE_PENALTY + badness, 2) + (badness > tolerance ? AWFUL_DEMERITS : 0);
+                if (demerits[i] + d < demerits[j]) {
+                    demerits[j] = demerits[i] + d;
+                    lines[j] = lines[i] + 1;
+                }
+            }
+        }
+        return lines[n];
+    }
+
+    /**
+     * @param shortfall how much narrower the natural width of the line is than the column
+     * @param last      true for the last line of the paragraph, which is filled with {@code \parfillskip}.
+     * @return TeX's badness of the line
+     */
+    private static double badness(double shortfall, double stretch, double shrink, boolean last) {
+        if (shortfall >= 0) {
+            if (last || shortfall == 0) return 0;
+            if (stretch <= 0) return INF_BAD;
+            return Math.min(INF_BAD, 100 * Math.pow(shortfall / stretch, 3));
+        }
+        if (shrink <= 0 || -shortfall > shrink) return INF_BAD + 1; // overfull
+        return 100 * Math.pow(-shortfall / shrink, 3);
+    }
+}
@@ -0,0 +1,277 @@
+package org.homelinux.rjlee.news.latex;
+
+import org.homelinux.rjlee.news.input.Headers;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * The words of an article, with the markup stripped, for {@link DraftLengthCalculator}.
+ * <p>
+ * This only understands as much markup as is needed to find the paragraphs, headings and footnotes; the arguments of
+ * any other commands are kept as text, and their names are dropped.
+ *
+ * @author Robert
+ */
+class DraftText {
+    private static final List<String> HEADINGS = Arrays.asList("section", "subsection", "subsubsection", "paragraph", "subparagraph");
+    private static final Pattern MD_FOOTNOTE = Pattern.compile("^\\[\\^[^]]*]:\\s*(.*)$");
+    private static final Pattern MD_LIST_ITEM = Pattern.compile("^\\s*([-*+]|\\d+[.)])\\s+(.*)$");
+    private static final Pattern MD_IMAGE = Pattern.compile("!\\[[^]]*]\\([^)]*\\)");
+    private static final Pattern MD_LINK = Pattern.compile("\\[([^]^][^]]*)]\\([^)]*\\)");
+    private static final Pattern MD_FOOTNOTE_REF = Pattern.compile("\\[\\^[^]]*]");
+
+    enum Kind {
+        PARAGRAPH, HEADING, FOOTNOTE
+    }
+
+    static final class Paragraph {
+        final Kind kind;
+        final List<String> words;
+
+        Paragraph(Kind kind, List<String> words) {
+            this.kind = kind;
+            this.words = words;
+        }
+
+        @Override
+        public String toString() {
+            return kind + ": " + String.join(" ", words);
+        }
+    }
+
+    private final List<Paragraph> paragraphs = new ArrayList<>();
+    private final List<Paragraph> footnotes = new ArrayList<>();
+    private List<String> words = new ArrayList<>();
+    private final StringBuilder word = new StringBuilder();
+
+    /**
+     * @param path article to read
+     * @param mode how the article is included in the newspaper
+     * @return the text of the article
+     * @throws IOException if the article can't be read
+     */
+    static DraftText read(Path path, Headers.InputMode mode) throws IOException {
+        return parse(Files.readAllLines(path), mode);
+    }
+
+    static DraftText parse(List<String> lines, Headers.InputMode mode) {
+        DraftText text = new DraftText();
+        switch (mode) {
+            case LATEX:
+                text.latex(lines.stream().map(DraftText::stripComment).collect(Collectors.joining("\n")));
+                break;
+            case MARKDOWN:
+                text.markdown(lines);
+                break;
+            default:
+                text.plain(lines);
+                break;
+        }
+        text.endParagraph(Kind.PARAGRAPH);
+        return text;
+    }
+
+    /**
+     * @return the paragraphs and headings of the body of the article, in order.
+     */
+    List<Paragraph> getParagraphs() {
+        return Collections.unmodifiableList(paragraphs);
+    }
+
+    /**
+     * @return the footnotes, in order; these are set after the body.
+     */
+    List<Paragraph> getFootnotes() {
+        return Collections.unmodifiableList(footnotes);
+    }
+
+    private static String stripComment(String line) {
+        for (int i = 0; i < line.length(); i++) {
+            if (line.charAt(i) == '\\') i++;
+            else if (line.charAt(i) == '%') return line.substring(0, i);
+        }
+        return line;
+    }
+
+    private void endWord() {
+        if (word.length() > 0) {
+            words.add(word.toString());
+            word.setLength(0);
+        }
+    }
+
+    private void endParagraph(Kind kind) {
+        endWord();
+        if (!words.isEmpty())
+            (kind == Kind.FOOTNOTE ? footnotes : paragraphs).add(new Paragraph(kind, words));
+        words = new ArrayList<>();
+    }
+
+    private void plain(List<String> lines) {
+        for (String line : lines) {
+            if (line.startsWith("%")) continue; // headers and comments are stripped from plain text
+            if (line.trim().isEmpty()) endParagraph(Kind.PARAGRAPH);
+            else words(line);
+        }
+    }
+
+    private void words(String text) {
+        for (String w : text.trim().split("\\s+"))
+            if (!w.isEmpty()) words.add(w);
+    }
+
+    private void markdown(List<String> lines) {
+        boolean code = false;
+        for (String line : lines) {
+            if (line.startsWith("%")) continue;
+            if (line.trim().startsWith("```")) {
+                endParagraph(Kind.PARAGRAPH);
+                code = !code;
+                continue;
+            }
+            if (code) { // each line of code is a line of output
+                words(line);
+                endParagraph(Kind.PARAGRAPH);
+                continue;
+            }
+            if (line.trim().isEmpty()) {
+                endParagraph(Kind.PARAGRAPH);
+                continue;
+            }
+            Matcher footnote = MD_FOOTNOTE.matcher(line);
+            Matcher item = MD_LIST_ITEM.matcher(line);
+            if (line.startsWith("#")) {
+                endParagraph(Kind.PARAGRAPH);
+                words(markdownInline(line.replaceFirst("^#+", "")));
+                endParagraph(Kind.HEADING);
+            } else if (footnote.matches()) {
+                endParagraph(Kind.PARAGRAPH);
+                words(markdownInline(footnote.group(1)));
+                endParagraph(Kind.FOOTNOTE);
+            } else if (item.matches()) {
+                endParagraph(Kind.PARAGRAPH);
+                words(markdownInline(item.group(2)));
+            } else {
+                words(markdownInline(line));
+            }
+        }
+    }
+
+    private static String markdownInline(String line) {
+        line = MD_IMAGE.matcher(line).replaceAll("");
+        line = MD_LINK.matcher(line).replaceAll("$1");
+        line = MD_FOOTNOTE_REF.matcher(line).replaceAll("");
+        return line.replaceAll("[*_`]", "");
+    }
+
+    private void latex(String s) {
+        int i = 0;
+        while (i < s.length()) {
+            char c = s.charAt(i);
+            if (c == '\\') {
+                i = command(s, i + 1);
+            } else if (Character.isWhitespace(c)) {
+                endWord();
+                int newlines = 0;
+                while (i < s.length() && Character.isWhitespace(s.charAt(i)))
+                    if (s.charAt(i++) == '\n') newlines++;
+                if (newlines > 1) endParagraph(Kind.PARAGRAPH);
+            } else {
+                if (c == '~') word.append('\u00a0'); // an unbreakable space
+                else if ("{}$&^_#".indexOf(c) < 0) word.append(c);
+                i++;
+            }
+        }
+    }
+
+    /**
+     * @param s text
+     * @param i index following a backslash
+     * @return index following the command
+     */
+    private int command(String s, int i) {
+        if (i >= s.length()) return i;
+        if (!Character.isLetter(s.charAt(i))) { // control symbol
+            char symbol = s.charAt(i);
+            if (symbol == '\\') endParagraph(Kind.PARAGRAPH);
+            else if ("%&$#_{}".indexOf(symbol) >= 0) word.append(symbol);
+            else if (symbol == ' ') endWord();
+            return i + 1;
+        }
+        int end = i;
+        while (end < s.length() && Character.isLetter(s.charAt(end))) end++;
+        String name = s.substring(i, end);
+        while (end < s.length() && (s.charAt(end) == ' ' || s.charAt(end) == '\t')) end++; // TeX skips spaces after a control word
+        switch (name) {
+            case "par":
+            case "item":
+            case "begin":
+            case "end":
+                endParagraph(Kind.PARAGRAPH);
+                if (name.equals("begin") || name.equals("end")) end = skipGroup(s, end);
+                return skipOptional(s, end);
+            case "footnote": {
+                end = skipOptional(s, end);
+                int close = skipGroup(s, end);
+                DraftText footnote = new DraftText();
+                footnote.latex(group(s, end, close));
+                footnote.endParagraph(Kind.PARAGRAPH);
+                footnote.paragraphs.forEach(p -> footnotes.add(new Paragraph(Kind.FOOTNOTE, p.words)));
+                footnotes.addAll(footnote.footnotes);
+                return close;
+            }
+            default:
+                if (HEADINGS.contains(name)) {
+                    if (end < s.length() && s.charAt(end) == '*') end++;
+                    end = skipOptional(s, end);
+                    int close = skipGroup(s, end);
+                    endParagraph(Kind.PARAGRAPH);
+                    latex(group(s, end, close));
+                    endParagraph(Kind.HEADING);
+                    return close;
+                }
+                endWord();
+                return skipOptional(s, end);
+        }
+    }
+
+    private static int skipOptional(String s, int i) {
+        if (i < s.length() && s.charAt(i) == '[') {
+            int close = s.indexOf(']', i);
+            return close < 0 ? s.length() : close + 1;
+        }
+        return i;
+    }
+
+    /**
+     * @return index following the group (or single character) starting at i, after any spaces.
+     */
+    private static int skipGroup(String s, int i) {
+        while (i < s.length() && Character.isWhitespace(s.charAt(i))) i++;
+        if (i >= s.length()) return i;
+        if (s.charAt(i) != '{') return i + 1;
+        int depth = 0;
+        for (; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '\\') i++;
+            else if (c == '{') depth++;
+            else if (c == '}' && --depth == 0) return i + 1;
+        }
+        return i;
+    }
+
+    private static String group(String s, int start, int end) {
+        String group = s.substring(start, end).trim();
+        if (group.startsWith("{") && group.endsWith("}")) return group.substring(1, group.length() - 1);
+        return group;
+    }
+}
@@ -0,0 +1,141 @@
+package org.homelinux.rjlee.news.latex;
+
+import org.homelinux.rjlee.news.input.ArticleText;
+import org.homelinux.rjlee.news.logging.Logger;
+import org.homelinux.rjlee.news.settings.Settings;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Answer with an estimate from the {@link LengthModel} where it's good enough, and measure the article in the
+ * background meanwhile, so that layout can be planned without waiting for LaTeX.
+ * <p>
+ * Only whole articles are estimated; once they are split, their lengths are always measured. Pages may be laid out
+ * on the estimates meanwhile; call {@link #settle()} before relying on any length: it waits for the measurements, and
+ * stops any further estimates.
+ *
+ * @author Robert
+ */
+public class EstimatingLengthCalculator implements LengthCalculator {
+    private final LengthCalculator delegate;
+    private final LengthModel model;
+    private final double tolerance;
+    private final ExecutorService background;
+    private final Map<ArticleText, Speculation> speculations = new ConcurrentHashMap<>();
+    private volatile boolean speculating = true;
+
+    private static final class Speculation {
+        final LengthEstimate estimate;
+        final Future<Double> measurement;
+
+        Speculation(LengthEstimate estimate, Future<Double> measurement) {
+            this.estimate = estimate;
+            this.measurement = measurement;
+        }
+    }
+
+    /**
+     * @param delegate  to measure articles
+     * @param model     to estimate them
+     * @param tolerance largest standard error of an estimate to use, in inches; see
+     *                  {@link Settings#getEstimateTolerance()}
+     * @param threads   number of articles to measure in the background at once; 0 for one per available processor.
+     */
+    public EstimatingLengthCalculator(LengthCalculator delegate, LengthModel model, double tolerance, int threads) {
+        this.delegate = delegate;
+        this.model = model;
+        this.tolerance = tolerance;
+        AtomicInteger threadNo = new AtomicInteger();
+        this.background = Executors.newFixedThreadPool(threads > 0 ? threads : Runtime.getRuntime().availableProcessors(), r -> {
+            Thread t = new Thread(r, "speculate-" + threadNo.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    private Optional<LengthEstimate> estimate(double widthForSizing, List<Double> fragments, Settings settings, ArticleText articleText) {
+        if (!speculating || !fragments.isEmpty()) return Optional.empty();
+        return model.estimate(widthForSizing, settings, articleText).filter(e -> e.getError() <= tolerance);
+    }
+
+    @Override
+    public double calculateLength(double widthForSizing, List<Double> fragments, Stream<String> preambleLines, Settings settings, ArticleText articleText) {
+        Speculation speculation = speculations.get(articleText);
+        if (speculating && fragments.isEmpty() && speculation != null) // it's already being measured
+            return speculation.estimate.getLength();
+        Optional<LengthEstimate> estimate = estimate(widthForSizing, fragments, settings, articleText);
+        if (!estimate.isPresent())
+            return delegate.calculateLength(widthForSizing, fragments, preambleLines, settings, articleText);
+
+        List<String> preamble = preambleLines.collect(Collectors.toList());
+        Future<Double> measurement = background.submit(() -> delegate.calculateLength(widthForSizing, fragments, preamble.stream(), settings, articleText));
+        speculations.put(articleText, new Speculation(estimate.get(), measurement));
+        Logger.getInstance().algorithm().printf("Estimated length of %s as %s%n", articleText, estimate.get());
+        return estimate.get().getLength();
+    }
+
+    @Override
+    public void prefetch(double widthForSizing, List<Double> fragments, Stream<String> preambleLines, Settings settings, ArticleText articleText) {
+        // even what's estimated is prefetched, so it's measured along with the rest; the background measurement
+        // collects the result:
+        delegate.prefetch(widthForSizing, fragments, preambleLines, settings, articleText);
+    }
+
+    /**
+     * Stop estimating, and wait for every article estimated so far to be measured.
+     *
+     * @return how far out the estimate was for each estimated article, in inches; {@link Double#POSITIVE_INFINITY}
+     * if it couldn't be measured.
+     */
+    public Map<ArticleText, Double> settle() {
+        speculating = false;
+        Logger logger = Logger.getInstance();
+        Map<ArticleText, Double> errors = new LinkedHashMap<>();
+        for (Map.Entry<ArticleText, Speculation> entry : speculations.entrySet()) {
+            LengthEstimate estimate = entry.getValue().estimate;
+            double error;
+            try {
+                double measured = entry.getValue().measurement.get();
+                error = Math.abs(measured - estimate.getLength());
+                logger.algorithm().printf("Estimated %s as %s; measured %f in%n", entry.getKey(), estimate, measured);
+            } catch (ExecutionException e) {
+                error = Double.POSITIVE_INFINITY; // measure it again in the foreground, to report the error
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted while measuring " + entry.getKey(), e);
+            }
+            errors.put(entry.getKey(), error);
+        }
+        speculations.clear();
+        return errors;
+    }
+
+    @Override
+    public void flush() {
+        delegate.flush();
+    }
+
+    /**
+     * Estimate lengths again, for the next layout.
+     */
+    @Override
+    public void reset() {
+        speculations.values().forEach(s -> s.measurement.cancel(true));
+        speculations.clear();
+        speculating = true;
+        delegate.reset();
+    }
+
+    @Override
+    public void close() {
+        background.shutdownNow();
+        delegate.close();
+    }
+}
@@ -4,71 +4,177 @@ import org.homelinux.rjlee.news.logging.Logger;
 import org.homelinux.rjlee.news.settings.Settings;
 
 import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.time.Instant;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.DoubleSupplier;
-import java.util.stream.Collectors;
+import java.util.zip.CRC32;
 
+/**
+ * Lengths of articles, kept between runs.
+ * <p>
+ * Each length is stored against a key describing everything that affects it (see {@link LengthCacheKey}), so
+ * entries never go stale; they simply stop being looked up.
+ * <p>
+ * The cache file is binary: a header, then fixed-size records holding the digest, the length, a checksum and the run
+ * in which the length was last used. It is memory-mapped, and only the digests are read at startup; each record is
+ * checked the first time it's looked up. New lengths are appended. When the file holds too many lengths, or too many
+ * damaged records, it is compacted, keeping the most recently used {@link Settings#getLengthsCacheMaxEntries()}.
+ * A cache file in the old text format is read once and replaced.
+ */
 public class FileCache {
+    private static final long MAGIC = 0x4e4557534c454e53L; // "NEWSLENS"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16; // magic, version, generation
+    private static final int GENERATION_OFFSET = 12;
+    private static final int KEY_SIZE = 32; // SHA-256
+    private static final int RECORD_SIZE = 48; // key, length, checksum of key and length, generation
+    private static final int VALUE_OFFSET = KEY_SIZE;
+    private static final int CHECKSUM_OFFSET = KEY_SIZE + 8;
+    private static final int RECORD_GENERATION_OFFSET = CHECKSUM_OFFSET + 4;
+
     private static final FileCache instance = new FileCache();
     private Path cacheFile;
-    private final Map<CacheKey, Instant> dateCache = new HashMap<>();
-    private final Map<CacheKey, Double> valueCache = new HashMap<>();
+    private int maxEntries;
+    /**
+     * Run counter, to tell which entries were used most recently.
+     */
+    private int generation;
+    private MappedByteBuffer mapped;
+    /**
+     * Offset in {@link #mapped} of each record not yet read.
+     */
+    private final Map<String, Integer> unread = new ConcurrentHashMap<>();
+    private final Map<String, Double> valueCache = new ConcurrentHashMap<>();
+    /**
+     * Lengths not yet written to the file.
+     */
+    private final Set<String> added = ConcurrentHashMap.newKeySet();
+    /**
+     * Records in the file that are damaged or superseded, and will be dropped on compaction.
+     */
+    private int dead;
+    /**
+     * The file isn't in the current format, and must be rewritten.
+     */
+    private boolean rewrite;
+    /**
+     * Lengths being calculated right now; a second request for the same key waits for the first.
+     */
+    private final Map<String, CompletableFuture<Double>> inFlight = new ConcurrentHashMap<>();
 
     public static FileCache getInstance() {
         return instance;
     }
 
-    public void init(Settings settings) {
+    public synchronized void init(Settings settings) {
         Path out = settings.getOut();
         cacheFile = out.resolve(settings.getLengthsCache());
-        if (Files.exists(cacheFile)) {
-            load();
-        }
+        maxEntries = settings.getLengthsCacheMaxEntries();
+        load();
     }
 
     private void load() {
+        mapped = null;
+        unread.clear();
+        valueCache.clear();
+        added.clear();
+        dead = 0;
+        rewrite = false;
+        generation = 1;
+        if (!Files.exists(cacheFile)) return;
+        try (FileChannel channel = FileChannel.open(cacheFile, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long size = channel.size();
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            channel.read(header, 0);
+            header.flip();
+            if (header.remaining() < HEADER_SIZE || header.getLong() != MAGIC) {
+                loadText();
+                return;
+            }
+            int version = header.getInt();
+            if (version != VERSION) throw new IOException("Unknown cache version " + version);
+            generation = header.getInt() + 1;
+            if (size > Integer.MAX_VALUE) throw new IOException("Cache file too large");
+            mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            int records = (int) ((size - HEADER_SIZE) / RECORD_SIZE);
+            if (HEADER_SIZE + (long) records * RECORD_SIZE != size) dead++; // partial record from an interrupted write
+            byte[] key = new byte[KEY_SIZE];
+            for (int i = 0; i < records; i++) {
+                int offset = HEADER_SIZE + i * RECORD_SIZE;
+                for (int b = 0; b < KEY_SIZE; b++) key[b] = mapped.get(offset + b);
+                if (unread.put(LengthCacheKey.toHex(key), offset) != null) dead++;
+            }
+            Logger.getInstance().dumpAll().println("Mapped " + records + " cached lengths from " + cacheFile);
+        } catch (IOException e) {
+            PrintWriter quietLogger = Logger.getInstance().quiet();
+            quietLogger.println("Failed to read cache: " + e.getMessage());
+            e.printStackTrace(quietLogger);
+            mapped = null;
+            unread.clear();
+            rewrite = true;
+        }
+    }
+
+    /**
+     * Read the text format written by earlier versions: one {@code key;;length} per line.
+     */
+    private void loadText() {
+        rewrite = true;
         try (BufferedReader in = Files.newBufferedReader(cacheFile, StandardCharsets.UTF_8)) {
             String line;
+            int oldFormat = 0;
             for (int i = 0; (line = in.readLine()) != null; i++) {
                 if (line.trim().isEmpty()) continue; // skip blank lines (makes eof handling easier)
-                String[] parts = line.split(";;", 3);
-                if (parts.length < 3) {
-                    throw new IOException("File format error on line " + i + "Expected 2 semicolons");
+                String[] parts = line.split(";;");
+                if (parts.length == 3) {
+                    // path;fragments;;date;;value: keyed by file name and date, which can't tell us if it's still valid.
+                    oldFormat++;
+                    continue;
                 }
-                CacheKey key = new CacheKey(parts[0]);
-                if (Files.exists(key.path)) {
-                    Instant date = Instant.parse(parts[1]);
-                    // evict anything that's out of date (we assume the output doesn't change during a compile)
-                    if (!Files.getLastModifiedTime(key.path).toInstant().isAfter(date)) {
-                        double value = Double.parseDouble(parts[2]);
-                        valueCache.put(key, value);
-                        dateCache.put(key, date);
-                    }
+                if (parts.length != 2) {
+                    throw new IOException("File format error on line " + i + "Expected 2 semicolons");
                 }
+                valueCache.put(parts[0], Double.parseDouble(parts[1]));
+                added.add(parts[0]);
             }
-        } catch (IOException e) {
+            if (oldFormat > 0)
+                Logger.getInstance().algorithm().println("Discarded " + oldFormat + " lengths cached in an old format");
+        } catch (IOException | NumberFormatException e) {
             PrintWriter quietLogger = Logger.getInstance().quiet();
             quietLogger.println("Failed to read cache: " + e.getMessage());
             e.printStackTrace(quietLogger);
         }
-
     }
 
-    public void save() {
-        try (BufferedWriter bw = Files.newBufferedWriter(cacheFile, StandardCharsets.UTF_8);
-             PrintWriter pw = new PrintWriter(bw)) {
-            for (Map.Entry<CacheKey, Double> next : valueCache.entrySet()) {
-
-                CacheKey key = next.getKey();
-                Instant lastModified = Objects.requireNonNull(dateCache.get(key));
-                pw.printf("%s;;%s;;%s%n", key, lastModified, next.getValue());
+    /**
+     * Write any new lengths to the cache file, compacting it if it has grown too large or holds too many damaged
+     * records.
+     */
+    public synchronized void save() {
+        try {
+            int live = unread.size() + valueCache.size();
+            int records = live + dead;
+            // allow some slack, so that a full cache isn't rewritten on every run:
+            if (rewrite || mapped == null && !added.isEmpty() || live > maxEntries + maxEntries / 8 || dead > records / 4) {
+                compact();
+            } else if (!added.isEmpty()) {
+                append();
+            } else if (mapped != null) {
+                mapped.putInt(GENERATION_OFFSET, generation);
+                mapped.force();
             }
         } catch (IOException e) {
             PrintWriter quietLogger = Logger.getInstance().quiet();
@@ -77,53 +183,186 @@ public class FileCache {
         }
     }
 
-    public double calculate(Path path, List<Double> fragments, DoubleSupplier cacheFunction) {
-        CacheKey key= new CacheKey(path, fragments);
-        if (valueCache.containsKey(key)) {
-            return valueCache.get(key);
+    private void append() throws IOException {
+        mapped.putInt(GENERATION_OFFSET, generation);
+        mapped.force();
+        try (FileChannel channel = FileChannel.open(cacheFile, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            ByteBuffer buffer = ByteBuffer.allocate(RECORD_SIZE * 1024);
+            for (String key : added) {
+                if (!LengthCacheKey.isDigest(key)) continue;
+                if (!buffer.hasRemaining()) writeFully(channel, buffer);
+                putRecord(buffer, new Entry(key, valueCache.get(key), generation));
+            }
+            writeFully(channel, buffer);
+            channel.force(false);
+        }
+        Logger.getInstance().dumpAll().println("Appended " + added.size() + " lengths to " + cacheFile);
+        added.clear();
+    }
+
+    /**
+     * Rewrite the file with only the most recently used valid lengths. The file is written to a temporary file, which
+     * then replaces the cache file, so that the old cache survives if we fail part-way through.
+     */
+    private void compact() throws IOException {
+        List<Entry> entries = new ArrayList<>();
+        for (Map.Entry<String, Double> entry : valueCache.entrySet()) {
+            entries.add(new Entry(entry.getKey(), entry.getValue(), generation));
         }
-        double rtn = cacheFunction.getAsDouble();
+        for (Map.Entry<String, Integer> entry : unread.entrySet()) {
+            int offset = entry.getValue();
+            if (valid(offset))
+                entries.add(new Entry(entry.getKey(), mapped.getDouble(offset + VALUE_OFFSET), mapped.getInt(offset + RECORD_GENERATION_OFFSET)));
+        }
+        entries.removeIf(e -> !LengthCacheKey.isDigest(e.key));
+        entries.sort(Comparator.comparingInt((Entry e) -> e.generation).reversed());
+        int evicted = Math.max(0, entries.size() - maxEntries);
+        if (evicted > 0) entries = entries.subList(0, maxEntries);
+
+        Path dir = cacheFile.toAbsolutePath().getParent();
+        Path tmpFile = Files.createTempFile(dir, cacheFile.getFileName().toString(), ".tmp");
         try {
-            dateCache.put(key, Objects.requireNonNull(Files.getLastModifiedTime(key.path).toInstant()));
-            valueCache.put(key, rtn);
+            try (FileChannel channel = FileChannel.open(tmpFile, StandardOpenOption.WRITE)) {
+                ByteBuffer buffer = ByteBuffer.allocate(RECORD_SIZE * 1024);
+                buffer.putLong(MAGIC).putInt(VERSION).putInt(generation);
+                for (Entry e : entries) {
+                    if (!buffer.hasRemaining()) writeFully(channel, buffer);
+                    putRecord(buffer, e);
+                }
+                writeFully(channel, buffer);
+                channel.force(false);
+            }
+            mapped = null; // so the file can be replaced on platforms that lock mapped files (once it's collected)
+            try {
+                Files.move(tmpFile, cacheFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmpFile, cacheFile, StandardCopyOption.REPLACE_EXISTING);
+            }
         } catch (IOException e) {
-            Logger.getInstance().quiet().println("WARNING: Can't access modified time for " + key + " " + e.getMessage());
+            Files.deleteIfExists(tmpFile);
+            throw e;
         }
-        return rtn;
+        Logger.getInstance().algorithm().printf("Compacted lengths cache to %d entries (%d evicted, %d damaged or duplicate)%n", entries.size(), evicted, dead);
+        Map<String, Double> values = new HashMap<>(valueCache);
+        int current = generation;
+        load();
+        valueCache.putAll(values); // keep everything used in this run, even if it was evicted from the file
+        values.keySet().forEach(unread::remove); // and count it, and write it out, only once
+        generation = current;
     }
 
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) channel.write(buffer);
+        buffer.clear();
+    }
 
-    private class CacheKey {
-        private final Path path;
-        private final List<Double> fragments;
-
-        public CacheKey(Path path, List<Double> fragments) {
-            this.path = path;
-            this.fragments = new ArrayList<>(fragments);
+    private static void putRecord(ByteBuffer buffer, Entry entry) {
+        int start = buffer.position();
+        for (int i = 0; i < KEY_SIZE; i++) {
+            buffer.put((byte) Integer.parseInt(entry.key.substring(2 * i, 2 * i + 2), 16));
         }
+        buffer.putDouble(entry.length);
+        ByteBuffer record = buffer.duplicate();
+        record.position(start).limit(start + CHECKSUM_OFFSET);
+        CRC32 crc = new CRC32();
+        crc.update(record);
+        buffer.putInt((int) crc.getValue());
+        buffer.putInt(entry.generation);
+    }
 
-        public CacheKey(String bits) {
-            String[] parts = bits.split(";");
-            path = cacheFile.getFileSystem().getPath(parts[0]);
-            fragments = Arrays.stream(parts).skip(1).map(Double::parseDouble).collect(Collectors.toList());
-        }
+    /**
+     * @return true if the checksum of the mapped record matches its key and length
+     */
+    private boolean valid(int offset) {
+        ByteBuffer record = mapped.duplicate();
+        record.position(offset).limit(offset + CHECKSUM_OFFSET);
+        CRC32 crc = new CRC32();
+        crc.update(record);
+        return (int) crc.getValue() == mapped.getInt(offset + CHECKSUM_OFFSET);
+    }
 
-        @Override
-        public String toString() {
-            return path.toString() + fragments.stream().map(f -> ";" + f).collect(Collectors.joining());
+    /**
+     * Read a mapped record, checking it and marking it as used in this run.
+     *
+     * @return the length, or null if it's not in the file or is damaged.
+     */
+    private synchronized Double read(String key) {
+        Integer offset = unread.remove(key);
+        if (offset == null || mapped == null) return null;
+        if (!valid(offset)) {
+            Logger.getInstance().algorithm().println("Ignoring damaged entry in lengths cache at offset " + offset);
+            dead++;
+            return null;
         }
+        double value = mapped.getDouble(offset + VALUE_OFFSET);
+        mapped.putInt(offset + RECORD_GENERATION_OFFSET, generation);
+        valueCache.put(key, value);
+        return value;
+    }
+
+    /**
+     * A length to be written to the file.
+     */
+    private static final class Entry {
+        private final String key;
+        private final double length;
+        private final int generation;
 
-        @Override
-        public boolean equals(Object o) {
-            if (this == o) return true;
-            if (o == null || getClass() != o.getClass()) return false;
-            CacheKey cacheKey = (CacheKey) o;
-            return Objects.equals(path, cacheKey.path) && Objects.equals(fragments, cacheKey.fragments);
+        private Entry(String key, double length, int generation) {
+            this.key = key;
+            this.length = length;
+            this.generation = generation;
         }
+    }
+
+    /**
+     * @return true if a length is held for the given key
+     */
+    public boolean contains(String key) {
+        return valueCache.containsKey(key) || unread.containsKey(key);
+    }
 
-        @Override
-        public int hashCode() {
-            return Objects.hash(path, fragments);
+    /**
+     * Return the cached length, or calculate it. Thread-safe; if the same length is already being calculated by
+     * another thread, this waits for that result rather than calculating it again.
+     *
+     * @param key           from {@link LengthCacheKey}
+     * @param cacheFunction calculates the length if it's not cached
+     */
+    public double calculate(String key, DoubleSupplier cacheFunction) {
+        Double cached = valueCache.get(key);
+        if (cached == null && unread.containsKey(key)) cached = read(key);
+        if (cached != null) {
+            return cached;
+        }
+        CompletableFuture<Double> future = new CompletableFuture<>();
+        CompletableFuture<Double> existing = inFlight.putIfAbsent(key, future);
+        if (existing != null) {
+            try {
+                return existing.join();
+            } catch (CompletionException e) {
+                throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+            }
+        }
+        try {
+            // check again, in case another thread finished this key after our first check:
+            cached = valueCache.get(key);
+            double rtn;
+            if (cached != null) {
+                rtn = cached;
+            } else {
+                rtn = cacheFunction.getAsDouble();
+                valueCache.put(key, rtn);
+                added.add(key);
+            }
+            future.complete(rtn);
+            return rtn;
+        } catch (RuntimeException | Error e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, future);
         }
     }
 }
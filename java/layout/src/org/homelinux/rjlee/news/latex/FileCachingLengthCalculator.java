@@ -1,24 +1,74 @@
 package org.homelinux.rjlee.news.latex;
 
+import org.homelinux.rjlee.news.input.ArticleImpl;
 import org.homelinux.rjlee.news.input.ArticleText;
 import org.homelinux.rjlee.news.settings.Settings;
 
 import java.util.List;
+import java.util.Optional;
 import java.util.function.DoubleSupplier;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 public class FileCachingLengthCalculator implements LengthCalculator {
 
     private final LengthCalculator delegate;
     private final FileCache lengthCache = FileCache.getInstance();
+    private final LengthModel lengthModel;
 
     public FileCachingLengthCalculator(LengthCalculator delegate) {
+        this(delegate, null);
+    }
+
+    /**
+     * @param lengthModel to learn from each whole article measured; or null if lengths aren't estimated.
+     */
+    public FileCachingLengthCalculator(LengthCalculator delegate, LengthModel lengthModel) {
         this.delegate = delegate;
+        this.lengthModel = lengthModel;
+    }
+
+    /**
+     * @return true if the article is one of those the length model estimates: whole, and neither a chunk of one nor
+     * set across several columns.
+     */
+    private boolean isObserved(List<Double> fragments, ArticleText articleText) {
+        return lengthModel != null && fragments.isEmpty()
+                && articleText instanceof ArticleImpl && !(articleText instanceof ArticleChunk);
     }
 
     @Override
     public double calculateLength(double widthForSizing, List<Double> fragments, Stream<String> preambleLines, Settings settings1, ArticleText articleText) {
-        DoubleSupplier cacheFunction = () -> delegate.calculateLength(widthForSizing, fragments, preambleLines, settings1, articleText);
-        return lengthCache.calculate(articleText.getPath(), fragments, cacheFunction);
+        List<String> preamble = preambleLines.collect(Collectors.toList());
+        DoubleSupplier cacheFunction = () -> {
+            double length = delegate.calculateLength(widthForSizing, fragments, preamble.stream(), settings1, articleText);
+            if (isObserved(fragments, articleText)) lengthModel.observe(widthForSizing, settings1, articleText, length);
+            return length;
+        };
+        Optional<String> key = LengthCacheKey.of(widthForSizing, fragments, preamble, settings1, articleText);
+        return key.isPresent() ? lengthCache.calculate(key.get(), cacheFunction) : cacheFunction.getAsDouble();
+    }
+
+    @Override
+    public void prefetch(double widthForSizing, List<Double> fragments, Stream<String> preambleLines, Settings settings1, ArticleText articleText) {
+        List<String> preamble = preambleLines.collect(Collectors.toList());
+        Optional<String> key = LengthCacheKey.of(widthForSizing, fragments, preamble, settings1, articleText);
+        if (!key.isPresent() || !lengthCache.contains(key.get()))
+            delegate.prefetch(widthForSizing, fragments, preamble.stream(), settings1, articleText);
+    }
+
+    @Override
+    public void flush() {
+        delegate.flush();
+    }
+
+    @Override
+    public void reset() {
+        delegate.reset();
+    }
+
+    @Override
+    public void close() {
+        delegate.close();
     }
 }
@@ -0,0 +1,228 @@
+package org.homelinux.rjlee.news.latex;
+
+import org.homelinux.rjlee.news.logging.Logger;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Character widths and interword spacing of a font, for estimating the length of text without running TeX.
+ * <p>
+ * All dimensions are in units of the font size (ems), so one set of metrics serves every size of the font.
+ * Metrics are read from the font's TFM file where it can be found, and otherwise approximated from the proportions
+ * of a typical serif font.
+ *
+ * @author Robert
+ */
+public class FontMetrics {
+    private static final Map<String, FontMetrics> fonts = new ConcurrentHashMap<>();
+
+    private final double[] widths; // by character code; 0 if absent
+    private final double averageWidth;
+    private final double space;
+    private final double spaceStretch;
+    private final double spaceShrink;
+    private final double height;
+    private final double depth;
+
+    FontMetrics(double[] widths, double space, double spaceStretch, double spaceShrink, double height, double depth) {
+        this.widths = widths;
+        this.averageWidth = Arrays.stream(widths, 'a', 'z' + 1).filter(w -> w > 0).average().orElse(0.5);
+        this.space = space;
+        this.spaceStretch = spaceStretch;
+        this.spaceShrink = spaceShrink;
+        this.height = height;
+        this.depth = depth;
+    }
+
+    /**
+     * @param family   LaTeX font family, e.g. {@code ptm}
+     * @param series   LaTeX font series, e.g. {@code m} or {@code bx}
+     * @param encoding LaTeX font encoding, e.g. {@code T1}
+     * @return metrics for the font, from its TFM file if TeX can find it; otherwise approximate.
+     */
+    public static FontMetrics forFont(String family, String series, String encoding) {
+        return fonts.computeIfAbsent(tfmName(family, series, encoding), name -> {
+            Logger logger = Logger.getInstance();
+            try {
+                Path tfm = findTfm(name);
+                if (tfm != null) {
+                    try (InputStream in = Files.newInputStream(tfm)) {
+                        logger.algorithm().println("Using font metrics from " + tfm);
+                        return readTfm(in);
+                    }
+                }
+            } catch (IOException e) {
+                logger.elements().println("Failed to read font metrics " + name + ": " + e.getMessage());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            logger.elements().println("No font metrics for " + name + "; estimating from typical character widths");
+            return approximate(series);
+        });
+    }
+
+    /**
+     * The name of the TFM file that the standard LaTeX font definitions use for a font, following the Berry
+     * naming scheme: family, weight, then encoding, e.g. {@code ptmr8t} for Times Roman in T1 encoding.
+     */
+    static String tfmName(String family, String series, String encoding) {
+        String weight = series.startsWith("b") ? "b" : "r";
+        String variant = "OT1".equalsIgnoreCase(encoding) ? "7t" : "8t";
+        return family + weight + variant + ".tfm";
+    }
+
+    private static Path findTfm(String name) throws IOException, InterruptedException {
+        Process kpsewhich;
+        try {
+            kpsewhich = new ProcessBuilder("kpsewhich", name).redirectErrorStream(true).start();
+        } catch (IOException e) {
+            return null; // no TeX installation
+        }
+        String found;
+        try (BufferedReader r = new BufferedReader(new InputStreamReader(kpsewhich.getInputStream(), StandardCharsets.UTF_8))) {
+            found = r.readLine();
+        }
+        if (!kpsewhich.waitFor(10, TimeUnit.SECONDS)) {
+            kpsewhich.destroyForcibly();
+            return null;
+        }
+        if (kpsewhich.exitValue() != 0 || found == null || found.trim().isEmpty()) return null;
+        return Paths.get(found.trim());
+    }
+
+    /**
+     * Read a TeX font metric file. Only the character dimensions and font parameters are used; ligatures and kerns
+     * are ignored.
+     *
+     * @param in TFM file contents
+     * @return the metrics
+     * @throws IOException if the file cannot be read, or is not a TFM file
+     */
+    static FontMetrics readTfm(InputStream in) throws IOException {
+        DataInputStream data = new DataInputStream(new BufferedInputStream(in));
+        int lf = data.readUnsignedShort();
+        int lh = data.readUnsignedShort();
+        int bc = data.readUnsignedShort();
+        int ec = data.readUnsignedShort();
+        int nw = data.readUnsignedShort();
+        int nh = data.readUnsignedShort();
+        int nd = data.readUnsignedShort();
+        int ni = data.readUnsignedShort();
+        int nl = data.readUnsignedShort();
+        int nk = data.readUnsignedShort();
+        int ne = data.readUnsignedShort();
+        int np = data.readUnsignedShort();
+        if (bc > ec + 1 || ec > 255 || lh < 2 || lf != 6 + lh + (ec - bc + 1) + nw + nh + nd + ni + nl + nk + ne + np)
+            throw new IOException("Not a TFM file");
+
+        skipWords(data, lh);
+        int[] charInfo = new int[ec - bc + 1];
+        for (int i = 0; i < charInfo.length; i++)
+            charInfo[i] = data.readInt();
+        double[] width = readFixWords(data, nw);
+        double[] height = readFixWords(data, nh);
+        double[] depth = readFixWords(data, nd);
+        skipWords(data, ni + nl + nk + ne);
+        double[] param = readFixWords(data, np);
+
+        double[] widths = new double[256];
+        double[] heights = new double[256];
+        double[] depths = new double[256];
+        for (int i = 0; i < charInfo.length; i++) {
+            int info = charInfo[i];
+            int widthIndex = info >>> 24;
+            if (widthIndex == 0 || widthIndex >= nw) continue; // no such character
+            widths[bc + i] = width[widthIndex];
+            heights[bc + i] = height[Math.min((info >>> 20) & 0xf, nh - 1)];
+            depths[bc + i] = depth[Math.min((info >>> 16) & 0xf, nd - 1)];
+        }
+        double space = np > 1 ? param[1] : widths[' '];
+        double stretch = np > 2 ? param[2] : space / 2;
+        double shrink = np > 3 ? param[3] : space / 3;
+        double maxHeight = Arrays.stream(heights, 'A', 'z' + 1).max().orElse(0.7);
+        double maxDepth = Arrays.stream(depths, 'a', 'z' + 1).max().orElse(0.2);
+        return new FontMetrics(widths, space, stretch, shrink, maxHeight, maxDepth);
+    }
+
+    private static void skipWords(DataInputStream data, int words) throws IOException {
+        data.readFully(new byte[words * 4]);
+    }
+
+    private static double[] readFixWords(DataInputStream data, int count) throws IOException {
+        double[] values = new double[count];
+        for (int i = 0; i < count; i++)
+            values[i] = data.readInt() / (double) (1 << 20);
+        return values;
+    }
+
+    /**
+     * @param series LaTeX font series; bold series are set a little wider
+     * @return metrics with the proportions of Times Roman, for when no metrics file is available.
+     */
+    static FontMetrics approximate(String series) {
+        double scale = series.startsWith("b") ? 1.08 : 1;
+        double[] widths = new double[256];
+        for (char c = ' '; c < 127; c++) {
+            double w;
+            if ("ijlt.,;:'!|".indexOf(c) >= 0) w = 0.278;
+            else if ("frI()[]-`\"".indexOf(c) >= 0) w = 0.333;
+            else if ("mMW".indexOf(c) >= 0) w = 0.889;
+            else if (c == 'w') w = 0.722;
+            else if (Character.isUpperCase(c)) w = 0.667;
+            else if (Character.isLowerCase(c)) w = 0.472;
+            else if (Character.isDigit(c)) w = 0.5;
+            else w = 0.5;
+            widths[c] = w * scale;
+        }
+        widths[' '] = 0.25;
+        return new FontMetrics(widths, 0.25, 0.125, 0.083, 0.683, 0.217);
+    }
+
+    /**
+     * @param word text without line breaks; spaces within it are counted at their natural width
+     * @return natural width in ems
+     */
+    public double width(String word) {
+        double total = 0;
+        for (int i = 0; i < word.length(); i++) {
+            char c = word.charAt(i);
+            if (Character.isWhitespace(c) || c == '\u00a0') total += space;
+            else total += c < widths.length && widths[c] > 0 ? widths[c] : averageWidth;
+        }
+        return total;
+    }
+
+    public double getSpace() {
+        return space;
+    }
+
+    public double getSpaceStretch() {
+        return spaceStretch;
+    }
+
+    public double getSpaceShrink() {
+        return spaceShrink;
+    }
+
+    /**
+     * @return height of the tallest letter, in ems
+     */
+    public double getHeight() {
+        return height;
+    }
+
+    /**
+     * @return depth of the deepest lower-case letter, in ems
+     */
+    public double getDepth() {
+        return depth;
+    }
+}
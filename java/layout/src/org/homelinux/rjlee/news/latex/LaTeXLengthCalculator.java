@@ -6,9 +6,16 @@ import org.homelinux.rjlee.news.settings.Settings;
 
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.nio.file.CopyOption;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Optional;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 /**
@@ -18,13 +25,77 @@ import java.util.stream.Stream;
  * @author Robert
  */
 public class LaTeXLengthCalculator implements LengthCalculator {
+    /**
+     * How closely a break profile must agree with LaTeX's own measurement of the article, in inches (about 0.1pt).
+     */
+    private static final double PROFILE_TOLERANCE = 0.0015;
+    private MeasurementFormats formats;
+
     public LaTeXLengthCalculator() {
     }
 
     @Override
     public double calculateLength(double widthForSizing, List<Double> fragments, Stream<String> preambleLines, Settings settings, ArticleText articleText) {
-        LatexLength ll = new LatexLength(widthForSizing, fragments, preambleLines, settings, new LatexProcessFactory(), Logger.getInstance());
-        return calculateLength(articleText, ll);
+        return measure(widthForSizing, fragments, preambleLines, settings, articleText, ll -> calculateLength(articleText, ll));
+    }
+
+    /**
+     * Measure the whole article, and take its {@link BreakProfile}, so that the length left after any split can be
+     * worked out without shelling to LaTeX again.
+     *
+     * @return the profile, or empty if LaTeX couldn't take one, or it doesn't match the measured length.
+     */
+    public Optional<BreakProfile> measureBreakProfile(double widthForSizing, Stream<String> preambleLines, Settings settings, ArticleText articleText) {
+        return measure(widthForSizing, Collections.emptyList(), preambleLines, settings, articleText, ll -> {
+            ll.setBreakProfile(true);
+            double length = calculateLength(articleText, ll);
+            Logger logger = Logger.getInstance();
+            BreakProfile profile;
+            try {
+                profile = ll.getBreakProfile();
+            } catch (IllegalArgumentException e) {
+                logger.algorithm().println("No break profile for " + articleText.name() + ": " + e.getMessage());
+                return Optional.empty();
+            }
+            if (Math.abs(profile.length() - length) > PROFILE_TOLERANCE) {
+                logger.algorithm().printf("Break profile of %s gives length %fin, not %fin; ignoring it%n", articleText.name(), profile.length(), length);
+                return Optional.empty();
+            }
+            logger.dumpAll().println("Break profile of " + articleText.name() + " has " + profile.size() + " items");
+            return Optional.of(profile);
+        });
+    }
+
+    /**
+     * Run LaTeX on the article, using a precompiled format for the preamble if enabled and possible.
+     *
+     * @param calculate runs the measurement
+     */
+    private <T> T measure(double widthForSizing, List<Double> fragments, Stream<String> preambleLines, Settings settings, ArticleText articleText, Function<LatexLength, T> calculate) {
+        if (!settings.isPrecompiledPreamble()) {
+            LatexLength ll = new LatexLength(widthForSizing, fragments, preambleLines, settings, new LatexProcessFactory(), Logger.getInstance());
+            return calculate.apply(ll);
+        }
+        List<String> preamble = preambleLines.collect(Collectors.toList());
+        MeasurementFormats formats = getFormats(settings);
+        Optional<Path> format = formats.formatFor(preamble);
+        if (format.isPresent()) {
+            LatexLength ll = new LatexLength(widthForSizing, fragments, preamble.stream(), settings, new LatexProcessFactory(), Logger.getInstance());
+            ll.setFormat(format.get());
+            try {
+                return calculate.apply(ll);
+            } catch (RuntimeException e) {
+                Logger.getInstance().quiet().printf("Failed to measure %s with format %s (%s); retrying without%n", articleText.name(), format.get(), e.getMessage());
+                formats.broken(preamble);
+            }
+        }
+        LatexLength ll = new LatexLength(widthForSizing, fragments, preamble.stream(), settings, new LatexProcessFactory(), Logger.getInstance());
+        return calculate.apply(ll);
+    }
+
+    private synchronized MeasurementFormats getFormats(Settings settings) {
+        if (formats == null) formats = new MeasurementFormats(settings, new LatexProcessFactory(), Logger.getInstance());
+        return formats;
     }
 
     double calculateLength(ArticleText articleText, LatexLength ll) {
@@ -38,16 +109,47 @@ public class LaTeXLengthCalculator implements LengthCalculator {
             quiet.println("I/O Error calculating length of LaTeX article:");
             e.printStackTrace(quiet);
         }
+        copyAssets(articleText, tmpDir, logger);
+        return ll.calculate();
+    }
+
+    /**
+     * Make any assets required by the article available in the directory where LaTeX will run. Each asset is
+     * hard-linked if possible, or else symbolically linked, and only copied if neither is supported.
+     *
+     * @param articleText article whose headers declare the assets
+     * @param tmpDir      LaTeX working directory
+     * @param logger      for warnings
+     * @param options     options for {@link Files#copy(Path, Path, CopyOption...)}; with
+     *                    {@link StandardCopyOption#REPLACE_EXISTING}, any existing file is replaced by the link too.
+     */
+    static void copyAssets(ArticleText articleText, Path tmpDir, Logger logger, CopyOption... options) {
+        boolean replace = Arrays.asList(options).contains(StandardCopyOption.REPLACE_EXISTING);
         articleText.getHeaders().assets().forEach(asset -> {
             try {
+                Path target = tmpDir.resolve(asset.getFileName());
+                if (replace) Files.deleteIfExists(target);
+                try {
+                    Files.createLink(target, asset);
+                    logger.dumpAll().println("Linked asset " + asset);
+                    return;
+                } catch (IOException | UnsupportedOperationException | SecurityException e) {
+                    // perhaps on a different filesystem; try the next option.
+                }
+                try {
+                    Files.createSymbolicLink(target, asset.toAbsolutePath());
+                    logger.dumpAll().println("Symlinked asset " + asset);
+                    return;
+                } catch (IOException | UnsupportedOperationException | SecurityException e) {
+                    // e.g. Windows without the privilege to create symlinks.
+                }
                 logger.dumpAll().println("Copying asset " + asset);
-                Files.copy(asset, tmpDir.resolve(asset.getFileName()));
+                Files.copy(asset, target, options);
             } catch (IOException e) {
                 PrintWriter warningLogger = logger.elements();
                 warningLogger.printf("Skipping asset %s; failed to copy to %s; %s%n", asset, tmpDir, e.getMessage());
                 e.printStackTrace(warningLogger);
             }
         });
-        return ll.calculate();
     }
 }
@@ -0,0 +1,151 @@
+package org.homelinux.rjlee.news.latex;
+
+import org.homelinux.rjlee.news.file.ScratchDirectoryPool;
+import org.homelinux.rjlee.news.input.ArticleText;
+import org.homelinux.rjlee.news.logging.Logger;
+import org.homelinux.rjlee.news.logging.TeeWriter;
+import org.homelinux.rjlee.news.parsing.LengthParser;
+import org.homelinux.rjlee.news.settings.Settings;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+
+/**
+ * Typeset several articles sharing the same preamble in one LaTeX run, and return their lengths. Single use.
+ *
+ * @author Robert
+ */
+public class LatexBatchLength extends LatexInteraction {
+    private static final String HEIGHT = "ART HEIGHT ";
+    private static final String DEPTH = "ART DEPTH ";
+    private static final String DONE = "ART DONE ";
+
+    private final List<String> preambleLines;
+    private final ShellProcessFactory latexProcessFactory;
+    private final Logger logger;
+    private final Map<String, Job> jobs = new LinkedHashMap<>();
+
+    public LatexBatchLength(List<String> preambleLines, Settings settings, ShellProcessFactory latexProcessFactory, Logger logger) {
+        super(settings);
+        this.preambleLines = preambleLines;
+        this.latexProcessFactory = latexProcessFactory;
+        this.logger = logger;
+    }
+
+    /**
+     * Add an article to be measured.
+     *
+     * @param id        tag for the result; must be unique within the batch, and contain no spaces or colons.
+     * @param width     width to typeset the article, in inches
+     * @param fragments lengths to split off before measuring
+     */
+    public void add(String id, double width, List<Double> fragments, ArticleText articleText) {
+        if (width <= 0) throw new IllegalArgumentException("Width must be positive");
+        jobs.put(id, new Job(width, fragments, articleText));
+    }
+
+    public int size() {
+        return jobs.size();
+    }
+
+    /**
+     * Run LaTeX over all the articles added.
+     *
+     * @return length of each article, in inches, including its fragments, by ID. Any article that LaTeX could not
+     * measure is missing from the result.
+     */
+    public Map<String, Double> calculate() {
+        Map<String, Double> lengths = new HashMap<>();
+        if (jobs.isEmpty()) return lengths;
+        ScratchDirectoryPool scratchDirectories = ScratchDirectoryPool.forDirectory(getSettings().getScratchDir());
+        Path tmpDir = scratchDirectories.acquire();
+        logger.dumpAll().println("Temp dir " + tmpDir);
+        Map<String, StringBuilder> heights = new HashMap<>();
+        Map<String, StringBuilder> depths = new HashMap<>();
+        Set<String> done = new HashSet<>();
+        try {
+            writeTempFile(tmpDir);
+            jobs.values().forEach(job -> LaTeXLengthCalculator.copyAssets(job.articleText, tmpDir, logger, StandardCopyOption.REPLACE_EXISTING));
+            Process process = latexProcessFactory.run(getSettings(), tmpDir, "batch");
+            if (process == null) {
+                logger.quiet().println("  Process not run!");
+                return lengths;
+            }
+            try (BufferedReader r = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = r.readLine()) != null) {
+                    logger.dumpAll().println(line);
+                    collect(line, HEIGHT, heights);
+                    collect(line, DEPTH, depths);
+                    if (line.startsWith(DONE)) done.add(line.substring(DONE.length()));
+                }
+            }
+            process.waitFor(1, java.util.concurrent.TimeUnit.HOURS);
+        } catch (IOException | UncheckedIOException e) {
+            PrintWriter quiet = logger.quiet();
+            quiet.println("I/O Error calculating lengths of LaTeX articles: " + e.getMessage());
+            e.printStackTrace(quiet);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            scratchDirectories.release(tmpDir);
+        }
+
+        jobs.forEach((id, job) -> {
+            StringBuilder height = heights.get(id);
+            StringBuilder depth = depths.get(id);
+            if (height == null || depth == null || !done.contains(id)) {
+                logger.algorithm().println("  No length returned for " + job.articleText.name() + " in batch");
+                return;
+            }
+            double length = LengthParser.readLength(height.toString(), true) + job.fragments.stream().mapToDouble(d -> d).sum()
+                    + LengthParser.readLength(depth.toString(), true);
+            logger.dumpAll().println("  Calculated length of " + job.articleText.name() + ": " + height + "=>" + length + "in");
+            lengths.put(id, length);
+        });
+        return lengths;
+    }
+
+    private static void collect(String line, String prefix, Map<String, StringBuilder> results) {
+        if (!line.startsWith(prefix)) return;
+        int colon = line.indexOf(':', prefix.length());
+        if (colon < 0) return;
+        results.computeIfAbsent(line.substring(prefix.length(), colon), id -> new StringBuilder())
+                .append(line.substring(colon + 1));
+    }
+
+    private void writeTempFile(Path tmpDir) throws IOException {
+        Path batchTex = tmpDir.resolve("batch.tex");
+        try (BufferedWriter bw = Files.newBufferedWriter(batchTex, StandardCharsets.UTF_8);
+             Writer w = new TeeWriter(bw, logger.dumpAll());
+             PrintWriter out = new PrintWriter(w)) {
+            printMeasurementPreamble(out, preambleLines.stream());
+            // Suppress overfull hbox warnings while working out the page size:
+            out.println("\\setlength{\\hfuzz}{\\maxdimen}");
+            out.println("\\setlength{\\vfuzz}{\\maxdimen}");
+            for (Map.Entry<String, Job> entry : jobs.entrySet()) {
+                Job job = entry.getValue();
+                printMeasurement(out, entry.getKey(), job.width, job.fragments, job.articleText, tmpDir);
+                // an article that leaves a group open would affect the measurements of those that follow:
+                out.printf("\\ifnum\\currentgrouplevel=\\z@\\typeout{%s%s}\\fi\n", DONE, entry.getKey());
+            }
+            out.println("\\end{document}");
+        }
+    }
+
+    private static class Job {
+        private final double width;
+        private final List<Double> fragments;
+        private final ArticleText articleText;
+
+        Job(double width, List<Double> fragments, ArticleText articleText) {
+            this.width = width;
+            this.fragments = new ArrayList<>(fragments);
+            this.articleText = articleText;
+        }
+    }
+}
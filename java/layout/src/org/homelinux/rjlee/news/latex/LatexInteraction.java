@@ -1,12 +1,16 @@
 package org.homelinux.rjlee.news.latex;
 
+import org.homelinux.rjlee.news.input.ArticleText;
 import org.homelinux.rjlee.news.settings.Settings;
 
+import java.io.IOException;
 import java.io.PrintWriter;
 import java.nio.file.Path;
 import java.util.Arrays;
+import java.util.List;
 import java.util.Optional;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
  * A class for things that interact with LaTeX
@@ -123,6 +127,13 @@ public abstract class LatexInteraction {
                 "  }%\n" +
                 "  \\global\\expandafter\\setbox\\boxto=\\copy\\boxfrom%\n" +
                 "  \\global\\expandafter\\setbox\\boxfrom=\\copy\\sb@tmp@box%\n" +
+                "}\n" +
+                "\\newcommand{\\voidsplitbox}[1]{%\n" + // once the last part is set, so TeX can free the memory
+                "  \\@tempcnta=\\value{sb@#1}%\n" +
+                "  \\loop\\ifnum\\@tempcnta>\\z@%\n" +
+                "    \\global\\expandafter\\setbox\\csname sb@\\the\\@tempcnta @#1\\endcsname=\\box\\voidb@x%\n" +
+                "    \\advance\\@tempcnta\\m@ne%\n" +
+                "  \\repeat%\n" +
                 "}");
 
         // Definitions for handling inputs of plain-text, while stripping comments:
@@ -265,6 +276,130 @@ public abstract class LatexInteraction {
         out.printf("\\newcommand{\\continuedFrom}[1]{\\vbox{\\def\\otherpage{#1}%s}\\nointerlineskip}\n", settings.getContinuedFromPageText());
     }
 
+    /**
+     * Write the start of a document used to measure articles, up to and including {@code \begin{document}}.
+     * <p>
+     * Postcondition: the output file is in {@code \makeatletter} mode, and the boxes {@code \sb@junkbox} and
+     * {@code \sb@junkbox@} are available to hold the article being measured.
+     *
+     * @param out           writer for the measurement document
+     * @param preambleLines extra preamble lines for the article(s) being measured
+     */
+    protected void printMeasurementPreamble(PrintWriter out, Stream<String> preambleLines) {
+        printMeasurementPreamble(out, preambleLines, false);
+    }
+
+    /**
+     * As {@link #printMeasurementPreamble(PrintWriter, Stream)}, but optionally marking the end of the part of the
+     * preamble that can be loaded from a format file written by {@link #printMeasurementFormatSource}.
+     *
+     * @param fromFormat true if LaTeX will be run with that format; the preamble is then skipped up to {@code \endofdump}.
+     */
+    protected void printMeasurementPreamble(PrintWriter out, Stream<String> preambleLines, boolean fromFormat) {
+        printMeasurementHeader(out, preambleLines);
+        if (fromFormat) {
+            out.println("\\endofdump");
+            out.println("\\makeatletter");
+        }
+
+        // create an output routine to discard data but extract the height of the column:
+        // start the document
+        out.println("\\begin{document}");
+        // for now, just copying tolerance from multicols:
+        out.println("\\vbadness\\@Mi \\hbadness5000 \\tolerance\\nmulticoltolerance");
+    }
+
+    /**
+     * Write the source of a format file for the measurement preamble, for use with the {@code mylatexformat} package.
+     *
+     * @param out           writer for the format source
+     * @param preambleLines extra preamble lines for the article(s) being measured
+     */
+    protected void printMeasurementFormatSource(PrintWriter out, Stream<String> preambleLines) {
+        printMeasurementHeader(out, preambleLines);
+        out.println("\\endofdump");
+    }
+
+    private void printMeasurementHeader(PrintWriter out, Stream<String> preambleLines) {
+        out.println("\\documentclass{article}");
+        out.println("\\usepackage[british]{babel}");
+
+        settings.preambleLines().forEach(out::println);
+        preambleLines.forEach(out::println);
+
+        out.println("\\makeatletter");
+        printAtPreamble(out);
+        // create a box to hold the page output:
+        out.println("\\newbox\\sb@junkbox");
+        out.println("\\newbox\\sb@junkbox@");
+
+        // TODO: Dup cade in NewspaperToLatexImpl
+        // tolerance & emergencystretch based loosely on multicols:
+        out.printf("\\newcount\\nmulticoltolerance \\nmulticoltolerance=%d\n", settings.getTolerance());
+        out.printf("\\def\\setemergencystretch#1#2{%s}\n", settings.getEmergencyStretch());
+        out.printf("\\def\\numnewscols{%s}\n", settings.getMaxColsPerPage());
+    }
+
+    /**
+     * Typeset one article into {@code \sb@junkbox}, split off the given fragments, and report the height and depth of
+     * what remains as {@code ART HEIGHT <id>:} and {@code ART DEPTH <id>:}.
+     * <p>
+     * The measurement is wrapped in a group, so several may follow each other in the same document.
+     * Precondition: written after {@link #printMeasurementPreamble(PrintWriter, Stream)}, in {@code \makeatletter} mode.
+     *
+     * @param out         writer for the measurement document
+     * @param id          tag for the results
+     * @param width       width of the column to typeset the article into, in inches
+     * @param fragments   lengths to split off the start of the article before measuring, in inches
+     * @param articleText article to measure
+     * @param outPath     directory in which LaTeX will run
+     * @throws IOException if the article can't be read
+     */
+    protected void printMeasurement(PrintWriter out, String id, double width, List<Double> fragments, ArticleText articleText, Path outPath) throws IOException {
+        out.println("\\begingroup");
+        out.printf("\\hsize=%fin\\linewidth=%fin\\columnwidth=%fin\\textwidth=%fin\\vsize=\\maxdimen\n", width, width, width, width);
+        out.println("\\setbox\\sb@junkbox=\\vbox{");
+        out.println("\\makeatother");
+        out.println("\\setemergencystretch\\numnewscols\\hsize");
+        articleText.copyTo(out, outPath);
+        out.println("\\dumpfootnotes}\\makeatletter");
+        for (Double toChop : fragments) {
+            out.printf("\\setbox\\sb@junkbox@=\\vbox{\\vsplit\\sb@junkbox to %fin}%%\n", toChop);
+        }
+        out.printf("\\typeout{ART HEIGHT %s:\\the\\ht\\sb@junkbox}\n", id);
+        out.printf("\\typeout{ART DEPTH %s:\\the\\dp\\sb@junkbox}\n", id);
+        out.println("\\endgroup");
+        // footnotes are collected globally, so make sure none leak into the next measurement:
+        out.println("\\global\\setbox\\footnotebox\\box\\voidb@x");
+    }
+
+    /**
+     * Take apart a copy of {@code \sb@junkbox} from the bottom up, writing each item as a line starting
+     * {@link BreakProfile#PREFIX}, followed by {@code \splittopskip} and {@code \splitmaxdepth}; see
+     * {@link BreakProfile#parse(List)}. Stops early, with a {@code STOP} line, at any item that can't be removed.
+     * <p>
+     * Precondition: written in {@code \makeatletter} mode, after {@code \sb@junkbox} has been set.
+     *
+     * @param out writer for the measurement document
+     */
+    protected void printBreakProfile(PrintWriter out) {
+        out.println("\\typeout{ART PROFILE SPLITTOPSKIP:\\the\\splittopskip}");
+        out.println("\\typeout{ART PROFILE SPLITMAXDEPTH:\\the\\splitmaxdepth}");
+        out.println("\\def\\news@profilebox{\\setbox\\sb@junkbox@\\lastbox\\typeout{ART PROFILE BOX:\\the\\ht\\sb@junkbox@,\\the\\dp\\sb@junkbox@}}");
+        out.println("\\def\\news@profile{%");
+        out.println("  \\let\\news@next\\news@profile");
+        out.println("  \\ifnum\\lastnodetype=11 \\typeout{ART PROFILE GLUE:\\the\\lastskip}\\unskip");
+        out.println("  \\else\\ifnum\\lastnodetype=12 \\typeout{ART PROFILE KERN:\\the\\lastkern}\\unkern");
+        out.println("  \\else\\ifnum\\lastnodetype=13 \\typeout{ART PROFILE PENALTY:\\the\\lastpenalty}\\unpenalty");
+        out.println("  \\else\\ifnum\\lastnodetype=1 \\news@profilebox");
+        out.println("  \\else\\ifnum\\lastnodetype=2 \\news@profilebox");
+        out.println("  \\else\\ifnum\\lastnodetype<0 \\typeout{ART PROFILE END}\\let\\news@next\\relax");
+        out.println("  \\else\\typeout{ART PROFILE STOP:\\the\\lastnodetype}\\let\\news@next\\relax");
+        out.println("  \\fi\\fi\\fi\\fi\\fi\\fi");
+        out.println("  \\news@next}");
+        out.println("\\setbox\\sb@junkbox@=\\vbox{\\unvcopy\\sb@junkbox\\news@profile}");
+    }
+
     public static void extract(String line, String prefix, StringBuilder result) {
         if (line.startsWith(prefix + ":"))
             result.append(line.substring(prefix.length() + 1));
@@ -1,6 +1,6 @@
 package org.homelinux.rjlee.news.latex;
 
-import org.homelinux.rjlee.news.file.TmpFileUtils;
+import org.homelinux.rjlee.news.file.ScratchDirectoryPool;
 import org.homelinux.rjlee.news.logging.Logger;
 import org.homelinux.rjlee.news.logging.TeeWriter;
 import org.homelinux.rjlee.news.parsing.LengthParser;
@@ -9,10 +9,11 @@ import org.homelinux.rjlee.news.stream.FakePipedReader;
 import org.homelinux.rjlee.news.stream.FakePipedWriter;
 
 import java.io.*;
-import java.nio.file.FileSystems;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.stream.Stream;
 
@@ -27,7 +28,9 @@ public class LatexLength extends LatexInteraction {
     private final ShellProcessFactory latexProcessFactory;
     private final Logger logger;
     private Path tmpDir;
-    private Path systemTmpDir = FileSystems.getDefault().getPath(System.getProperty("java.io.tmpdir"));
+    private Path format;
+    private boolean breakProfile;
+    private final List<String> profileLines = Collections.synchronizedList(new ArrayList<>());
 
     public LatexLength(double width, List<Double> fragments, Stream<String> preambleLines, Settings settings, ShellProcessFactory latexProcessFactory, Logger logger) {
         super(settings);
@@ -51,6 +54,34 @@ public class LatexLength extends LatexInteraction {
         return latexProcessFactory;
     }
 
+    /**
+     * @param format precompiled measurement preamble to run LaTeX with (see {@link MeasurementFormats}), or null to
+     *               load the preamble from the document.
+     */
+    public void setFormat(Path format) {
+        this.format = format;
+    }
+
+    public Path getFormat() {
+        return format;
+    }
+
+    /**
+     * @param breakProfile true to also take a {@link BreakProfile} of the article, available from
+     *                     {@link #getBreakProfile()} after {@link #calculate()}.
+     */
+    public void setBreakProfile(boolean breakProfile) {
+        this.breakProfile = breakProfile;
+    }
+
+    /**
+     * @return the break profile of the article, as measured by {@link #calculate()}
+     * @throws IllegalArgumentException if none was requested, or LaTeX couldn't take a complete one.
+     */
+    public BreakProfile getBreakProfile() {
+        return BreakProfile.parse(profileLines);
+    }
+
     public PrintWriter writer() throws IOException {
         return new PrintWriter(new BufferedWriter(new FakePipedWriter(pr)));
     }
@@ -67,7 +98,7 @@ public class LatexLength extends LatexInteraction {
         } catch (IOException | InterruptedException e) {
             e.printStackTrace(new PrintWriter(sb, true));
         } finally {
-            if (tmpDir != null) TmpFileUtils.recursiveDeleteOnExit(tmpDir);
+            if (tmpDir != null) scratchDirectories().release(tmpDir);
         }
         if (p == null) {
             logger.quiet().println("  Process not run!");
@@ -97,7 +128,9 @@ public class LatexLength extends LatexInteraction {
      * @throws InterruptedException interrupted before process completed
      */
     private Process runLaTeXProcess(Path tmpDir, StringBuilder readLength, StringBuilder readDepth, StringWriter sb) throws IOException, InterruptedException {
-        Process process = latexProcessFactory.run(getSettings(), tmpDir, "art");
+        Process process = format == null
+                ? latexProcessFactory.run(getSettings(), tmpDir, "art")
+                : latexProcessFactory.run(getSettings(), tmpDir, "-fmt=" + format, "art");
 
         // read lines from the process and parse out the length.
         if (process != null) {
@@ -107,6 +140,9 @@ public class LatexLength extends LatexInteraction {
                             .peek(logger.dumpAll()::println)
                             .peek(l -> extract(l, "ART HEIGHT", readLength))
                             .peek(l -> extract(l, "ART DEPTH", readDepth))
+                            .peek(l -> {
+                                if (l.startsWith(BreakProfile.PREFIX)) profileLines.add(l);
+                            })
                             .map(l -> " >" + l + "<\n").forEach(sb::append);
                 } catch (IOException | UncheckedIOException e) {
                     e.printStackTrace(new PrintWriter(sb, true));
@@ -114,6 +150,7 @@ public class LatexLength extends LatexInteraction {
             });
             t.start();
             process.waitFor(1, java.util.concurrent.TimeUnit.HOURS);
+            t.join(60_000); // make sure we've read all the output before it's parsed
         }
         return process;
     }
@@ -135,50 +172,19 @@ public class LatexLength extends LatexInteraction {
 
     private Path getTmpDir() {
         if (tmpDir == null) {
-            Path tmpDir;
-            tmpDir = getTmpDirImpl(systemTmpDir, logger);
-            this.tmpDir = tmpDir;
+            tmpDir = scratchDirectories().acquire();
             logger.dumpAll().println("Temp dir " + tmpDir);
         }
         return tmpDir;
     }
 
-    static Path getTmpDirImpl(Path systemTmpDir, Logger logger) {
-        Path tmpDir;
-        try {
-            tmpDir = Files.createTempDirectory(systemTmpDir, "art");
-        } catch (IOException e) {
-            e.printStackTrace(logger.quiet());
-            throw new RuntimeException(e);
-        }
-        return tmpDir;
+    private ScratchDirectoryPool scratchDirectories() {
+        return ScratchDirectoryPool.forDirectory(getSettings().getScratchDir());
     }
 
     private void writeTo(PrintWriter out) throws IOException {
         try (BufferedReader in = new BufferedReader(pr)) {
-            out.println("\\documentclass{article}");
-            out.println("\\usepackage[british]{babel}");
-
-            getSettings().preambleLines().forEach(out::println);
-            preambleLines.forEach(out::println);
-
-            out.println("\\makeatletter");
-            printAtPreamble(out);
-            // create a box to hold the page output:
-            out.println("\\newbox\\sb@junkbox");
-            out.println("\\newbox\\sb@junkbox@");
-
-            // TODO: Dup cade in NewspaperToLatexImpl
-            // tolerance & emergencystretch based loosely on multicols:
-            out.printf("\\newcount\\nmulticoltolerance \\nmulticoltolerance=%d\n", getSettings().getTolerance());
-            out.printf("\\def\\setemergencystretch#1#2{%s}\n", getSettings().getEmergencyStretch());
-            out.printf("\\def\\numnewscols{%s}\n", getSettings().getMaxColsPerPage());
-
-            // create an output routine to discard data but extract the height of the column:
-            // start the document
-            out.println("\\begin{document}");
-            // for now, just copying tolerance from multicols:
-            out.println("\\vbadness\\@Mi \\hbadness5000 \\tolerance\\nmulticoltolerance");
+            printMeasurementPreamble(out, preambleLines, format != null);
 
             out.printf("\\hsize=%fin\\linewidth=%fin\\columnwidth=%fin\\textwidth=%fin\\vsize=\\maxdimen", width, width, width, width); // maxdimen=16383pt?
             // Suppress overfull hbox warnings while working out the page size:
@@ -196,6 +202,7 @@ public class LatexLength extends LatexInteraction {
             }
             out.println("\\typeout{ART HEIGHT:\\the\\ht\\sb@junkbox}");// to be captured
             out.println("\\typeout{ART DEPTH:\\the\\dp\\sb@junkbox}");// to be captured
+            if (breakProfile) printBreakProfile(out);
             out.println("\\end{document}");
         }
     }
@@ -0,0 +1,192 @@
+package org.homelinux.rjlee.news.latex;
+
+import org.homelinux.rjlee.news.file.ScratchDirectoryPool;
+import org.homelinux.rjlee.news.input.ArticleText;
+import org.homelinux.rjlee.news.logging.Logger;
+import org.homelinux.rjlee.news.logging.TeeWriter;
+import org.homelinux.rjlee.news.parsing.LengthParser;
+import org.homelinux.rjlee.news.settings.Settings;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * A resident LaTeX process, used to measure articles without paying the start-up cost of LaTeX for each one.
+ * <p>
+ * The server document loads the measurement preamble once, then loops reading a line at a time from standard input
+ * and executing it. We write each job to its own file in the server's working directory, and send an
+ * {@code \input} line for it; the job reports its results with {@code \typeout}, tagged with the job ID.
+ * <p>
+ * Each server measures one job at a time. Not reusable once {@link #isAlive()} returns false.
+ *
+ * @author Robert
+ */
+public class LatexServer extends LatexInteraction implements Closeable {
+    static final String JOB_NAME = "srv";
+    static final String READY = "ART READY";
+
+    private final ShellProcessFactory latexProcessFactory;
+    private final Logger logger;
+    private final Path workDir;
+    private Process process;
+    private PrintWriter toTeX;
+    private BufferedReader fromTeX;
+    private long jobCounter;
+    private boolean alive;
+    /**
+     * Set once closed, so the working directory is only released once: after that, it may be another server's.
+     */
+    private boolean closed;
+
+    public LatexServer(Settings settings, ShellProcessFactory latexProcessFactory, Logger logger) {
+        super(settings);
+        this.latexProcessFactory = latexProcessFactory;
+        this.logger = logger;
+        this.workDir = ScratchDirectoryPool.forDirectory(settings.getScratchDir()).acquire();
+    }
+
+    /**
+     * Write the server document, start LaTeX, and wait for the preamble to load.
+     *
+     * @param preambleLines extra preamble lines, shared by every article measured by this server
+     * @return true if the server is ready for jobs
+     */
+    public boolean start(Stream<String> preambleLines) {
+        try {
+            Path srvTex = workDir.resolve(JOB_NAME + ".tex");
+            try (BufferedWriter bw = Files.newBufferedWriter(srvTex, StandardCharsets.UTF_8);
+                 Writer w = new TeeWriter(bw, logger.dumpAll());
+                 PrintWriter out = new PrintWriter(w)) {
+                printMeasurementPreamble(out, preambleLines);
+                out.println("\\setlength{\\hfuzz}{\\maxdimen}");
+                out.println("\\setlength{\\vfuzz}{\\maxdimen}");
+                // \read from the terminal is fatal in nonstop mode, so only scroll while we wait for the next job.
+                // \read-1 suppresses the prompt.
+                out.println("\\edef\\news@level{\\the\\currentgrouplevel}");
+                out.println("\\def\\news@serve{\\scrollmode\\read-1 to\\news@job\\nonstopmode\\news@job\\news@serve}");
+                out.println("\\typeout{" + READY + "}");
+                out.println("\\news@serve");
+            }
+            process = latexProcessFactory.runInteractive(getSettings(), workDir, JOB_NAME);
+            if (process == null) return false;
+            toTeX = new PrintWriter(new BufferedWriter(new OutputStreamWriter(process.getOutputStream(), StandardCharsets.UTF_8)));
+            fromTeX = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8));
+            alive = awaitLine(READY);
+        } catch (IOException | UncheckedIOException e) {
+            PrintWriter quiet = logger.quiet();
+            quiet.println("Failed to start resident LaTeX process: " + e.getMessage());
+            e.printStackTrace(quiet);
+            alive = false;
+        }
+        if (!alive) close();
+        return alive;
+    }
+
+    /**
+     * Measure an article on this server.
+     *
+     * @return length of the article, in inches, including all fragments
+     * @throws IOException if the server died, or did not produce a length; the server is then no longer alive.
+     */
+    public double calculateLength(double width, List<Double> fragments, ArticleText articleText) throws IOException {
+        if (!alive) throw new IOException("Resident LaTeX process is not running");
+        long id = ++jobCounter;
+        String jobFile = "job" + id + ".tex";
+        Path jobTex = workDir.resolve(jobFile);
+        double length;
+        try {
+            writeJob(jobTex, id, width, fragments, articleText);
+            LaTeXLengthCalculator.copyAssets(articleText, workDir, logger, StandardCopyOption.REPLACE_EXISTING);
+
+            toTeX.println("\\input{" + jobFile + "}");
+            toTeX.flush();
+            if (toTeX.checkError()) throw new IOException("Failed to send job " + id + " to LaTeX");
+
+            StringBuilder readLength = new StringBuilder();
+            StringBuilder readDepth = new StringBuilder();
+            String line;
+            while ((line = fromTeX.readLine()) != null) {
+                logger.dumpAll().println(line);
+                extract(line, "ART HEIGHT " + id, readLength);
+                extract(line, "ART DEPTH " + id, readDepth);
+                if (line.equals("ART DONE " + id)) break;
+                if (line.equals("ART BROKEN " + id))
+                    throw new IOException("Article " + articleText.name() + " left LaTeX in an unknown state");
+            }
+            if (line == null) throw new IOException("Resident LaTeX process exited while measuring " + articleText.name());
+            if (readLength.length() == 0 || readDepth.length() == 0)
+                throw new IOException("Resident LaTeX process completed without producing length for " + articleText.name());
+
+            length = LengthParser.readLength(readLength.toString(), true) + fragments.stream().mapToDouble(d -> d).sum()
+                    + LengthParser.readLength(readDepth.toString(), true);
+            logger.dumpAll().println("  Calculated length: " + readLength + "=>" + length + "in");
+        } catch (IOException | RuntimeException e) {
+            // while the directory is still this server's; once it's closed, it may be another's, with its own job1:
+            try {
+                Files.deleteIfExists(jobTex);
+            } catch (IOException suppressed) {
+                e.addSuppressed(suppressed);
+            }
+            close();
+            throw e instanceof IOException ? (IOException) e : new IOException(e);
+        }
+        Files.deleteIfExists(jobTex);
+        return length;
+    }
+
+    private void writeJob(Path jobTex, long id, double width, List<Double> fragments, ArticleText articleText) throws IOException {
+        try (BufferedWriter bw = Files.newBufferedWriter(jobTex, StandardCharsets.UTF_8);
+             Writer w = new TeeWriter(bw, logger.dumpAll());
+             PrintWriter out = new PrintWriter(w)) {
+            out.println("\\makeatletter");
+            printMeasurement(out, Long.toString(id), width, fragments, articleText, workDir);
+            out.printf("\\ifnum\\currentgrouplevel=\\news@level\\relax\\typeout{ART DONE %d}\\else\\typeout{ART BROKEN %d}\\fi\n", id, id);
+        }
+    }
+
+    private boolean awaitLine(String expected) throws IOException {
+        String line;
+        while ((line = fromTeX.readLine()) != null) {
+            logger.dumpAll().println(line);
+            if (line.equals(expected)) return true;
+        }
+        return false;
+    }
+
+    public boolean isAlive() {
+        return alive;
+    }
+
+    Path getWorkDir() {
+        return workDir;
+    }
+
+    /**
+     * Ask LaTeX to finish, then tidy up. The process is destroyed if it does not exit by itself. Closing it again does
+     * nothing.
+     */
+    @Override
+    public synchronized void close() {
+        if (closed) return;
+        closed = true;
+        if (process != null) {
+            if (alive && toTeX != null) {
+                toTeX.println("\\end{document}");
+                toTeX.close();
+            }
+            try {
+                if (!process.waitFor(5, java.util.concurrent.TimeUnit.SECONDS)) process.destroy();
+            } catch (InterruptedException e) {
+                process.destroy();
+                Thread.currentThread().interrupt();
+            }
+        }
+        alive = false;
+        ScratchDirectoryPool.forDirectory(getSettings().getScratchDir()).release(workDir);
+    }
+}
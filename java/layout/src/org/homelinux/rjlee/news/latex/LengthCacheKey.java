@@ -0,0 +1,104 @@
+package org.homelinux.rjlee.news.latex;
+
+import org.homelinux.rjlee.news.input.ArticleText;
+import org.homelinux.rjlee.news.logging.Logger;
+import org.homelinux.rjlee.news.settings.Settings;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.stream.Collectors;
+
+/**
+ * Build the key under which the length of an article is cached.
+ * <p>
+ * The key is a digest of everything that affects the length: the bytes of the article (including its headers) and of
+ * each of its assets, the preamble, the width, the fragments already split off, and the typesetting settings. It
+ * doesn't depend on file modification times or on where the files are, so cached lengths survive files being touched
+ * or copied, but any change to the content gives a new key. The article and its assets are only read and digested
+ * once for each article read in, however often it's measured, as they're not expected to change while it's laid out.
+ *
+ * @author Robert
+ */
+public final class LengthCacheKey {
+    private static final String VERSION = "lengths-3";
+    /**
+     * Digest of the file and assets of each article, which are dropped along with the article.
+     */
+    private static final Map<ArticleText, byte[]> CONTENT_DIGESTS = Collections.synchronizedMap(new WeakHashMap<>());
+
+    private LengthCacheKey() {
+    }
+
+    /**
+     * @return the key, or empty if the article or an asset could not be read (so the length shouldn't be cached).
+     */
+    public static Optional<String> of(double width, List<Double> fragments, List<String> preambleLines, Settings settings, ArticleText articleText) {
+        try {
+            byte[] content = contentDigest(articleText);
+            MessageDigest md = sha256();
+            update(md, VERSION);
+            md.update(content);
+            for (String line : preambleLines) update(md, line);
+            update(md, "width " + width);
+            for (Double fragment : fragments) update(md, "fragment " + fragment);
+            update(md, settings.typesettingKey());
+            return Optional.of(toHex(md.digest()));
+        } catch (IOException e) {
+            Logger.getInstance().dumpAll().println("Not caching length of " + articleText.getPath() + ": " + e.getMessage());
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * @return a digest of the article's file, and of each of its assets; worked out the first time it's asked for.
+     */
+    private static byte[] contentDigest(ArticleText articleText) throws IOException {
+        byte[] digest = CONTENT_DIGESTS.get(articleText);
+        if (digest != null) return digest;
+        MessageDigest md = sha256();
+        Path path = articleText.getPath();
+        update(md, path.getFileName().toString()); // the suffix may affect how it's read
+        md.update(Files.readAllBytes(path));
+        List<Path> assets = articleText.getHeaders().assets()
+                .sorted(Comparator.comparing(p -> p.getFileName().toString()))
+                .collect(Collectors.toList());
+        for (Path asset : assets) {
+            update(md, "asset " + asset.getFileName());
+            md.update(Files.readAllBytes(asset));
+        }
+        digest = md.digest();
+        CONTENT_DIGESTS.put(articleText, digest);
+        return digest;
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e); // every JVM supports SHA-256
+        }
+    }
+
+    private static void update(MessageDigest md, String s) {
+        md.update(s.getBytes(StandardCharsets.UTF_8));
+        md.update((byte) 0); // separator, so that moving text between fields changes the digest
+    }
+
+    /**
+     * @return true if the key has the form of a key built by this class
+     */
+    static boolean isDigest(String key) {
+        return key.length() == 64 && key.chars().allMatch(c -> c >= '0' && c <= '9' || c >= 'a' && c <= 'f');
+    }
+
+    static String toHex(byte[] digest) {
+        StringBuilder sb = new StringBuilder(digest.length * 2);
+        for (byte b : digest) sb.append(String.format("%02x", b));
+        return sb.toString();
+    }
+}
@@ -8,4 +8,31 @@ import java.util.stream.Stream;
 
 public interface LengthCalculator {
     double calculateLength(double widthForSizing, List<Double> fragments, Stream<String> preambleLines, Settings settings1, ArticleText articleText);
+
+    /**
+     * Declare that the length of an article will be requested soon, so that it may be measured along with others
+     * when {@link #flush()} is called. The default does nothing.
+     */
+    default void prefetch(double widthForSizing, List<Double> fragments, Stream<String> preambleLines, Settings settings, ArticleText articleText) {
+    }
+
+    /**
+     * Measure everything passed to {@link #prefetch}, ready for the subsequent calls to
+     * {@link #calculateLength}. The default does nothing.
+     */
+    default void flush() {
+    }
+
+    /**
+     * Forget everything held about the articles measured so far, as they won't be asked about again, but keep any
+     * resources (such as resident LaTeX processes) ready to measure the next layout. The default does nothing.
+     */
+    default void reset() {
+    }
+
+    /**
+     * Release any resources (such as resident LaTeX processes) held by this calculator. The default does nothing.
+     */
+    default void close() {
+    }
 }
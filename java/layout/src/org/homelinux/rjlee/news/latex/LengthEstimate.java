@@ -0,0 +1,43 @@
+package org.homelinux.rjlee.news.latex;
+
+/**
+ * An estimated length of an article, with an indication of how far out it may be.
+ *
+ * @author Robert
+ */
+public class LengthEstimate {
+    private final double length;
+    private final double error;
+    private final int samples;
+
+    /**
+     * @param length  estimated length, in inches
+     * @param error   standard error of the estimate, in inches
+     * @param samples number of measured articles the estimate is based on
+     */
+    public LengthEstimate(double length, double error, int samples) {
+        this.length = length;
+        this.error = error;
+        this.samples = samples;
+    }
+
+    public double getLength() {
+        return length;
+    }
+
+    /**
+     * @return standard error of the estimate, in inches: about two thirds of measurements are within this of the estimate.
+     */
+    public double getError() {
+        return error;
+    }
+
+    public int getSamples() {
+        return samples;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%f in (±%f from %d samples)", length, error, samples);
+    }
+}
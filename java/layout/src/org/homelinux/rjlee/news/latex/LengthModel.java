@@ -0,0 +1,298 @@
+package org.homelinux.rjlee.news.latex;
+
+import org.homelinux.rjlee.news.input.ArticleText;
+import org.homelinux.rjlee.news.logging.Logger;
+import org.homelinux.rjlee.news.settings.Settings;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.stream.Collectors;
+
+/**
+ * A statistical model of article lengths, learnt from the articles measured in past runs.
+ * <p>
+ * Each measurement of a whole article is recorded with a few features of its text (see {@link #features}): the
+ * number of characters in the body, footnotes and headline, and the number of paragraphs and headings. Measurements
+ * are grouped by column width, input mode and the settings that affect typesetting, and within each group the
+ * length is fitted as a linear function of the features by least squares. That gives an estimate of the length of
+ * a new article, and the standard error of that estimate.
+ * <p>
+ * The observations are kept in a text file beside the lengths cache, holding the most recent
+ * {@link #MAX_SAMPLES} of each group.
+ *
+ * @author Robert
+ */
+public class LengthModel {
+    static final int MAX_SAMPLES = 200;
+    private static final int FEATURES = 6; // body characters, paragraphs, headings, footnote characters, headline characters, constant
+    /**
+     * Fewest observations in a group before it's used for estimates: enough to fit the features, and then some.
+     */
+    static final int MIN_SAMPLES = FEATURES + 4;
+
+    private static final LengthModel instance = new LengthModel();
+
+    private Path modelFile;
+    private final Map<String, Deque<double[]>> observations = new HashMap<>(); // features without the constant, then the length
+    private final Map<String, Fit> fits = new HashMap<>();
+    private boolean changed;
+
+    public static LengthModel getInstance() {
+        return instance;
+    }
+
+    public synchronized void init(Settings settings) {
+        String cacheName = settings.getLengthsCache();
+        String name = cacheName.endsWith(".cache") ? cacheName.substring(0, cacheName.length() - ".cache".length()) + ".model" : cacheName + ".model";
+        modelFile = settings.getOut().resolve(name);
+        observations.clear();
+        fits.clear();
+        changed = false;
+        if (!Files.exists(modelFile)) return;
+        try (BufferedReader in = Files.newBufferedReader(modelFile, StandardCharsets.UTF_8)) {
+            String line;
+            int skipped = 0;
+            while ((line = in.readLine()) != null) {
+                String[] parts = line.split(";");
+                try {
+                    double[] values = Arrays.stream(parts, 1, parts.length).mapToDouble(Double::parseDouble).toArray();
+                    if (parts.length != FEATURES + 1) throw new NumberFormatException("Expected " + FEATURES + " values");
+                    add(parts[0], values);
+                } catch (NumberFormatException e) {
+                    skipped++;
+                }
+            }
+            if (skipped > 0)
+                Logger.getInstance().elements().println("Skipped " + skipped + " damaged lines in " + modelFile);
+        } catch (IOException e) {
+            PrintWriter quietLogger = Logger.getInstance().quiet();
+            quietLogger.println("Failed to read length model: " + e.getMessage());
+            e.printStackTrace(quietLogger);
+        }
+    }
+
+    /**
+     * Write the observations to the model file, if there are any new ones. They're written to a temporary file that
+     * then replaces the model file, so a run that's interrupted never leaves half a model.
+     */
+    public synchronized void save() {
+        if (!changed || modelFile == null) return;
+        try {
+            Path tmpFile = Files.createTempFile(modelFile.toAbsolutePath().getParent(), modelFile.getFileName().toString(), ".tmp");
+            try {
+                try (BufferedWriter out = Files.newBufferedWriter(tmpFile, StandardCharsets.UTF_8)) {
+                    for (Map.Entry<String, Deque<double[]>> group : observations.entrySet()) {
+                        for (double[] values : group.getValue()) {
+                            out.write(group.getKey());
+                            for (double value : values) {
+                                out.write(';');
+                                out.write(Double.toString(value));
+                            }
+                            out.newLine();
+                        }
+                    }
+                }
+                try {
+                    Files.move(tmpFile, modelFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                } catch (AtomicMoveNotSupportedException e) {
+                    Files.move(tmpFile, modelFile, StandardCopyOption.REPLACE_EXISTING);
+                }
+            } catch (IOException e) {
+                Files.deleteIfExists(tmpFile);
+                throw e;
+            }
+            changed = false;
+        } catch (IOException e) {
+            PrintWriter quietLogger = Logger.getInstance().quiet();
+            quietLogger.println("WARNING: Failed to write length model: " + e.getMessage());
+            e.printStackTrace(quietLogger);
+        }
+    }
+
+    /**
+     * Record the measured length of a whole article. Does nothing until {@link #init} has been called.
+     */
+    public void observe(double widthForSizing, Settings settings, ArticleText articleText, double length) {
+        synchronized (this) {
+            if (modelFile == null) return; // not initialised
+        }
+        Optional<double[]> features = features(articleText);
+        if (!features.isPresent()) return;
+        double[] values = Arrays.copyOf(features.get(), FEATURES);
+        values[FEATURES - 1] = length; // in place of the constant, which isn't stored
+        synchronized (this) {
+            add(group(widthForSizing, settings, articleText), values);
+            changed = true;
+        }
+    }
+
+    /**
+     * @return an estimate of the length of the whole article, if enough similar articles have been measured.
+     */
+    public Optional<LengthEstimate> estimate(double widthForSizing, Settings settings, ArticleText articleText) {
+        String group = group(widthForSizing, settings, articleText);
+        Fit fit;
+        synchronized (this) {
+            Deque<double[]> samples = observations.get(group);
+            if (samples == null || samples.size() < MIN_SAMPLES) return Optional.empty();
+            fit = fits.computeIfAbsent(group, g -> Fit.of(samples));
+        }
+        return features(articleText).map(fit::estimate);
+    }
+
+    private void add(String group, double[] values) {
+        Deque<double[]> samples = observations.computeIfAbsent(group, g -> new ArrayDeque<>());
+        samples.addLast(values);
+        while (samples.size() > MAX_SAMPLES) samples.removeFirst();
+        fits.remove(group);
+    }
+
+    static String group(double widthForSizing, Settings settings, ArticleText articleText) {
+        String key = String.format("%.4f;%s;%s", widthForSizing, articleText.getHeaders().getInputMode(), settings.typesettingKey());
+        return MeasurementFormats.hash(key).substring(0, 16);
+    }
+
+    /**
+     * @return the features of the article's text, with a constant 1 last; empty if it can't be read.
+     */
+    static Optional<double[]> features(ArticleText articleText) {
+        DraftText text;
+        try {
+            text = DraftText.read(articleText.path(), articleText.getHeaders().getInputMode());
+        } catch (IOException e) {
+            return Optional.empty();
+        }
+        double body = 0, paragraphs = 0, headings = 0;
+        for (DraftText.Paragraph paragraph : text.getParagraphs()) {
+            body += characters(paragraph.words);
+            if (paragraph.kind == DraftText.Kind.HEADING) headings++;
+            else paragraphs++;
+        }
+        double footnotes = text.getFootnotes().stream().mapToDouble(f -> characters(f.words)).sum();
+        double headline = articleText.getHeaders().getHeader("Head", "").trim().length();
+        return Optional.of(new double[]{body, paragraphs, headings, footnotes, headline, 1});
+    }
+
+    private static int characters(List<String> words) {
+        return words.stream().mapToInt(String::length).sum() + Math.max(0, words.size() - 1);
+    }
+
+    /**
+     * A least-squares fit of length to the features.
+     */
+    static final class Fit {
+        private final double[] coefficients;
+        private final double[][] inverse; // of the normal matrix, for the error of each estimate
+        private final double variance; // of the residuals
+        private final int samples;
+
+        private Fit(double[] coefficients, double[][] inverse, double variance, int samples) {
+            this.coefficients = coefficients;
+            this.inverse = inverse;
+            this.variance = variance;
+            this.samples = samples;
+        }
+
+        /**
+         * @param observations features without the constant, then the length
+         */
+        static Fit of(Collection<double[]> observations) {
+            int n = observations.size();
+            double[][] normal = new double[FEATURES][FEATURES];
+            double[] moments = new double[FEATURES];
+            List<double[]> rows = observations.stream().map(Fit::row).collect(Collectors.toList());
+            for (double[] row : rows) {
+                for (int i = 0; i < FEATURES; i++) {
+                    moments[i] += row[i] * row[FEATURES];
+                    for (int j = 0; j < FEATURES; j++)
+                        normal[i][j] += row[i] * row[j];
+                }
+            }
+            // a little ridge regularisation, so a feature that never varies (such as no headlines) doesn't make the
+            // matrix singular:
+            for (int i = 0; i < FEATURES; i++)
+                normal[i][i] += 1e-9 * normal[i][i] + 1e-9;
+            double[][] inverse = invert(normal);
+            double[] coefficients = new double[FEATURES];
+            for (int i = 0; i < FEATURES; i++)
+                for (int j = 0; j < FEATURES; j++)
+                    coefficients[i] += inverse[i][j] * moments[j];
+            double residuals = 0;
+            for (double[] row : rows) {
+                double r = row[FEATURES] - dot(coefficients, row);
+                residuals += r * r;
+            }
+            return new Fit(coefficients, inverse, residuals / Math.max(1, n - FEATURES), n);
+        }
+
+        private static double[] row(double[] observation) {
+            double[] row = new double[FEATURES + 1];
+            System.arraycopy(observation, 0, row, 0, FEATURES - 1);
+            row[FEATURES - 1] = 1;
+            row[FEATURES] = observation[FEATURES - 1];
+            return row;
+        }
+
+        LengthEstimate estimate(double[] features) {
+            double length = dot(coefficients, features);
+            double leverage = 0;
+            for (int i = 0; i < FEATURES; i++)
+                for (int j = 0; j < FEATURES; j++)
+                    leverage += features[i] * inverse[i][j] * features[j];
+            return new LengthEstimate(length, Math.sqrt(variance * (1 + leverage)), samples);
+        }
+
+        private static double dot(double[] coefficients, double[] row) {
+            double total = 0;
+            for (int i = 0; i < FEATURES; i++) total += coefficients[i] * row[i];
+            return total;
+        }
+
+        /**
+         * Gauss-Jordan elimination with partial pivoting.
+         */
+        private static double[][] invert(double[][] matrix) {
+            int n = matrix.length;
+            double[][] a = new double[n][];
+            double[][] inverse = new double[n][n];
+            for (int i = 0; i < n; i++) {
+                a[i] = matrix[i].clone();
+                inverse[i][i] = 1;
+            }
+            for (int col = 0; col < n; col++) {
+                int pivot = col;
+                for (int row = col + 1; row < n; row++)
+                    if (Math.abs(a[row][col]) > Math.abs(a[pivot][col])) pivot = row;
+                double[] swap = a[col];
+                a[col] = a[pivot];
+                a[pivot] = swap;
+                swap = inverse[col];
+                inverse[col] = inverse[pivot];
+                inverse[pivot] = swap;
+                double scale = a[col][col];
+                for (int j = 0; j < n; j++) {
+                    a[col][j] /= scale;
+                    inverse[col][j] /= scale;
+                }
+                for (int row = 0; row < n; row++) {
+                    if (row == col) continue;
+                    double factor = a[row][col];
+                    if (factor == 0) continue;
+                    for (int j = 0; j < n; j++) {
+                        a[row][j] -= factor * a[col][j];
+                        inverse[row][j] -= factor * inverse[col][j];
+                    }
+                }
+            }
+            return inverse;
+        }
+    }
+}
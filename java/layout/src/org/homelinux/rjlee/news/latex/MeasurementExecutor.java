@@ -0,0 +1,133 @@
+package org.homelinux.rjlee.news.latex;
+
+import org.homelinux.rjlee.news.logging.Logger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A pool of threads dedicated to measuring articles.
+ * <p>
+ * Measurement tasks spend most of their time waiting for LaTeX, so they shouldn't tie up the common fork/join pool,
+ * and the number of concurrent measurements needn't match the number of processors. The queue of waiting tasks is
+ * bounded; once it's full, the submitting thread runs the next task itself, which stops it queueing any more.
+ *
+ * @author Robert
+ */
+public class MeasurementExecutor implements AutoCloseable {
+    private final int threads;
+    private final Logger logger;
+    private final ThreadPoolExecutor executor;
+    private final AtomicLong busyNanos = new AtomicLong();
+    private final AtomicInteger maxQueueDepth = new AtomicInteger();
+
+    /**
+     * @param threads number of threads; 0 for one per available processor.
+     */
+    public MeasurementExecutor(int threads, Logger logger) {
+        this.threads = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        this.logger = logger;
+        AtomicInteger threadNo = new AtomicInteger();
+        ThreadFactory threadFactory = r -> {
+            Thread t = new Thread(r, "measure-" + threadNo.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+        this.executor = new ThreadPoolExecutor(this.threads, this.threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(this.threads * 2), threadFactory, new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    /**
+     * Run all the tasks, and wait for them to finish.
+     *
+     * @param what description of the tasks, for logging
+     * @throws RuntimeException the first exception thrown by a task, after all tasks have finished.
+     */
+    public void runAll(String what, List<? extends Runnable> tasks) {
+        long start = System.nanoTime();
+        busyNanos.set(0);
+        maxQueueDepth.set(0);
+        List<Future<?>> futures = new ArrayList<>(tasks.size());
+        for (Runnable task : tasks) {
+            futures.add(executor.submit(() -> {
+                long taskStart = System.nanoTime();
+                try {
+                    task.run();
+                } finally {
+                    busyNanos.addAndGet(System.nanoTime() - taskStart);
+                }
+            }));
+            int depth = executor.getQueue().size();
+            maxQueueDepth.accumulateAndGet(depth, Math::max);
+            logger.dumpAll().printf("Measurement queue depth %d; %d active%n", depth, executor.getActiveCount());
+        }
+        RuntimeException failure = null;
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                if (failure == null) {
+                    failure = e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : new RuntimeException(e.getCause());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted while measuring " + what, e);
+            }
+        }
+        long wallNanos = Math.max(1, System.nanoTime() - start);
+        logger.algorithm().printf("Measured %d %s on %d threads in %dms; max queue depth %d; utilisation %.0f%%%n",
+                tasks.size(), what, threads, TimeUnit.NANOSECONDS.toMillis(wallNanos), maxQueueDepth.get(),
+                100.0 * busyNanos.get() / ((double) wallNanos * threads));
+        if (failure != null) throw failure;
+    }
+
+    /**
+     * Start running the tasks, in order, without waiting for them. The tasks are queued from a thread of their own,
+     * so the caller is never held up running one itself.
+     *
+     * @param what  description of the tasks, for logging
+     * @param tasks tasks to run
+     * @return a future for each task, completed when it has run (or exceptionally, with whatever it threw).
+     */
+    public List<CompletableFuture<Void>> startAll(String what, List<? extends Runnable> tasks) {
+        long start = System.nanoTime();
+        List<CompletableFuture<Void>> futures = new ArrayList<>(tasks.size());
+        for (int i = 0; i < tasks.size(); i++) futures.add(new CompletableFuture<>());
+        Thread feeder = new Thread(() -> {
+            for (int i = 0; i < tasks.size(); i++) {
+                Runnable task = tasks.get(i);
+                CompletableFuture<Void> future = futures.get(i);
+                try {
+                    executor.execute(() -> {
+                        try {
+                            task.run();
+                            future.complete(null);
+                        } catch (Throwable e) {
+                            future.completeExceptionally(e);
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    future.completeExceptionally(e);
+                }
+            }
+        }, "measure-feeder");
+        feeder.setDaemon(true);
+        feeder.start();
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).whenComplete((v, e) ->
+                logger.algorithm().printf("Measured %d %s on %d threads in %dms, while laying out%n",
+                        tasks.size(), what, threads, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)));
+        return futures;
+    }
+
+    @Override
+    public void close() {
+        executor.shutdown();
+    }
+}
@@ -0,0 +1,150 @@
+package org.homelinux.rjlee.news.latex;
+
+import org.homelinux.rjlee.news.logging.Logger;
+import org.homelinux.rjlee.news.logging.TeeWriter;
+import org.homelinux.rjlee.news.settings.Settings;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Precompiled TeX format files holding the measurement preamble, so measurement runs needn't reload it.
+ * <p>
+ * Formats are built with the {@code mylatexformat} package, and kept in the {@code fmt} subdirectory of the output
+ * directory, named by a hash of the {@code latex} engine and the complete text of the preamble. Any change to either
+ * gives a new name, and so a new format.
+ *
+ * @author Robert
+ */
+public class MeasurementFormats extends LatexInteraction {
+    private final ShellProcessFactory latexProcessFactory;
+    private final Logger logger;
+    private final Path fmtDir;
+    /**
+     * Formats built, or being built, so that other threads wait for the same one rather than building it again.
+     */
+    private final Map<String, CompletableFuture<Optional<Path>>> formats = new ConcurrentHashMap<>();
+
+    public MeasurementFormats(Settings settings, ShellProcessFactory latexProcessFactory, Logger logger) {
+        super(settings);
+        this.latexProcessFactory = latexProcessFactory;
+        this.logger = logger;
+        this.fmtDir = settings.getOut().resolve("fmt");
+    }
+
+    /**
+     * Find the format for the given preamble, building it if necessary.
+     *
+     * @param preambleLines extra preamble lines for the article(s) being measured
+     * @return path to the format file, or empty if it could not be built.
+     */
+    public Optional<Path> formatFor(List<String> preambleLines) {
+        String source = source(preambleLines);
+        String name = hash(getSettings().getLatex() + "\n" + source);
+        CompletableFuture<Optional<Path>> future = new CompletableFuture<>();
+        CompletableFuture<Optional<Path>> existing = formats.putIfAbsent(name, future);
+        if (existing != null) {
+            try {
+                return existing.join();
+            } catch (CompletionException e) {
+                throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+            }
+        }
+        try {
+            // built outside the map, as it may take a while:
+            Optional<Path> format = build(name, source);
+            future.complete(format);
+            return format;
+        } catch (RuntimeException | Error e) {
+            formats.remove(name, future);
+            future.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    /**
+     * Stop using the format for the given preamble, and delete it so that it is rebuilt on the next run; for example,
+     * because LaTeX failed to load it.
+     */
+    public void broken(List<String> preambleLines) {
+        String name = hash(getSettings().getLatex() + "\n" + source(preambleLines));
+        formats.put(name, CompletableFuture.completedFuture(Optional.empty()));
+        try {
+            Files.deleteIfExists(fmtDir.resolve(name + ".fmt"));
+        } catch (IOException e) {
+            logger.elements().println("Failed to delete format " + name + ": " + e.getMessage());
+        }
+    }
+
+    private String source(List<String> preambleLines) {
+        StringWriter sw = new StringWriter();
+        try (PrintWriter out = new PrintWriter(sw)) {
+            printMeasurementFormatSource(out, preambleLines.stream());
+        }
+        return sw.toString();
+    }
+
+    private Optional<Path> build(String name, String source) {
+        Path fmt = fmtDir.resolve(name + ".fmt");
+        if (Files.exists(fmt)) {
+            logger.dumpAll().println("Reusing format " + fmt);
+            return Optional.of(fmt.toAbsolutePath());
+        }
+        logger.algorithm().println("Shelling to LaTeX to build measurement format " + name);
+        try {
+            Files.createDirectories(fmtDir);
+            Path src = fmtDir.resolve(name + ".tex");
+            try (BufferedWriter bw = Files.newBufferedWriter(src, StandardCharsets.UTF_8);
+                 Writer w = new TeeWriter(bw, logger.dumpAll());
+                 PrintWriter out = new PrintWriter(w)) {
+                out.print(source);
+            }
+            Process process = latexProcessFactory.run(getSettings(), fmtDir, "-ini", "-jobname=" + name,
+                    "&" + engine(), "mylatexformat.ltx", src.getFileName().toString());
+            if (process != null) {
+                try (BufferedReader r = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+                    r.lines().forEach(logger.dumpAll()::println);
+                }
+                process.waitFor(1, java.util.concurrent.TimeUnit.HOURS);
+            }
+        } catch (IOException | UncheckedIOException e) {
+            PrintWriter quiet = logger.quiet();
+            quiet.println("Failed to build measurement format: " + e.getMessage());
+            e.printStackTrace(quiet);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (!Files.exists(fmt)) {
+            logger.quiet().println("Measurement format " + name + " was not built; loading the preamble for every measurement instead");
+            return Optional.empty();
+        }
+        return Optional.of(fmt.toAbsolutePath());
+    }
+
+    /**
+     * @return the name of the format preloaded by the {@code latex} setting, e.g. {@code pdflatex}
+     */
+    String engine() {
+        String engine = getSettings().getLatex().replace('\\', '/');
+        engine = engine.substring(engine.lastIndexOf('/') + 1);
+        return engine.toLowerCase().endsWith(".exe") ? engine.substring(0, engine.length() - 4) : engine;
+    }
+
+    static String hash(String text) {
+        try {
+            return LengthCacheKey.toHex(MessageDigest.getInstance("SHA-256").digest(text.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e); // every JVM supports SHA-256
+        }
+    }
+}
@@ -4,6 +4,7 @@ import org.homelinux.rjlee.news.LaidOut;
 import org.homelinux.rjlee.news.elements.ArticleFragment;
 import org.homelinux.rjlee.news.elements.ArticleFragmentImpl;
 import org.homelinux.rjlee.news.input.Article;
+import org.homelinux.rjlee.news.input.Input;
 import org.homelinux.rjlee.news.input.Truck;
 import org.homelinux.rjlee.news.logging.Logger;
 import org.homelinux.rjlee.news.rendered.Col;
@@ -12,15 +13,38 @@ import org.homelinux.rjlee.news.rendered.Page;
 import org.homelinux.rjlee.news.settings.Settings;
 
 import java.io.*;
-import java.util.Iterator;
-import java.util.List;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 public class NewspaperToLatexImpl extends LatexInteraction implements NewspaperToLatex {
+    /**
+     * Hex digits of the digest in the name of each page compiled on its own.
+     */
+    private static final int PAGE_DIGEST_LENGTH = 16;
 
     private final ShellProcessFactory latexProcessFactory;
     private Logger logger;
+    /**
+     * Job names of the documents holding each range of pages, if the pages were written in ranges.
+     */
+    private final List<String> ranges = new ArrayList<>();
+    /**
+     * Digests of the documents written, and of the files they refer to; or null if any of them couldn't be read.
+     */
+    private List<String> manifest;
+    /**
+     * Digests of the files of the inputs written, and of their assets, so each is only read once.
+     */
+    private final Map<Path, String> fileDigests = new HashMap<>();
 
     public NewspaperToLatexImpl(Settings settings, Logger logger, ShellProcessFactory processFactory) {
         super(settings);
@@ -29,22 +53,108 @@ public class NewspaperToLatexImpl extends LatexInteraction implements NewspaperT
         latexProcessFactory = processFactory;
     }
 
+    /**
+     * Compile the final document; and first, if it was written in ranges of pages, each range (in parallel).
+     * <p>
+     * Nothing is compiled if the documents written, and every file they refer to, are the same as when the PDF was
+     * last compiled successfully, as recorded in the build manifest ({@code jobName.manifest}) in the output directory.
+     */
     @Override
     public void compileFinalPdf() {
+        String jobName = getSettings().getJobName();
+        Path manifestFile = getSettings().getOut().resolve(jobName + ".manifest");
+        if (manifest != null && Files.exists(getSettings().getOut().resolve(jobName + ".pdf"))
+                && manifest.equals(readManifest(manifestFile))) {
+            logger.elements().println(jobName + ".pdf is up to date: nothing in " + manifestFile.getFileName() + " has changed; not running LaTeX");
+            return;
+        }
+        deleteQuietly(manifestFile);
+        boolean compiled;
+        if (getSettings().isPageCache() && !ranges.isEmpty()) {
+            compiled = compileChangedPages();
+        } else {
+            AtomicBoolean rangesCompiled = new AtomicBoolean(true);
+            if (!ranges.isEmpty()) {
+                try (MeasurementExecutor executor = new MeasurementExecutor(getSettings().getMeasurementThreads(), logger)) {
+                    executor.runAll("page ranges", ranges.stream()
+                            .<Runnable>map(range -> () -> {
+                                if (!compile(range)) rangesCompiled.set(false);
+                            })
+                            .collect(Collectors.toList()));
+                }
+            }
+            compiled = compile(jobName) && rangesCompiled.get();
+        }
+        if (compiled && manifest != null) {
+            try {
+                Files.write(manifestFile, manifest);
+            } catch (IOException e) {
+                logger.elements().println("Failed to write " + manifestFile + ": " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * @return the lines of the manifest; or none if it can't be read.
+     */
+    private static List<String> readManifest(Path manifestFile) {
+        try {
+            return Files.readAllLines(manifestFile);
+        } catch (IOException e) {
+            return Collections.emptyList();
+        }
+    }
+
+    /**
+     * Compile the pages that haven't been compiled before (in parallel), and then the final document.
+     *
+     * @return true if the final document was compiled
+     */
+    private boolean compileChangedPages() {
+        Path outDir = getSettings().getOut();
+        List<String> changed = ranges.stream()
+                .distinct()
+                .filter(page -> !Files.exists(outDir.resolve(page + ".pdf")))
+                .collect(Collectors.toList());
+        logger.elements().printf("%d of %d pages have changed%n", changed.size(), ranges.size());
+        if (!changed.isEmpty()) {
+            try (MeasurementExecutor executor = new MeasurementExecutor(getSettings().getMeasurementThreads(), logger)) {
+                executor.runAll("changed pages", changed.stream()
+                        .<Runnable>map(page -> () -> {
+                            if (!compile(page)) deleteQuietly(outDir.resolve(page + ".pdf")); // don't reuse a broken page
+                        })
+                        .collect(Collectors.toList()));
+            }
+        }
+        return compile(getSettings().getJobName());
+    }
+
+    private void deleteQuietly(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            logger.elements().println("Failed to delete " + path + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * @return true if LaTeX ran and succeeded
+     */
+    private boolean compile(String jobName) {
         // NB: We require a unicode engine for newtx, so we must use pdflatex, never latex.
 //        Stream.Builder<String> cmdLine = Stream.builder();
 //        cmdLine.add(getSettings().getLatex());
 //        Arrays.stream(getSettings().getLatexCmdLine()).forEach(cmdLine::add);
 //        cmdLine.add(getSettings().getJobName());
         try {
-            Process proc = latexProcessFactory.run(getSettings(), getSettings().getOut(), getSettings().getJobName());
+            Process proc = latexProcessFactory.run(getSettings(), getSettings().getOut(), jobName);
             // read lines from the process and log as needed etc
             Thread t = new Thread(() -> {
                 try (BufferedReader r = new BufferedReader(new InputStreamReader(proc.getInputStream()))) {
                     r.lines().forEach(logger.dumpAll()::println);
                 } catch (UncheckedIOException | IOException e) {
                     PrintWriter quiet = logger.quiet();
-                    quiet.println(getSettings().getJobName() + ".tex LaTeX call invoked, but there was an error reading the output.");
+                    quiet.println(jobName + ".tex LaTeX call invoked, but there was an error reading the output.");
                     e.printStackTrace(quiet);
                 }
             });
@@ -57,112 +167,60 @@ public class NewspaperToLatexImpl extends LatexInteraction implements NewspaperT
                 Thread.sleep(50);
                 proc.waitFor(1, TimeUnit.HOURS);
             }
+            return !proc.isAlive() && proc.exitValue() == 0;
         } catch (IOException | InterruptedException e) {
             PrintWriter quiet = logger.quiet();
-            quiet.println(getSettings().getJobName() + ".tex was generated, but the call to LaTeX failed.");
+            quiet.println(jobName + ".tex was generated, but the call to LaTeX failed.");
             e.printStackTrace(quiet);
+            return false;
         }
-
     }
 
     /**
-     * Write the given newspaper layout to the output TeX file.
+     * Write the given newspaper layout to the output TeX file; or, if it has more pages than
+     * {@link Settings#getPagesPerRange()}, write each range of pages to a file of its own, and the output TeX file
+     * just to put them together. With {@link Settings#isPageCache()}, each page is written to a file of its own,
+     * named after its content, as in {@link #writePages}.
+     * <p>
+     * The digests of the documents written, and of the inputs and assets on the pages, are kept for the build manifest
+     * checked by {@link #compileFinalPdf()}.
      * @param laidOut to be written
      */
     @Override
     public void writeTexFile(LaidOut laidOut) {
+        ranges.clear();
+        fileDigests.clear();
+        manifest = new ArrayList<>();
+        manifest.add("latex " + getSettings().getLatex() + " " + Arrays.toString(getSettings().getLatexCmdLine()));
+        int pagesPerRange = getSettings().getPagesPerRange();
         try {
             PrintWriter out = logger.finalTexOutput();
-            // Originally I was going to base this on "minimal", but this causes missing macro definitions with the markdown package.
-            // So instead, we use the "article" class and simply redefine everything instead.
-            out.println("\\documentclass{article}");
-            // This may break things for some users, but it's the version I've been testing with, and old enough that
-            // most LTS OS versions should have it:
-            out.println("\\NeedsTeXFormat{LaTeX2e}[2020/02/02]"); // latex '\typeout{\fmtversion}\stop' | grep LaTeX2e
-            out.printf("\\setlength{\\paperwidth}{%fin}\n", getSettings().getPageWidth());
-            out.printf("\\setlength{\\paperheight}{%fin}\n", getSettings().getPageHeight());
-            out.printf("\\usepackage[text={%fin,%fin},margin=0pt]{geometry}\n", getSettings().getPageWidth(), getSettings().getPageHeight());
-            // pdftex ignores the geometry values and uses its own variables for paper size:
-            out.printf("\\ifcsname pdfpagewidth\\endcsname\\pdfpagewidth=%fin\\fi\n", getSettings().getPageWidth());
-            out.printf("\\ifcsname pdfpageheight\\endcsname\\pdfpageheight=%fin\\fi\n", getSettings().getPageHeight());
-            out.println("\\usepackage[british]{babel}");
-            out.printf("\\setlength{\\textwidth}{%fin}\n", getSettings().getPageWidth());
-            out.printf("\\setlength{\\textheight}{%fin}\n", getSettings().getPageHeight());
-            out.printf("\\newlength{\\columnheight}");
-            out.printf("\\setlength{\\columnwidth}{%fin}\n", getSettings().getColumnWidth());
-            out.printf("\\setlength{\\columnheight}{%fin}\n", getSettings().getColumnHeight());
-            // NB: halley goes between columns (horizontal layout)
-            // and valley goes above/below fragments (vertical layout)
-            out.printf("\\newcommand{\\halleyline}[1]{\\hbox{\\makebox[%fin]{\\rule{%fin}{#1}}}\\vskip 0pt}\n", getSettings().getAlleyWidth(), getSettings().getAlleyThickWidth());
-            //	    w.printf("\\newcommand{\\halleygap}[1]{\\hbox{\\makebox[0pt]{\\rule{0pt}{#1}}}}\n");
-            out.printf("\\newcommand{\\halleygap}[1]{\\vspace*{#1}}\n");
-
-            if (getSettings().getAlleyWidth() <= 0) {
-                out.printf("\\newcommand{\\valley}[1][%fin]{\\vspace*{%fin}}\n", getSettings().getColumnWidth(), getSettings().getAlleyHeight());
-            } else {
-                double vAlleyGap = (getSettings().getAlleyHeight() - getSettings().getAlleyThickHeight()) / 2;
-                out.printf("\\newcommand{\\valley}[1][%fin]{\\vspace*{%fin}\\rule{#1}{%fin}\\vspace*{%fin}}\n", getSettings().getColumnWidth(), vAlleyGap, getSettings().getAlleyThickHeight(), vAlleyGap);
-            }
-            out.println("\\makeatletter");
-            printAtPreamble(out);
-            out.println("\\makeatother");
-            getSettings().preambleLines().forEach(out::println);
-            laidOut.preambleLines().forEach(out::println);
-            out.println();
-            out.println("\\setlength{\\hfuzz}{\\maxdimen}");
-            out.println("\\setlength{\\vfuzz}{\\maxdimen}");
-            // TODO: Dup cade in LatexLength
-            // tolerance & emergencystretch based loosely on multicols:
-            out.printf("\\newcount\\nmulticoltolerance \\nmulticoltolerance=%d\n", getSettings().getTolerance());
-            out.printf("\\def\\setemergencystretch#1#2{%s}\n", getSettings().getEmergencyStretch());
-            out.printf("\\def\\numnewscols{%s}\n", getSettings().getMaxColsPerPage());
-            out.println("\\begin{document}");
-            // for now, just copying tolerance from multicols:
-            out.println("\\makeatletter\\vbadness\\@Mi \\hbadness5000 \\tolerance\\nmulticoltolerance\\makeatother");
-            List<Page> allPages = laidOut.getPages();
-            // step 1: create boxes for each article
-            Stream<Article> allArticles = allPages.stream()
-                    .filter(p -> p instanceof ColumnarPage)
-                    .map(ColumnarPage.class::cast)
-                    .flatMap(pa -> pa.getColumns().stream())
-                    .flatMap(co -> co.getFrags().stream())
-                    .map(Col.ColFragment::getPart)
-                    .filter(pa -> pa instanceof ArticleFragmentImpl)
-                    .map(a -> ((ArticleFragment) a).getArticle())
-                    .distinct();
-            Iterator<Article> ia = allArticles.iterator();
-            while (ia.hasNext()) {
-                Article a = ia.next();
-                String name = a.name();
-                out.printf("\\begin{newsplitbox}{%s}\n", name);
-                out.printf("\\hsize=%fin\n", getSettings().getColumnWidth());
-                out.printf("\\textwidth=%fin\n", getSettings().getColumnWidth());
-                out.printf("\\linewidth=%fin\n", getSettings().getColumnWidth());
-                out.printf("\\columnwidth=%fin\n", getSettings().getColumnWidth());
-                a.copyTo(out, getSettings().getOut());
-                out.println("\\end{newsplitbox}");
-            }
-
-            // step 2: output each page
-            for (int i = 0; i < allPages.size(); ) {
-                out.printf("%% page %d\n", i + 1);
-                Page page = allPages.get(i);
-                if (!(page instanceof Truck))
-                    out.println("\\hbox{}\\vfil");
-                page.write(out, getSettings().getOut());
-                if (++i < allPages.size() && !(allPages.get(i) instanceof Truck)) // Trucks use afterpage to avoid blank space, so need the pagebreak after them, not before, or they delay.
-                    //		    w.println("\\eject");
-                    //w.println("\\\\\\hbox{}\\vfill");
-                    out.println("\\pagebreak");
-            }
-            if (!allPages.isEmpty() && allPages.get(allPages.size()-1) instanceof Truck) {
-                // output any queued trucks at the end of the document
-                out.println("\\pagebreak");
+            List<Page> allPages = pagesPerRange > 0 || getSettings().isPageCache() ? laidOut.getPages() : null;
+            StringWriter text = new StringWriter();
+            try (PrintWriter doc = new PrintWriter(text)) {
+                if (getSettings().isPageCache() && !allPages.isEmpty()) {
+                    writePages(laidOut);
+                    writeAssembly(doc);
+                } else if (allPages != null && pagesPerRange > 0 && allPages.size() > pagesPerRange) {
+                    for (int from = 0; from < allPages.size(); from += pagesPerRange) {
+                        int to = Math.min(from + pagesPerRange, allPages.size());
+                        String jobName = String.format("%s-pages%d-%d", getSettings().getJobName(), from + 1, to);
+                        StringWriter rangeText = new StringWriter();
+                        try (PrintWriter range = new PrintWriter(rangeText)) {
+                            writeDocument(range, laidOut, from, to);
+                        }
+                        Files.write(getSettings().getOut().resolve(jobName + ".tex"), rangeText.toString().getBytes(StandardCharsets.UTF_8));
+                        record(jobName + ".tex", rangeText.toString());
+                        ranges.add(jobName);
+                    }
+                    writeAssembly(doc);
+                } else {
+                    writeDocument(doc, laidOut, 0, -1);
+                }
             }
-            //	    if (overflow != null) {
-            //		w.println("Overflow!");
-            //	    }
-            out.println("\\end{document}");
+            out.print(text);
+            out.flush();
+            record(getSettings().getJobName() + ".tex", text.toString());
             if (out.checkError()) {
                 throw new IOException("Error writing to " + getSettings().getJobName() + ".tex!");
             }
@@ -172,4 +230,272 @@ public class NewspaperToLatexImpl extends LatexInteraction implements NewspaperT
         }
     }
 
+    /**
+     * Write each page to a document of its own, named after a digest of the document and of the files of the inputs on
+     * the page, unless it's already there; and delete the documents of pages no longer in the newspaper.
+     */
+    private void writePages(LaidOut laidOut) throws IOException {
+        Path outDir = getSettings().getOut();
+        String prefix = getSettings().getJobName() + "-page-";
+        List<Page> allPages = laidOut.getPages();
+        for (int i = 0; i < allPages.size(); i++) {
+            StringWriter text = new StringWriter();
+            try (PrintWriter page = new PrintWriter(text)) {
+                writeDocument(page, laidOut, i, i + 1);
+            }
+            String jobName = prefix + digest(text.toString(), allPages.get(i));
+            Path file = outDir.resolve(jobName + ".tex");
+            if (!Files.exists(file)) {
+                Files.write(file, text.toString().getBytes(StandardCharsets.UTF_8));
+            }
+            record(jobName + ".tex", text.toString());
+            ranges.add(jobName);
+        }
+        Set<String> current = new HashSet<>(ranges);
+        try (Stream<Path> files = Files.list(outDir)) {
+            files.filter(f -> f.getFileName().toString().startsWith(prefix))
+                    .filter(f -> !current.contains(f.getFileName().toString().replaceFirst("\\.[^.]*$", "")))
+                    .forEach(this::deleteQuietly);
+        }
+    }
+
+    /**
+     * Add a document written to the manifest.
+     */
+    private void record(String name, String text) {
+        if (manifest != null) manifest.add(LengthCacheKey.toHex(sha256().digest(text.getBytes(StandardCharsets.UTF_8))) + "  " + name);
+    }
+
+    /**
+     * Add the file of an input, and its assets, to the manifest; if any can't be read, there's no manifest, so the
+     * document is always compiled.
+     */
+    private void record(Input input) {
+        if (manifest == null) return;
+        try {
+            for (Path file : files(input)) {
+                String line = fileDigest(file) + "  " + file.toAbsolutePath();
+                if (!manifest.contains(line)) manifest.add(line);
+            }
+        } catch (IOException e) {
+            logger.dumpAll().println("Not keeping a build manifest: " + e.getMessage());
+            manifest = null;
+        }
+    }
+
+    /**
+     * @return the file of the input, then its assets
+     */
+    private static List<Path> files(Input input) {
+        List<Path> files = new ArrayList<>();
+        files.add(input.path());
+        if (input.getHeaders() != null) input.getHeaders().assets().sorted().forEach(files::add);
+        return files;
+    }
+
+    /**
+     * @return the digest of the file, in hex; read the first time it's asked for while writing the documents
+     */
+    private String fileDigest(Path file) throws IOException {
+        String digest = fileDigests.get(file);
+        if (digest != null) return digest;
+        MessageDigest md = sha256();
+        try (InputStream in = new DigestInputStream(Files.newInputStream(file), md)) {
+            in.transferTo(OutputStream.nullOutputStream());
+        }
+        digest = LengthCacheKey.toHex(md.digest());
+        fileDigests.put(file, digest);
+        return digest;
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e); // every JVM supports SHA-256
+        }
+    }
+
+    /**
+     * @return a digest of the page's document, and of the files and assets of the inputs set on it; or a random name
+     * if any can't be read, so the page is always compiled.
+     */
+    private String digest(String text, Page page) {
+        try {
+            MessageDigest md = sha256();
+            md.update((getSettings().getLatex() + "\n" + text).getBytes(StandardCharsets.UTF_8));
+            for (Input input : inputs(page)) {
+                for (Path file : files(input)) {
+                    md.update((file.getFileName() + " " + fileDigest(file) + "\n").getBytes(StandardCharsets.UTF_8));
+                }
+            }
+            return LengthCacheKey.toHex(md.digest()).substring(0, PAGE_DIGEST_LENGTH);
+        } catch (IOException e) {
+            logger.dumpAll().println("Not caching page " + page + ": " + e.getMessage());
+            return UUID.randomUUID().toString();
+        }
+    }
+
+    /**
+     * @return the inputs whose files are set on the page
+     */
+    private static Set<Input> inputs(Page page) {
+        Set<Input> inputs = new LinkedHashSet<>();
+        if (page instanceof Truck) inputs.add((Truck) page);
+        if (page instanceof ColumnarPage) {
+            ((ColumnarPage) page).getColumns().stream()
+                    .flatMap(co -> co.getFrags().stream())
+                    .map(Col.ColFragment::getPart)
+                    .forEach(part -> {
+                        if (part instanceof ArticleFragment) inputs.add(((ArticleFragment) part).getArticle());
+                        else if (part instanceof Input) inputs.add((Input) part);
+                    });
+        }
+        return inputs;
+    }
+
+    private void writePageSize(PrintWriter out) {
+        out.printf("\\setlength{\\paperwidth}{%fin}\n", getSettings().getPageWidth());
+        out.printf("\\setlength{\\paperheight}{%fin}\n", getSettings().getPageHeight());
+        out.printf("\\usepackage[text={%fin,%fin},margin=0pt]{geometry}\n", getSettings().getPageWidth(), getSettings().getPageHeight());
+        // pdftex ignores the geometry values and uses its own variables for paper size:
+        out.printf("\\ifcsname pdfpagewidth\\endcsname\\pdfpagewidth=%fin\\fi\n", getSettings().getPageWidth());
+        out.printf("\\ifcsname pdfpageheight\\endcsname\\pdfpageheight=%fin\\fi\n", getSettings().getPageHeight());
+    }
+
+    /**
+     * Write a document that puts together the pages compiled from each range.
+     */
+    private void writeAssembly(PrintWriter out) {
+        out.println("\\documentclass{article}");
+        writePageSize(out);
+        out.println("\\usepackage{pdfpages}");
+        out.println("\\begin{document}");
+        ranges.forEach(range -> out.printf("\\includepdf[pages=-]{%s.pdf}\n", range));
+        out.println("\\end{document}");
+    }
+
+    /**
+     * @return the articles set on the pages, in the order they're first set
+     */
+    private static Set<Article> articles(List<Page> pages) {
+        return pages.stream()
+                .filter(p -> p instanceof ColumnarPage)
+                .map(ColumnarPage.class::cast)
+                .flatMap(pa -> pa.getColumns().stream())
+                .flatMap(co -> co.getFrags().stream())
+                .map(Col.ColFragment::getPart)
+                .filter(pa -> pa instanceof ArticleFragmentImpl)
+                .map(a -> ((ArticleFragment) a).getArticle())
+                .collect(Collectors.toCollection(LinkedHashSet::new));
+    }
+
+    /**
+     * Typeset the article into a split box, from which its fragments are set.
+     */
+    private void writeBox(PrintWriter out, Article a) throws IOException {
+        out.printf("\\begin{newsplitbox}{%s}\n", a.name());
+        out.printf("\\hsize=%fin\n", getSettings().getColumnWidth());
+        out.printf("\\textwidth=%fin\n", getSettings().getColumnWidth());
+        out.printf("\\linewidth=%fin\n", getSettings().getColumnWidth());
+        out.printf("\\columnwidth=%fin\n", getSettings().getColumnWidth());
+        a.copyTo(out, getSettings().getOut());
+        out.println("\\end{newsplitbox}");
+    }
+
+    /**
+     * Write a document holding some of the pages.
+     *
+     * @param from index of the first page
+     * @param to   index after the last page; or -1 for all the pages
+     */
+    private void writeDocument(PrintWriter out, LaidOut laidOut, int from, int to) throws IOException {
+        // Originally I was going to base this on "minimal", but this causes missing macro definitions with the markdown package.
+        // So instead, we use the "article" class and simply redefine everything instead.
+        out.println("\\documentclass{article}");
+        // This may break things for some users, but it's the version I've been testing with, and old enough that
+        // most LTS OS versions should have it:
+        out.println("\\NeedsTeXFormat{LaTeX2e}[2020/02/02]"); // latex '\typeout{\fmtversion}\stop' | grep LaTeX2e
+        writePageSize(out);
+        out.println("\\usepackage[british]{babel}");
+        out.printf("\\setlength{\\textwidth}{%fin}\n", getSettings().getPageWidth());
+        out.printf("\\setlength{\\textheight}{%fin}\n", getSettings().getPageHeight());
+        out.printf("\\newlength{\\columnheight}");
+        out.printf("\\setlength{\\columnwidth}{%fin}\n", getSettings().getColumnWidth());
+        out.printf("\\setlength{\\columnheight}{%fin}\n", getSettings().getColumnHeight());
+        // NB: halley goes between columns (horizontal layout)
+        // and valley goes above/below fragments (vertical layout)
+        out.printf("\\newcommand{\\halleyline}[1]{\\hbox{\\makebox[%fin]{\\rule{%fin}{#1}}}\\vskip 0pt}\n", getSettings().getAlleyWidth(), getSettings().getAlleyThickWidth());
+        //	    w.printf("\\newcommand{\\halleygap}[1]{\\hbox{\\makebox[0pt]{\\rule{0pt}{#1}}}}\n");
+        out.printf("\\newcommand{\\halleygap}[1]{\\vspace*{#1}}\n");
+
+        if (getSettings().getAlleyWidth() <= 0) {
+            out.printf("\\newcommand{\\valley}[1][%fin]{\\vspace*{%fin}}\n", getSettings().getColumnWidth(), getSettings().getAlleyHeight());
+        } else {
+            double vAlleyGap = (getSettings().getAlleyHeight() - getSettings().getAlleyThickHeight()) / 2;
+            out.printf("\\newcommand{\\valley}[1][%fin]{\\vspace*{%fin}\\rule{#1}{%fin}\\vspace*{%fin}}\n", getSettings().getColumnWidth(), vAlleyGap, getSettings().getAlleyThickHeight(), vAlleyGap);
+        }
+        out.println("\\makeatletter");
+        printAtPreamble(out);
+        out.println("\\makeatother");
+        getSettings().preambleLines().forEach(out::println);
+        laidOut.preambleLines().forEach(out::println);
+        out.println();
+        out.println("\\setlength{\\hfuzz}{\\maxdimen}");
+        out.println("\\setlength{\\vfuzz}{\\maxdimen}");
+        // TODO: Dup cade in LatexLength
+        // tolerance & emergencystretch based loosely on multicols:
+        out.printf("\\newcount\\nmulticoltolerance \\nmulticoltolerance=%d\n", getSettings().getTolerance());
+        out.printf("\\def\\setemergencystretch#1#2{%s}\n", getSettings().getEmergencyStretch());
+        out.printf("\\def\\numnewscols{%s}\n", getSettings().getMaxColsPerPage());
+        out.println("\\begin{document}");
+        // for now, just copying tolerance from multicols:
+        out.println("\\makeatletter\\vbadness\\@Mi \\hbadness5000 \\tolerance\\nmulticoltolerance\\makeatother");
+        List<Page> allPages = laidOut.getPages();
+        if (to < 0) to = allPages.size();
+        allPages.subList(from, to).forEach(page -> inputs(page).forEach(this::record));
+        // Each article is typeset into a box just before the first page it's on, and the box is voided once its last
+        // fragment is set, so that TeX only holds the articles of about a page at a time, however big the newspaper.
+        Set<Article> allArticles = articles(allPages.subList(from, to));
+        allArticles.forEach(Article::resetOutput);
+        Set<Article> boxed = new HashSet<>();
+        // step 1: create boxes for the articles continued from earlier pages...
+        for (Article a : articles(allPages.subList(0, from))) {
+            if (allArticles.contains(a) && boxed.add(a)) writeBox(out, a);
+        }
+
+        // ...and split off the parts of them on earlier pages
+        for (Page page : allPages.subList(0, from)) {
+            if (page instanceof ColumnarPage) ((ColumnarPage) page).skip(out, allArticles);
+        }
+
+        // step 2: output each page, after boxes for the articles that start on it
+        for (int i = from; i < to; ) {
+            out.printf("%% page %d\n", i + 1);
+            Page page = allPages.get(i);
+            Set<Article> onPage = articles(Collections.singletonList(page));
+            for (Article a : onPage) {
+                if (boxed.add(a)) writeBox(out, a);
+            }
+            if (!(page instanceof Truck))
+                out.println("\\hbox{}\\vfil");
+            page.write(out, getSettings().getOut());
+            for (Article a : onPage) {
+                if (a.getOutCtr() >= a.getFragments().size()) out.printf("\\voidsplitbox{%s}\n", a.name());
+            }
+            if (++i < to && !(allPages.get(i) instanceof Truck)) // Trucks use afterpage to avoid blank space, so need the pagebreak after them, not before, or they delay.
+                //		    w.println("\\eject");
+                //w.println("\\\\\\hbox{}\\vfill");
+                out.println("\\pagebreak");
+        }
+        if (to > from && allPages.get(to - 1) instanceof Truck) {
+            // output any queued trucks at the end of the document
+            out.println("\\pagebreak");
+        }
+        //	    if (overflow != null) {
+        //		w.println("Overflow!");
+        //	    }
+        out.println("\\end{document}");
+    }
+
 }
@@ -0,0 +1,152 @@
+package org.homelinux.rjlee.news.latex;
+
+import org.homelinux.rjlee.news.input.ArticleText;
+import org.homelinux.rjlee.news.logging.Logger;
+import org.homelinux.rjlee.news.settings.Settings;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Calculate the length of something by sending it to a resident LaTeX process, which has already loaded the preamble.
+ * <p>
+ * Up to {@link Settings#getMeasurementServers()} processes are kept running for each distinct preamble. If a
+ * process fails to start, or dies while measuring, then we fall back to the delegate (normally a
+ * {@link LaTeXLengthCalculator}, spawning one process per article) for anything with that preamble.
+ * <p>
+ * Thread-safe. Call {@link #close()} to shut down the resident processes.
+ *
+ * @author Robert
+ */
+public class ResidentLaTeXLengthCalculator implements LengthCalculator {
+    private final LengthCalculator delegate;
+    private final ShellProcessFactory latexProcessFactory;
+    private final Map<List<String>, ServerPool> pools = new HashMap<>();
+    private boolean closed;
+
+    public ResidentLaTeXLengthCalculator(LengthCalculator delegate) {
+        this(delegate, new LatexProcessFactory());
+    }
+
+    ResidentLaTeXLengthCalculator(LengthCalculator delegate, ShellProcessFactory latexProcessFactory) {
+        this.delegate = delegate;
+        this.latexProcessFactory = latexProcessFactory;
+    }
+
+    @Override
+    public double calculateLength(double widthForSizing, List<Double> fragments, Stream<String> preambleLines, Settings settings, ArticleText articleText) {
+        List<String> preamble = preambleLines.collect(Collectors.toList());
+        ServerPool pool = pool(preamble, settings);
+        if (pool != null) {
+            LatexServer server = pool.acquire();
+            if (server != null) {
+                Logger.getInstance().algorithm().println("Sending article " + articleText.name() + " to resident LaTeX process");
+                try {
+                    return server.calculateLength(widthForSizing, fragments, articleText);
+                } catch (IOException e) {
+                    Logger.getInstance().quiet().printf("Resident LaTeX process failed (%s); falling back to one process per article%n", e.getMessage());
+                    pool.broken();
+                } finally {
+                    pool.release(server);
+                }
+            }
+        }
+        return delegate.calculateLength(widthForSizing, fragments, preamble.stream(), settings, articleText);
+    }
+
+    private synchronized ServerPool pool(List<String> preamble, Settings settings) {
+        if (closed) return null;
+        return pools.computeIfAbsent(preamble, p -> new ServerPool(p, settings));
+    }
+
+    @Override
+    public void reset() {
+        delegate.reset(); // the processes only hold the preamble, so can be kept
+    }
+
+    @Override
+    public void close() {
+        List<ServerPool> toClose;
+        synchronized (this) {
+            closed = true;
+            toClose = new ArrayList<>(pools.values());
+            pools.clear();
+        }
+        toClose.forEach(ServerPool::broken); // any server still measuring is closed once it's released
+    }
+
+    /**
+     * The resident processes for one preamble.
+     */
+    private class ServerPool {
+        private final List<String> preamble;
+        private final Settings settings;
+        private final Deque<LatexServer> idle = new ArrayDeque<>();
+        private final List<LatexServer> all = new ArrayList<>();
+        private int starting;
+        private boolean broken;
+
+        ServerPool(List<String> preamble, Settings settings) {
+            this.preamble = preamble;
+            this.settings = settings;
+        }
+
+        /**
+         * @return an idle server, starting one if under the limit, or null if the pool is unusable.
+         */
+        LatexServer acquire() {
+            synchronized (this) {
+                while (!broken && idle.isEmpty() && all.size() + starting >= settings.getMeasurementServers()) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return null;
+                    }
+                }
+                if (broken) return null;
+                if (!idle.isEmpty()) return idle.pop();
+                starting++;
+            }
+            // start outside the lock, so other threads can measure while the preamble loads:
+            Logger.getInstance().algorithm().println("Starting resident LaTeX process");
+            LatexServer server = new LatexServer(settings, latexProcessFactory, Logger.getInstance());
+            boolean started = server.start(preamble.stream());
+            synchronized (this) {
+                starting--;
+                if (started && !broken) {
+                    all.add(server);
+                    return server;
+                }
+                broken = true;
+                notifyAll();
+            }
+            if (started) server.close(); // else it's closed itself
+            return null;
+        }
+
+        synchronized void release(LatexServer server) {
+            if (server.isAlive() && !broken) {
+                idle.push(server);
+            } else {
+                all.remove(server);
+                if (server.isAlive()) server.close(); // else it's closed itself
+            }
+            notifyAll();
+        }
+
+        /**
+         * Stop using resident processes for this preamble, closing the idle ones; the others will be closed as they
+         * are released, as they may be in the middle of a job.
+         */
+        synchronized void broken() {
+            broken = true;
+            idle.forEach(LatexServer::close);
+            all.removeAll(idle);
+            idle.clear();
+            notifyAll();
+        }
+    }
+}
@@ -13,4 +13,13 @@ public interface ShellProcessFactory {
         return build(settings, wdPath, extraCmdLine).start();
     }
 
+    /**
+     * Start a process that reads its commands from a pipe on standard input, rather than inheriting our own.
+     */
+    default Process runInteractive(Settings settings, Path wdPath, String... extraCmdLine) throws IOException {
+        return build(settings, wdPath, extraCmdLine)
+                .redirectInput(ProcessBuilder.Redirect.PIPE)
+                .start();
+    }
+
 }
@@ -4,9 +4,8 @@ import org.homelinux.rjlee.news.elements.Part;
 import org.homelinux.rjlee.news.elements.Valley;
 import org.homelinux.rjlee.news.settings.Settings;
 
-import java.util.ArrayList;
-import java.util.Comparator;
-import java.util.List;
+import java.util.*;
+import java.util.function.Consumer;
 import java.util.stream.Stream;
 
 /**
@@ -14,6 +13,12 @@ import java.util.stream.Stream;
  * which can be empty (space yet to be allocated), or contain a Part.
  * <p>
  * A part may appear in more than one column, such as a column-spanning header.
+ * <p>
+ * The fragments are kept sorted by where they start, and the empty ones are also indexed by where they start and by
+ * height, so finding the space to set a fragment into, the first empty space, or the longest, takes logarithmic time
+ * in the number of fragments. As the indexes are sorted by position and size, a fragment is always taken out of them
+ * while it's moved or resized (see {@link #resize}). The page is told whenever the empty space changes, so that it
+ * can index its columns in the same way.
  *
  * @author Robert
  */
@@ -124,26 +129,30 @@ public class Col {
          * @return a non-negative space value
          */
         public double spaceAbove() {
-            int i = frags.indexOf(this);
-            if (i > 0) {
-                ColFragment above = frags.get(i - 1);
-                if (above.part == null)
-                    return above.height();
-            }
-            return 0;
+            ColFragment above = above();
+            return above != null && above.part == null ? above.height() : 0;
         }
         /**
          * Calculate the space below this fragment, if any, not including alleys. Returns 0 if there is no space below this fragment.
          * @return a non-negative space value
          */
         public double spaceBelow() {
-            int i = frags.indexOf(this);
-            if (i+1 < frags.size()) {
-                ColFragment below = frags.get(i + 1);
-                if (below.part == null)
-                    return below.height();
-            }
-            return 0;
+            ColFragment below = below();
+            return below != null && below.part == null ? below.height() : 0;
+        }
+
+        /**
+         * @return the fragment above this one in the column, or null if this is at the top.
+         */
+        private ColFragment above() {
+            return Optional.ofNullable(frags.lowerEntry(start)).map(Map.Entry::getValue).orElse(null);
+        }
+
+        /**
+         * @return the fragment below this one in the column, or null if this is at the bottom.
+         */
+        private ColFragment below() {
+            return Optional.ofNullable(frags.higherEntry(start)).map(Map.Entry::getValue).orElse(null);
         }
 
         /**
@@ -158,26 +167,25 @@ public class Col {
                 return;
             }
             if (delta == 0) return;
-            int i = frags.indexOf(this);
-            if (i+1 < frags.size()) {
-                ColFragment below = frags.get(i + 1);
+            ColFragment below = below();
+            if (below != null) {
                 if (below.part != null)
                     throw new IllegalStateException(String.format("Attempting to adjust fragment downwards caused collision between %s and %s", this, below));
                 if (below.end < below.start + delta)
                     throw new IllegalStateException(String.format("Attempting to adjust fragment downwards: not enough space in %s to move %s by %s", below, this, delta));
-                // reduce space below
-                below.start += delta;
-                if (below.start == below.end) frags.remove(below); // filled the space
+                ColFragment above = above();
+                // reduce space below (removing it if this fills the space)
+                resize(below, below.start + delta, below.end);
                 // move this
-                start += delta;
-                end += delta;
-                if (i == 0 || frags.get(i-1).part != null) {
+                resize(this, start + delta, end + delta);
+                if (above == null || above.part != null) {
                     // insert new space above
                     setEmpty(new ColFragment(start-delta, start));
                 } else {
                     // increase space above
-                    frags.get(i-1).end += delta;
+                    resize(above, above.start, above.end + delta);
                 }
+                changed();
             } else throw new IllegalStateException(String.format("Attempting to adjust bottom fragment downwards by %s: %s", delta, this));
 
         }
@@ -194,36 +202,97 @@ public class Col {
                 return;
             }
             if (delta == 0) return;
-            int i = frags.indexOf(this);
-            if (i == 0) throw new IllegalStateException(String.format("Attempting to adjust fragment upwards out of page%s", this));
-            ColFragment above = frags.get(i - 1);
+            ColFragment above = above();
+            if (above == null) throw new IllegalStateException(String.format("Attempting to adjust fragment upwards out of page%s", this));
             if (above.part != null) throw new IllegalStateException(String.format("Attempting to adjust fragment upwards caused collision between %sand %s", this, above));
             if (above.height() < delta) throw new IllegalStateException(String.format("Attempting to adjust fragment downwards: not enough space in %s to move %s by %s", above, this, delta));
-            // reduce space above
-            above.end -= delta;
+            ColFragment below = below();
+            // reduce space above (removing it if this fills the space)
+            resize(above, above.start, above.end - delta);
             // move this
-            start -= delta;
-            end -= delta;
-            if (i == frags.size()-1 || frags.get(i+1).part != null) {
+            resize(this, start - delta, end - delta);
+            if (below == null || below.part != null) {
                 // insert new space below
                 setEmpty(new ColFragment(end, end+delta));
             } else {
                 // increase space below
-                frags.get(i+1).start -= delta;
+                resize(below, below.start - delta, below.end);
             }
-            if (above.start == above.end) frags.remove(above); // filled the space
+            changed();
         }
 
     }
 
+    /**
+     * Orders empty fragments by height; of those the same height, the one nearest the top comes last.
+     */
+    private static final Comparator<ColFragment> BY_HEIGHT = Comparator.comparingDouble(ColFragment::height)
+            .thenComparing(Comparator.comparingDouble(ColFragment::start).reversed());
+
     private final Settings settings;
     private Col last;
-    private List<ColFragment> frags = new ArrayList<>();
+    /**
+     * All the fragments, by where they start.
+     */
+    private final NavigableMap<Double, ColFragment> frags = new TreeMap<>();
+    /**
+     * The empty fragments, by where they start.
+     */
+    private final NavigableMap<Double, ColFragment> emptyByStart = new TreeMap<>();
+    /**
+     * The empty fragments, by height.
+     */
+    private final NavigableSet<ColFragment> emptyByHeight = new TreeSet<>(BY_HEIGHT);
+    /**
+     * The fragments in order, for {@link #getFrags()}; or null once they've changed.
+     */
+    private List<ColFragment> fragList;
+    private Consumer<Col> listener = c -> {
+    };
 
     public Col(Settings settings, Col last) {
         this.settings = settings;
         this.last = last;
-        frags.add(new ColFragment());
+        add(new ColFragment());
+    }
+
+    /**
+     * @param listener to be told when the empty space in this column has changed
+     */
+    void setListener(Consumer<Col> listener) {
+        this.listener = listener;
+    }
+
+    private void changed() {
+        listener.accept(this);
+    }
+
+    private void add(ColFragment ff) {
+        frags.put(ff.start, ff);
+        if (ff.part == null) {
+            emptyByStart.put(ff.start, ff);
+            emptyByHeight.add(ff);
+        }
+        fragList = null;
+    }
+
+    private void remove(ColFragment ff) {
+        frags.remove(ff.start);
+        if (ff.part == null) {
+            emptyByStart.remove(ff.start);
+            emptyByHeight.remove(ff);
+        }
+        fragList = null;
+    }
+
+    /**
+     * Move or resize a fragment, keeping the indexes in order; a fragment left with no height is removed.
+     */
+    private void resize(ColFragment ff, double start, double end) {
+        remove(ff);
+        ff.start = start;
+        ff.end = end;
+        if (start != end) add(ff);
     }
 
     /**
@@ -237,14 +306,10 @@ public class Col {
         double to = ff.end;
         if (to > settings.getColumnHeight()) throw new IllegalArgumentException(String.format("Empty fragment below column end: %s", ff));
         if (ff.part != null) throw new IllegalArgumentException(String.format("Non-empty fragment must be set onto blank space: %s", ff));
-        for (int i = 0; i < frags.size(); i++) {
-            ColFragment cf = frags.get(i);
-            if (cf.start < fro) continue;
-            if (cf.start < to)
-                throw new IllegalStateException(String.format("Overlapping blank space setting %s onto %s", ff, frags));
-            frags.add(i, ff);
-            break;
-        }
+        Map.Entry<Double, ColFragment> next = frags.ceilingEntry(fro);
+        if (next != null && next.getKey() < to)
+            throw new IllegalStateException(String.format("Overlapping blank space setting %s onto %s", ff, getFrags()));
+        add(ff);
     }
 
     /**
@@ -256,62 +321,72 @@ public class Col {
         //System.out.println("Placing fixed fragment " + ff);
         double fro = ff.start;
         double to = ff.end;
-        for (int i = 0; i < frags.size(); i++) {
-            ColFragment cf = frags.get(i);
-            if (cf.part() != null) continue;
-            //System.out.printf("CF:end=%f, CF:start=%f, to=%f, fro=%f\n",cf.end(), cf.start(), to, fro);
-            if (cf.end() < to || cf.start() > fro) continue;
-            frags.remove(cf);
-            if (cf.end() > to) {
-                // track the empty space
-                if (cf.end() - to < settings.getMaxSquashVSpace()) {
-                    ff.adjustEnd(cf.end());
-                } else {
-                    frags.add(i, new ColFragment(to, cf.end()));
-                }
-            }
-            frags.add(i, ff);
-            //System.out.println(String.format("Placed fixed-place element %s on col %s",ff, this));
-            if (cf.start() < fro) {
-                // track the empty space
-                frags.add(i, new ColFragment(cf.start(), fro));
+        // empty fragments don't overlap, so only the last to start at or above this one can hold it:
+        Map.Entry<Double, ColFragment> space = emptyByStart.floorEntry(fro);
+        if (space == null || space.getValue().end() < to)
+            throw new IllegalStateException(String.format("Failed to place fixed-place element %s on col %s", ff, this));
+        ColFragment cf = space.getValue();
+        remove(cf);
+        if (cf.end() > to) {
+            // track the empty space
+            if (cf.end() - to < settings.getMaxSquashVSpace()) {
+                ff.adjustEnd(cf.end());
+            } else {
+                add(new ColFragment(to, cf.end()));
             }
-            // merge alleys if we can
-            if (last != null && ff.part instanceof Valley) {
-                for (ColFragment lastFrag : last.frags) {
-                    if (lastFrag.start() == ff.start() && lastFrag.part instanceof Valley) {
-                        Valley vAlley = ((Valley) lastFrag.part);
-                        vAlley.addColumn();
-                        ff.part = vAlley;
-                    }
-                }
+        }
+        //System.out.println(String.format("Placed fixed-place element %s on col %s",ff, this));
+        if (cf.start() < fro) {
+            // track the empty space
+            add(new ColFragment(cf.start(), fro));
+        }
+        // merge alleys if we can
+        if (last != null && ff.part instanceof Valley) {
+            ColFragment lastFrag = last.frags.get(ff.start());
+            if (lastFrag != null && lastFrag.part instanceof Valley) {
+                Valley vAlley = ((Valley) lastFrag.part);
+                vAlley.addColumn();
+                ff.part = vAlley;
             }
-            return;
         }
-        throw new IllegalStateException(String.format("Failed to place fixed-place element %s on col %s", ff, this));
+        add(ff);
+        changed();
     }
 
+    /**
+     * @return the longest empty fragment in this column (the top one, if several are as long); or null if the column
+     * is full.
+     */
     public ColFragment longestEmpty() {
-        return empty()
-                .max(Comparator.comparing(ColFragment::height))
-                .orElse(null);
+        return emptyByHeight.isEmpty() ? null : emptyByHeight.last();
+    }
+
+    /**
+     * @return the top empty fragment in this column; or null if the column is full.
+     */
+    public ColFragment firstEmpty() {
+        Map.Entry<Double, ColFragment> first = emptyByStart.firstEntry();
+        return first == null ? null : first.getValue();
     }
 
     /**
      * @return all empty fragments in this column
      */
     public Stream<ColFragment> empty() {
-        return frags.stream()
-                .filter(f -> f.part() == null);
+        return emptyByStart.values().stream();
     }
 
+    /**
+     * @return the fragments, from the top of the column down; not to be modified.
+     */
     public List<ColFragment> getFrags() {
-        return frags;
+        if (fragList == null) fragList = Collections.unmodifiableList(new ArrayList<>(frags.values()));
+        return fragList;
     }
 
 
     public String toString() {
-        return frags.toString();
+        return getFrags().toString();
     }
 
 } // Col
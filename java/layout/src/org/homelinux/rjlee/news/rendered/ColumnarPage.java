@@ -23,6 +23,23 @@ public class ColumnarPage implements Page {
     private final Settings settings;
     private long simplePageNo;
     private final List<Col> columns = new ArrayList<>();
+    /**
+     * Where each column is on the page, from 0.
+     */
+    private final Map<Col, Integer> position = new IdentityHashMap<>();
+    /**
+     * The height of the longest empty fragment in each column with any empty space, as last indexed.
+     */
+    private final Map<Col, Double> longestEmpty = new IdentityHashMap<>();
+    /**
+     * Columns with empty space, by the height of their longest empty fragment, then from left to right.
+     */
+    private final NavigableSet<Col> byLongestEmpty = new TreeSet<>(Comparator.comparingDouble((Col c) -> longestEmpty.get(c))
+            .thenComparingInt(position::get));
+    /**
+     * Columns with empty space, from left to right.
+     */
+    private final NavigableSet<Col> withSpace = new TreeSet<>(Comparator.comparingInt(position::get));
 
     private double flowFromLength = -1;
     private double flowToLength = -1;
@@ -38,7 +55,7 @@ public class ColumnarPage implements Page {
         Col last = null;
         for (long i = 0; i < numColumns; i++) {
             Col next = new Col(settings, last);
-            columns.add(next);
+            addColumn(next);
             last = next;
         }
         //noinspection resource
@@ -74,6 +91,27 @@ public class ColumnarPage implements Page {
         return flowToLength;
     }
 
+    /**
+     * Split off the fragments of some articles on this page, just as {@link #write} would but without setting them,
+     * so that a later page can be written without this one.
+     *
+     * @param w        writer to write to
+     * @param articles those to split; others are left alone
+     */
+    public void skip(PrintWriter w, Set<Article> articles) {
+        for (Col col : columns) {
+            for (Col.ColFragment frag : col.getFrags()) {
+                if (!(frag.getPart() instanceof ArticleFragment)) continue;
+                ArticleFragment a = (ArticleFragment) frag.getPart();
+                Article article = a.getArticle();
+                if (!articles.contains(article)) continue;
+                if (article.getOutCtr() + 1 < article.getFragments().size())
+                    w.printf("\\splitbox{%s}{%fin}%% on page %d\n", article.name(), a.height(), simplePageNo);
+                article.countOutput();
+            }
+        }
+    }
+
     /**
      * Write out the complete page to LaTeX.
      *
@@ -217,10 +255,67 @@ public class ColumnarPage implements Page {
         numExtraCols++;
         Col lastCol = getColumns().get(getColumns().size() - 1);
         Col nextCol = new Col(settings, lastCol);
-        getColumns().add(nextCol);
+        addColumn(nextCol);
         return nextCol;
     }
 
+    private void addColumn(Col col) {
+        position.put(col, columns.size());
+        columns.add(col);
+        col.setListener(this::emptySpaceChanged);
+        emptySpaceChanged(col);
+    }
+
+    /**
+     * Index the column again, now its empty space has changed.
+     */
+    private void emptySpaceChanged(Col col) {
+        if (longestEmpty.containsKey(col)) {
+            byLongestEmpty.remove(col);
+            withSpace.remove(col);
+            longestEmpty.remove(col);
+        }
+        Col.ColFragment longest = col.longestEmpty();
+        if (longest != null) {
+            longestEmpty.put(col, longest.height());
+            byLongestEmpty.add(col);
+            withSpace.add(col);
+        }
+    }
+
+    /**
+     * @return the column whose longest empty fragment is the shortest (the leftmost, if several are as short); or
+     * null if the page is full.
+     */
+    public Col tightestColumn() {
+        return byLongestEmpty.isEmpty() ? null : byLongestEmpty.first();
+    }
+
+    /**
+     * @return the leftmost column with empty space; or null if the page is full.
+     */
+    public Col firstColumnWithSpace() {
+        return withSpace.isEmpty() ? null : withSpace.first();
+    }
+
+    /**
+     * @return the next column to the right of the given one with empty space; or null if there are none.
+     */
+    public Col nextColumnWithSpace(Col col) {
+        return withSpace.higher(col);
+    }
+
+    /**
+     * Whether anything more could be set on the page: a column has a space taller than an alley, or more columns could
+     * be added to it. A page with no room is closed: laying it out again would leave it as it is.
+     *
+     * @param allowPageEnlargementByCols how many extra columns we're allowed, compared to the original setup before laying out.
+     */
+    public boolean hasRoom(long allowPageEnlargementByCols) {
+        if (allowPageEnlargementByCols > numExtraCols) return true;
+        return !byLongestEmpty.isEmpty() && longestEmpty.get(byLongestEmpty.last()) > settings.getAlleyHeight();
+    }
+
     /**
      * Set an article  in order. So find the first empty column and start from there.
      *
@@ -235,10 +330,8 @@ public class ColumnarPage implements Page {
 
         ArticleFragment aa = null;
         Logger logger = Logger.getInstance();
-        for (Col c : getColumns()) {
-            Iterator<Col.ColFragment> spaces = c.empty().iterator();
-            if (!spaces.hasNext()) continue; // this column is full!
-            Col.ColFragment nextSpace = spaces.next();
+        for (Col c = firstColumnWithSpace(); c != null; c = nextColumnWithSpace(c)) {
+            Col.ColFragment nextSpace = c.firstEmpty();
             double space = nextSpace.height();
             boolean useAlley = nextSpace.start() > 0;
             if (useAlley) space -= settings.getAlleyHeight();
@@ -273,7 +366,7 @@ public class ColumnarPage implements Page {
                 Col.ColFragment newAlleyFrag = c.new ColFragment(new Valley(settings, 1), top);
                 c.set(newAlleyFrag);
                 // it may be that, having set the alley, we've now filled the column. In this case, just skip to the next column.
-                if (!c.empty().findFirst().isPresent()) {
+                if (c.firstEmpty() == null) {
                     if (settings.getAlleyThickHeight() == 0) {
                         // if there's no alley line, dumping an alley at the end of a column looks weird.
                         logger.algorithm().printf("WARN: page %d (simple count) column %d is a short column.%n", this.simplePageNo, getColumns().indexOf(c) + 1);
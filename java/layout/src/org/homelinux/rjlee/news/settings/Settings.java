@@ -34,7 +34,14 @@ public class Settings implements PreambleLinesSupplier {
         allowTexFileOverwrite,
         inputWithoutCopy,
         defaultFontFamilyFromHeaders,
-        enableLaTeXHooks
+        enableLaTeXHooks,
+        batchMeasurement,
+        precompiledPreamble,
+        breakProfiles,
+        draft,
+        pipelinedLayout,
+        pageCache,
+        bestOfLayout
     }
 
     /**
@@ -90,6 +97,14 @@ public class Settings implements PreambleLinesSupplier {
 
     private String jobName;
     private String lengthsCache;
+    private int lengthsCacheMaxEntries;
+    private int measurementServers;
+    private Path scratchDir;
+    private int measurementThreads;
+    private double estimateTolerance;
+    private double replanTolerance;
+    private int chunkParagraphs;
+    private int pagesPerRange;
 
     private List<String> extraPreambleLines;
     private String markdown;
@@ -204,6 +219,15 @@ public class Settings implements PreambleLinesSupplier {
         this.latexCmdLine = properties.getProperty("latexCmdLine", "--interaction=nonstopmode").split("\\s+");
         this.jobName = properties.getProperty("jobName", "newspaper");
         this.lengthsCache = properties.getProperty("lengthsCache", "lengths.cache");
+        this.lengthsCacheMaxEntries = readInt(properties, "lengthsCacheMaxEntries", 100000, 1, Integer.MAX_VALUE);
+        this.measurementServers = readInt(properties, "measurementServers", 0, 0, 1024);
+        String scratchDir = properties.getProperty("scratchDir", "");
+        this.scratchDir = scratchDir.trim().isEmpty() ? null : fileSystem.getPath(scratchDir.trim());
+        this.measurementThreads = readInt(properties, "measurementThreads", 0, 0, 1024);
+        this.estimateTolerance = readLength(properties.getProperty("estimateTolerance", "0in"));
+        this.replanTolerance = readLength(properties.getProperty("replanTolerance", "0.25in"));
+        this.chunkParagraphs = readInt(properties, "chunkParagraphs", 0, 0, 10000);
+        this.pagesPerRange = readInt(properties, "pagesPerRange", 0, 0, 10000);
         this.logFile = fileSystem.getPath(properties.getProperty("logFile", "layout.log"));
 
         this.stdOutLevel = readEnum(properties, "stdOutLevel", DebugLevel.class, DebugLevel.ELEMENTS);
@@ -377,6 +401,69 @@ public class Settings implements PreambleLinesSupplier {
         return lengthsCache;
     }
 
+    /**
+     * @return the most lengths to keep in the {@link #getLengthsCache() lengths cache}; the least recently used are
+     * dropped when the cache is compacted.
+     */
+    public int getLengthsCacheMaxEntries() {
+        return lengthsCacheMaxEntries;
+    }
+
+    /**
+     * @return maximum number of resident LaTeX processes to keep for measuring articles, per distinct preamble;
+     * 0 to start a new process for each measurement.
+     */
+    public int getMeasurementServers() {
+        return measurementServers;
+    }
+
+    /**
+     * @return directory in which to create scratch directories for measuring articles; the system temporary directory
+     * unless set.
+     */
+    public Path getScratchDir() {
+        return scratchDir != null ? scratchDir : FileSystems.getDefault().getPath(System.getProperty("java.io.tmpdir"));
+    }
+
+    /**
+     * @return number of threads used to measure articles before layout; 0 for one per available processor.
+     */
+    public int getMeasurementThreads() {
+        return measurementThreads;
+    }
+
+    /**
+     * @return the largest standard error (in inches) of an estimated length for it to be used while the article is
+     * measured; 0 to always wait for measurement.
+     */
+    public double getEstimateTolerance() {
+        return estimateTolerance;
+    }
+
+    /**
+     * @return how far (in inches) an estimated length may turn out to be from the measured length for the pages laid
+     * out with it to stand.
+     */
+    public double getReplanTolerance() {
+        return replanTolerance;
+    }
+
+    /**
+     * @return the typical number of paragraphs in each chunk of a long article that's measured piece by piece; 0 to
+     * measure every article whole.
+     */
+    public int getChunkParagraphs() {
+        return chunkParagraphs;
+    }
+
+    /**
+     * @return the number of pages in each range of the final document compiled on its own, before the ranges are
+     * put together; 0 to compile the document whole.
+     */
+    public int getPagesPerRange() {
+        return pagesPerRange;
+    }
+
     public String getLatex() {
         return latex;
     }
@@ -455,6 +542,58 @@ public class Settings implements PreambleLinesSupplier {
         return flags.contains(Flag.enableLaTeXHooks);
     }
 
+    /**
+     * @return true to measure all the articles in one LaTeX run (per distinct preamble) before layout starts.
+     */
+    public boolean isBatchMeasurement() {
+        return flags.contains(Flag.batchMeasurement);
+    }
+
+    /**
+     * @return true to measure articles using a TeX format file with the measurement preamble already loaded.
+     */
+    public boolean isPrecompiledPreamble() {
+        return flags.contains(Flag.precompiledPreamble);
+    }
+
+    /**
+     * @return true to work out the length of split articles from a profile of their break points, rather than
+     * measuring again after every split.
+     */
+    public boolean isBreakProfiles() {
+        return flags.contains(Flag.breakProfiles);
+    }
+
+    /**
+     * @return true to estimate the length of articles without running LaTeX, for a quick preview of the layout.
+     */
+    public boolean isDraft() {
+        return flags.contains(Flag.draft);
+    }
+
+    /**
+     * @return true to start laying out pages while articles are still being measured.
+     */
+    public boolean isPipelinedLayout() {
+        return flags.contains(Flag.pipelinedLayout);
+    }
+
+    /**
+     * @return true to compile each page of the final document on its own, and keep the compiled pages to reuse while
+     * they're unchanged.
+     */
+    public boolean isPageCache() {
+        return flags.contains(Flag.pageCache);
+    }
+
+    /**
+     * @return true to lay out the newspaper with each column strategy, and a column more or fewer per page, and keep
+     * the best layout.
+     */
+    public boolean isBestOfLayout() {
+        return flags.contains(Flag.bestOfLayout);
+    }
+
     public DebugLevel getStdOutLevel() {
         return stdOutLevel;
     }
@@ -496,6 +635,35 @@ public class Settings implements PreambleLinesSupplier {
         return version;
     }
 
+    /**
+     * Describe every setting that can change how an article is typeset, and therefore its length.
+     * <p>
+     * If two settings objects give the same key, then an article typeset at the same width will have the same length
+     * under either. Paths are not included, so the key is the same for a copy of the same files elsewhere.
+     *
+     * @return a string suitable for use in a cache key
+     */
+    public String typesettingKey() {
+        return "latex=" + getLatex() +
+                ", defaultFontFamilyFromHeaders=" + isDefaultFontFamilyFromHeaders() +
+                ", defaultFontSize=" + getDefaultFontSize() +
+                ", defaultFontSizeClo=" + getDefaultFontSizeClo() +
+                ", defaultFontFamily=" + getDefaultFontFamily() +
+                ", defaultFontSeries=" + getDefaultFontSeries() +
+                ", defaultTeletypeFamily=" + getDefaultTeletypeFamily() +
+                ", defaultTeletypeSeries=" + getDefaultTeletypeSeries() +
+                ", headerFont=" + getHeaderFont() +
+                ", tolerance=" + getTolerance() +
+                ", emergencyStretch=" + getEmergencyStretch() +
+                ", maxColsPerPage=" + getMaxColsPerPage() +
+                ", extraPreambleLines=" + extraPreambleLines +
+                ", markdown=" + getMarkdown() +
+                ", continuedOnPageText=" + getContinuedOnPageText() +
+                ", continuedFromPageText=" + getContinuedFromPageText() +
+                ", inputWithoutCopy=" + isInputWithoutCopy() +
+                ", enableLaTeXHooks=" + isEnableLateXHooks();
+    }
+
     @Override
     public String toString() {
         return "Settings{" +
@@ -524,6 +692,14 @@ public class Settings implements PreambleLinesSupplier {
                 ", out=" + getOut() +
                 ", jobName=" + getJobName() +
                 ", lengthsCache=" + getLengthsCache() +
+                ", lengthsCacheMaxEntries=" + getLengthsCacheMaxEntries() +
+                ", measurementServers=" + getMeasurementServers() +
+                ", measurementThreads=" + getMeasurementThreads() +
+                ", scratchDir=" + (scratchDir == null ? "" : scratchDir) +
+                ", estimateTolerance=" + getEstimateTolerance() +
+                ", replanTolerance=" + getReplanTolerance() +
+                ", chunkParagraphs=" + getChunkParagraphs() +
+                ", pagesPerRange=" + getPagesPerRange() +
                 ", texinputs=" + getTexInputs() +
                 ", latex='" + getLatex() + '\'' +
                 ", latexCmdline=" + Arrays.toString(getLatexCmdLine()) +
@@ -0,0 +1,73 @@
+package org.homelinux.rjlee.news;
+
+import org.homelinux.rjlee.news.file.TmpFileUtils;
+import org.homelinux.rjlee.news.latex.HeaderLengthCalculator;
+import org.homelinux.rjlee.news.logging.CapturingLogger;
+import org.homelinux.rjlee.news.settings.Settings;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Properties;
+
+import static org.homelinux.rjlee.news.latex.HeaderLengthCalculator.writeArticle;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Check that the best of the candidate layouts is kept, and that it's always the same one.
+ *
+ * @author Robert
+ */
+class BestOfLayoutTest {
+    private final CapturingLogger logger = new CapturingLogger();
+    private Settings settings;
+    private Path dir;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        Properties props = new Properties();
+        props.setProperty("columnWidth", "6in"); // up to four columns per page
+        props.setProperty("bestOfLayout", "true");
+        settings = new Settings(props);
+        dir = Files.createTempDirectory("bestof");
+        TmpFileUtils.recursiveDeleteOnExit(dir);
+    }
+
+    private BestOfLayout layOut() {
+        BestOfLayout layout = new BestOfLayout(settings, logger, new Path[]{dir}, new HeaderLengthCalculator());
+        layout.layOutNewspaper();
+        layout.validate();
+        return layout;
+    }
+
+    /**
+     * Balancing gives three columns a page; with four, the same two pages have an article fewer split. Filling each
+     * page first only gives layouts with four or three columns a page, which are already candidates.
+     */
+    @Test
+    void layOutNewspaper() throws IOException {
+        for (int i = 10; i < 17; i++) writeArticle(dir, "art" + i + ".tex", 20);
+        NewspaperLayoutImpl configured = new NewspaperLayoutImpl(settings, logger, new Path[]{dir}, new HeaderLengthCalculator());
+        configured.layOutNewspaper();
+        BestOfLayout best = layOut();
+        BestOfLayout again = layOut();
+        assertAll(
+                () -> assertTrue(BestOfLayout.Score.of(best).compareTo(BestOfLayout.Score.of(configured)) <= 0),
+                () -> assertEquals(best.toString(), again.toString()),
+                () -> assertTrue(logger.algorithmCollected().contains("Laying out 3 candidates\n"), logger::algorithmCollected),
+                () -> assertTrue(logger.elementsCollected().contains("Keeping the layout of BALANCE with 4 columns per page"), logger::elementsCollected)
+        );
+    }
+
+    @Test
+    void score() {
+        assertAll(
+                () -> assertTrue(new BestOfLayout.Score(2, 5, 10).compareTo(new BestOfLayout.Score(3, 0, 0)) < 0),
+                () -> assertTrue(new BestOfLayout.Score(2, 1, 10).compareTo(new BestOfLayout.Score(2, 2, 0)) < 0),
+                () -> assertTrue(new BestOfLayout.Score(2, 1, 5).compareTo(new BestOfLayout.Score(2, 1, 10)) < 0),
+                () -> assertEquals(0, new BestOfLayout.Score(2, 1, 5).compareTo(new BestOfLayout.Score(2, 1, 5)))
+        );
+    }
+}
@@ -4,6 +4,7 @@ import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 
 import java.io.*;
+import java.util.Arrays;
 
 /**
  * Most of the CmdLineOptions are tested by SettingsTest
@@ -20,6 +21,16 @@ class CmdLineOptionsTest {
         new CmdLineOptions(mockStdOut, new String[0]);
         mockStdOut.flush();
 
-        Assertions.assertEquals("Usage: java -jar layout.jar <srcdir1> [ <srdir2> ... ]\n", baos.toString("UTF-8"));
+        Assertions.assertEquals("Usage: java -jar layout.jar [ --watch ] <srcdir1> [ <srdir2> ... ]\n", baos.toString("UTF-8"));
+    }
+
+    @Test
+    void watch() {
+        CmdLineOptions options = new CmdLineOptions(mockStdOut, "a", "--watch", "b");
+        Assertions.assertAll(
+                () -> Assertions.assertTrue(options.isWatch()),
+                () -> Assertions.assertEquals("[a, b]", Arrays.toString(options.getInputDirectories())),
+                () -> Assertions.assertFalse(new CmdLineOptions(mockStdOut, "a").isWatch())
+        );
     }
 }
\ No newline at end of file
@@ -9,6 +9,7 @@ import org.junit.jupiter.params.provider.CsvSource;
 import java.util.Properties;
 
 import static org.junit.jupiter.api.Assertions.assertAll;
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertSame;
 
 class ColumnCalculatorTest {
@@ -43,4 +44,13 @@ class ColumnCalculatorTest {
                 () -> assertSame(4L, results.getNumPages()),
                 () -> assertSame(5, results.getColsPerPage()));
     }
+
+    @Test
+    void withColsPerPage() {
+        ColumnCalculator results = ColumnCalculator.calculateColumnsPerPage(settings, 156, 7.44, 6).withColsPerPage(4);
+        assertAll(
+                () -> assertEquals(21L, results.getTotalColumns()),
+                () -> assertEquals(6L, results.getNumPages()),
+                () -> assertEquals(4, results.getColsPerPage()));
+    }
 }
\ No newline at end of file
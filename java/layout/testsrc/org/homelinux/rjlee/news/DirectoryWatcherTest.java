@@ -0,0 +1,39 @@
+package org.homelinux.rjlee.news;
+
+import org.homelinux.rjlee.news.file.TmpFileUtils;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DirectoryWatcherTest {
+
+    @Test
+    void awaitChanges() throws IOException, InterruptedException {
+        Path dir = Files.createTempDirectory("watch");
+        TmpFileUtils.recursiveDeleteOnExit(dir);
+        try (DirectoryWatcher watcher = new DirectoryWatcher(new Path[]{dir}, 500)) {
+            Thread editor = new Thread(() -> {
+                try {
+                    Files.write(dir.resolve("a.tex"), "one".getBytes());
+                    Files.write(dir.resolve("a.tex~"), "backup".getBytes());
+                    Thread.sleep(50);
+                    Files.write(dir.resolve("b.tex"), "two".getBytes());
+                } catch (IOException | InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            editor.start();
+            // both files, as the second is changed before the first change is reported:
+            Set<Path> changed = watcher.awaitChanges(path -> !path.toString().endsWith("~"));
+            editor.join();
+            assertEquals(new HashSet<>(Arrays.asList(dir.resolve("a.tex"), dir.resolve("b.tex"))), changed);
+        }
+    }
+}
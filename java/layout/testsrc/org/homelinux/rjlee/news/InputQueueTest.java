@@ -0,0 +1,77 @@
+package org.homelinux.rjlee.news;
+
+import org.homelinux.rjlee.news.input.ArticleImpl;
+import org.homelinux.rjlee.news.input.Headers;
+import org.homelinux.rjlee.news.input.Input;
+import org.homelinux.rjlee.news.input.Truck;
+import org.homelinux.rjlee.news.latex.MockLengthCalculator;
+import org.homelinux.rjlee.news.mockpath.MockPath;
+import org.homelinux.rjlee.news.settings.Settings;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Properties;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Check that inputs are taken in order, passing over those not yet allowed on the page.
+ *
+ * @author Robert
+ */
+class InputQueueTest {
+    private final Settings settings = new Settings(new Properties());
+    private final InputQueue queue = new InputQueue();
+
+    private Input article(String name, String page) {
+        Properties props = new Properties();
+        if (page != null) props.setProperty("Page", page);
+        return new ArticleImpl(new Headers(MockPath.createMockPathWithNameAndContent(name, "%" + name), props, settings), settings, new MockLengthCalculator());
+    }
+
+    @Test
+    void pollEligible() {
+        Input a = article("a.tex", null);
+        Input onPage3 = article("p3.tex", "3");
+        Input onLast = article("last.tex", "-1");
+        Input b = article("b.tex", null);
+        queue.addAll(Arrays.asList(onPage3, onLast, a, b));
+        // page 2 of 4 is 3 pages from the end
+        assertSame(a, queue.pollEligible(2, -3));
+        assertEquals(2, queue.passedOver());
+        assertSame(b, queue.pollEligible(2, -3));
+        assertNull(queue.pollEligible(2, -3));
+        // those passed over are still in order:
+        assertEquals(Arrays.asList(onPage3, onLast), queue.toList());
+        assertSame(onPage3, queue.pollEligible(4, -1));
+        assertSame(onLast, queue.pollEligible(4, -1));
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    void addFirst() {
+        Input a = article("a.tex", null);
+        Input b = article("b.tex", null);
+        Input c = article("c.tex", "2");
+        queue.add(a);
+        queue.addAllFirst(Arrays.asList(b, c));
+        assertAll(
+                () -> assertEquals(Arrays.asList(b, c, a), queue.toList()),
+                () -> assertSame(b, queue.pollEligible(1, -1)),
+                () -> assertSame(a, queue.pollEligible(1, -1)),
+                () -> assertSame(c, queue.peek())
+        );
+    }
+
+    @Test
+    void trucks() {
+        Properties props = new Properties();
+        props.setProperty("Type", "truck");
+        Truck truck = new Truck(new Headers(MockPath.createMockPathWithNameAndContent("t.tex", "%t"), props, settings), settings);
+        Input a = article("a.tex", null);
+        queue.addAll(Arrays.asList(truck, a));
+        assertSame(a, queue.pollEligible(1, -1));
+        assertNull(queue.pollEligible(1, -1));
+        assertSame(truck, queue.poll());
+    }
+}
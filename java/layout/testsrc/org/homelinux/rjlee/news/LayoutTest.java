@@ -7,6 +7,8 @@ import org.junit.jupiter.api.Test;
 
 import java.io.ByteArrayOutputStream;
 import java.io.PrintStream;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Properties;
@@ -52,6 +54,22 @@ class LayoutTest {
 
     }
 
+    @Test
+    void isWatched() {
+        Properties p = new Properties();
+        p.setProperty("out", "/news/out");
+        Settings settings = new Settings(p);
+        FileSystem fs = FileSystems.getDefault();
+        assertAll(
+                () -> assertTrue(Layout.isWatched(settings, fs.getPath("/news/art.tex"))),
+                () -> assertTrue(Layout.isWatched(settings, fs.getPath("/news/settings.properties"))),
+                () -> assertFalse(Layout.isWatched(settings, fs.getPath("/news/out"))),
+                () -> assertFalse(Layout.isWatched(settings, fs.getPath("/news/out/newspaper.tex"))),
+                () -> assertFalse(Layout.isWatched(settings, fs.getPath("/news/.art.tex.swp"))),
+                () -> assertFalse(Layout.isWatched(settings, fs.getPath("/news/art.tex~")))
+        );
+    }
+
     @Test
     void createEmptyLayout() {
         Settings settings = new Settings(new Properties());
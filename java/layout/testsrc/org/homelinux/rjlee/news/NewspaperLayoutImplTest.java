@@ -1,25 +1,35 @@
 package org.homelinux.rjlee.news;
 
 import org.homelinux.rjlee.news.elements.Overflow;
+import org.homelinux.rjlee.news.file.TmpFileUtils;
 import org.homelinux.rjlee.news.input.*;
+import org.homelinux.rjlee.news.latex.EstimatingLengthCalculator;
+import org.homelinux.rjlee.news.latex.HeaderLengthCalculator;
+import org.homelinux.rjlee.news.latex.LengthEstimate;
+import org.homelinux.rjlee.news.latex.LengthModel;
 import org.homelinux.rjlee.news.latex.MockLengthCalculator;
 import org.homelinux.rjlee.news.logging.CapturingLogger;
 import org.homelinux.rjlee.news.logging.Logger;
 import org.homelinux.rjlee.news.mockpath.MockPath;
 import org.homelinux.rjlee.news.rendered.ColumnarPage;
+import org.homelinux.rjlee.news.rendered.Page;
 import org.homelinux.rjlee.news.settings.Settings;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.CsvSource;
 
+import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.List;
+import java.util.Optional;
 import java.util.Properties;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
 import static java.util.Arrays.asList;
+import static org.homelinux.rjlee.news.latex.HeaderLengthCalculator.writeArticle;
 import static java.util.Collections.emptyList;
 import static java.util.Collections.singletonList;
 import static org.junit.jupiter.api.Assertions.*;
@@ -463,6 +473,31 @@ class NewspaperLayoutImplTest {
                 "]", newLayout.toString());
     }
 
+    /**
+     * Pages with no room left aren't laid out again when pages are added for a later "Page" header.
+     */
+    @Test
+    void layoutPage_closedPagesNotRevisited() {
+        Properties props = new Properties();
+        props.setProperty("pageWidth", "3in"); // room for just one column
+        props.setProperty("columnStrategy", "FILLFIRST");
+        Settings oneColumn = new Settings(props);
+        newLayout = new NewspaperLayoutImpl(oneColumn, logger, dirs);
+        MockLengthCalculator fullColumn = new MockLengthCalculator();
+        fullColumn.setLength(oneColumn.getColumnHeight());
+        Article article1 = new ArticleImpl(new Headers(MockPath.createMockPathWithNameAndContent("art1.tex", "\\lipsum"), new Properties(), oneColumn), oneColumn, fullColumn);
+        Properties head2 = new Properties();
+        head2.put("Page", "4");
+        Article article2 = new ArticleImpl(new Headers(MockPath.createMockPathWithNameAndContent("art2.tex", "\\lipsum"), head2, oneColumn), oneColumn, new MockLengthCalculator());
+        newLayout.processInputs(asList(article1, article2), new CapturingLogger(), false);
+        newLayout.layOutNewspaper();
+        assertAll(
+                () -> assertEquals(asList(1L, 4L), newLayout.getPages().stream().map(Page::getSimplePageNo).collect(Collectors.toList())),
+                // page 1 once, as it's full; pages 2 and 3 again each time a page is added, as they're still empty
+                () -> assertTrue(logger.algorithmCollected().contains("Laid out 4 pages in 7 page visits\n"), logger::algorithmCollected)
+        );
+    }
+
     @Test
     void layoutPage_keepForLastPage() {
         newLayout.getPages().add(new ColumnarPage(2, 1, settings));
@@ -509,6 +544,63 @@ class NewspaperLayoutImplTest {
         assertEquals(isInput, newLayout.isInputFile(path));
     }
 
+    /**
+     * Lay out pages while the articles are measured: the second page is only added once the first is full, and by
+     * then everything is measured, so it's only as wide as it needs to be.
+     */
+    @Test
+    void layOutNewspaper_pipelined() {
+        Properties props = new Properties();
+        props.setProperty("columnStrategy", "fillFirst");
+        props.setProperty("columnWidth", "10in"); // two columns per page
+        props.setProperty("pipelinedLayout", "true");
+        Settings settings = new Settings(props);
+        NewspaperLayoutImpl layout = new NewspaperLayoutImpl(settings, logger, dirs);
+        MockLengthCalculator lengthCalculator = new MockLengthCalculator();
+        lengthCalculator.setLength(20);
+        List<Input> articles = IntStream.rangeClosed(1, 3)
+                .mapToObj(i -> new ArticleImpl(new Headers(MockPath.createMockPathWithNameAndContent("art" + i + ".tex", "\\lipsum"), new Properties(), settings), settings, lengthCalculator))
+                .collect(Collectors.toList());
+        layout.processInputs(articles, logger, false);
+        layout.layOutNewspaper();
+        assertEquals("[PAGE 1\n" +
+                " Column1:[Fragment for part [art1.tex:0 => 20.000000 in]@[0.0-20.0], Fragment for part V-mode alley{cols=1}@[20.0-20.125], Fragment for part [art2.tex:0 => 6.449803 in]@[20.125-26.5748031496063]]\n" +
+                " Column2:[Fragment for part [art2.tex:1 => 13.550197 in]@[0.0-13.5501968503937], Fragment for part V-mode alley{cols=1}@[13.5501968503937-13.6751968503937], Fragment for part [art3.tex:0 => 12.899606 in]@[13.6751968503937-26.5748031496063]]\n" +
+                ", PAGE 2\n" +
+                " Column1:[Fragment for part [art3.tex:1 => 7.100394 in]@[0.0-7.1003937007874], Fragment empty@[7.1003937007874-26.5748031496063]]\n" +
+                "]", layout.toString());
+    }
+
+    /**
+     * An input for the back page can't be placed until the pages are known, so the pages aren't laid out until
+     * everything's measured.
+     */
+    @Test
+    void layOutNewspaper_pipelinedWithBackPage() throws IOException {
+        Settings settings = twoColumnSettings();
+        Properties props = new Properties();
+        props.setProperty("columnStrategy", "fillFirst");
+        props.setProperty("columnWidth", "10in"); // two columns per page
+        props.setProperty("pipelinedLayout", "true");
+        Settings pipelined = new Settings(props);
+        Path dir = Files.createTempDirectory("backpage");
+        TmpFileUtils.recursiveDeleteOnExit(dir);
+        Files.write(dir.resolve("a0.tex"), asList("%#Type: article", "%#Length: 5", "%#Page: -1", "a0.tex"));
+        for (int i = 10; i < 16; i++) writeArticle(dir, "art" + i + ".tex", 20);
+        NewspaperLayoutImpl layout = new NewspaperLayoutImpl(pipelined, logger, new Path[]{dir}, new HeaderLengthCalculator());
+        layout.layOutNewspaper();
+        layout.validate();
+        NewspaperLayoutImpl measuredFirst = new NewspaperLayoutImpl(settings, new CapturingLogger(), new Path[]{dir}, new HeaderLengthCalculator());
+        measuredFirst.layOutNewspaper();
+        List<Page> pages = layout.getPages();
+        assertAll(
+                () -> assertEquals(measuredFirst.toString(), layout.toString()),
+                () -> assertFalse(pages.get(0).toString().contains("a0.tex"), pages.get(0)::toString),
+                () -> assertTrue(pages.get(pages.size() - 1).toString().contains("a0.tex"), pages.get(pages.size() - 1)::toString),
+                () -> assertTrue(logger.elementsCollected().contains("Pipelined layout can't count pages back from the last"), logger::elementsCollected)
+        );
+    }
+
     /**
      * Test the edge case where a user has asked for an insert too big to fit on a page
      */
@@ -527,4 +619,102 @@ class NewspaperLayoutImplTest {
         IllegalArgumentException ex = assertThrows(IllegalArgumentException.class, newLayout::layOutNewspaper);
         assertEquals("Input art1.tex would be longer than available page height. Increase page size, change to type article, or reduce size of insert.", ex.getMessage());
     }
-}
\ No newline at end of file
+
+    private static Settings twoColumnSettings() {
+        Properties props = new Properties();
+        props.setProperty("columnStrategy", "fillFirst");
+        props.setProperty("columnWidth", "10in"); // two columns per page
+        return new Settings(props);
+    }
+
+    private NewspaperLayoutImpl layOutIncrementally(Settings settings, Path dir, LayoutSnapshot previous) {
+        NewspaperLayoutImpl layout = new NewspaperLayoutImpl(settings, logger, new Path[]{dir}, new HeaderLengthCalculator());
+        layout.layOutIncrementally(previous);
+        layout.layOutNewspaper();
+        layout.validate();
+        return layout;
+    }
+
+    /**
+     * When the last article changes, the pages before the one it's on are kept, and the layout carries on from
+     * there, with the article overflowing onto that page, to give the same pages as laying it all out again.
+     */
+    @Test
+    void layOutNewspaper_incremental() throws IOException {
+        Settings settings = twoColumnSettings();
+        Path dir = Files.createTempDirectory("incremental");
+        TmpFileUtils.recursiveDeleteOnExit(dir);
+        for (int i = 10; i < 22; i++) writeArticle(dir, "art" + i + ".tex", 20);
+        NewspaperLayoutImpl first = layOutIncrementally(settings, dir, null);
+        List<Page> before = first.getPages();
+        assertEquals(5, before.size());
+        writeArticle(dir, "art21.tex", 25);
+        NewspaperLayoutImpl second = layOutIncrementally(settings, dir, first.getSnapshot());
+        NewspaperLayoutImpl again = layOutIncrementally(settings, dir, null);
+        assertAll(
+                () -> assertEquals(again.toString(), second.toString()),
+                () -> assertSame(before.get(0), second.getPages().get(0)),
+                () -> assertSame(before.get(1), second.getPages().get(1)),
+                () -> assertNotSame(before.get(4), second.getPages().get(4)),
+                () -> assertNotNull(second.getSnapshot())
+        );
+    }
+
+    /**
+     * Once the layout is back where it was at the start of a page, the rest of the pages are kept.
+     */
+    @Test
+    void layOutNewspaper_incrementalConverges() throws IOException {
+        Settings settings = twoColumnSettings();
+        double page = 2 * settings.getColumnHeight();
+        Path dir = Files.createTempDirectory("incremental");
+        TmpFileUtils.recursiveDeleteOnExit(dir);
+        writeArticle(dir, "art1.tex", page);
+        writeArticle(dir, "art2.tex", page);
+        writeArticle(dir, "art3.tex", page);
+        writeArticle(dir, "art4.tex", 20);
+        NewspaperLayoutImpl first = layOutIncrementally(settings, dir, null);
+        List<Page> before = first.getPages();
+        Files.write(dir.resolve("art2.tex"), asList("%#Type: article", "%#Length: " + page, "Changed"));
+        NewspaperLayoutImpl second = layOutIncrementally(settings, dir, first.getSnapshot());
+        assertAll(
+                () -> assertEquals(first.toString(), second.toString()),
+                () -> assertEquals(4, second.getPages().size()),
+                () -> assertNotSame(before.get(1), second.getPages().get(1)),
+                () -> assertSame(before.get(2), second.getPages().get(2)),
+                () -> assertSame(before.get(3), second.getPages().get(3))
+        );
+    }
+
+    /**
+     * The pages are laid out on the estimated lengths, then laid out again from the first page holding an article
+     * whose estimate was too far out, to give the same pages as laying out the measured lengths.
+     */
+    @Test
+    void layOutNewspaper_replansFromEstimate() throws IOException {
+        Settings settings = twoColumnSettings();
+        Path dir = Files.createTempDirectory("estimates");
+        TmpFileUtils.recursiveDeleteOnExit(dir);
+        for (int i = 10; i < 16; i++) writeArticle(dir, "art" + i + ".tex", 20);
+        Files.write(dir.resolve("art13.tex"), asList("%#Type: article", "%#Length: 30", "%#Estimate: 20", "art13.tex"));
+        LengthModel model = new LengthModel() {
+            @Override
+            public Optional<LengthEstimate> estimate(double widthForSizing, Settings settings, ArticleText articleText) {
+                Headers headers = articleText.getHeaders();
+                return Optional.of(new LengthEstimate(Double.parseDouble(headers.getHeader("Estimate", headers.getHeader("Length", "0"))), 0.0, 20));
+            }
+        };
+        EstimatingLengthCalculator estimator = new EstimatingLengthCalculator(new HeaderLengthCalculator(), model, 1.0, 1);
+        NewspaperLayoutImpl estimated = new NewspaperLayoutImpl(settings, logger, new Path[]{dir}, estimator);
+        estimated.layOutNewspaper();
+        estimated.validate();
+        estimator.close();
+        NewspaperLayoutImpl measured = new NewspaperLayoutImpl(settings, new CapturingLogger(), new Path[]{dir}, new HeaderLengthCalculator());
+        measured.layOutNewspaper();
+        assertAll(
+                () -> assertEquals(measured.toString(), estimated.toString()),
+                () -> assertTrue(logger.algorithmCollected().contains("1 of 6 estimated lengths were out by more than 0.250000 in\n"), logger::algorithmCollected),
+                () -> assertTrue(logger.algorithmCollected().contains("Planning the pages again from page 2\n"), logger::algorithmCollected)
+        );
+    }
+}
@@ -101,6 +101,11 @@ class OverflowTest {
             return 0;
         }
 
+        @Override
+        public void resetOutput() {
+
+        }
+
         @Override
         public void copyTo(PrintWriter w, Path outPath) {
 
@@ -126,6 +131,11 @@ class OverflowTest {
             return null;
         }
 
+        @Override
+        public void rewindTo(Overflow overflow, int fragments) {
+
+        }
+
         @Override
         public String toString() {
             return "MockArticle{}";
@@ -0,0 +1,84 @@
+package org.homelinux.rjlee.news.file;
+
+import org.homelinux.rjlee.news.logging.CapturingLogger;
+import org.homelinux.rjlee.news.mockpath.MockPath;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ScratchDirectoryPoolTest {
+
+    @Test
+    void acquire_reusesReleasedDirectory() throws IOException {
+        Path root = Files.createTempDirectory("pool");
+        TmpFileUtils.recursiveDeleteOnExit(root);
+        ScratchDirectoryPool pool = new ScratchDirectoryPool(root);
+
+        Path dir = pool.acquire();
+        Files.write(dir.resolve("art.tex"), "hello".getBytes());
+        Files.createDirectory(dir.resolve("sub"));
+        Files.write(dir.resolve("sub").resolve("art.aux"), "aux".getBytes());
+        pool.release(dir);
+
+        Path again = pool.acquire();
+        try (Stream<Path> contents = Files.list(again)) {
+            assertAll(
+                    () -> assertEquals(dir, again),
+                    () -> assertEquals(0, contents.count()),
+                    () -> assertEquals(1, pool.size())
+            );
+        }
+    }
+
+    @Test
+    void acquire_concurrentUse() throws IOException {
+        Path root = Files.createTempDirectory("pool");
+        TmpFileUtils.recursiveDeleteOnExit(root);
+        ScratchDirectoryPool pool = new ScratchDirectoryPool(root);
+
+        Path first = pool.acquire();
+        Path second = pool.acquire();
+        assertAll(
+                () -> assertNotEquals(first, second),
+                () -> assertEquals(2, pool.size())
+        );
+    }
+
+    @Test
+    void release_foreignDirectory() throws IOException {
+        Path root = Files.createTempDirectory("pool");
+        TmpFileUtils.recursiveDeleteOnExit(root);
+        ScratchDirectoryPool pool = new ScratchDirectoryPool(root);
+
+        assertThrows(IllegalArgumentException.class, () -> pool.release(root));
+    }
+
+    @Test
+    void forDirectory() throws IOException {
+        Path root = Files.createTempDirectory("pool");
+        TmpFileUtils.recursiveDeleteOnExit(root);
+        assertSame(ScratchDirectoryPool.forDirectory(root), ScratchDirectoryPool.forDirectory(root.toAbsolutePath()));
+    }
+
+    @Test
+    void createDirectory() {
+        Path systemTmpDir = MockPath.createMockPathWithName("/tmp", true);
+        Path tmpDir = ScratchDirectoryPool.createDirectory(systemTmpDir, new CapturingLogger());
+        // NB: This looks wrong, but it's to do with how the mock filesystem works.
+        // Anything resolved from a temp directory returns the original path,
+        // so we actually get the directory back again, this time as a file.
+        // - which does mean that the random name is discarded, and we get a static name back, which is at least easier to test!
+        assertEquals("/tmp", tmpDir.toString());
+    }
+
+    @Test
+    void createDirectory_error() {
+        Path systemTmpDir = MockPath.createMockPathForErrorOnCreateDir("/tmp");
+        assertThrows(RuntimeException.class, () -> ScratchDirectoryPool.createDirectory(systemTmpDir, new CapturingLogger()));
+    }
+}
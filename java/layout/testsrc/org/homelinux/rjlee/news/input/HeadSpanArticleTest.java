@@ -219,6 +219,18 @@ class HeadSpanArticleTest {
         assertEquals(NUM_COLS, headSpanArticle.cols());
     }
 
+    @Test
+    void otherSizes() {
+        headSpanArticle.setNumColumnsOnPage(4);
+        List<Input> otherSizes = headSpanArticle.otherSizes().collect(Collectors.toList());
+        assertAll(
+                () -> assertEquals("[1, 2, 3, 5, 6]", otherSizes.stream().map(i -> ((HeadSpanArticle) i).cols()).collect(Collectors.toList()).toString()),
+                () -> assertEquals(2 * settings.getColumnWidth() + settings.getAlleyWidth(), ((HeadSpanArticle) otherSizes.get(1)).width(), 1e-9),
+                () -> assertSame(headers, otherSizes.get(0).getHeaders()),
+                () -> assertEquals(4, headSpanArticle.cols())
+        );
+    }
+
     @Test
     void testToString() {
         assertEquals("span.tex", headSpanArticle.toString());
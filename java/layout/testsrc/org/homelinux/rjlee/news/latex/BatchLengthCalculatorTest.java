@@ -0,0 +1,149 @@
+package org.homelinux.rjlee.news.latex;
+
+import org.homelinux.rjlee.news.file.TmpFileUtils;
+import org.homelinux.rjlee.news.input.ArticleImpl;
+import org.homelinux.rjlee.news.input.Headers;
+import org.homelinux.rjlee.news.settings.Settings;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import static org.homelinux.rjlee.news.latex.MockLengthCalculator.article;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Coverage tests for the BatchLengthCalculator, using a mock process in place of LaTeX.
+ *
+ * @author Robert
+ */
+class BatchLengthCalculatorTest {
+
+    private final MockLengthCalculator fallback = new MockLengthCalculator();
+    private final Settings settings = new Settings(new Properties());
+
+    @Test
+    void calculateLength() {
+        StringBuilder stdOut = new StringBuilder("ART HEIGHT 0:99.9in\nART DEPTH 0:0pt\nART DONE 0\nART HEIGHT 1:1in\nART DEPTH 1:0pt\n");
+        ShellProcessFactory shellProcessFactory = new MockShellProcessFactory(stdOut, new StringBuilder(), new ByteArrayOutputStream());
+        BatchLengthCalculator calc = new BatchLengthCalculator(fallback, shellProcessFactory);
+        fallback.setLength(4.5);
+        ArticleImpl article1 = article("a.tex", settings, calc);
+        ArticleImpl article2 = article("b.tex", settings, calc);
+        List<Double> fragments = Arrays.asList(6.5, 7.8);
+
+        calc.prefetch(1.23, fragments, Stream.of("\\usepackage{foo}"), settings, article1);
+        calc.prefetch(1.23, Collections.emptyList(), Stream.of("\\usepackage{foo}"), settings, article2);
+        calc.flush();
+
+        assertAll(
+                () -> assertEquals(6.5 + 7.8 + 99.9, calc.calculateLength(1.23, fragments, Stream.empty(), settings, article1), 0.0001),
+                // no DONE marker for the second article:
+                () -> assertEquals(4.5, calc.calculateLength(1.23, Collections.emptyList(), Stream.empty(), settings, article2), 0.0),
+                // result is only used once:
+                () -> assertEquals(4.5, calc.calculateLength(1.23, fragments, Stream.empty(), settings, article1), 0.0)
+        );
+    }
+
+    @Test
+    void calculateLength_differentFragments() {
+        StringBuilder stdOut = new StringBuilder("ART HEIGHT 0:99.9in\nART DEPTH 0:0pt\nART DONE 0\n");
+        ShellProcessFactory shellProcessFactory = new MockShellProcessFactory(stdOut, new StringBuilder(), new ByteArrayOutputStream());
+        BatchLengthCalculator calc = new BatchLengthCalculator(fallback, shellProcessFactory);
+        fallback.setLength(4.5);
+        ArticleImpl article = article("a.tex", settings, calc);
+
+        calc.prefetch(1.23, Collections.emptyList(), Stream.empty(), settings, article);
+        calc.flush();
+
+        assertEquals(4.5, calc.calculateLength(1.23, Collections.singletonList(1.0), Stream.empty(), settings, article), 0.0);
+    }
+
+    /**
+     * @return a process factory that measures the first article of each run as 99.9in, and the second as 1in
+     */
+    private static ShellProcessFactory countingRuns(AtomicInteger runs) {
+        StringBuilder stdOut = new StringBuilder("ART HEIGHT 0:99.9in\nART DEPTH 0:0pt\nART DONE 0\nART HEIGHT 1:1in\nART DEPTH 1:0pt\nART DONE 1\n");
+        return new MockShellProcessFactory(stdOut, new StringBuilder(), new ByteArrayOutputStream()) {
+            @Override
+            public Process run(Settings settings, Path wdPath, String... extraCmdLine) throws IOException {
+                runs.incrementAndGet();
+                return super.run(settings, wdPath, extraCmdLine);
+            }
+        };
+    }
+
+    /**
+     * Articles measured with different settings are measured in different runs, each with its own settings.
+     */
+    @Test
+    void flush_bySettings() {
+        AtomicInteger runs = new AtomicInteger();
+        BatchLengthCalculator calc = new BatchLengthCalculator(fallback, countingRuns(runs));
+        Settings other = new Settings(new Properties());
+        ArticleImpl article = article("a.tex", settings, calc);
+
+        calc.prefetch(1.23, Collections.emptyList(), Stream.empty(), settings, article);
+        calc.prefetch(1.23, Collections.emptyList(), Stream.empty(), other, article);
+        calc.flush();
+
+        assertAll(
+                () -> assertEquals(2, runs.get()),
+                () -> assertEquals(99.9, calc.calculateLength(1.23, Collections.emptyList(), Stream.empty(), settings, article), 0.0001),
+                () -> assertEquals(99.9, calc.calculateLength(1.23, Collections.emptyList(), Stream.empty(), other, article), 0.0001)
+        );
+    }
+
+    /**
+     * Assets of the same name, but from different files, would overwrite each other in one LaTeX run.
+     */
+    @Test
+    void flush_clashingAssets() throws IOException {
+        AtomicInteger runs = new AtomicInteger();
+        BatchLengthCalculator calc = new BatchLengthCalculator(fallback, countingRuns(runs));
+        fallback.setLength(4.5);
+        Path dir = Files.createTempDirectory("assets");
+        TmpFileUtils.recursiveDeleteOnExit(dir);
+        List<ArticleImpl> articles = new ArrayList<>();
+        for (String name : Arrays.asList("a", "b", "c")) {
+            Path articleDir = Files.createDirectories(dir.resolve(name.equals("c") ? "a" : name));
+            Files.write(articleDir.resolve("img.png"), Collections.singletonList(articleDir.toString()));
+            Properties headers = new Properties();
+            headers.setProperty("Asset", "img.png");
+            articles.add(new ArticleImpl(new Headers(Files.write(articleDir.resolve(name + ".tex"), Collections.emptyList()), headers, settings), settings, calc));
+        }
+
+        articles.forEach(article -> calc.prefetch(1.23, Collections.emptyList(), Stream.empty(), settings, article));
+        calc.flush();
+
+        assertAll(
+                // c shares its asset with a, so it's measured with it:
+                () -> assertEquals(2, runs.get()),
+                () -> assertEquals(99.9, calc.calculateLength(1.23, Collections.emptyList(), Stream.empty(), settings, articles.get(0)), 0.0001),
+                () -> assertEquals(99.9, calc.calculateLength(1.23, Collections.emptyList(), Stream.empty(), settings, articles.get(1)), 0.0001),
+                () -> assertEquals(1.0, calc.calculateLength(1.23, Collections.emptyList(), Stream.empty(), settings, articles.get(2)), 0.0001)
+        );
+    }
+
+    @Test
+    void flush_processNotStarted() {
+        ShellProcessFactory shellProcessFactory = new MockShellProcessFactory(new StringBuilder(), new StringBuilder(), new ByteArrayOutputStream(), true, false);
+        BatchLengthCalculator calc = new BatchLengthCalculator(fallback, shellProcessFactory);
+        fallback.setLength(4.5);
+        ArticleImpl article = article("a.tex", settings, calc);
+
+        calc.prefetch(1.23, Collections.emptyList(), Stream.empty(), settings, article);
+        calc.flush();
+
+        assertEquals(4.5, calc.calculateLength(1.23, Collections.emptyList(), Stream.empty(), settings, article), 0.0);
+    }
+}
@@ -0,0 +1,102 @@
+package org.homelinux.rjlee.news.latex;
+
+import org.homelinux.rjlee.news.input.ArticleImpl;
+import org.homelinux.rjlee.news.input.ArticleText;
+import org.homelinux.rjlee.news.parsing.LengthParser;
+import org.homelinux.rjlee.news.settings.Settings;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import static org.homelinux.rjlee.news.latex.MockLengthCalculator.article;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Coverage tests for the BreakProfileLengthCalculator, with a fixed profile in place of LaTeX.
+ *
+ * @author Robert
+ */
+class BreakProfileLengthCalculatorTest {
+
+    // three 12pt lines, 7pt high and 2pt deep, listed bottom-up:
+    private static final BreakProfile PROFILE = BreakProfile.parse(Arrays.asList(
+            "ART PROFILE SPLITTOPSKIP:10.0pt",
+            "ART PROFILE SPLITMAXDEPTH:16383.99998pt",
+            "ART PROFILE BOX:7.0pt,2.0pt",
+            "ART PROFILE GLUE:3.0pt",
+            "ART PROFILE BOX:7.0pt,2.0pt",
+            "ART PROFILE GLUE:3.0pt",
+            "ART PROFILE BOX:7.0pt,2.0pt",
+            "ART PROFILE END"));
+
+    private final MockLengthCalculator fallback = new MockLengthCalculator();
+    private final Settings settings = new Settings(new Properties());
+    private final AtomicInteger profiled = new AtomicInteger();
+
+    private LaTeXLengthCalculator profiler(Optional<BreakProfile> profile) {
+        return new LaTeXLengthCalculator() {
+            @Override
+            public Optional<BreakProfile> measureBreakProfile(double widthForSizing, Stream<String> preambleLines, Settings settings, ArticleText articleText) {
+                profiled.incrementAndGet();
+                return profile;
+            }
+        };
+    }
+
+    @Test
+    void calculateLength() {
+        BreakProfileLengthCalculator calc = new BreakProfileLengthCalculator(fallback, profiler(Optional.of(PROFILE)));
+        fallback.setLength(4.5);
+        ArticleImpl article = article("a.tex", settings, calc);
+        double line = 12 * LengthParser.PT_PER_IN;
+
+        assertAll(
+                // unsplit lengths come from the delegate:
+                () -> assertEquals(4.5, calc.calculateLength(1.23, Collections.emptyList(), Stream.empty(), settings, article), 0.0),
+                () -> assertEquals(0, profiled.get()),
+                // one line split off; \splittopskip keeps the baseline of the next where it was:
+                () -> assertEquals(0.2 + 2 * line,
+                        calc.calculateLength(1.23, Collections.singletonList(0.2), Stream.empty(), settings, article), 1e-6),
+                // two lines:
+                () -> assertEquals(0.2 + 0.2 + line,
+                        calc.calculateLength(1.23, Arrays.asList(0.2, 0.2), Stream.empty(), settings, article), 1e-6),
+                () -> assertEquals(1, profiled.get()),
+                // a different width needs a new profile:
+                () -> calc.calculateLength(2.46, Collections.singletonList(0.2), Stream.empty(), settings, article),
+                () -> assertEquals(2, profiled.get())
+        );
+    }
+
+    @Test
+    void calculateLength_noProfile() {
+        BreakProfileLengthCalculator calc = new BreakProfileLengthCalculator(fallback, profiler(Optional.empty()));
+        fallback.setLength(4.5);
+        ArticleImpl article = article("a.tex", settings, calc);
+
+        assertAll(
+                () -> assertEquals(4.5, calc.calculateLength(1.23, Collections.singletonList(0.2), Stream.empty(), settings, article), 0.0),
+                () -> assertEquals(4.5, calc.calculateLength(1.23, Arrays.asList(0.2, 0.2), Stream.empty(), settings, article), 0.0),
+                // don't keep trying:
+                () -> assertEquals(1, profiled.get())
+        );
+    }
+
+    @Test
+    void calculateLength_profileFailed() {
+        BreakProfileLengthCalculator calc = new BreakProfileLengthCalculator(fallback, new LaTeXLengthCalculator() {
+            @Override
+            public Optional<BreakProfile> measureBreakProfile(double widthForSizing, Stream<String> preambleLines, Settings settings, ArticleText articleText) {
+                throw new RuntimeException("Failed to calculate article length");
+            }
+        });
+        fallback.setLength(4.5);
+        ArticleImpl article = article("a.tex", settings, calc);
+
+        assertEquals(4.5, calc.calculateLength(1.23, Collections.singletonList(0.2), Stream.empty(), settings, article), 0.0);
+    }
+}
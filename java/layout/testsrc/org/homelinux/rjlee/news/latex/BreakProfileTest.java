@@ -0,0 +1,140 @@
+package org.homelinux.rjlee.news.latex;
+
+import org.homelinux.rjlee.news.parsing.LengthParser;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Check that splits follow TeX's rules. Lines are 7pt high and 2pt deep, on a 12pt baseline, so 3pt of glue between
+ * each; {@code \splittopskip} is 10pt.
+ */
+class BreakProfileTest {
+
+    private static final String LINE = "BOX:7.0pt,2.0pt";
+
+    /**
+     * @param items top-down, as they appear in the box
+     * @return what LaTeX writes for them: bottom-up, after the split parameters
+     */
+    private static List<String> profile(String... items) {
+        List<String> lines = new ArrayList<>();
+        lines.add("ART PROFILE SPLITTOPSKIP:10.0pt");
+        lines.add("ART PROFILE SPLITMAXDEPTH:16383.99998pt");
+        List<String> reversed = new ArrayList<>(Arrays.asList(items));
+        Collections.reverse(reversed);
+        reversed.forEach(i -> lines.add(BreakProfile.PREFIX + i));
+        lines.add("ART PROFILE END");
+        return lines;
+    }
+
+    private static String[] paragraph(int lines, String glue) {
+        List<String> items = new ArrayList<>();
+        for (int i = 0; i < lines; i++) {
+            if (i > 0) items.add(glue);
+            items.add(LINE);
+        }
+        return items.toArray(new String[0]);
+    }
+
+    private static double pt(double pt) {
+        return pt * LengthParser.PT_PER_IN;
+    }
+
+    private static double in(double pt) {
+        return pt / 72.27;
+    }
+
+    @Test
+    void length() {
+        BreakProfile profile = BreakProfile.parse(profile(paragraph(10, "GLUE:3.0pt")));
+        assertAll(
+                () -> assertEquals(19, profile.size()),
+                () -> assertEquals(pt(117), profile.length(), 1e-6),
+                () -> assertEquals(pt(117), profile.remainingLength(Collections.emptyList()), 1e-6)
+        );
+    }
+
+    @Test
+    void split() {
+        BreakProfile profile = BreakProfile.parse(profile(paragraph(10, "GLUE:3.0pt")));
+        // 4 lines fit in 50pt; the remaining 6 get \splittopskip above them, less the height of the first line:
+        assertEquals(pt(3 + 7 + 5 * 12 + 2), profile.remainingLength(Collections.singletonList(in(50))), 1e-6);
+    }
+
+    @Test
+    void split_twice() {
+        BreakProfile profile = BreakProfile.parse(profile(paragraph(10, "GLUE:3.0pt")));
+        assertEquals(pt(3 + 7 + 12 + 2), profile.remainingLength(Arrays.asList(in(50), in(50))), 1e-6);
+    }
+
+    @Test
+    void split_everything() {
+        BreakProfile profile = BreakProfile.parse(profile(paragraph(10, "GLUE:3.0pt")));
+        assertEquals(0, profile.remainingLength(Collections.singletonList(in(200))), 0.0);
+    }
+
+    @Test
+    void split_notAtInfinitePenalty() {
+        List<String> items = new ArrayList<>(Arrays.asList(paragraph(10, "GLUE:3.0pt")));
+        items.add(7, "PENALTY:10000"); // after the 4th line, so the glue that follows can't be broken at either
+        BreakProfile profile = BreakProfile.parse(profile(items.toArray(new String[0])));
+        assertEquals(pt(3 + 7 + 6 * 12 + 2), profile.remainingLength(Collections.singletonList(in(50))), 1e-6);
+    }
+
+    @Test
+    void split_preferPenalty() {
+        List<String> items = new ArrayList<>(Arrays.asList(paragraph(10, "GLUE:3.0pt plus 3.0pt")));
+        // after the 3rd line: underfull by 19pt, but the penalty outweighs the badness of breaking after the 4th.
+        items.add(5, "PENALTY:-5000");
+        BreakProfile profile = BreakProfile.parse(profile(items.toArray(new String[0])));
+        assertEquals(pt(3 + 7 + 6 * 12 + 2), profile.remainingLength(Collections.singletonList(in(50))), 1e-6);
+
+        items.set(5, "PENALTY:-100");
+        profile = BreakProfile.parse(profile(items.toArray(new String[0])));
+        assertEquals(pt(3 + 7 + 5 * 12 + 2), profile.remainingLength(Collections.singletonList(in(50))), 1e-6);
+    }
+
+    @Test
+    void split_infiniteStretch() {
+        BreakProfile profile = BreakProfile.parse(profile(paragraph(10, "GLUE:3.0pt plus 1.0fill minus 1.0pt")));
+        assertEquals(pt(3 + 7 + 5 * 12 + 2), profile.remainingLength(Collections.singletonList(in(50))), 1e-6);
+    }
+
+    @Test
+    void split_kern() {
+        // a kern is only a breakpoint if glue follows it:
+        BreakProfile profile = BreakProfile.parse(profile(LINE, "KERN:3.0pt", LINE, "KERN:1.0pt", "GLUE:2.0pt", LINE));
+        assertEquals(pt(3 + 7 + 2), profile.remainingLength(Collections.singletonList(in(20))), 1e-6);
+        assertEquals(pt(7 + 2 + 3 + 7 + 2 + 1 + 2 + 7 + 2), profile.length(), 1e-6);
+    }
+
+    @Test
+    void parse_stopped() {
+        List<String> lines = profile(paragraph(3, "GLUE:3.0pt"));
+        lines.add(3, "ART PROFILE STOP:3");
+        IllegalArgumentException ex = assertThrows(IllegalArgumentException.class, () -> BreakProfile.parse(lines));
+        assertEquals("Break profile stopped at an item of type 3 (\\lastnodetype)", ex.getMessage());
+    }
+
+    @Test
+    void parse_incomplete() {
+        List<String> lines = profile(paragraph(3, "GLUE:3.0pt"));
+        lines.remove(lines.size() - 1);
+        IllegalArgumentException ex = assertThrows(IllegalArgumentException.class, () -> BreakProfile.parse(lines));
+        assertEquals("Incomplete break profile", ex.getMessage());
+    }
+
+    @Test
+    void parse_ignoresOtherOutput() {
+        List<String> lines = profile(paragraph(3, "GLUE:3.0pt"));
+        lines.add(0, "ART HEIGHT:31.0pt");
+        lines.add(2, "Overfull \\hbox");
+        assertEquals(pt(33), BreakProfile.parse(lines).length(), 1e-6);
+    }
+}
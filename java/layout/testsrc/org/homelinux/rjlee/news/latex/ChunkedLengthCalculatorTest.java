@@ -0,0 +1,168 @@
+package org.homelinux.rjlee.news.latex;
+
+import org.homelinux.rjlee.news.file.TmpFileUtils;
+import org.homelinux.rjlee.news.input.ArticleImpl;
+import org.homelinux.rjlee.news.input.ArticleText;
+import org.homelinux.rjlee.news.input.Headers;
+import org.homelinux.rjlee.news.settings.Settings;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Check how articles are divided into chunks, and that the lengths of the chunks are added up.
+ *
+ * @author Robert
+ */
+class ChunkedLengthCalculatorTest {
+
+    private Path dir;
+    private Settings settings;
+    private final List<ArticleText> measured = Collections.synchronizedList(new ArrayList<>());
+    /**
+     * Measures each line of the text as an inch.
+     */
+    private final LengthCalculator lines = (width, fragments, preamble, settings, article) -> {
+        measured.add(article);
+        try {
+            return Files.readAllLines(article.path()).size();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    };
+    private final ChunkedLengthCalculator calc = new ChunkedLengthCalculator(lines);
+
+    @BeforeEach
+    void setUp() throws IOException {
+        dir = Files.createTempDirectory("chunks");
+        TmpFileUtils.recursiveDeleteOnExit(dir);
+        Properties p = new Properties();
+        p.setProperty("out", dir.toString());
+        p.setProperty("chunkParagraphs", "1");
+        settings = new Settings(p);
+    }
+
+    private ArticleImpl article(Properties headers, List<String> lines) throws IOException {
+        Path path = Files.write(dir.resolve("a.tex"), lines);
+        return new ArticleImpl(new Headers(path, headers, settings), settings, calc);
+    }
+
+    /**
+     * @return the chunk measured, numbered from 1
+     */
+    private ArticleText chunk(int n) {
+        return measured.stream().filter(a -> a.toString().equals("a.tex chunk " + n)).findFirst().orElseThrow(AssertionError::new);
+    }
+
+    private static List<List<String>> paragraphs(String... lines) {
+        return ChunkedLengthCalculator.paragraphs(Arrays.asList(lines)).orElse(null);
+    }
+
+    @Test
+    void paragraphs() {
+        assertEquals(Arrays.asList(
+                Arrays.asList("%#Type: article", "", "One {two", "", "three}", ""), // the comment's kept with the text
+                Arrays.asList("\\begin{quote}", "", "Four", "\\end{quote}", "", ""),
+                Arrays.asList("Five % {", "six")
+        ), paragraphs("%#Type: article", "", "One {two", "", "three}", "", "\\begin{quote}", "", "Four", "\\end{quote}", "", "", "Five % {", "six"));
+    }
+
+    @Test
+    void paragraphs_unsafe() {
+        assertAll(
+                () -> assertNull(paragraphs("\\newcommand{\\x}{y}", "", "\\x")),
+                () -> assertNull(paragraphs("\\small One", "", "Two")),
+                () -> assertNull(paragraphs("\\begin{verbatim}", "", "\\end{verbatim}")),
+                () -> assertNull(paragraphs("One {", "", "Two")),
+                // declarations inside groups are fine, as is a percent sign:
+                () -> assertNotNull(paragraphs("{\\small One}", "", "\\emph{Two} 50\\%", "", "\\begin{center}\\bf Three\\end{center}"))
+        );
+    }
+
+    @Test
+    void chunks_stable() {
+        List<List<String>> paragraphs = IntStream.range(0, 200)
+                .mapToObj(i -> Arrays.asList("Paragraph " + i, ""))
+                .collect(Collectors.toList());
+        List<List<String>> chunks = ChunkedLengthCalculator.chunks(paragraphs, 4);
+        List<List<String>> edited = new ArrayList<>(paragraphs);
+        edited.set(100, Arrays.asList("Paragraph one hundred", ""));
+        List<List<String>> editedChunks = ChunkedLengthCalculator.chunks(edited, 4);
+        assertAll(
+                () -> assertTrue(chunks.size() > 20 && chunks.size() < 100, "chunks: " + chunks.size()),
+                () -> assertTrue(chunks.stream().allMatch(c -> c.size() <= 16)),
+                () -> assertEquals(paragraphs.stream().flatMap(List::stream).collect(Collectors.toList()),
+                        chunks.stream().flatMap(List::stream).collect(Collectors.toList())),
+                // the edit changes its own chunk, and perhaps merges it with the next:
+                () -> assertTrue(chunks.stream().filter(c -> !editedChunks.contains(c)).count() <= 2)
+        );
+    }
+
+    @Test
+    void calculateLength() throws IOException {
+        Properties headers = new Properties();
+        headers.setProperty("Head", "News");
+        ArticleImpl article = article(headers, Arrays.asList("One", "", "Two", "", "Three"));
+        double length = calc.calculateLength(1.5, Collections.emptyList(), Stream.empty(), settings, article);
+        // each chunk's lines, with a marker before all but the first and after all but the last:
+        assertAll(
+                () -> assertEquals(3, measured.size()),
+                () -> assertEquals(3 + 4 + 2, length),
+                () -> assertEquals(Arrays.asList(ChunkedLengthCalculator.LEADER, "Two", "", ChunkedLengthCalculator.TRAILER),
+                        Files.readAllLines(chunk(2).path())),
+                () -> assertTrue(measured.stream().allMatch(a -> a.path().startsWith(dir.resolve("chunks")))),
+                () -> assertEquals("News", chunk(1).getHeaders().getHeader("Head", "")),
+                () -> assertEquals("", chunk(3).getHeaders().getHeader("Head", ""))
+        );
+    }
+
+    @Test
+    void calculateLength_split() throws IOException {
+        ArticleImpl article = article(new Properties(), Arrays.asList("One", "", "Two"));
+        calc.calculateLength(1.5, Collections.singletonList(0.5), Stream.empty(), settings, article);
+        assertEquals(Collections.singletonList(article), measured);
+    }
+
+    @Test
+    void calculateLength_footnotes() throws IOException {
+        ArticleImpl article = article(new Properties(), Arrays.asList("One\\footnote{1}", "", "Two\\footnote{2}"));
+        calc.calculateLength(1.5, Collections.emptyList(), Stream.empty(), settings, article);
+        assertEquals(Collections.singletonList(article), measured);
+    }
+
+    @Test
+    void reset_prunesChunks() throws IOException {
+        calc.calculateLength(1.5, Collections.emptyList(), Stream.empty(), settings, article(new Properties(), Arrays.asList("One", "", "Two")));
+        calc.reset();
+        calc.calculateLength(1.5, Collections.emptyList(), Stream.empty(), settings, article(new Properties(), Arrays.asList("One", "", "Edited")));
+        calc.reset();
+        List<Path> files;
+        try (Stream<Path> list = Files.list(dir.resolve("chunks"))) {
+            files = list.sorted().collect(Collectors.toList());
+        }
+        // only the chunks of the edited article are left:
+        assertEquals(measured.subList(2, 4).stream().map(ArticleText::path).sorted().collect(Collectors.toList()), files);
+    }
+
+    @Test
+    void copyTo() throws IOException {
+        ArticleImpl article = article(new Properties(), Arrays.asList("One", "", "Two"));
+        calc.calculateLength(1.5, Collections.emptyList(), Stream.empty(), settings, article);
+        StringWriter out = new StringWriter();
+        try (PrintWriter pw = new PrintWriter(out)) {
+            chunk(2).copyTo(pw, dir);
+        }
+        assertEquals(String.join(System.lineSeparator(), "\\setemergencystretch\\numnewscols\\hsize", ChunkedLengthCalculator.LEADER, "Two", ""), out.toString());
+    }
+}
@@ -0,0 +1,111 @@
+package org.homelinux.rjlee.news.latex;
+
+import org.homelinux.rjlee.news.file.TmpFileUtils;
+import org.homelinux.rjlee.news.input.ArticleImpl;
+import org.homelinux.rjlee.news.input.Headers;
+import org.homelinux.rjlee.news.mockpath.MockPath;
+import org.homelinux.rjlee.news.parsing.LengthParser;
+import org.homelinux.rjlee.news.settings.Settings;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Check the draft estimate with a font in which every character is half an em wide.
+ *
+ * @author Robert
+ */
+class DraftLengthCalculatorTest {
+
+    private static final FontMetrics FLAT;
+
+    static {
+        double[] widths = new double[256];
+        Arrays.fill(widths, 0.5);
+        FLAT = new FontMetrics(widths, 0.25, 0.125, 0.1, 0.7, 0.2);
+    }
+
+    private final Settings settings = new Settings(new Properties()); // 10pt, on a 12pt baseline
+    private final DraftLengthCalculator calc = new DraftLengthCalculator((s, series) -> FLAT);
+
+    private ArticleImpl article(Properties headers, String... lines) throws IOException {
+        Path dir = Files.createTempDirectory("draft");
+        TmpFileUtils.recursiveDeleteOnExit(dir);
+        Path path = Files.write(dir.resolve("a.tex"), Arrays.asList(lines));
+        return new ArticleImpl(new Headers(path, headers, settings), settings, calc);
+    }
+
+    private static double in(double pt) {
+        return pt * LengthParser.PT_PER_IN;
+    }
+
+    @Test
+    void lineCount() {
+        double[] words = new double[10];
+        Arrays.fill(words, 20);
+        assertAll(
+                // four words take 87.5pt, stretching by 2.5pt:
+                () -> assertEquals(3, DraftLengthCalculator.lineCount(words, 0, 90, 2.5, 1.25, 1, 500)),
+                () -> assertEquals(0, DraftLengthCalculator.lineCount(new double[0], 0, 90, 2.5, 1.25, 1, 500)),
+                // words too wide for the line get a line each:
+                () -> assertEquals(10, DraftLengthCalculator.lineCount(words, 0, 15, 2.5, 1.25, 1, 500)),
+                // four words still fit by shrinking the spaces:
+                () -> assertEquals(3, DraftLengthCalculator.lineCount(words, 0, 85, 2.5, 1.25, 1, 500))
+        );
+    }
+
+    @Test
+    void lineCount_lastLine() {
+        // the last line is filled by \parfillskip, so it needn't stretch:
+        assertEquals(2, DraftLengthCalculator.lineCount(new double[]{20, 20, 20, 20}, 0, 65, 2.5, 0, 0, 500));
+    }
+
+    @Test
+    void calculateLength() throws IOException {
+        ArticleImpl article = article(new Properties(),
+                "%#Type: Article",
+                "\\section{Title}",
+                "One two.",
+                "",
+                "Three four\\footnote{Five.} % six",
+                "");
+        // heading: 9pt for the first line, with 2pt below;
+        // two paragraphs of one line each; then \skip\footins and the footnote in 8pt:
+        double expected = 9 + 2 + 12 + 12 + 9 + 9.6;
+        assertAll(
+                () -> assertEquals(in(expected), calc.calculateLength(1.5, Collections.emptyList(), Stream.empty(), settings, article), 1e-6),
+                // the split takes the first three lines:
+                () -> assertEquals(in(25) + in(expected - 23),
+                        calc.calculateLength(1.5, Collections.singletonList(in(25)), Stream.empty(), settings, article), 1e-6)
+        );
+    }
+
+    @Test
+    void calculateLength_headline() throws IOException {
+        Properties headers = new Properties();
+        headers.setProperty("Head", "Big News");
+        ArticleImpl article = article(headers, "One two.");
+        // 18pt on a 20pt baseline, then \headlineskip:
+        double expected = 20 - 3 + 2 + 12;
+        assertEquals(in(expected), calc.calculateLength(1.5, Collections.emptyList(), Stream.empty(), settings, article), 1e-6);
+    }
+
+    @Test
+    void lines_longParagraph() {
+        // 40 words, 20pt each with 2.5pt between them; 4 fit on a line, less 15pt indentation on the first:
+        String word = "aaaa";
+        List<String> text = Collections.singletonList(String.join(" ", Collections.nCopies(40, word)));
+        DraftText draft = DraftText.parse(text, Headers.InputMode.PLAIN);
+        List<Double> lines = calc.lines(90, settings, new Headers(MockPath.createMockPathWithName("a.tex"), new Properties(), settings), draft);
+        assertEquals(11, lines.size());
+    }
+}
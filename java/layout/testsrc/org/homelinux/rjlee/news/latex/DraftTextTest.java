@@ -0,0 +1,73 @@
+package org.homelinux.rjlee.news.latex;
+
+import org.homelinux.rjlee.news.input.Headers;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DraftTextTest {
+
+    private static String describe(List<DraftText.Paragraph> paragraphs) {
+        return paragraphs.toString();
+    }
+
+    @Test
+    void latex() {
+        DraftText text = DraftText.parse(Arrays.asList(
+                "%#Type: Article",
+                "\\subsection*{A \\emph{short} story}",
+                "Once upon a~time, 50\\% of \\textbf{the}",
+                "readers\\footnote[2]{Or {more}.} were % not all",
+                "",
+                "\\begin{itemize}",
+                "\\item bored\\\\ sleepy",
+                "\\end{itemize}",
+                "The end\\par"
+        ), Headers.InputMode.LATEX);
+        assertAll(
+                () -> assertEquals("[HEADING: A short story, PARAGRAPH: Once upon a time, 50% of the readers were, " +
+                        "PARAGRAPH: bored, PARAGRAPH: sleepy, PARAGRAPH: The end]", describe(text.getParagraphs())),
+                () -> assertEquals("[FOOTNOTE: Or more.]", describe(text.getFootnotes()))
+        );
+    }
+
+    @Test
+    void markdown() {
+        DraftText text = DraftText.parse(Arrays.asList(
+                "%#Mode: markdown",
+                "# Heading",
+                "Some *emphatic* [linked](http://example.com) text[^1].",
+                "![picture](a.png)",
+                "- first",
+                "- second",
+                "",
+                "[^1]: The note.",
+                "```",
+                "code  here",
+                "```"
+        ), Headers.InputMode.MARKDOWN);
+        assertAll(
+                () -> assertEquals("[HEADING: Heading, PARAGRAPH: Some emphatic linked text., " +
+                        "PARAGRAPH: first, PARAGRAPH: second, PARAGRAPH: code here]", describe(text.getParagraphs())),
+                () -> assertEquals("[FOOTNOTE: The note.]", describe(text.getFootnotes()))
+        );
+    }
+
+    @Test
+    void plain() {
+        DraftText text = DraftText.parse(Arrays.asList(
+                "%#Mode: plain",
+                "100% plain {text} \\here",
+                "",
+                "",
+                "next"
+        ), Headers.InputMode.PLAIN);
+        assertAll(
+                () -> assertEquals("[PARAGRAPH: 100% plain {text} \\here, PARAGRAPH: next]", describe(text.getParagraphs())),
+                () -> assertTrue(text.getFootnotes().isEmpty())
+        );
+    }
+}
@@ -0,0 +1,108 @@
+package org.homelinux.rjlee.news.latex;
+
+import org.homelinux.rjlee.news.input.ArticleImpl;
+import org.homelinux.rjlee.news.input.ArticleText;
+import org.homelinux.rjlee.news.settings.Settings;
+import org.junit.jupiter.api.Test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import static org.homelinux.rjlee.news.latex.MockLengthCalculator.article;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Coverage tests for the EstimatingLengthCalculator, with a fixed estimate and a mock measurement.
+ *
+ * @author Robert
+ */
+class EstimatingLengthCalculatorTest {
+
+    private final Settings settings = new Settings(new Properties());
+    private final MockLengthCalculator measurer = new MockLengthCalculator();
+    private final AtomicInteger estimated = new AtomicInteger();
+
+    private LengthModel model(double length, double error) {
+        return new LengthModel() {
+            @Override
+            public Optional<LengthEstimate> estimate(double widthForSizing, Settings settings, ArticleText articleText) {
+                estimated.incrementAndGet();
+                return Optional.of(new LengthEstimate(length, error, 20));
+            }
+        };
+    }
+
+    @Test
+    void calculateLength() {
+        EstimatingLengthCalculator calc = new EstimatingLengthCalculator(measurer, model(4.0, 0.05), 0.1, 1);
+        measurer.setLength(4.2);
+        ArticleImpl article = article("a.tex", settings, calc);
+
+        assertAll(
+                () -> assertEquals(4.0, calc.calculateLength(1.5, Collections.emptyList(), Stream.empty(), settings, article), 0.0),
+                // splits are always measured:
+                () -> assertEquals(4.2, calc.calculateLength(1.5, Collections.singletonList(1.0), Stream.empty(), settings, article), 0.0),
+                () -> assertEquals(1, estimated.get())
+        );
+
+        Map<ArticleText, Double> errors = calc.settle();
+        assertAll(
+                () -> assertEquals(Collections.singleton(article), errors.keySet()),
+                () -> assertEquals(0.2, errors.get(article), 1e-9),
+                // no more estimates once settled:
+                () -> assertEquals(4.2, calc.calculateLength(1.5, Collections.emptyList(), Stream.empty(), settings, article), 0.0),
+                () -> assertEquals(1, estimated.get())
+        );
+        calc.close();
+    }
+
+    @Test
+    void calculateLength_notConfident() {
+        EstimatingLengthCalculator calc = new EstimatingLengthCalculator(measurer, model(4.0, 0.5), 0.1, 1);
+        measurer.setLength(4.2);
+        ArticleImpl article = article("a.tex", settings, calc);
+
+        assertEquals(4.2, calc.calculateLength(1.5, Collections.emptyList(), Stream.empty(), settings, article), 0.0);
+        assertTrue(calc.settle().isEmpty());
+        calc.close();
+    }
+
+    /**
+     * What's estimated is still prefetched, to be measured in the same batch as everything else.
+     */
+    @Test
+    void prefetch() {
+        AtomicInteger prefetched = new AtomicInteger();
+        EstimatingLengthCalculator calc = new EstimatingLengthCalculator(new MockLengthCalculator() {
+            @Override
+            public void prefetch(double widthForSizing, List<Double> fragments, Stream<String> preambleLines, Settings settings1, ArticleText articleText) {
+                prefetched.incrementAndGet();
+            }
+        }, model(4.0, 0.05), 0.1, 1);
+        ArticleImpl article = article("a.tex", settings, calc);
+
+        calc.prefetch(1.5, Collections.emptyList(), Stream.empty(), settings, article);
+        assertEquals(1, prefetched.get());
+        calc.close();
+    }
+
+    @Test
+    void settle_measurementFailed() {
+        EstimatingLengthCalculator calc = new EstimatingLengthCalculator(new MockLengthCalculator() {
+            @Override
+            public double calculateLength(double widthForSizing, List<Double> fragments, Stream<String> preambleLines, Settings settings1, ArticleText articleText) {
+                throw new RuntimeException("Failed to calculate article length");
+            }
+        }, model(4.0, 0.05), 0.1, 1);
+        ArticleImpl article = article("a.tex", settings, calc);
+
+        assertEquals(4.0, calc.calculateLength(1.5, Collections.emptyList(), Stream.empty(), settings, article), 0.0);
+        assertEquals(Double.POSITIVE_INFINITY, calc.settle().get(article), 0.0);
+        calc.close();
+    }
+}
@@ -0,0 +1,216 @@
+package org.homelinux.rjlee.news.latex;
+
+import org.homelinux.rjlee.news.file.TmpFileUtils;
+import org.homelinux.rjlee.news.settings.Settings;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FileCacheTest {
+
+    private Path tmpDir;
+    private Path article;
+    private final FileCache cache = FileCache.getInstance();
+
+    @BeforeEach
+    void setUp() throws IOException {
+        tmpDir = Files.createTempDirectory(FileCacheTest.class.getSimpleName());
+        article = Files.createFile(tmpDir.resolve("article.tex"));
+        init("100");
+    }
+
+    private void init(String maxEntries) {
+        Properties p = new Properties();
+        p.put("out", tmpDir.toString());
+        p.put("lengthsCacheMaxEntries", maxEntries);
+        cache.init(new Settings(p));
+    }
+
+    /**
+     * keys are unique to each test run, as the cache is a singleton
+     */
+    private String key(String name) {
+        return MeasurementFormats.hash(tmpDir.getFileName() + name);
+    }
+
+    private Path cacheFile() {
+        return tmpDir.resolve("lengths.cache");
+    }
+
+    @AfterEach
+    void tearDown() {
+        TmpFileUtils.recursiveDeleteOnExit(tmpDir);
+    }
+
+    @Test
+    void calculate_cached() {
+        AtomicInteger calls = new AtomicInteger();
+        assertEquals(1.5, cache.calculate(key("a"), () -> calls.incrementAndGet() + 0.5), 0.0);
+        assertEquals(1.5, cache.calculate(key("a"), () -> calls.incrementAndGet() + 0.5), 0.0);
+        assertEquals(2.5, cache.calculate(key("b"), () -> calls.incrementAndGet() + 0.5), 0.0);
+        assertEquals(2, calls.get());
+        assertTrue(cache.contains(key("b")));
+    }
+
+    @Test
+    void calculate_singleFlight() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            Callable<Double> task = () -> cache.calculate(key("c"), () -> {
+                calls.incrementAndGet();
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+                return 7.25;
+            });
+            Future<Double> first = executor.submit(task);
+            assertTrue(started.await(10, TimeUnit.SECONDS));
+            List<Future<Double>> others = Arrays.asList(executor.submit(task), executor.submit(task), executor.submit(task));
+            Thread.sleep(100); // give the others time to find the calculation in progress
+            release.countDown();
+
+            assertEquals(7.25, first.get(10, TimeUnit.SECONDS), 0.0);
+            for (Future<Double> other : others) assertEquals(7.25, other.get(10, TimeUnit.SECONDS), 0.0);
+            assertEquals(1, calls.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void calculate_failureIsNotCached() {
+        assertThrows(IllegalStateException.class, () -> cache.calculate(key("d"), () -> {
+            throw new IllegalStateException("No LaTeX");
+        }));
+        assertFalse(cache.contains(key("d")));
+        assertEquals(4.0, cache.calculate(key("d"), () -> 4.0), 0.0);
+    }
+
+    @Test
+    void load_oldFormat() throws IOException {
+        Files.write(cacheFile(), Arrays.asList(
+                article + ";1.0;;2024-01-01T00:00:00Z;;3.5",
+                key("f") + ";;4.5"));
+        init("100");
+
+        assertTrue(cache.contains(key("f")));
+        assertEquals(4.5, cache.calculate(key("f"), () -> 0.0), 0.0);
+
+        // rewritten in the binary format:
+        cache.save();
+        assertEquals(16 + 48, Files.size(cacheFile()));
+        init("100");
+        assertEquals(4.5, cache.calculate(key("f"), () -> 0.0), 0.0);
+    }
+
+    @Test
+    void saveAndLoad() throws IOException {
+        cache.calculate(key("e"), () -> 6.5);
+        cache.save();
+
+        try (java.util.stream.Stream<Path> files = Files.list(tmpDir)) {
+            assertEquals(Arrays.asList("article.tex", "lengths.cache"),
+                    files.map(f -> f.getFileName().toString()).sorted().collect(Collectors.toList()));
+        }
+        assertEquals(16 + 48, Files.size(cacheFile()));
+
+        init("100");
+        assertTrue(cache.contains(key("e")));
+        assertEquals(6.5, cache.calculate(key("e"), () -> 0.0), 0.0);
+    }
+
+    @Test
+    void save_appends() throws IOException {
+        cache.calculate(key("g"), () -> 1.5);
+        cache.save();
+        init("100");
+        cache.calculate(key("h"), () -> 2.5);
+        cache.save();
+        assertEquals(16 + 2 * 48, Files.size(cacheFile()));
+
+        init("100");
+        assertEquals(1.5, cache.calculate(key("g"), () -> 0.0), 0.0);
+        assertEquals(2.5, cache.calculate(key("h"), () -> 0.0), 0.0);
+    }
+
+    /**
+     * In watch mode, the cache is saved after every build; what was kept from the first save isn't counted or written
+     * twice by the next.
+     */
+    @Test
+    void save_twiceInOneRun() throws IOException {
+        init("5");
+        for (String name : Arrays.asList("p", "q", "r")) cache.calculate(key(name), () -> 1.0);
+        cache.save();
+        assertEquals(16 + 3 * 48, Files.size(cacheFile()));
+        cache.calculate(key("s"), () -> 2.0);
+        cache.save();
+        assertEquals(16 + 4 * 48, Files.size(cacheFile()));
+    }
+
+    @Test
+    void save_evictsLeastRecentlyUsed() throws IOException {
+        for (int i = 0; i < 8; i++) {
+            double length = i;
+            cache.calculate(key("old" + i), () -> length);
+        }
+        cache.save();
+        init("8");
+        assertEquals(3.0, cache.calculate(key("old3"), () -> -1.0), 0.0); // used again, so kept
+        for (int i = 0; i < 4; i++) {
+            double length = 10 + i;
+            cache.calculate(key("new" + i), () -> length);
+        }
+        cache.save();
+        assertEquals(16 + 8 * 48, Files.size(cacheFile()));
+
+        init("8");
+        assertAll(
+                () -> assertTrue(cache.contains(key("old3"))),
+                () -> assertTrue(cache.contains(key("new0"))),
+                () -> assertTrue(cache.contains(key("new3"))),
+                // the rest of the space goes to 3 of the other 7 old lengths:
+                () -> assertEquals(4, IntStream.range(0, 8).filter(i -> !cache.contains(key("old" + i))).count())
+        );
+    }
+
+    @Test
+    void load_damagedRecord() throws IOException {
+        cache.calculate(key("i"), () -> 7.5);
+        cache.calculate(key("j"), () -> 8.5);
+        cache.save();
+        byte[] bytes = Files.readAllBytes(cacheFile());
+        bytes[16 + 35] ^= 1; // in the length of the first record
+        bytes = Arrays.copyOf(bytes, bytes.length + 20); // and a partial record, as if a write was interrupted
+        Files.write(cacheFile(), bytes);
+
+        init("100");
+        AtomicInteger calls = new AtomicInteger();
+        double i = cache.calculate(key("i"), () -> calls.incrementAndGet() + 0.5);
+        double j = cache.calculate(key("j"), () -> calls.incrementAndGet() + 0.5);
+        // whichever record was damaged is recalculated:
+        assertEquals(1, calls.get());
+        assertTrue(i == 1.5 && j == 8.5 || i == 7.5 && j == 1.5, i + ", " + j);
+        cache.save(); // too much damage, so it's compacted
+        assertEquals(16 + 2 * 48, Files.size(cacheFile()));
+    }
+}
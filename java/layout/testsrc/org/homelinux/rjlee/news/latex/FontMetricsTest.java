@@ -0,0 +1,89 @@
+package org.homelinux.rjlee.news.latex;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FontMetricsTest {
+
+    private static int fix(double value) {
+        return (int) Math.round(value * (1 << 20));
+    }
+
+    /**
+     * @return a TFM file with two characters: "a", 0.5em wide, 0.4em high; and "b", 0.6em wide, 0.4em high and 0.2em deep.
+     */
+    private static byte[] tfm() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        int[] lengths = {25, 2, 'a', 'b', 3, 2, 2, 1, 0, 0, 0, 7}; // lf, lh, bc, ec, nw, nh, nd, ni, nl, nk, ne, np
+        for (int length : lengths) out.writeShort(length);
+        out.writeInt(0); // checksum
+        out.writeInt(fix(10)); // design size
+        out.writeInt(1 << 24 | 1 << 20); // a
+        out.writeInt(2 << 24 | 1 << 20 | 1 << 16); // b
+        for (double w : new double[]{0, 0.5, 0.6}) out.writeInt(fix(w));
+        for (double h : new double[]{0, 0.4}) out.writeInt(fix(h));
+        for (double d : new double[]{0, 0.2}) out.writeInt(fix(d));
+        out.writeInt(0); // italic
+        for (double p : new double[]{0, 0.3, 0.2, 0.1, 0.4, 1, 0}) out.writeInt(fix(p));
+        return bytes.toByteArray();
+    }
+
+    @Test
+    void readTfm() throws IOException {
+        FontMetrics metrics = FontMetrics.readTfm(new ByteArrayInputStream(tfm()));
+        assertAll(
+                () -> assertEquals(0.5 + 0.6 + 0.3 + 0.5, metrics.width("ab a"), 1e-6),
+                // characters not in the font are as wide as the average lower-case letter:
+                () -> assertEquals(0.55, metrics.width("z"), 1e-6),
+                () -> assertEquals(0.3, metrics.getSpace(), 1e-6),
+                () -> assertEquals(0.2, metrics.getSpaceStretch(), 1e-6),
+                () -> assertEquals(0.1, metrics.getSpaceShrink(), 1e-6),
+                () -> assertEquals(0.4, metrics.getHeight(), 1e-6),
+                () -> assertEquals(0.2, metrics.getDepth(), 1e-6)
+        );
+    }
+
+    @Test
+    void readTfm_notTfm() {
+        byte[] bytes = tfm_corrupt();
+        IOException ex = assertThrows(IOException.class, () -> FontMetrics.readTfm(new ByteArrayInputStream(bytes)));
+        assertEquals("Not a TFM file", ex.getMessage());
+    }
+
+    private static byte[] tfm_corrupt() {
+        try {
+            byte[] bytes = tfm();
+            bytes[1]++; // lf
+            return bytes;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Test
+    void tfmName() {
+        assertAll(
+                () -> assertEquals("ptmr8t.tfm", FontMetrics.tfmName("ptm", "m", "T1")),
+                () -> assertEquals("ptmb8t.tfm", FontMetrics.tfmName("ptm", "bx", "T1")),
+                () -> assertEquals("phvr7t.tfm", FontMetrics.tfmName("phv", "m", "OT1"))
+        );
+    }
+
+    @Test
+    void approximate() {
+        FontMetrics roman = FontMetrics.approximate("m");
+        FontMetrics bold = FontMetrics.approximate("bx");
+        assertAll(
+                () -> assertEquals(0.25, roman.width(" "), 0.0),
+                () -> assertTrue(roman.width("mW") > roman.width("il")),
+                () -> assertTrue(bold.width("news") > roman.width("news"))
+        );
+    }
+}
@@ -0,0 +1,32 @@
+package org.homelinux.rjlee.news.latex;
+
+import org.homelinux.rjlee.news.input.ArticleText;
+import org.homelinux.rjlee.news.settings.Settings;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static java.util.Arrays.asList;
+
+/**
+ * Each article is as long as its {@code Length} header says.
+ *
+ * @author Robert
+ */
+public class HeaderLengthCalculator implements LengthCalculator {
+
+    /**
+     * Write an article whose name is its only text, to be measured by its {@code Length} header.
+     */
+    public static void writeArticle(Path dir, String name, double length) throws IOException {
+        Files.write(dir.resolve(name), asList("%#Type: article", "%#Length: " + length, name));
+    }
+
+    @Override
+    public double calculateLength(double widthForSizing, List<Double> fragments, Stream<String> preambleLines, Settings settings, ArticleText articleText) {
+        return Double.parseDouble(articleText.getHeaders().getHeader("Length", "0"));
+    }
+}
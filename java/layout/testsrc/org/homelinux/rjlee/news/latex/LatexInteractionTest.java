@@ -72,6 +72,13 @@ class LatexInteractionTest {
                             "  \\global\\expandafter\\setbox\\boxto=\\copy\\boxfrom%\n" +
                             "  \\global\\expandafter\\setbox\\boxfrom=\\copy\\sb@tmp@box%\n" +
                             "}\n" +
+                            "\\newcommand{\\voidsplitbox}[1]{%\n" +
+                            "  \\@tempcnta=\\value{sb@#1}%\n" +
+                            "  \\loop\\ifnum\\@tempcnta>\\z@%\n" +
+                            "    \\global\\expandafter\\setbox\\csname sb@\\the\\@tempcnta @#1\\endcsname=\\box\\voidb@x%\n" +
+                            "    \\advance\\@tempcnta\\m@ne%\n" +
+                            "  \\repeat%\n" +
+                            "}\n" +
                             "\\newread\\input@read\n" +
                             "\\newwrite\\input@write\n" +
                             "{\n" +
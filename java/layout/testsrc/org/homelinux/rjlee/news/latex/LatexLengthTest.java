@@ -1,14 +1,13 @@
 package org.homelinux.rjlee.news.latex;
 
 import org.homelinux.rjlee.news.logging.CapturingLogger;
-import org.homelinux.rjlee.news.mockpath.MockPath;
+import org.homelinux.rjlee.news.parsing.LengthParser;
 import org.homelinux.rjlee.news.settings.Settings;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
 import java.io.*;
-import java.nio.file.Path;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Properties;
@@ -90,6 +89,13 @@ class LatexLengthTest {
             "  \\global\\expandafter\\setbox\\boxto=\\copy\\boxfrom%\n" +
             "  \\global\\expandafter\\setbox\\boxfrom=\\copy\\sb@tmp@box%\n" +
             "}\n" +
+            "\\newcommand{\\voidsplitbox}[1]{%\n" +
+            "  \\@tempcnta=\\value{sb@#1}%\n" +
+            "  \\loop\\ifnum\\@tempcnta>\\z@%\n" +
+            "    \\global\\expandafter\\setbox\\csname sb@\\the\\@tempcnta @#1\\endcsname=\\box\\voidb@x%\n" +
+            "    \\advance\\@tempcnta\\m@ne%\n" +
+            "  \\repeat%\n" +
+            "}\n" +
             "\\newread\\input@read\n" +
             "\\newwrite\\input@write\n" +
             "{\n" +
@@ -299,6 +305,13 @@ class LatexLengthTest {
                             "  \\global\\expandafter\\setbox\\boxto=\\copy\\boxfrom%\n" +
                             "  \\global\\expandafter\\setbox\\boxfrom=\\copy\\sb@tmp@box%\n" +
                             "}\n" +
+                            "\\newcommand{\\voidsplitbox}[1]{%\n" +
+                            "  \\@tempcnta=\\value{sb@#1}%\n" +
+                            "  \\loop\\ifnum\\@tempcnta>\\z@%\n" +
+                            "    \\global\\expandafter\\setbox\\csname sb@\\the\\@tempcnta @#1\\endcsname=\\box\\voidb@x%\n" +
+                            "    \\advance\\@tempcnta\\m@ne%\n" +
+                            "  \\repeat%\n" +
+                            "}\n" +
                             "\\newread\\input@read\n" +
                             "\\newwrite\\input@write\n" +
                             "{\n" +
@@ -440,6 +453,36 @@ class LatexLengthTest {
         );
     }
 
+    @Test
+    void calculate_breakProfile() throws IOException {
+        receivedFromLaTeX.append("ART HEIGHT:7.0pt\nART DEPTH:2.0pt\n" +
+                "ART PROFILE SPLITTOPSKIP:10.0pt\nART PROFILE SPLITMAXDEPTH:16383.99998pt\n" +
+                "ART PROFILE BOX:7.0pt,2.0pt\nART PROFILE END\n");
+        latexLength.setBreakProfile(true);
+        try (PrintWriter pw = latexLength.writer()) {
+            pw.println("My document here!");
+        }
+        latexLength.calculate();
+        assertAll(
+                () -> assertEquals(9 * LengthParser.PT_PER_IN, latexLength.getBreakProfile().length(), 0.00001),
+                () -> assertTrue(logger.dumpAllCollected().contains("\\typeout{ART DEPTH:\\the\\dp\\sb@junkbox}\n" +
+                        "\\typeout{ART PROFILE SPLITTOPSKIP:\\the\\splittopskip}\n"), logger.dumpAllCollected()),
+                () -> assertTrue(logger.dumpAllCollected().contains("\\setbox\\sb@junkbox@=\\vbox{\\unvcopy\\sb@junkbox\\news@profile}\n" +
+                        "\\end{document}\n"), logger.dumpAllCollected())
+        );
+    }
+
+    @Test
+    void calculate_noBreakProfile() throws IOException {
+        receivedFromLaTeX.append("ART HEIGHT: 14.56in\nART DEPTH: 0");
+        try (PrintWriter pw = latexLength.writer()) {
+            pw.println("My document here!");
+        }
+        latexLength.calculate();
+        assertThrows(IllegalArgumentException.class, latexLength::getBreakProfile);
+        assertFalse(logger.dumpAllCollected().contains("news@profile"));
+    }
+
     @Test
     void returnedBadLength() throws IOException {
         receivedFromLaTeX.append("ART HEIGHT: invalid\nART DEPTH: bad\n");
@@ -522,21 +565,4 @@ class LatexLengthTest {
                 () -> assertEquals(EXPECTED_LATEX, Arrays.stream(logger.dumpAllCollected().split("\n")).skip(1).collect(Collectors.joining("\n")))
         );
     }
-
-    @Test
-    void getTmpDirImpl() {
-        Path systemTmpDir = MockPath.createMockPathWithName("/tmp", true);
-        Path tmpDir = LatexLength.getTmpDirImpl(systemTmpDir, new CapturingLogger());
-        // NB: This looks wrong, but it's to do with how the mock filesystem works.
-        // Anything resolved from a temp directory returns the original path,
-        // so we actually get the directory back again, this time as a file.
-        // - which does mean that the random name is discarded, and we get a static name back, which is at least easier to test!
-        assertEquals("/tmp", tmpDir.toString());
-    }
-
-    @Test
-    void getTmpDirImpl_error() {
-        Path systemTmpDir = MockPath.createMockPathForErrorOnCreateDir("/tmp");
-        assertThrows(RuntimeException.class, () -> LatexLength.getTmpDirImpl(systemTmpDir, new CapturingLogger()));
-    }
-}
\ No newline at end of file
+}
@@ -0,0 +1,57 @@
+package org.homelinux.rjlee.news.latex;
+
+import org.homelinux.rjlee.news.file.ScratchDirectoryPool;
+import org.homelinux.rjlee.news.file.TmpFileUtils;
+import org.homelinux.rjlee.news.input.ArticleImpl;
+import org.homelinux.rjlee.news.input.Headers;
+import org.homelinux.rjlee.news.logging.CapturingLogger;
+import org.homelinux.rjlee.news.mockpath.MockPath;
+import org.homelinux.rjlee.news.settings.Settings;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Properties;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Check a resident LaTeX process tidies up after itself, using a mock process in place of LaTeX.
+ *
+ * @author Robert
+ */
+class LatexServerTest {
+
+    /**
+     * A server whose job fails closes itself; closing it again mustn't release its directory a second time, as by
+     * then another server may be using it.
+     */
+    @Test
+    void close_afterFailedJob() throws IOException {
+        Path root = Files.createTempDirectory("srv");
+        TmpFileUtils.recursiveDeleteOnExit(root);
+        Properties p = new Properties();
+        p.put("scratchDir", root.toString());
+        Settings settings = new Settings(p);
+        ScratchDirectoryPool pool = ScratchDirectoryPool.forDirectory(root);
+        StringBuilder stdOut = new StringBuilder("ART READY\nART HEIGHT 1:99.9in\n");
+        LatexServer server = new LatexServer(settings, new MockShellProcessFactory(stdOut, new StringBuilder(), new ByteArrayOutputStream()), new CapturingLogger());
+        assertTrue(server.start(Stream.empty()));
+        ArticleImpl article = new ArticleImpl(new Headers(MockPath.createMockPathWithName("tmp.tex"), new Properties(), settings), settings, new MockLengthCalculator());
+
+        assertThrows(IOException.class, () -> server.calculateLength(1.23, Collections.emptyList(), article));
+        Path inUse = pool.acquire(); // by another server
+        Files.write(inUse.resolve("job1.tex"), "another job".getBytes());
+        server.close();
+
+        assertAll(
+                () -> assertEquals(server.getWorkDir(), inUse),
+                () -> assertTrue(Files.exists(inUse.resolve("job1.tex"))),
+                () -> assertNotEquals(inUse, pool.acquire())
+        );
+    }
+}
@@ -0,0 +1,105 @@
+package org.homelinux.rjlee.news.latex;
+
+import org.homelinux.rjlee.news.file.TmpFileUtils;
+import org.homelinux.rjlee.news.input.ArticleImpl;
+import org.homelinux.rjlee.news.input.Headers;
+import org.homelinux.rjlee.news.settings.Settings;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.Properties;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LengthCacheKeyTest {
+
+    private static final List<String> PREAMBLE = Collections.singletonList("\\usepackage{foo}");
+    private Path tmpDir;
+    private final Settings settings = new Settings(new Properties());
+
+    @BeforeEach
+    void setUp() throws IOException {
+        tmpDir = Files.createTempDirectory(LengthCacheKeyTest.class.getSimpleName());
+    }
+
+    @AfterEach
+    void tearDown() {
+        TmpFileUtils.recursiveDeleteOnExit(tmpDir);
+    }
+
+    private ArticleImpl article(String dir, String text) throws IOException {
+        Path path = Files.createDirectories(tmpDir.resolve(dir)).resolve("article.tex");
+        Files.write(path, Collections.singletonList(text));
+        return new ArticleImpl(new Headers(path, new Properties(), settings), settings, new MockLengthCalculator());
+    }
+
+    private String key(double width, List<Double> fragments, List<String> preamble, Settings settings, ArticleImpl article) {
+        return LengthCacheKey.of(width, fragments, preamble, settings, article).orElseThrow(AssertionError::new);
+    }
+
+    @Test
+    void sameContentSameKey() throws IOException {
+        ArticleImpl a = article("a", "Hello");
+        String key = key(1.5, Arrays.asList(1.0, 2.0), PREAMBLE, settings, a);
+
+        Files.setLastModifiedTime(a.getPath(), FileTime.from(Instant.parse("2001-02-03T04:05:06Z")));
+        assertAll(
+                () -> assertEquals(64, key.length()),
+                () -> assertEquals(key, key(1.5, Arrays.asList(1.0, 2.0), PREAMBLE, settings, a)),
+                () -> assertEquals(key, key(1.5, Arrays.asList(1.0, 2.0), PREAMBLE, settings, article("b", "Hello"))),
+                () -> assertEquals(key, key(1.5, Arrays.asList(1.0, 2.0), PREAMBLE, new Settings(new Properties()), a))
+        );
+    }
+
+    @Test
+    void anythingTypesetChangesKey() throws IOException {
+        ArticleImpl a = article("a", "Hello");
+        String key = key(1.5, Arrays.asList(1.0, 2.0), PREAMBLE, settings, a);
+        Properties tolerance = new Properties();
+        tolerance.put("tolerance", "9999");
+
+        assertAll(
+                () -> assertNotEquals(key, key(1.5, Arrays.asList(1.0, 2.0), PREAMBLE, settings, article("b", "Hello!"))),
+                () -> assertNotEquals(key, key(1.6, Arrays.asList(1.0, 2.0), PREAMBLE, settings, a)),
+                () -> assertNotEquals(key, key(1.5, Collections.singletonList(1.0), PREAMBLE, settings, a)),
+                () -> assertNotEquals(key, key(1.5, Arrays.asList(1.0, 2.0), Collections.emptyList(), settings, a)),
+                () -> assertNotEquals(key, key(1.5, Arrays.asList(1.0, 2.0), PREAMBLE, new Settings(tolerance), a))
+        );
+    }
+
+    @Test
+    void assetChangesKey() throws IOException {
+        Path dir = Files.createDirectories(tmpDir.resolve("c"));
+        Path asset = dir.resolve("picture.png");
+        Files.write(asset, new byte[]{1, 2, 3});
+        Path path = dir.resolve("article.tex");
+        Files.write(path, Collections.singletonList("Hello"));
+        Properties headers = new Properties();
+        headers.put("Asset1", "picture.png");
+        ArticleImpl a = new ArticleImpl(new Headers(path, headers, settings), settings, new MockLengthCalculator());
+
+        String key = key(1.5, Collections.emptyList(), PREAMBLE, settings, a);
+        Files.write(asset, new byte[]{1, 2, 4});
+        // the same article is only read once, but the change is seen when it's read in again:
+        assertEquals(key, key(1.5, Collections.emptyList(), PREAMBLE, settings, a));
+        ArticleImpl again = new ArticleImpl(new Headers(path, headers, settings), settings, new MockLengthCalculator());
+        assertNotEquals(key, key(1.5, Collections.emptyList(), PREAMBLE, settings, again));
+    }
+
+    @Test
+    void unreadable() throws IOException {
+        ArticleImpl a = article("a", "Hello");
+        Files.delete(a.getPath());
+        assertEquals(Optional.empty(), LengthCacheKey.of(1.5, Collections.emptyList(), PREAMBLE, settings, a));
+    }
+}
@@ -0,0 +1,128 @@
+package org.homelinux.rjlee.news.latex;
+
+import org.homelinux.rjlee.news.file.TmpFileUtils;
+import org.homelinux.rjlee.news.input.ArticleImpl;
+import org.homelinux.rjlee.news.input.Headers;
+import org.homelinux.rjlee.news.settings.Settings;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Check that the model learns lengths that are a linear function of the text.
+ *
+ * @author Robert
+ */
+class LengthModelTest {
+
+    private Path dir;
+    private Settings settings;
+    private final LengthModel model = new LengthModel();
+
+    @BeforeEach
+    void setUp() throws IOException {
+        dir = Files.createTempDirectory("model");
+        TmpFileUtils.recursiveDeleteOnExit(dir);
+        Properties p = new Properties();
+        p.setProperty("out", dir.toString());
+        settings = new Settings(p);
+        model.init(settings);
+    }
+
+    /**
+     * @return an article of the given number of paragraphs, each of the given number of 4-letter words.
+     */
+    ArticleImpl article(String name, int paragraphs, int words) throws IOException {
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < paragraphs; i++) {
+            lines.add(String.join(" ", Collections.nCopies(words, "word")));
+            lines.add("");
+        }
+        Path path = Files.write(dir.resolve(name), lines);
+        return new ArticleImpl(new Headers(path, new Properties(), settings), settings, new MockLengthCalculator());
+    }
+
+    /**
+     * 0.001in per character, and 0.05in per paragraph.
+     */
+    private static double length(int paragraphs, int words) {
+        return paragraphs * (0.001 * (5 * words - 1) + 0.05);
+    }
+
+    private void learn(int articles) throws IOException {
+        for (int i = 0; i < articles; i++) {
+            int paragraphs = 1 + i % 4;
+            int words = 20 + 7 * i;
+            model.observe(1.5, settings, article("a" + i + ".tex", paragraphs, words), length(paragraphs, words));
+        }
+    }
+
+    @Test
+    void estimate() throws IOException {
+        learn(LengthModel.MIN_SAMPLES);
+        Optional<LengthEstimate> estimate = model.estimate(1.5, settings, article("new.tex", 3, 50));
+        assertAll(
+                () -> assertTrue(estimate.isPresent()),
+                () -> assertEquals(length(3, 50), estimate.get().getLength(), 1e-6),
+                () -> assertEquals(0, estimate.get().getError(), 1e-6),
+                () -> assertEquals(LengthModel.MIN_SAMPLES, estimate.get().getSamples()),
+                // a different width is a different model:
+                () -> assertFalse(model.estimate(2.5, settings, article("new.tex", 3, 50)).isPresent())
+        );
+    }
+
+    @Test
+    void estimate_tooFewSamples() throws IOException {
+        learn(LengthModel.MIN_SAMPLES - 1);
+        assertFalse(model.estimate(1.5, settings, article("new.tex", 3, 50)).isPresent());
+    }
+
+    @Test
+    void estimate_noisy() throws IOException {
+        for (int i = 0; i < 40; i++) {
+            int words = 20 + 7 * i;
+            double noise = i % 2 == 0 ? 0.1 : -0.1;
+            model.observe(1.5, settings, article("a" + i + ".tex", 1 + i % 4, words), length(1 + i % 4, words) + noise);
+        }
+        LengthEstimate estimate = model.estimate(1.5, settings, article("new.tex", 3, 50)).orElseThrow(AssertionError::new);
+        assertAll(
+                () -> assertEquals(length(3, 50), estimate.getLength(), 0.1),
+                () -> assertTrue(estimate.getError() > 0.09, estimate::toString),
+                () -> assertTrue(estimate.getError() < 0.15, estimate::toString)
+        );
+    }
+
+    @Test
+    void saveAndLoad() throws IOException {
+        learn(LengthModel.MIN_SAMPLES);
+        model.save();
+        assertTrue(Files.exists(dir.resolve("lengths.model")));
+        try (Stream<Path> files = Files.list(dir)) {
+            assertFalse(files.anyMatch(f -> f.toString().endsWith(".tmp")), "temporary file left behind");
+        }
+
+        LengthModel loaded = new LengthModel();
+        loaded.init(settings);
+        assertEquals(length(3, 50), loaded.estimate(1.5, settings, article("new.tex", 3, 50)).map(LengthEstimate::getLength).orElse(0.0), 1e-6);
+    }
+
+    @Test
+    void observe_keepsRecentSamples() throws IOException {
+        ArticleImpl article = article("a.tex", 1, 10);
+        for (int i = 0; i < LengthModel.MAX_SAMPLES + 10; i++)
+            model.observe(1.5, settings, article, 1);
+        model.save();
+        assertEquals(LengthModel.MAX_SAMPLES, Files.readAllLines(dir.resolve("lengths.model")).size());
+    }
+}
@@ -0,0 +1,58 @@
+package org.homelinux.rjlee.news.latex;
+
+import org.homelinux.rjlee.news.logging.CapturingLogger;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MeasurementExecutorTest {
+
+    private final CapturingLogger logger = new CapturingLogger();
+
+    @Test
+    void runAll() {
+        AtomicInteger count = new AtomicInteger();
+        List<Runnable> tasks = new ArrayList<>();
+        for (int i = 0; i < 50; i++) tasks.add(count::incrementAndGet);
+
+        try (MeasurementExecutor executor = new MeasurementExecutor(3, logger)) {
+            executor.runAll("things", tasks);
+            assertEquals(3, executor.getThreads());
+        }
+
+        assertAll(
+                () -> assertEquals(50, count.get()),
+                () -> assertTrue(logger.algorithmCollected().startsWith("Measured 50 things on 3 threads in "), logger.algorithmCollected()),
+                () -> assertTrue(logger.algorithmCollected().contains("max queue depth"), logger.algorithmCollected()),
+                () -> assertTrue(logger.dumpAllCollected().contains("Measurement queue depth"))
+        );
+    }
+
+    @Test
+    void runAll_defaultThreads() {
+        try (MeasurementExecutor executor = new MeasurementExecutor(0, logger)) {
+            assertEquals(Runtime.getRuntime().availableProcessors(), executor.getThreads());
+        }
+    }
+
+    @Test
+    void runAll_failure() {
+        AtomicInteger count = new AtomicInteger();
+        List<Runnable> tasks = new ArrayList<>();
+        for (int i = 0; i < 10; i++) tasks.add(count::incrementAndGet);
+        tasks.add(3, () -> {
+            throw new IllegalArgumentException("Bad article");
+        });
+
+        try (MeasurementExecutor executor = new MeasurementExecutor(2, logger)) {
+            IllegalArgumentException ex = assertThrows(IllegalArgumentException.class, () -> executor.runAll("things", tasks));
+            assertEquals("Bad article", ex.getMessage());
+        }
+        // the other tasks still run:
+        assertEquals(10, count.get());
+    }
+}
@@ -0,0 +1,103 @@
+package org.homelinux.rjlee.news.latex;
+
+import org.homelinux.rjlee.news.file.TmpFileUtils;
+import org.homelinux.rjlee.news.logging.CapturingLogger;
+import org.homelinux.rjlee.news.settings.Settings;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Optional;
+import java.util.Properties;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MeasurementFormatsTest {
+
+    private Path out;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        out = Files.createTempDirectory(MeasurementFormatsTest.class.getSimpleName());
+    }
+
+    @AfterEach
+    void tearDown() {
+        TmpFileUtils.recursiveDeleteOnExit(out);
+    }
+
+    private Settings settings(String latex) {
+        Properties p = new Properties();
+        p.put("out", out.toString());
+        p.put("latex", latex);
+        return new Settings(p);
+    }
+
+    private MeasurementFormats formats(Settings settings, ShellProcessFactory factory) {
+        return new MeasurementFormats(settings, factory, new CapturingLogger());
+    }
+
+    private ShellProcessFactory mockFactory() {
+        return new MockShellProcessFactory(new StringBuilder(), new StringBuilder(), new ByteArrayOutputStream());
+    }
+
+    @Test
+    void engine() {
+        assertAll(
+                () -> assertEquals("pdflatex", formats(settings("pdflatex"), mockFactory()).engine()),
+                () -> assertEquals("lualatex", formats(settings("/usr/local/bin/lualatex"), mockFactory()).engine()),
+                () -> assertEquals("xelatex", formats(settings("C:\\texlive\\bin\\xelatex.EXE"), mockFactory()).engine())
+        );
+    }
+
+    @Test
+    void formatFor_notBuilt() {
+        MeasurementFormats formats = formats(settings("pdflatex"), mockFactory());
+        assertEquals(Optional.empty(), formats.formatFor(Collections.singletonList("\\usepackage{foo}")));
+        // the source is left for debugging:
+        assertTrue(Files.exists(out.resolve("fmt")));
+    }
+
+    @Test
+    void formatFor_built() throws IOException {
+        Settings settings = settings("pdflatex");
+        ShellProcessFactory factory = new MockShellProcessFactory(new StringBuilder(), new StringBuilder(), new ByteArrayOutputStream()) {
+            @Override
+            public Process run(Settings settings, Path wdPath, String... extraCmdLine) throws IOException {
+                assertEquals("-ini", extraCmdLine[0]);
+                assertEquals("&" + settings.getLatex(), extraCmdLine[2]);
+                assertEquals("mylatexformat.ltx", extraCmdLine[3]);
+                Files.createFile(wdPath.resolve(extraCmdLine[1].substring("-jobname=".length()) + ".fmt"));
+                return super.run(settings, wdPath, extraCmdLine);
+            }
+        };
+        MeasurementFormats formats = formats(settings, factory);
+        Optional<Path> fmt = formats.formatFor(Collections.singletonList("\\usepackage{foo}"));
+        assertTrue(fmt.isPresent());
+        assertTrue(Files.exists(fmt.get()));
+        assertTrue(Files.readAllLines(fmt.get().resolveSibling(fmt.get().getFileName().toString().replace(".fmt", ".tex")))
+                .contains("\\endofdump"));
+
+        // a new instance reuses the file, without running LaTeX:
+        MeasurementFormats again = formats(settings, new MockShellProcessFactory(null, null, null, false, true));
+        assertEquals(fmt, again.formatFor(Collections.singletonList("\\usepackage{foo}")));
+
+        // the name changes with the preamble and the engine:
+        assertNotEquals(fmt, formats.formatFor(Collections.singletonList("\\usepackage{bar}")));
+        assertNotEquals(fmt, formats(settings("lualatex"), factory).formatFor(Collections.singletonList("\\usepackage{foo}")));
+
+        formats.broken(Collections.singletonList("\\usepackage{foo}"));
+        assertFalse(Files.exists(fmt.get()));
+        assertEquals(Optional.empty(), formats.formatFor(Collections.singletonList("\\usepackage{foo}")));
+    }
+
+    @Test
+    void hash() {
+        assertEquals("e3b0c44298fc1c149afbf4c8996fb92427ae41e4649b934ca495991b7852b855", MeasurementFormats.hash(""));
+    }
+}
@@ -1,15 +1,26 @@
 package org.homelinux.rjlee.news.latex;
 
+import org.homelinux.rjlee.news.input.ArticleImpl;
 import org.homelinux.rjlee.news.input.ArticleText;
+import org.homelinux.rjlee.news.input.Headers;
+import org.homelinux.rjlee.news.mockpath.MockPath;
 import org.homelinux.rjlee.news.settings.Settings;
 
 import java.util.List;
+import java.util.Properties;
 import java.util.stream.Stream;
 
 public class MockLengthCalculator implements LengthCalculator {
 
     private double length = 3.1415;
 
+    /**
+     * @return an article with no headers, at a mock path with the given name
+     */
+    public static ArticleImpl article(String name, Settings settings, LengthCalculator calc) {
+        return new ArticleImpl(new Headers(MockPath.createMockPathWithName(name), new Properties(), settings), settings, calc);
+    }
+
     public void setLength(double length) {
         this.length = length;
     }
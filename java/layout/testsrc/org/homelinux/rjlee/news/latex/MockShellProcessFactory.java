@@ -63,4 +63,9 @@ public class MockShellProcessFactory implements ShellProcessFactory {
         return crash ? null :
                 new MockProcess(stdOut.toString(), stdErr.toString(), stdIn, exitCode, errorOnStdOut, errorOnStdErr, errorOnStdIn);
     }
+
+    @Override
+    public Process runInteractive(Settings settings, Path wdPath, String... extraCmdLine) throws IOException {
+        return run(settings, wdPath, extraCmdLine);
+    }
 }
@@ -2,6 +2,8 @@ package org.homelinux.rjlee.news.latex;
 
 import org.homelinux.rjlee.news.LaidOut;
 import org.homelinux.rjlee.news.elements.ArticleFragment;
+import org.homelinux.rjlee.news.file.TmpFileUtils;
+import org.homelinux.rjlee.news.input.Article;
 import org.homelinux.rjlee.news.input.ArticleImpl;
 import org.homelinux.rjlee.news.input.Headers;
 import org.homelinux.rjlee.news.logging.CapturingLogger;
@@ -16,12 +18,19 @@ import org.junit.jupiter.api.Test;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Properties;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 import static org.junit.jupiter.api.Assertions.assertAll;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 
 class NewspaperToLatexTest {
@@ -112,6 +121,13 @@ class NewspaperToLatexTest {
                 "  \\global\\expandafter\\setbox\\boxto=\\copy\\boxfrom%\n" +
                 "  \\global\\expandafter\\setbox\\boxfrom=\\copy\\sb@tmp@box%\n" +
                 "}\n" +
+                "\\newcommand{\\voidsplitbox}[1]{%\n" +
+                "  \\@tempcnta=\\value{sb@#1}%\n" +
+                "  \\loop\\ifnum\\@tempcnta>\\z@%\n" +
+                "    \\global\\expandafter\\setbox\\csname sb@\\the\\@tempcnta @#1\\endcsname=\\box\\voidb@x%\n" +
+                "    \\advance\\@tempcnta\\m@ne%\n" +
+                "  \\repeat%\n" +
+                "}\n" +
                 "\\newread\\input@read\n" +
                 "\\newwrite\\input@write\n" +
                 "{\n" +
@@ -292,6 +308,211 @@ class NewspaperToLatexTest {
         col.set(col.new ColFragment(a.splitRemainingArticle(settings.getColumnHeight() - firstFragment.end()), firstFragment.end()));
     }
 
+    /**
+     * Lay out an article over two pages, each written to a range of its own.
+     */
+    private static Article writeRanges(Settings settings, NewspaperToLatex ntl, LaidOut laidOut) {
+        MockPath path = MockPath.createMockPathWithNameAndContent("art.tex", "%art");
+        ArticleImpl a = new ArticleImpl(new Headers(path, new Properties(), settings), settings, new MockLengthCalculator());
+        for (int i = 1; i <= 2; i++) {
+            ColumnarPage page = new ColumnarPage(i, 1, settings);
+            Col col = page.getColumns().get(0);
+            ArticleFragment fragment = i == 1 ? a.splitArticle(settings.getColumnHeight()) : a.splitRemainingArticle(settings.getColumnHeight());
+            col.set(col.new ColFragment(fragment, 0, settings.getColumnHeight(), null));
+            laidOut.getPages().add(page);
+        }
+        ntl.writeTexFile(laidOut);
+        return a;
+    }
+
+    private static Settings rangeSettings(Path out) {
+        Properties props = new Properties();
+        props.setProperty("out", out.toString());
+        props.setProperty("pagesPerRange", "1");
+        return new Settings(props);
+    }
+
+    @Test
+    void writeTexFile_pageRanges() throws IOException {
+        Path out = Files.createTempDirectory("ranges");
+        TmpFileUtils.recursiveDeleteOnExit(out);
+        Settings settings = rangeSettings(out);
+        NewspaperToLatex ntl = new NewspaperToLatexImpl(settings, logger, new LatexProcessFactory());
+        String name = writeRanges(settings, ntl, new MyLaidOut()).name();
+        String page1 = new String(Files.readAllBytes(out.resolve("newspaper-pages1-1.tex")), StandardCharsets.UTF_8);
+        String page2 = new String(Files.readAllBytes(out.resolve("newspaper-pages2-2.tex")), StandardCharsets.UTF_8);
+        assertAll(
+                () -> assertTrue(page1.contains("\\begin{newsplitbox}{" + name + "}\n")),
+                () -> assertTrue(page1.contains("\\usesplitbox{" + name + "}{1}")),
+                () -> assertTrue(page1.endsWith("\\end{document}\n")),
+                // the second range splits off the first part of the article, and sets the second:
+                () -> assertTrue(page2.contains("\\begin{newsplitbox}{" + name + "}\n")),
+                () -> assertTrue(page2.contains("\\splitbox{" + name + "}{26.574803in}% on page 1\n% page 2\n")),
+                () -> assertTrue(page2.contains("splitbox{" + name + "}{2}")),
+                () -> Assertions.assertEquals("\\documentclass{article}\n" +
+                        "\\setlength{\\paperwidth}{25.590551in}\n" +
+                        "\\setlength{\\paperheight}{29.527559in}\n" +
+                        "\\usepackage[text={25.590551in,29.527559in},margin=0pt]{geometry}\n" +
+                        "\\ifcsname pdfpagewidth\\endcsname\\pdfpagewidth=25.590551in\\fi\n" +
+                        "\\ifcsname pdfpageheight\\endcsname\\pdfpageheight=29.527559in\\fi\n" +
+                        "\\usepackage{pdfpages}\n" +
+                        "\\begin{document}\n" +
+                        "\\includepdf[pages=-]{newspaper-pages1-1.pdf}\n" +
+                        "\\includepdf[pages=-]{newspaper-pages2-2.pdf}\n" +
+                        "\\end{document}\n", logger.texOutputCollected())
+        );
+    }
+
+    @Test
+    void writeTexFile_boxesPerPage() {
+        Settings settings = new Settings(new Properties());
+        NewspaperToLatex ntl = new NewspaperToLatexImpl(settings, logger, new LatexProcessFactory());
+        String name = writeRanges(settings, ntl, new MyLaidOut()).name();
+        String tex = logger.texOutputCollected();
+        int box = tex.indexOf("\\begin{newsplitbox}{" + name + "}\n");
+        int lastPart = tex.indexOf("\\usesplitbox{" + name + "}{2}");
+        int voided = tex.indexOf("\\voidsplitbox{" + name + "}\n");
+        assertAll(
+                // the box is only made for the first page it's on...
+                () -> assertTrue(box > tex.indexOf("% page 1\n"), tex),
+                () -> assertEquals(box, tex.lastIndexOf("\\begin{newsplitbox}")),
+                // ...and voided after the last part is set
+                () -> assertTrue(voided > lastPart && lastPart > tex.indexOf("% page 2\n"), tex),
+                () -> assertEquals(voided, tex.lastIndexOf("\\voidsplitbox"))
+        );
+    }
+
+    @Test
+    void finalLayout_pageRanges() throws IOException {
+        Path out = Files.createTempDirectory("ranges");
+        TmpFileUtils.recursiveDeleteOnExit(out);
+        Settings settings = rangeSettings(out);
+        StringBuilder stdOut = new StringBuilder("Tex response line here");
+        try (ByteArrayOutputStream stdIn = new ByteArrayOutputStream()) {
+            MockShellProcessFactory processFactory = new MockShellProcessFactory(stdOut, new StringBuilder(), stdIn);
+            NewspaperToLatex ntl = new NewspaperToLatexImpl(settings, logger, processFactory);
+            writeRanges(settings, ntl, new MyLaidOut());
+            ntl.compileFinalPdf();
+            // each range, then the whole
+            Assertions.assertEquals(3, logger.dumpAllCollected().split("Tex response line here\n", -1).length - 1);
+        }
+    }
+
+    /**
+     * Lay out an article from a file across two pages, and write them each to a document of their own.
+     */
+    private static void writePages(Settings settings, NewspaperToLatex ntl, String text) throws IOException {
+        Path path = Files.write(settings.getOut().resolve("art.tex"), text.getBytes(StandardCharsets.UTF_8));
+        ArticleImpl a = new ArticleImpl(new Headers(path, new Properties(), settings), settings, new MockLengthCalculator());
+        MyLaidOut laidOut = new MyLaidOut();
+        for (int i = 1; i <= 2; i++) {
+            ColumnarPage page = new ColumnarPage(i, 1, settings);
+            Col col = page.getColumns().get(0);
+            ArticleFragment fragment = i == 1 ? a.splitArticle(settings.getColumnHeight()) : a.splitRemainingArticle(settings.getColumnHeight());
+            col.set(col.new ColFragment(fragment, 0, settings.getColumnHeight(), null));
+            laidOut.getPages().add(page);
+        }
+        ntl.writeTexFile(laidOut);
+    }
+
+    private static Settings pageCacheSettings(Path out) {
+        Properties props = new Properties();
+        props.setProperty("out", out.toString());
+        props.setProperty("pageCache", "true");
+        return new Settings(props);
+    }
+
+    private static List<String> pageFiles(Path out) throws IOException {
+        try (Stream<Path> files = Files.list(out)) {
+            return files.map(f -> f.getFileName().toString())
+                    .filter(f -> f.startsWith("newspaper-page-"))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+
+    @Test
+    void writeTexFile_pageCache() throws IOException {
+        Path out = Files.createTempDirectory("pages");
+        TmpFileUtils.recursiveDeleteOnExit(out);
+        Settings settings = pageCacheSettings(out);
+        writePages(settings, new NewspaperToLatexImpl(settings, logger, new LatexProcessFactory()), "%art");
+        List<String> before = pageFiles(out);
+        writePages(settings, new NewspaperToLatexImpl(settings, logger, new LatexProcessFactory()), "%art");
+        List<String> same = pageFiles(out);
+        writePages(settings, new NewspaperToLatexImpl(settings, logger, new LatexProcessFactory()), "%edited");
+        List<String> edited = pageFiles(out);
+        assertAll(
+                () -> assertEquals(2, before.size(), before.toString()),
+                () -> assertTrue(before.stream().allMatch(f -> f.matches("newspaper-page-[0-9a-f]{16}\\.tex")), before.toString()),
+                () -> assertEquals(before, same),
+                // the article is on both pages, so both change, and the old ones are deleted:
+                () -> assertEquals(2, edited.size(), edited.toString()),
+                () -> assertTrue(Collections.disjoint(before, edited), edited.toString()),
+                () -> assertTrue(logger.texOutputCollected().contains("\\includepdf[pages=-]{" + edited.get(1).replace(".tex", ".pdf") + "}"))
+        );
+    }
+
+    @Test
+    void finalLayout_pageCache() throws IOException {
+        Path out = Files.createTempDirectory("pages");
+        TmpFileUtils.recursiveDeleteOnExit(out);
+        Settings settings = pageCacheSettings(out);
+        StringBuilder stdOut = new StringBuilder("Tex response line here");
+        try (ByteArrayOutputStream stdIn = new ByteArrayOutputStream()) {
+            MockShellProcessFactory processFactory = new MockShellProcessFactory(stdOut, new StringBuilder(), stdIn);
+            NewspaperToLatex ntl = new NewspaperToLatexImpl(settings, logger, processFactory);
+            writePages(settings, ntl, "%art");
+            ntl.compileFinalPdf();
+            // each page, then the whole
+            Assertions.assertEquals(3, logger.dumpAllCollected().split("Tex response line here\n", -1).length - 1);
+            // as if LaTeX had made the PDFs:
+            for (String page : pageFiles(out))
+                Files.createFile(out.resolve(page.replace(".tex", ".pdf")));
+            Files.createFile(out.resolve("newspaper.pdf"));
+            Files.delete(out.resolve("newspaper.manifest")); // so the pages are checked
+            ntl = new NewspaperToLatexImpl(settings, logger, processFactory);
+            writePages(settings, ntl, "%art");
+            ntl.compileFinalPdf();
+            // just the whole, as the pages haven't changed
+            Assertions.assertEquals(4, logger.dumpAllCollected().split("Tex response line here\n", -1).length - 1);
+            Assertions.assertTrue(logger.elementsCollected().contains("0 of 2 pages have changed"), logger.elementsCollected());
+        }
+    }
+
+    @Test
+    void finalLayout_unchanged() throws IOException {
+        Path out = Files.createTempDirectory("manifest");
+        TmpFileUtils.recursiveDeleteOnExit(out);
+        Properties props = new Properties();
+        props.setProperty("out", out.toString());
+        Settings settings = new Settings(props);
+        StringBuilder stdOut = new StringBuilder("Tex response line here");
+        try (ByteArrayOutputStream stdIn = new ByteArrayOutputStream()) {
+            MockShellProcessFactory processFactory = new MockShellProcessFactory(stdOut, new StringBuilder(), stdIn);
+            NewspaperToLatex ntl = new NewspaperToLatexImpl(settings, logger, processFactory);
+            writePages(settings, ntl, "%art");
+            ntl.compileFinalPdf();
+            Files.createFile(out.resolve("newspaper.pdf")); // as if LaTeX had made it
+            String manifest = new String(Files.readAllBytes(out.resolve("newspaper.manifest")), StandardCharsets.UTF_8);
+            ntl = new NewspaperToLatexImpl(settings, logger, processFactory);
+            writePages(settings, ntl, "%art");
+            ntl.compileFinalPdf();
+            String unchanged = logger.dumpAllCollected();
+            ntl = new NewspaperToLatexImpl(settings, logger, processFactory);
+            writePages(settings, ntl, "%edited");
+            ntl.compileFinalPdf();
+            assertAll(
+                    () -> assertTrue(manifest.contains("  newspaper.tex\n"), manifest),
+                    () -> assertTrue(manifest.contains("  " + out.resolve("art.tex").toAbsolutePath() + "\n"), manifest),
+                    () -> Assertions.assertEquals(1, unchanged.split("Tex response line here\n", -1).length - 1),
+                    () -> assertTrue(logger.elementsCollected().contains("newspaper.pdf is up to date"), logger.elementsCollected()),
+                    // the edit is to the article's file, which is compiled again:
+                    () -> Assertions.assertEquals(2, logger.dumpAllCollected().split("Tex response line here\n", -1).length - 1)
+            );
+        }
+    }
+
     @Test
     void finalLayout_crash() throws IOException {
         Settings settings = new Settings(new Properties());
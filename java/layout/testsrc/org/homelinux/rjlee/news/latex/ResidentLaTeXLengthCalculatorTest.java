@@ -0,0 +1,100 @@
+package org.homelinux.rjlee.news.latex;
+
+import org.homelinux.rjlee.news.settings.Settings;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.stream.Stream;
+
+import static org.homelinux.rjlee.news.latex.MockLengthCalculator.article;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Coverage tests for the ResidentLaTeXLengthCalculator, using a mock process in place of LaTeX.
+ *
+ * @author Robert
+ */
+class ResidentLaTeXLengthCalculatorTest {
+
+    private final MockLengthCalculator fallback = new MockLengthCalculator();
+
+    private Settings settings() {
+        Properties p = new Properties();
+        p.put("measurementServers", "1");
+        return new Settings(p);
+    }
+
+    @Test
+    void calculateLength() {
+        StringBuilder stdOut = new StringBuilder("ART READY\nART HEIGHT 1:99.9in\nART DEPTH 1:0pt\nART DONE 1\n");
+        ByteArrayOutputStream stdIn = new ByteArrayOutputStream();
+        ShellProcessFactory shellProcessFactory = new MockShellProcessFactory(stdOut, new StringBuilder(), stdIn);
+        ResidentLaTeXLengthCalculator calc = new ResidentLaTeXLengthCalculator(fallback, shellProcessFactory);
+        Settings settings = settings();
+        List<Double> fragments = Arrays.asList(6.5, 7.8);
+
+        double result = calc.calculateLength(1.23, fragments, Stream.of("\\usepackage{foo}"), settings, article("tmp.tex", settings, calc));
+        calc.close();
+
+        assertAll(
+                () -> assertEquals(6.5 + 7.8 + 99.9, result, 0.0001),
+                () -> assertTrue(new String(stdIn.toByteArray(), StandardCharsets.UTF_8).startsWith("\\input{job1.tex}"))
+        );
+    }
+
+    @Test
+    void calculateLength_serverDies() {
+        StringBuilder stdOut = new StringBuilder("ART READY\nART HEIGHT 1:99.9in\n");
+        ShellProcessFactory shellProcessFactory = new MockShellProcessFactory(stdOut, new StringBuilder(), new ByteArrayOutputStream());
+        ResidentLaTeXLengthCalculator calc = new ResidentLaTeXLengthCalculator(fallback, shellProcessFactory);
+        Settings settings = settings();
+        fallback.setLength(4.5);
+
+        double result = calc.calculateLength(1.23, Arrays.asList(6.5, 7.8), Stream.empty(), settings, article("tmp.tex", settings, calc));
+        calc.close();
+
+        assertEquals(4.5, result, 0.0);
+    }
+
+    @Test
+    void calculateLength_serverBroken() {
+        StringBuilder stdOut = new StringBuilder("ART READY\nART HEIGHT 1:99.9in\nART DEPTH 1:0pt\nART BROKEN 1\n");
+        ShellProcessFactory shellProcessFactory = new MockShellProcessFactory(stdOut, new StringBuilder(), new ByteArrayOutputStream());
+        ResidentLaTeXLengthCalculator calc = new ResidentLaTeXLengthCalculator(fallback, shellProcessFactory);
+        Settings settings = settings();
+        fallback.setLength(4.5);
+
+        double result = calc.calculateLength(1.23, Arrays.asList(6.5, 7.8), Stream.empty(), settings, article("tmp.tex", settings, calc));
+        calc.close();
+
+        assertEquals(4.5, result, 0.0);
+    }
+
+    @Test
+    void calculateLength_serverNeverReady() {
+        ShellProcessFactory shellProcessFactory = new MockShellProcessFactory(new StringBuilder("! LaTeX Error: File `foo.sty' not found.\n"), new StringBuilder(), new ByteArrayOutputStream());
+        ResidentLaTeXLengthCalculator calc = new ResidentLaTeXLengthCalculator(fallback, shellProcessFactory);
+        Settings settings = settings();
+        fallback.setLength(4.5);
+
+        assertEquals(4.5, calc.calculateLength(1.23, Arrays.asList(6.5, 7.8), Stream.empty(), settings, article("tmp.tex", settings, calc)), 0.0);
+        // a second article doesn't try again:
+        assertEquals(4.5, calc.calculateLength(1.23, Arrays.asList(6.5, 7.8), Stream.empty(), settings, article("tmp.tex", settings, calc)), 0.0);
+        calc.close();
+    }
+
+    @Test
+    void calculateLength_processNotStarted() {
+        ShellProcessFactory shellProcessFactory = new MockShellProcessFactory(new StringBuilder(), new StringBuilder(), new ByteArrayOutputStream(), true, false);
+        ResidentLaTeXLengthCalculator calc = new ResidentLaTeXLengthCalculator(fallback, shellProcessFactory);
+        Settings settings = settings();
+        fallback.setLength(4.5);
+
+        assertEquals(4.5, calc.calculateLength(1.23, Arrays.asList(6.5, 7.8), Stream.empty(), settings, article("tmp.tex", settings, calc)), 0.0);
+        calc.close();
+    }
+}
@@ -62,6 +62,44 @@ class ColTest {
         assertEquals("Fragment empty@[1.125-26.5748031496063]", col.longestEmpty().toString());
     }
 
+    @Test
+    void longestEmpty_tie() {
+        col.set(col.new ColFragment(new Valley(settings, 1), 2, 3, null));
+        col.set(col.new ColFragment(new Valley(settings, 1), 5, settings.getColumnHeight(), null));
+
+        // 0-2 and 3-5 are as long; the top one is chosen
+        assertEquals("Fragment empty@[0.0-2.0]", col.longestEmpty().toString());
+    }
+
+    @Test
+    void firstEmpty() {
+        col.set(col.new ColFragment(new Valley(settings, 1), 0, 2, null));
+        assertEquals("Fragment empty@[2.0-26.5748031496063]", col.firstEmpty().toString());
+        col.set(col.new ColFragment(new Valley(settings, 1), 2, settings.getColumnHeight(), null));
+        assertAll(
+                () -> assertNull(col.firstEmpty()),
+                () -> assertNull(col.longestEmpty())
+        );
+    }
+
+    @Test
+    void adjustDown() {
+        Col.ColFragment fragment = col.new ColFragment(new Valley(settings, 1), 1, 2, null);
+        col.set(fragment);
+        fragment.adjustDown(3);
+        assertAll(
+                () -> assertEquals("[Fragment empty@[0.0-4.0], Fragment for part V-mode alley{cols=1}@[4.0-5.0], Fragment empty@[5.0-26.5748031496063]]", col.toString()),
+                () -> assertEquals(4, fragment.spaceAbove()),
+                () -> assertEquals("Fragment empty@[5.0-26.5748031496063]", col.longestEmpty().toString()),
+                () -> assertEquals("Fragment empty@[0.0-4.0]", col.firstEmpty().toString())
+        );
+        fragment.adjustUp(4);
+        assertAll(
+                () -> assertEquals("[Fragment for part V-mode alley{cols=1}@[0.0-1.0], Fragment empty@[1.0-26.5748031496063]]", col.toString()),
+                () -> assertEquals("Fragment empty@[1.0-26.5748031496063]", col.firstEmpty().toString())
+        );
+    }
+
     @Test
     void empty() {
         Col.ColFragment[] initialEmpty = col.empty().toArray(Col.ColFragment[]::new);
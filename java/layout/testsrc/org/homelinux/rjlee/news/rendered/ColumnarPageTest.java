@@ -43,6 +43,51 @@ class ColumnarPageTest {
         Assertions.assertEquals(3, page.getColumns().size());
     }
 
+    @Test
+    void tightestColumn() {
+        Col first = page.getColumns().get(0);
+        Col second = page.getColumns().get(1);
+        Col third = page.getColumns().get(2);
+        Assertions.assertSame(first, page.tightestColumn()); // all as long; the leftmost
+        second.set(second.new ColFragment(new Valley(settings, 1), 0, 2, null));
+        Assertions.assertSame(second, page.tightestColumn());
+        second.set(second.new ColFragment(new Valley(settings, 1), 2, 4.5, null));
+        third.set(third.new ColFragment(new Valley(settings, 1), 0, 3, null));
+        Assertions.assertSame(third, page.tightestColumn());
+        Col extra = page.addExtraColumn();
+        extra.set(extra.new ColFragment(new Valley(settings, 1), 0, 4, null));
+        Assertions.assertSame(extra, page.tightestColumn());
+    }
+
+    @Test
+    void columnsWithSpace() {
+        Col first = page.getColumns().get(0);
+        Col second = page.getColumns().get(1);
+        Col third = page.getColumns().get(2);
+        second.set(second.new ColFragment(new Valley(settings, 1), 0, 4.5, null));
+        Assertions.assertAll(
+                () -> Assertions.assertSame(first, page.firstColumnWithSpace()),
+                () -> Assertions.assertSame(third, page.nextColumnWithSpace(first)),
+                () -> Assertions.assertNull(page.nextColumnWithSpace(third))
+        );
+        first.set(first.new ColFragment(new Valley(settings, 1), 0, 4.5, null));
+        Assertions.assertSame(third, page.firstColumnWithSpace());
+    }
+
+    @Test
+    void hasRoom() {
+        for (Col c : page.getColumns())
+            c.set(c.new ColFragment(new Valley(settings, 1), 0, 4.4, null));
+        Assertions.assertAll(
+                () -> Assertions.assertFalse(page.hasRoom(0)), // no space is taller than an alley
+                () -> Assertions.assertTrue(page.hasRoom(1))
+        );
+        Col extra = page.addExtraColumn();
+        Assertions.assertTrue(page.hasRoom(1));
+        extra.set(extra.new ColFragment(new Valley(settings, 1), 0, 4.5, null));
+        Assertions.assertFalse(page.hasRoom(1)); // the extra column's already been added
+    }
+
     @Test
     void write_empty() throws IOException {
         try (StringWriter sw = new StringWriter();
@@ -22,12 +22,12 @@ class SettingsTest {
             "columnHeight=26.5748031496063, alleyWidth=0.125, alleyHeight=0.125, alleyThickWidth=0.0125, " +
             "alleyThickHeight=0.0125, maxSquashVSpace=0.0, columnStrategy=BALANCE, minSideMargins=0.125, defaultFontEncoding=TU, defaultFontSize=10, defaultFontSizeClo=null, defaultFontFamily=ptm, defaultFontSeries=m, defaultTeletypeFamily=lmtt, defaultTeletypeSeries=lc, tolerance=500, emergencyStretch=\\emergencystretch=0.1\\hsize, " +
             "inputFilters=[.tex, .md, .txt, .text], out=out, " +
-            "jobName=newspaper, lengthsCache=lengths.cache, texinputs=:, latex='pdflatex', latexCmdline=[--interaction=nonstopmode], " +
+            "jobName=newspaper, lengthsCache=lengths.cache, lengthsCacheMaxEntries=100000, measurementServers=0, measurementThreads=0, scratchDir=, estimateTolerance=0.0, replanTolerance=0.25, chunkParagraphs=0, pagesPerRange=0, texinputs=:, latex='pdflatex', latexCmdline=[--interaction=nonstopmode], " +
             "extraPreambleLines=[\\usepackage{indentfirst}, \\usepackage[british]{babel}, \\usepackage[utf8]{inputenc}, \\usepackage{newtxmath,newtxtext}, \\usepackage{csquotes}, \\usepackage[TU]{fontenc}], " +
             "markdown=\\usepackage[smartEllipses,fancyLists]{markdown}, continuedOnPageText=\\makebox[\\textwidth]{\\hfill\\textit{\\scriptsize Continued on page \\otherpage\\dots\\hspace{-1em}}}, continuedFromPageText=\\makebox[\\textwidth]{\\textit{\\scriptsize\\hspace{-1em}\\dots continued from page \\otherpage}\\hfill}, " +
             "logFile=layout.log, stdOutLevel=ELEMENTS, stdErrLevel=SILENT, logFileLevel=ALGORITHM, " +
             "headerFont=\\fontencoding{TU}\\fontfamily{\\rmdefault}\\fontseries{bc}\\fontshape{n}\\fontsize{18}{20}\\selectfont, " +
-            "allowTexFileOverwrite=false, inputWithoutCopy=false, defaultFontFamilyFromHeaders=false, enableLaTeXHooks=false}";
+            "allowTexFileOverwrite=false, inputWithoutCopy=false, defaultFontFamilyFromHeaders=false, enableLaTeXHooks=false, batchMeasurement=false, precompiledPreamble=false, breakProfiles=false, draft=false, pipelinedLayout=false, pageCache=false, bestOfLayout=false}";
 
     private int returnValue = Integer.MIN_VALUE; // not called
 
@@ -64,6 +64,14 @@ class SettingsTest {
         p.put("out", "path2");
         p.put("jobName", "news");
         p.put("lengthsCache", "len.cache");
+        p.put("lengthsCacheMaxEntries", "500");
+        p.put("measurementServers", "2");
+        p.put("measurementThreads", "8");
+        p.put("scratchDir", "/dev/shm");
+        p.put("estimateTolerance", "0.25in");
+        p.put("replanTolerance", "0.5in");
+        p.put("chunkParagraphs", "8");
+        p.put("pagesPerRange", "4");
         p.put("latex", "/path/to/lualatex");
         p.put("latexCmdLine", "--interaction=nonstopmode --jobname=newspaper");
         p.put("preamble!01head", "\\usepackage{babel}");// us english hyphenation
@@ -82,6 +90,13 @@ class SettingsTest {
         p.put("continuedOnPageText", "(Ctd. page \\otherpage)\\hfill");
         p.put("continuedFromPageText", "\\hfill(From page \\otherpage)");
         p.put("enableLaTeXHooks", "truE");
+        p.put("batchMeasurement", "true");
+        p.put("precompiledPreamble", "true");
+        p.put("breakProfiles", "true");
+        p.put("draft", "true");
+        p.put("pipelinedLayout", "true");
+        p.put("pageCache", "true");
+        p.put("bestOfLayout", "true");
         p.put("maxSquashVSpace", "20in");
 
         Settings s = new Settings(p);
@@ -89,12 +104,12 @@ class SettingsTest {
                 "alleyWidth=6.6, alleyHeight=7.7, alleyThickWidth=8.8, alleyThickHeight=9.9, maxSquashVSpace=20.0, columnStrategy=FILLFIRST, minSideMargins=10.1, " +
                 "defaultFontEncoding=T1, defaultFontSize=14, defaultFontSizeClo=sizes, defaultFontFamily=cmr, defaultFontSeries=it, defaultTeletypeFamily=cmr, defaultTeletypeSeries=it, " +
                 "tolerance=1000, emergencyStretch={}, " +
-                "inputFilters=[.mDown, .mUp], out=path2, jobName=news, lengthsCache=len.cache, texinputs=:, latex='/path/to/lualatex', " +
+                "inputFilters=[.mDown, .mUp], out=path2, jobName=news, lengthsCache=len.cache, lengthsCacheMaxEntries=500, measurementServers=2, measurementThreads=8, scratchDir=/dev/shm, estimateTolerance=0.25, replanTolerance=0.5, chunkParagraphs=8, pagesPerRange=4, texinputs=:, latex='/path/to/lualatex', " +
                 "latexCmdline=[--interaction=nonstopmode, --jobname=newspaper], extraPreambleLines=[\\usepackage{indentfirst}, \\usepackage{babel}, \\usepackage[utf8]{inputenc}, \\usepackage{newtxmath,newtxtext}, \\usepackage{csquotes}, \\newlength{mylen}, \\usepackage[T1]{fontenc}], " +
                 "markdown=\\usepackage[smartEllipsis=true]{markdown}, continuedOnPageText=(Ctd. page \\otherpage)\\hfill, continuedFromPageText=\\hfill(From page \\otherpage), " +
                 "logFile=log.txt, stdOutLevel=QUIET, stdErrLevel=DUMP_ALL, logFileLevel=ELEMENTS, " +
                 "headerFont=\\null, " +
-                "allowTexFileOverwrite=true, inputWithoutCopy=true, defaultFontFamilyFromHeaders=true, enableLaTeXHooks=true}", s.toString());
+                "allowTexFileOverwrite=true, inputWithoutCopy=true, defaultFontFamilyFromHeaders=true, enableLaTeXHooks=true, batchMeasurement=true, precompiledPreamble=true, breakProfiles=true, draft=true, pipelinedLayout=true, pageCache=true, bestOfLayout=true}", s.toString());
     }
 
     @ParameterizedTest